@@ -0,0 +1,63 @@
+package io.biblia.workflows.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.biblia.workflows.definition.ActionUtils;
+
+/**
+ * Generation of the unique and long names of actions, from which their
+ * output paths are derived.
+ * @author dearj019
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ActionUtilsBenchmark {
+
+	@Param({"1", "4"})
+	public int parents;
+
+	private LinkedHashMap<String, String> extraInputs;
+	private LinkedHashMap<String, String> configuration;
+	private List<List<String>> parentsLongNames;
+
+	@Setup
+	public void setup() {
+		this.extraInputs = new LinkedHashMap<>();
+		this.extraInputs.put("input", "/workflows/inputs/input1");
+		this.configuration = new LinkedHashMap<>();
+		this.configuration.put("sizeInMB", "100");
+		this.configuration.put("runtimeInMillis", "60000");
+		this.parentsLongNames = new ArrayList<>();
+		for (int i = 0; i < this.parents; ++i) {
+			String uniqueName = ActionUtils.createActionUniqueNameNaturalOrder("operation" + i,
+					this.extraInputs, this.configuration);
+			this.parentsLongNames.add(ActionUtils.createActionLongNameNaturalOrder(uniqueName,
+					new ArrayList<List<String>>()));
+		}
+	}
+
+	@Benchmark
+	public String uniqueName() {
+		return ActionUtils.createActionUniqueNameNaturalOrder("operation", this.extraInputs, this.configuration);
+	}
+
+	@Benchmark
+	public String longNameAndOutputPath() {
+		List<String> longName = ActionUtils.createActionLongNameNaturalOrder("operation", this.parentsLongNames);
+		return ActionUtils.generateOutputPathFromLongName(longName);
+	}
+}
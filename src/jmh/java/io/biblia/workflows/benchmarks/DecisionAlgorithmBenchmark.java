@@ -0,0 +1,59 @@
+package io.biblia.workflows.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+import io.biblia.workflows.manager.decision.DecisionAlgorithm;
+import io.biblia.workflows.manager.decision.DecisionAlgorithms;
+import io.biblia.workflows.manager.decision.SimplifiedWorkflowHistory;
+
+/**
+ * Each decision algorithm asked to free a tenth of the space of all the
+ * stored datasets, with a history of twice as many actions as datasets.
+ * @author dearj019
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecisionAlgorithmBenchmark {
+
+	@Param({DecisionAlgorithms.MOST_COMMONLY_USED, DecisionAlgorithms.ADAPTIVE,
+		DecisionAlgorithms.KNAPSACK, DecisionAlgorithms.GDSF, DecisionAlgorithms.LINEAGE})
+	public String algorithm;
+
+	@Param({"1000", "10000", "100000"})
+	public int datasets;
+
+	private DecisionAlgorithm decisionAlgorithm;
+	private SimplifiedWorkflowHistory history;
+	private List<PersistedDataset> storedDatasets;
+	private long spaceToFree;
+
+	@Setup
+	public void setup() {
+		this.decisionAlgorithm = DecisionAlgorithms.newAlgorithm(this.algorithm);
+		this.history = Workloads.history(this.datasets, 2 * this.datasets);
+		this.storedDatasets = Workloads.storedDatasets(this.datasets);
+		double total = 0;
+		for (PersistedDataset dataset : this.storedDatasets) {
+			total += dataset.getSizeInMB();
+		}
+		this.spaceToFree = (long) (total / 10);
+	}
+
+	@Benchmark
+	public List<String> toDelete() {
+		return this.decisionAlgorithm.toDelete(this.history, this.storedDatasets, this.spaceToFree);
+	}
+}
@@ -0,0 +1,55 @@
+package io.biblia.workflows.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.biblia.workflows.definition.Workflow;
+import io.biblia.workflows.manager.SimpleWorkflowManager;
+import io.biblia.workflows.manager.action.InMemoryActionPersistance;
+import io.biblia.workflows.manager.dataset.InMemoryDatasetPersistance;
+
+/**
+ * Submission of workflows to the SimpleWorkflowManager backed by the
+ * in-memory persistances, so that planning and the batches it persists
+ * are measured without a database.  Actions are never run, so later
+ * submissions of the same workflows only add claims and COMPUTED actions
+ * when the first one inserted their datasets.
+ * @author dearj019
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SimpleWorkflowManagerBenchmark {
+
+	private static final int WORKFLOWS = 64;
+
+	@Param({"2", "8", "32"})
+	public int depth;
+
+	private List<Workflow> workflows;
+	private SimpleWorkflowManager manager;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		this.workflows = Workloads.workflows(WORKFLOWS, this.depth);
+		this.manager = new SimpleWorkflowManager(new InMemoryDatasetPersistance(),
+				new InMemoryActionPersistance());
+	}
+
+	@Benchmark
+	public Long submitWorkflow() {
+		this.next = (this.next + 1) % WORKFLOWS;
+		return this.manager.submitWorkflow(this.workflows.get(this.next));
+	}
+}
@@ -0,0 +1,33 @@
+package io.biblia.workflows.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import io.biblia.workflows.manager.decision.SimplifiedWorkflowHistory;
+
+/**
+ * Building of the SimplifiedWorkflowHistory, where the number of actions
+ * is four times the number of datasets, so that the window wraps around.
+ * @author dearj019
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorkflowHistoryBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int datasets;
+
+	@Benchmark
+	public SimplifiedWorkflowHistory build() {
+		return Workloads.history(this.datasets, 4 * this.datasets);
+	}
+}
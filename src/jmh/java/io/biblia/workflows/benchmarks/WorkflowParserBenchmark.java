@@ -0,0 +1,64 @@
+package io.biblia.workflows.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.definition.Workflow;
+import io.biblia.workflows.definition.parser.v1.WorkflowParser;
+
+/**
+ * Parsing of v1 workflows, and construction of the Workflow, which
+ * validates the DAG and computes the long names of the actions.
+ * @author dearj019
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorkflowParserBenchmark {
+
+	private static final int WORKFLOWS = 64;
+
+	@Param({"2", "8", "32"})
+	public int depth;
+
+	private List<String> jsons;
+	private List<Workflow> workflows;
+	private List<List<Action>> actions;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		this.jsons = Workloads.workflowJsons(WORKFLOWS, this.depth);
+		this.workflows = Workloads.workflows(WORKFLOWS, this.depth);
+		this.actions = new ArrayList<>(WORKFLOWS);
+		for (Workflow workflow : this.workflows) {
+			this.actions.add(new ArrayList<>(workflow.getActions()));
+		}
+	}
+
+	@Benchmark
+	public Workflow parseWorkflow() throws Exception {
+		this.next = (this.next + 1) % WORKFLOWS;
+		return WorkflowParser.getInstance().parseWorkflow(this.jsons.get(this.next));
+	}
+
+	@Benchmark
+	public Workflow constructWorkflow() throws Exception {
+		this.next = (this.next + 1) % WORKFLOWS;
+		Workflow workflow = this.workflows.get(this.next);
+		return new Workflow(workflow.getWorkflowName(), workflow.getStartActionId(),
+				workflow.getEndActionId(), this.actions.get(this.next));
+	}
+}
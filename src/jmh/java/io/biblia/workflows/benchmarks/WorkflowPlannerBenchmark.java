@@ -0,0 +1,68 @@
+package io.biblia.workflows.benchmarks;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.definition.Workflow;
+import io.biblia.workflows.manager.WorkflowPlanner;
+import io.biblia.workflows.manager.dataset.DatasetState;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+
+/**
+ * Planning of workflows with the WorkflowPlanner, when every other
+ * dataset of the workflows is stored.
+ * @author dearj019
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WorkflowPlannerBenchmark {
+
+	private static final int WORKFLOWS = 64;
+
+	@Param({"2", "8", "32"})
+	public int depth;
+
+	private final WorkflowPlanner planner = new WorkflowPlanner();
+	private List<Workflow> workflows;
+	private Map<String, PersistedDataset> datasets;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		this.workflows = Workloads.workflows(WORKFLOWS, this.depth);
+		this.datasets = new HashMap<>();
+		Date now = new Date();
+		boolean stored = false;
+		for (Workflow workflow : this.workflows) {
+			for (Action action : workflow.getActions()) {
+				stored = !stored;
+				if (stored) {
+					this.datasets.put(action.getOutputPath(), new PersistedDataset(action.getOutputPath(),
+							DatasetState.STORED, now, 1, Collections.<String>emptyList()));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public WorkflowPlanner.Plan plan() {
+		this.next = (this.next + 1) % WORKFLOWS;
+		return this.planner.plan(this.workflows.get(this.next), this.datasets, Collections.<Integer>emptySet());
+	}
+}
@@ -0,0 +1,87 @@
+package io.biblia.workflows.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import io.biblia.workflows.definition.Workflow;
+import io.biblia.workflows.definition.parser.v1.WorkflowParser;
+import io.biblia.workflows.evaluation.WorkloadGenerator;
+import io.biblia.workflows.manager.dataset.DatasetState;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+import io.biblia.workflows.manager.decision.SimplifiedWorkflowHistory;
+
+/**
+ * Inputs shared by the benchmarks.  They are generated from a fixed
+ * seed, so that runs can be compared.
+ * @author dearj019
+ *
+ */
+final class Workloads {
+
+	static final long SEED = 42;
+
+	private Workloads() {
+
+	}
+
+	/**
+	 * Returns the JSON of the given number of workflows, with suffixes of
+	 * the given depth.
+	 */
+	static List<String> workflowJsons(int workflows, int depth) {
+		WorkloadGenerator generator = new WorkloadGenerator(SEED).shape(depth, 4, 2);
+		List<String> toReturn = new ArrayList<>(workflows);
+		for (int i = 0; i < workflows; ++i) {
+			toReturn.add(generator.nextWorkflow());
+		}
+		return toReturn;
+	}
+
+	static List<Workflow> workflows(int workflows, int depth) throws Exception {
+		List<Workflow> toReturn = new ArrayList<>(workflows);
+		for (String json : workflowJsons(workflows, depth)) {
+			toReturn.add(WorkflowParser.getInstance().parseWorkflow(json));
+		}
+		return toReturn;
+	}
+
+	static String path(int dataset) {
+		return "/workflows/dataset" + dataset;
+	}
+
+	/**
+	 * Fills the history with actions over the given number of datasets.
+	 * Each dataset has up to two parents among the datasets before it,
+	 * and appears a Zipf-like number of times.
+	 */
+	static SimplifiedWorkflowHistory history(int datasets, int actions) {
+		Random random = new Random(SEED);
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(actions);
+		long time = 0;
+		for (int i = 0; i < actions; ++i) {
+			int dataset = (i < datasets) ? i : (int) (datasets * Math.pow(random.nextDouble(), 3));
+			List<String> parents = new ArrayList<>(2);
+			for (int p = 0; p < 2 && dataset > p; ++p) {
+				parents.add(path(Math.max(0, dataset - 1 - random.nextInt(Math.min(dataset, 16)))));
+			}
+			long runtime = 1000 + random.nextInt(60000);
+			history.addAction(path(dataset), parents, (long) (i / 8),
+					(double) (1 + random.nextInt(1000)), new Date(time), new Date(time + runtime));
+			time += 1000;
+		}
+		return history;
+	}
+
+	static List<PersistedDataset> storedDatasets(int datasets) {
+		Random random = new Random(SEED + 1);
+		Date now = new Date();
+		List<PersistedDataset> toReturn = new ArrayList<>(datasets);
+		for (int i = 0; i < datasets; ++i) {
+			toReturn.add(new PersistedDataset(path(i), (double) (1 + random.nextInt(1000)),
+					DatasetState.STORED, now, 1, new ArrayList<String>()));
+		}
+		return toReturn;
+	}
+}
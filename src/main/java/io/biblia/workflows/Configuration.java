@@ -49,4 +49,24 @@ public class Configuration {
 	public static String getValue(String prop, String defaultValue) {
 		return configuration.getProperty(prop, defaultValue);
 	}
+	
+	/**
+	 * Returns the value for the property as an int. Returns the passed
+	 * defaultValue if not found or if it is not a valid integer.
+	 * @param prop
+	 * @param defaultValue
+	 * @return
+	 */
+	public static int getIntValue(String prop, int defaultValue) {
+		String value = configuration.getProperty(prop);
+		if (null == value) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
 }
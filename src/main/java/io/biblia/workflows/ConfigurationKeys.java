@@ -4,6 +4,8 @@ public interface ConfigurationKeys {
 
 	String DECISIONMANAGER_USAGERATIO = "decisionmanager.usageratio";
 	String DECISIONMANAGER_CAPACITYLIMIT = "decisionmanager.capacitylimit";
+	String DECISIONMANAGER_HISTORYSIZE = "decisionmanager.historysize";
+	String DECISIONMANAGER_ALGORITHM = "decisionmanager.algorithm";
 	String MAX_FOLDER_SIZE_KEY = "workflows.definition.maxFolderSize";
 	String MONGODB_HOST = "mongodb.host";
 	String MONGODB_PORT = "mongodb.port";
@@ -12,4 +14,158 @@ public interface ConfigurationKeys {
 	String MANAGED_FOLDER = "managedFolder";
 	String OOZIE_URL = "oozie.base.url";
 	
+	/**
+	 * Milliseconds after which a FINISHED or COMPUTED action is
+	 * expected to be visible to the rolling window of the decision
+	 * manager.  More recent actions are read again on the next read.
+	 */
+	String DECISIONMANAGER_WINDOW_SETTLE_MILLIS = "decisionmanager.window.settle.millis";
+	
+	/**
+	 * Hdfs folder where the shared Oozie workflow definitions are
+	 * stored, each one in a folder named after the hash of its content.
+	 */
+	String OOZIE_APPS_FOLDER = "oozie.apps.folder";
+	
+	/**
+	 * Either "polling" (default) or "push".  In push mode the action
+	 * scraper is woken up as soon as an action becomes READY, and
+	 * polling is only used as a fallback.
+	 */
+	String ACTIONSCRAPER_DISPATCHMODE = "actionscraper.dispatchmode";
+	
+	/**
+	 * Id of this server. Defaults to pid@hostname.
+	 */
+	String SERVER_ID = "server.id";
+	
+	/**
+	 * Seconds that a claim over an action or a dataset is valid
+	 * before other servers can take it over.
+	 */
+	String LEASE_SECONDS = "manager.lease.seconds";
+	
+	/**
+	 * Seconds between two runs of the lease reaper.
+	 */
+	String LEASE_REAPER_SECONDS = "manager.leasereaper.seconds";
+	
+	/**
+	 * Maximum number of claimed actions waiting to be submitted.
+	 */
+	String ACTIONMANAGER_QUEUECAPACITY = "actionmanager.queuecapacity";
+	
+	/**
+	 * Number of actions that can be submitted concurrently.
+	 */
+	String ACTIONMANAGER_SUBMITTERS = "actionmanager.submitters";
+	
+	/**
+	 * Maximum number of actions submitted together in a single Oozie
+	 * workflow.  A ready action is submitted along with the waiting
+	 * actions that only depend on it or on each other.  The default, 1,
+	 * submits every action in its own workflow.
+	 */
+	String ACTIONMANAGER_MAXDAGSIZE = "actionmanager.maxdagsize";
+	
+	/**
+	 * Either "platform" (default) or "virtual".  In virtual mode each
+	 * action submission, dataset deletion and callback runs on its own
+	 * virtual thread, when the Java runtime supports them.
+	 */
+	String EXECUTOR_MODE = "executor.mode";
+	
+	/**
+	 * Maximum number of concurrent calls to each external system.
+	 */
+	String EXECUTOR_LIMIT_OOZIE = "executor.limit.oozie";
+	String EXECUTOR_LIMIT_HDFS = "executor.limit.hdfs";
+	String EXECUTOR_LIMIT_MONGODB = "executor.limit.mongodb";
+	
+	/**
+	 * Number of connections to MongoDB kept in the pool.
+	 */
+	String MONGODB_CONNECTIONS = "mongodb.connections";
+	
+	/**
+	 * Port where the listener of Oozie job notifications listens.
+	 * If it is not set, the listener is not started and the
+	 * completion of actions is found by polling Oozie.
+	 */
+	String CALLBACK_LISTENER_PORT = "callback.listener.port";
+	
+	/**
+	 * URL of the listener as seen from Oozie. Defaults to
+	 * http://[hostname]:[port]/callback
+	 */
+	String CALLBACK_NOTIFICATION_URL = "callback.notification.url";
+	
+	/**
+	 * Seconds between two polls of the status of submitted actions.
+	 */
+	String CALLBACK_POLLING_SECONDS = "callback.polling.seconds";
+	
+	/**
+	 * Number of buffered dataset log entries that triggers a write
+	 * to the database.
+	 */
+	String DATASETLOG_BATCHSIZE = "datasetlog.batchsize";
+	
+	/**
+	 * Milliseconds between two writes of the buffered dataset log
+	 * entries.
+	 */
+	String DATASETLOG_FLUSH_MILLIS = "datasetlog.flush.millis";
+	
+	/**
+	 * Number of times that a dataset log entry rejected by the
+	 * database is written before it is dropped.
+	 */
+	String DATASETLOG_MAXATTEMPTS = "datasetlog.maxattempts";
+	
+	/**
+	 * Milliseconds after which a dataset log entry is expected to be
+	 * visible to every server.  Entries more recent than that are read
+	 * again on the next read of the log.
+	 */
+	String DATASETLOG_SETTLE_MILLIS = "datasetlog.settle.millis";
+	
+	/**
+	 * Number of threads that measure the size of datasets.
+	 */
+	String DATASETSIZE_THREADS = "datasetsize.threads";
+	
+	/**
+	 * Number of measured dataset sizes kept in the cache.
+	 */
+	String DATASETSIZE_CACHESIZE = "datasetsize.cachesize";
+	
+	/**
+	 * Seconds between two corrections of the dataset sizes that were
+	 * derived from the bytes reported by the jobs.
+	 */
+	String DATASETSIZE_BACKFILL_SECONDS = "datasetsize.backfill.seconds";
+	
+	/**
+	 * MB reserved by the storage ledger for a dataset being computed
+	 * whose size is not known.
+	 */
+	String STORAGELEDGER_DEFAULTRESERVATION = "storageledger.defaultreservation";
+	
+	/**
+	 * Maximum number of datasets claimed and deleted at once.
+	 */
+	String DATASETDELETION_BATCHSIZE = "datasetdeletion.batchsize";
+	
+	/**
+	 * Maximum number of paths deleted per second, to bound the load
+	 * put on the NameNode.
+	 */
+	String DATASETDELETION_OPSPERSECOND = "datasetdeletion.opspersecond";
+	
+	/**
+	 * Number of threads that delete paths concurrently.
+	 */
+	String DATASETDELETION_THREADS = "datasetdeletion.threads";
+	
 }
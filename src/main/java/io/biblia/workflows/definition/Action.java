@@ -247,7 +247,7 @@ public abstract class Action implements ActionAttributesConstants, Configuration
 		
 		toReturn.append(ACTION_ADDITIONAL_INPUT, extraInput);
 		toReturn.append(ACTION_CONFIGURATION_PARAMETERS, configurationParameters);
-		toReturn.append(ACTION_TYPE, type);
+		toReturn.append(ACTION_TYPE, type.name());
 		toReturn.append(ACTION_FORCE_COMPUTATION, this.forceComputation());
 		toReturn.append(ACTION_IS_MANAGED, this.isManaged());
 		return toReturn;
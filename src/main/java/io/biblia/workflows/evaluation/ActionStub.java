@@ -1,10 +1,12 @@
 package io.biblia.workflows.evaluation;
 
+import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.InputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Properties;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -24,24 +26,50 @@ import com.google.common.base.Preconditions;
  * args[1]: path to output file is given in the form of an url.
  * args[2]: size of output file to produce in MBs
  * args[3]: computational time to take in milliseconds. 
+ * 
+ * It also accepts the arguments in the order in which the system
+ * passes them to a command line action: the input paths, followed
+ * by the configuration parameters size in MBs and computational time,
+ * followed by the path to the output file.  This is the layout of the
+ * workflows produced by the {@link WorkloadGenerator}.
+ *
+ * When run by Oozie, the stub reports the number of bytes it wrote in
+ * the property bytesWritten of its captured output.
  * @author dearj019
  *
  */
 public class ActionStub {
 
+	/**
+	 * Property of the captured output with the number of bytes
+	 * written by the action.
+	 */
+	public static final String BYTES_WRITTEN_PROPERTY = "bytesWritten";
+	
+	private static final String OOZIE_ACTION_OUTPUT_PROPERTIES = "oozie.action.output.properties";
+
 	public static void main(String[] args) throws IOException {
 		
-		if (args.length != 4) {
+		if (args.length < 3) {
 			//Passing the wrong number of parameters.
 			System.err.println("ERROR: Not enough number of parameters were passed in args");
 			System.exit(1);
 		}
-		//String inputFilePath = args[0];
-		String outputFilePath = args[1];
+		//When the last argument is not a number, it is the output path
+		//and the size and time come right before it.
+		int n = args.length;
+		boolean outputLast = !isNumber(args[n - 1]);
+		if (!outputLast && n != 4) {
+			System.err.println("ERROR: Wrong number of parameters were passed in args");
+			System.exit(1);
+		}
+		String outputFilePath = outputLast ? args[n - 1] : args[1];
+		String outputSizeArg = outputLast ? args[n - 3] : args[2];
+		String computationTimeArg = outputLast ? args[n - 2] : args[3];
 		
 		int outputSizeMB = 0;
 		try{
-			outputSizeMB = Integer.parseInt(args[2]);
+			outputSizeMB = Integer.parseInt(outputSizeArg);
 		}
 		catch(NumberFormatException ex) {
 			System.err.println("ERROR: Did not contain a valid integer "
@@ -51,7 +79,7 @@ public class ActionStub {
 		
 		long computationTimeMilli = 0;
 		try {
-			computationTimeMilli = Long.parseLong(args[3]);
+			computationTimeMilli = Long.parseLong(computationTimeArg);
 		}
 		catch(NumberFormatException ex) {
 			System.err.println("ERROR: Did not contain a valid long for parameter "
@@ -64,9 +92,20 @@ public class ActionStub {
 		ActionStub stub = new ActionStub();
 		
 		long time = stub.writeDataset(outputFilePath, outputSizeMB);
+		stub.reportBytesWritten(outputSizeMB * 1000000L);
 		stub.compute(computationTimeMilli - Math.min(0, computationTimeMilli - time));
 	}
 	
+	private static boolean isNumber(String arg) {
+		try {
+			Long.parseLong(arg);
+			return true;
+		}
+		catch(NumberFormatException ex) {
+			return false;
+		}
+	}
+	
 	/**
 	 * Writes a file to HDFS with the properties specified by the parameters.
 	 * @param filePath: The complete path to the file to write in the hadoop filesystem
@@ -106,6 +145,24 @@ public class ActionStub {
 		return b - a;
 	}
 	
+	/**
+	 * Writes the number of bytes written to the output properties
+	 * file of the Oozie action, if the stub runs inside Oozie.
+	 * @param bytes
+	 * @throws IOException
+	 */
+	private void reportBytesWritten(long bytes) throws IOException {
+		String outputProperties = System.getProperty(OOZIE_ACTION_OUTPUT_PROPERTIES);
+		if (null == outputProperties) {
+			return;
+		}
+		Properties properties = new Properties();
+		properties.setProperty(BYTES_WRITTEN_PROPERTY, Long.toString(bytes));
+		try (OutputStream out = new FileOutputStream(outputProperties)) {
+			properties.store(out, null);
+		}
+	}
+	
 	/**
 	 * This function will sleep for the amount of time in milliseconds given
 	 * @param milliseconds
@@ -0,0 +1,200 @@
+package io.biblia.workflows.evaluation;
+
+import java.util.Arrays;
+
+/**
+ * Metrics collected by the {@link Simulator} while replaying a trace.
+ * @author dearj019
+ *
+ */
+public class SimulationReport {
+
+	private long workflows = 0;
+	private long computedActions = 0;
+	private long reusedActions = 0;
+	private long skippedActions = 0;
+	private long recomputedActions = 0;
+	private double computedMB = 0;
+	private double recomputedMB = 0;
+	private double computedMillis = 0;
+	private double savedMillis = 0;
+	private long deletedDatasets = 0;
+	private double deletedMB = 0;
+	private double peakUsedMB = 0;
+	private long simulatedMillis = 0;
+
+	private long[] decisionNanos = new long[64];
+	private int decisions = 0;
+
+	void workflowSubmitted() {
+		this.workflows++;
+	}
+
+	void actionComputed(double sizeInMB, long runtimeMillis, boolean recomputed) {
+		this.computedActions++;
+		this.computedMB += sizeInMB;
+		this.computedMillis += runtimeMillis;
+		if (recomputed) {
+			this.recomputedActions++;
+			this.recomputedMB += sizeInMB;
+		}
+	}
+
+	void actionReused(long savedMillis) {
+		this.reusedActions++;
+		this.savedMillis += savedMillis;
+	}
+
+	void actionSkipped(long savedMillis) {
+		this.skippedActions++;
+		this.savedMillis += savedMillis;
+	}
+
+	void datasetDeleted(double sizeInMB) {
+		this.deletedDatasets++;
+		this.deletedMB += sizeInMB;
+	}
+
+	void usedSpace(double usedMB) {
+		this.peakUsedMB = Math.max(this.peakUsedMB, usedMB);
+	}
+
+	void decisionTaken(long nanos) {
+		if (this.decisions == this.decisionNanos.length) {
+			this.decisionNanos = Arrays.copyOf(this.decisionNanos, this.decisions * 2);
+		}
+		this.decisionNanos[this.decisions++] = nanos;
+	}
+
+	void finished(long simulatedMillis) {
+		this.simulatedMillis = simulatedMillis;
+	}
+
+	public long getWorkflows() {
+		return workflows;
+	}
+
+	public long getComputedActions() {
+		return computedActions;
+	}
+
+	public long getReusedActions() {
+		return reusedActions;
+	}
+
+	/**
+	 * Returns the number of actions that were neither computed nor
+	 * reused, because all their children were reused.
+	 * @return
+	 */
+	public long getSkippedActions() {
+		return skippedActions;
+	}
+
+	/**
+	 * Returns the fraction of the actions visited by the planner
+	 * whose output was reused.
+	 * @return
+	 */
+	public double getHitRate() {
+		long visited = this.computedActions + this.reusedActions;
+		return (visited > 0) ? (double) this.reusedActions / visited : 0;
+	}
+
+	/**
+	 * Returns the number of actions computed whose output had
+	 * already been computed before and was deleted since.
+	 * @return
+	 */
+	public long getRecomputedActions() {
+		return recomputedActions;
+	}
+
+	public double getComputedMB() {
+		return computedMB;
+	}
+
+	public double getRecomputedMB() {
+		return recomputedMB;
+	}
+
+	public double getComputeHours() {
+		return this.computedMillis / 3600000.0;
+	}
+
+	/**
+	 * Returns the compute hours of the actions that were reused
+	 * or skipped.
+	 * @return
+	 */
+	public double getSavedComputeHours() {
+		return this.savedMillis / 3600000.0;
+	}
+
+	public long getDeletedDatasets() {
+		return deletedDatasets;
+	}
+
+	public double getDeletedMB() {
+		return deletedMB;
+	}
+
+	public double getPeakUsedMB() {
+		return peakUsedMB;
+	}
+
+	public long getSimulatedMillis() {
+		return simulatedMillis;
+	}
+
+	public int getDecisions() {
+		return decisions;
+	}
+
+	/**
+	 * Returns the given percentile (between 0 and 100) of the time
+	 * taken by the decision algorithm, in milliseconds.
+	 * @param percentile
+	 * @return
+	 */
+	public double getDecisionLatencyMillis(double percentile) {
+		if (0 == this.decisions) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(this.decisionNanos, this.decisions);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * this.decisions) - 1;
+		return sorted[Math.max(0, Math.min(this.decisions - 1, index))] / 1000000.0;
+	}
+
+	public double getMeanDecisionLatencyMillis() {
+		if (0 == this.decisions) {
+			return 0;
+		}
+		double total = 0;
+		for (int i = 0; i < this.decisions; ++i) {
+			total += this.decisionNanos[i];
+		}
+		return total / this.decisions / 1000000.0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("workflows: %d%n", this.workflows));
+		builder.append(String.format("actions computed: %d, reused: %d, skipped: %d%n",
+				this.computedActions, this.reusedActions, this.skippedActions));
+		builder.append(String.format("hit rate: %.4f%n", getHitRate()));
+		builder.append(String.format("computed MB: %.1f, recomputed MB: %.1f (%d actions)%n",
+				this.computedMB, this.recomputedMB, this.recomputedActions));
+		builder.append(String.format("compute hours: %.2f, saved compute hours: %.2f%n",
+				getComputeHours(), getSavedComputeHours()));
+		builder.append(String.format("datasets deleted: %d (%.1f MB), peak used MB: %.1f%n",
+				this.deletedDatasets, this.deletedMB, this.peakUsedMB));
+		builder.append(String.format("decisions: %d, latency ms mean: %.3f, p50: %.3f, p99: %.3f, max: %.3f%n",
+				this.decisions, getMeanDecisionLatencyMillis(), getDecisionLatencyMillis(50),
+				getDecisionLatencyMillis(99), getDecisionLatencyMillis(100)));
+		builder.append(String.format("simulated hours: %.2f", this.simulatedMillis / 3600000.0));
+		return builder.toString();
+	}
+}
@@ -0,0 +1,445 @@
+package io.biblia.workflows.evaluation;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.definition.InvalidWorkflowException;
+import io.biblia.workflows.definition.Workflow;
+import io.biblia.workflows.definition.parser.WorkflowParseException;
+import io.biblia.workflows.definition.parser.v1.WorkflowParser;
+import io.biblia.workflows.manager.WorkflowPlanner;
+import io.biblia.workflows.manager.dataset.DatasetState;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+import io.biblia.workflows.manager.decision.DecisionAlgorithm;
+import io.biblia.workflows.manager.decision.DecisionAlgorithms;
+import io.biblia.workflows.manager.decision.SimplifiedWorkflowHistory;
+
+/**
+ * Replays a trace of workflow submissions against a simulated storage,
+ * without Hadoop, Oozie or MongoDB, to evaluate decision algorithms.
+ *
+ * The trace has one workflow per line, in the v1 JSON format.  Workflows
+ * are submitted every interArrivalMillis of simulated time.  The size
+ * and runtime of each action are read from its configuration parameters
+ * {@link #SIZE_PARAMETER} and {@link #RUNTIME_PARAMETER}, which are
+ * the ones given to the {@link ActionStub}.
+ *
+ * The simulation follows the managers of the system:
+ *
+ * - Workflows are planned with the {@link WorkflowPlanner}, as in the
+ * SimpleWorkflowManager, and the computed actions place claims on the
+ * outputs of their parents.
+ * - Actions run as soon as their computed parents finish, with no limit
+ * of parallelism.  Their outputs are STORED, or LEAF for the leaves of
+ * the workflow.
+ * - As in the DecisionManager, at most once every decisionIntervalMillis,
+ * if the used space is above the usage ratio of the capacity, the
+ * decision algorithm is asked which datasets to delete.  They are
+ * deleted once their claims are released.
+ *
+ * The simulation is deterministic: the same trace and parameters always
+ * give the same report.
+ * @author dearj019
+ *
+ */
+public class Simulator {
+
+	public static final String SIZE_PARAMETER = "sizeInMB";
+
+	public static final String RUNTIME_PARAMETER = "runtimeInMillis";
+
+	private static final double DEFAULT_SIZE_IN_MB = 1;
+
+	private static final long DEFAULT_RUNTIME_IN_MILLIS = 1000;
+
+	private static final Logger logger = Logger.getLogger(Simulator.class.getName());
+
+	private final DecisionAlgorithm decisionAlgorithm;
+	private final double capacityInMB;
+	private final double usageRatio;
+	private final long interArrivalMillis;
+	private final long decisionIntervalMillis;
+
+	private final WorkflowPlanner planner = new WorkflowPlanner();
+	private final SimplifiedWorkflowHistory history;
+	private final SimulationReport report = new SimulationReport();
+
+	private final PriorityQueue<SimulatedAction> running = new PriorityQueue<>();
+	private final Map<String, SimulatedDataset> datasets = new HashMap<>();
+	private final Set<String> produced = new HashSet<>();
+	private double usedInMB = 0;
+	private long now = 0;
+	private long lastDecision = Long.MIN_VALUE;
+	private long nextSequence = 0;
+	private long nextWorkflowId = 1;
+
+	/**
+	 * A dataset of the simulated storage.
+	 */
+	private static class SimulatedDataset {
+
+		private final String path;
+		private DatasetState state;
+		private double sizeInMB = 0;
+		private boolean onDisk = false;
+		private int claims = 0;
+
+		SimulatedDataset(String path, DatasetState state) {
+			this.path = path;
+			this.state = state;
+		}
+	}
+
+	/**
+	 * An action that is computed.  Actions are ordered by the
+	 * time when they finish.
+	 */
+	private static class SimulatedAction implements Comparable<SimulatedAction> {
+
+		private final Action action;
+		private final Long workflowId;
+		private final boolean isLeaf;
+		private final List<String> parentOutputs;
+		private final List<SimulatedAction> children = new ArrayList<>();
+		private int pendingParents = 0;
+		private long startTime;
+		private long endTime;
+		private long sequence;
+
+		SimulatedAction(Action action, Long workflowId, boolean isLeaf, List<String> parentOutputs) {
+			this.action = action;
+			this.workflowId = workflowId;
+			this.isLeaf = isLeaf;
+			this.parentOutputs = parentOutputs;
+		}
+
+		@Override
+		public int compareTo(SimulatedAction other) {
+			int c = Long.compare(this.endTime, other.endTime);
+			return (0 != c) ? c : Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	public Simulator(DecisionAlgorithm decisionAlgorithm, double capacityInMB,
+			double usageRatio, int historySize, long interArrivalMillis,
+			long decisionIntervalMillis) {
+		Preconditions.checkNotNull(decisionAlgorithm);
+		Preconditions.checkArgument(capacityInMB > 0);
+		Preconditions.checkArgument(usageRatio > 0 && usageRatio <= 1);
+		Preconditions.checkArgument(interArrivalMillis >= 0);
+		Preconditions.checkArgument(decisionIntervalMillis >= 0);
+		this.decisionAlgorithm = decisionAlgorithm;
+		this.capacityInMB = capacityInMB;
+		this.usageRatio = usageRatio;
+		this.interArrivalMillis = interArrivalMillis;
+		this.decisionIntervalMillis = decisionIntervalMillis;
+		this.history = new SimplifiedWorkflowHistory(historySize);
+	}
+
+	/**
+	 * Replays all the workflows of the trace and returns the report.
+	 * Lines that cannot be parsed are skipped.
+	 * @param trace
+	 * @return
+	 * @throws IOException
+	 */
+	public SimulationReport replay(Reader trace) throws IOException {
+		BufferedReader reader = new BufferedReader(trace);
+		String line;
+		long lineNumber = 0;
+		while (null != (line = reader.readLine())) {
+			lineNumber++;
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			Workflow workflow;
+			try {
+				workflow = WorkflowParser.getInstance().parseWorkflow(line);
+			}
+			catch (WorkflowParseException | InvalidWorkflowException | RuntimeException e) {
+				logger.log(Level.WARNING, "Skipping workflow at line {0}: {1}", new Object[] {lineNumber, e.toString()});
+				continue;
+			}
+			long submissionTime = (this.nextWorkflowId - 1) * this.interArrivalMillis;
+			runUntil(submissionTime);
+			this.now = Math.max(this.now, submissionTime);
+			submit(workflow);
+		}
+		runUntil(Long.MAX_VALUE);
+		this.report.finished(this.now);
+		return this.report;
+	}
+
+	/**
+	 * Plans the workflow and starts the actions that do not depend on
+	 * other computed actions.
+	 */
+	private void submit(Workflow workflow) {
+		Long workflowId = this.nextWorkflowId++;
+		this.report.workflowSubmitted();
+
+		Map<String, PersistedDataset> reusable = new HashMap<>();
+		for (Action action : workflow.getActions()) {
+			if (action.isManaged() && !action.forceComputation()) {
+				SimulatedDataset dataset = this.datasets.get(action.getOutputPath());
+				if (null != dataset && (DatasetState.STORED.equals(dataset.state)
+						|| DatasetState.LEAF.equals(dataset.state))) {
+					reusable.put(dataset.path, new PersistedDataset(dataset.path, dataset.sizeInMB,
+							dataset.state, new Date(this.now), 1, Collections.<String>emptyList()));
+				}
+			}
+		}
+		WorkflowPlanner.Plan plan = this.planner.plan(workflow, reusable, Collections.<Integer>emptySet());
+
+		//1. Reused and skipped actions.
+		for (Action action : workflow.getActions()) {
+			Integer actionId = action.getActionId();
+			if (plan.getActionsToReuse().contains(actionId)) {
+				this.report.actionReused(getRuntime(action));
+				this.history.addAction(action.getOutputPath(), getParentOutputs(action, workflow),
+						workflowId, null, null, null);
+			}
+			else if (!plan.isToCompute(actionId)) {
+				this.report.actionSkipped(getRuntime(action));
+			}
+		}
+
+		//2. Computed actions get their datasets, and claim the
+		//outputs of their parents.
+		Map<Integer, SimulatedAction> toCompute = new LinkedHashMap<>();
+		for (Integer actionId : plan.getActionsToCompute()) {
+			Action action = workflow.getAction(actionId);
+			List<String> parentOutputs = getParentOutputs(action, workflow);
+			toCompute.put(actionId, new SimulatedAction(action, workflowId,
+					WorkflowPlanner.isLeaf(action, workflow), parentOutputs));
+			SimulatedDataset dataset = this.datasets.get(action.getOutputPath());
+			if (null == dataset) {
+				dataset = new SimulatedDataset(action.getOutputPath(), DatasetState.TO_STORE);
+				this.datasets.put(dataset.path, dataset);
+			}
+			else if (!dataset.onDisk) {
+				dataset.state = DatasetState.TO_STORE;
+			}
+		}
+		for (SimulatedAction sAction : toCompute.values()) {
+			for (String parentOutput : sAction.parentOutputs) {
+				SimulatedDataset parent = this.datasets.get(parentOutput);
+				if (null != parent) {
+					parent.claims++;
+				}
+			}
+			for (Integer parentId : sAction.action.getParentIds()) {
+				SimulatedAction parent = toCompute.get(parentId);
+				if (null != parent) {
+					parent.children.add(sAction);
+					sAction.pendingParents++;
+				}
+			}
+		}
+		for (SimulatedAction sAction : toCompute.values()) {
+			if (0 == sAction.pendingParents) {
+				start(sAction);
+			}
+		}
+	}
+
+	private void start(SimulatedAction sAction) {
+		sAction.startTime = this.now;
+		sAction.endTime = this.now + getRuntime(sAction.action);
+		sAction.sequence = this.nextSequence++;
+		this.running.add(sAction);
+	}
+
+	/**
+	 * Finishes, in order, all the actions that finish before the given
+	 * time, starting their children and taking decisions as needed.
+	 */
+	private void runUntil(long time) {
+		while (!this.running.isEmpty() && this.running.peek().endTime <= time) {
+			SimulatedAction sAction = this.running.poll();
+			this.now = sAction.endTime;
+			finish(sAction);
+			for (SimulatedAction child : sAction.children) {
+				child.pendingParents--;
+				if (0 == child.pendingParents) {
+					start(child);
+				}
+			}
+			decideIfNeeded();
+		}
+	}
+
+	private void finish(SimulatedAction sAction) {
+		Action action = sAction.action;
+		String outputPath = action.getOutputPath();
+		double sizeInMB = getSizeInMB(action);
+		long runtime = sAction.endTime - sAction.startTime;
+
+		this.report.actionComputed(sizeInMB, runtime, !this.produced.add(outputPath));
+
+		//1. Store the output
+		SimulatedDataset dataset = this.datasets.get(outputPath);
+		if (null == dataset) {
+			//It was deleted while being recomputed.
+			dataset = new SimulatedDataset(outputPath, DatasetState.TO_STORE);
+			this.datasets.put(outputPath, dataset);
+		}
+		if (dataset.onDisk) {
+			this.usedInMB -= dataset.sizeInMB;
+		}
+		dataset.sizeInMB = sizeInMB;
+		dataset.onDisk = true;
+		this.usedInMB += sizeInMB;
+		if (DatasetState.TO_STORE.equals(dataset.state)) {
+			dataset.state = sAction.isLeaf ? DatasetState.LEAF : DatasetState.STORED;
+		}
+		this.report.usedSpace(this.usedInMB);
+
+		//2. Release the claims on the parents
+		for (String parentOutput : sAction.parentOutputs) {
+			SimulatedDataset parent = this.datasets.get(parentOutput);
+			if (null != parent && parent.claims > 0) {
+				parent.claims--;
+				if (0 == parent.claims && DatasetState.STORED_TO_DELETE.equals(parent.state)) {
+					delete(parent);
+				}
+			}
+		}
+
+		this.history.addAction(outputPath, sAction.parentOutputs, sAction.workflowId,
+				sizeInMB, new Date(sAction.startTime), new Date(sAction.endTime));
+	}
+
+	/**
+	 * Asks the decision algorithm which datasets to delete if the used
+	 * space is above the usage ratio, and the last decision was taken
+	 * more than decisionIntervalMillis ago.
+	 */
+	private void decideIfNeeded() {
+		double threshold = this.capacityInMB * this.usageRatio;
+		if (this.usedInMB <= threshold) {
+			return;
+		}
+		if (Long.MIN_VALUE != this.lastDecision && this.now - this.lastDecision < this.decisionIntervalMillis) {
+			return;
+		}
+		this.lastDecision = this.now;
+
+		List<PersistedDataset> storedDatasets = new ArrayList<>();
+		for (SimulatedDataset dataset : this.datasets.values()) {
+			if (DatasetState.STORED.equals(dataset.state)) {
+				storedDatasets.add(new PersistedDataset(dataset.path, dataset.sizeInMB,
+						dataset.state, new Date(this.now), 1, Collections.<String>emptyList()));
+			}
+		}
+		long spaceToFree = (long) Math.ceil(this.usedInMB - threshold);
+
+		long start = System.nanoTime();
+		List<String> toDelete = this.decisionAlgorithm.toDelete(this.history, storedDatasets, spaceToFree);
+		this.report.decisionTaken(System.nanoTime() - start);
+
+		for (String path : toDelete) {
+			SimulatedDataset dataset = this.datasets.get(path);
+			if (null != dataset && DatasetState.STORED.equals(dataset.state)) {
+				dataset.state = DatasetState.STORED_TO_DELETE;
+				if (0 == dataset.claims) {
+					delete(dataset);
+				}
+			}
+		}
+	}
+
+	private void delete(SimulatedDataset dataset) {
+		this.usedInMB -= dataset.sizeInMB;
+		this.report.datasetDeleted(dataset.sizeInMB);
+		this.datasets.remove(dataset.path);
+	}
+
+	private List<String> getParentOutputs(Action action, Workflow workflow) {
+		Collection<Action> parents = workflow.getParentActions(action.getActionId());
+		if (null == parents || parents.isEmpty()) {
+			return Collections.<String>emptyList();
+		}
+		List<String> toReturn = new ArrayList<>(parents.size());
+		for (Action parent : parents) {
+			toReturn.add(parent.getOutputPath());
+		}
+		return toReturn;
+	}
+
+	static double getSizeInMB(Action action) {
+		String value = action.getConfiguration().get(SIZE_PARAMETER);
+		try {
+			return (null != value) ? Double.parseDouble(value) : DEFAULT_SIZE_IN_MB;
+		}
+		catch (NumberFormatException e) {
+			return DEFAULT_SIZE_IN_MB;
+		}
+	}
+
+	static long getRuntime(Action action) {
+		String value = action.getConfiguration().get(RUNTIME_PARAMETER);
+		try {
+			return (null != value) ? Long.parseLong(value) : DEFAULT_RUNTIME_IN_MILLIS;
+		}
+		catch (NumberFormatException e) {
+			return DEFAULT_RUNTIME_IN_MILLIS;
+		}
+	}
+
+	/**
+	 * Replays a trace from the command line:
+	 * args[0]: path to the trace file
+	 * args[1]: storage capacity in MB
+	 * args[2]: name of the decision algorithm (see {@link DecisionAlgorithms})
+	 * args[3]: (optional) usage ratio, 0.8 by default
+	 * args[4]: (optional) size of the history, 20000 by default
+	 * args[5]: (optional) milliseconds between submissions, 60000 by default
+	 * args[6]: (optional) milliseconds between decisions, 10000 by default
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: Simulator <trace> <capacityInMB> <algorithm> [usageRatio] "
+					+ "[historySize] [interArrivalMillis] [decisionIntervalMillis]");
+			System.exit(1);
+		}
+		String tracePath = args[0];
+		double capacityInMB = Double.parseDouble(args[1]);
+		DecisionAlgorithm algorithm = DecisionAlgorithms.newAlgorithm(args[2]);
+		double usageRatio = (args.length > 3) ? Double.parseDouble(args[3]) : 0.8;
+		int historySize = (args.length > 4) ? Integer.parseInt(args[4]) : 20000;
+		long interArrivalMillis = (args.length > 5) ? Long.parseLong(args[5]) : 60000;
+		long decisionIntervalMillis = (args.length > 6) ? Long.parseLong(args[6]) : 10000;
+
+		Simulator simulator = new Simulator(algorithm, capacityInMB, usageRatio,
+				historySize, interArrivalMillis, decisionIntervalMillis);
+		long start = System.currentTimeMillis();
+		try (Reader reader = new InputStreamReader(new FileInputStream(tracePath), StandardCharsets.UTF_8)) {
+			SimulationReport report = simulator.replay(reader);
+			System.out.println(report);
+		}
+		System.out.println(String.format("wall clock seconds: %.1f", (System.currentTimeMillis() - start) / 1000.0));
+	}
+}
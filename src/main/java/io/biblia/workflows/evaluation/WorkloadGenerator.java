@@ -0,0 +1,379 @@
+package io.biblia.workflows.evaluation;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bson.Document;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.definition.ActionAttributesConstants;
+import io.biblia.workflows.definition.ActionType;
+
+/**
+ * Generates synthetic workflows in the v1 JSON format, one per line,
+ * to drive the {@link Simulator} and end to end tests of the system.
+ *
+ * Reuse of intermediate datasets comes from two sources:
+ *
+ * - Each workflow starts from one of a fixed set of prefixes, chosen
+ * with a Zipf distribution.  A prefix is a DAG of prefixDepth layers
+ * that is always generated the same way, so all the workflows that
+ * share it produce the same intermediate datasets.
+ * - The actions of the rest of the workflow, of up to depth layers of up
+ * to width actions, use operations and raw inputs that are also chosen
+ * with Zipf distributions, so that popular sub-DAGs appear again by
+ * chance.
+ *
+ * Every operation has a fixed size and runtime, drawn from log-normal
+ * distributions, which are passed to the {@link ActionStub} as the
+ * configuration parameters {@link Simulator#SIZE_PARAMETER} and
+ * {@link Simulator#RUNTIME_PARAMETER}.
+ *
+ * The same seed and parameters always generate the same workflows.
+ * @author dearj019
+ *
+ */
+public class WorkloadGenerator implements ActionAttributesConstants {
+
+	private final long seed;
+	private int prefixes = 100;
+	private double prefixExponent = 1.0;
+	private int prefixDepth = 3;
+	private int depth = 4;
+	private int width = 4;
+	private int maxParents = 2;
+	private int operations = 50;
+	private double operationExponent = 1.0;
+	private int inputs = 20;
+	private double inputExponent = 1.0;
+	private double medianSizeInMB = 100;
+	private double sizeSigma = 1.0;
+	private double medianRuntimeMillis = 60000;
+	private double runtimeSigma = 1.0;
+	private String mainClassName = ActionStub.class.getName();
+	private String actionFolder = "/workflows/actions";
+	private String inputFolder = "/workflows/inputs";
+	private String nameNode = "hdfs://localhost:8020";
+	private String jobTracker = "localhost:8032";
+
+	private Random random;
+	private Zipf prefixZipf;
+	private Zipf operationZipf;
+	private Zipf inputZipf;
+	private int[] sizesInMB;
+	private long[] runtimesMillis;
+	private List<List<Node>> prefixTemplates;
+	private int nextWorkflowId;
+
+	public WorkloadGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * An action of a generated workflow.  Parents are indexes of
+	 * actions in the same workflow.
+	 */
+	private static class Node {
+
+		private final int operation;
+		private final int input;
+		private final int[] parents;
+
+		Node(int operation, int input, int[] parents) {
+			this.operation = operation;
+			this.input = input;
+			this.parents = parents;
+		}
+
+		String getKey() {
+			return this.operation + "/" + this.input + "/" + Arrays.toString(this.parents);
+		}
+	}
+
+	/**
+	 * Samples ranks in [0, n) with probability proportional to
+	 * 1 / (rank + 1)^exponent.
+	 */
+	private static class Zipf {
+
+		private final double[] cumulative;
+
+		Zipf(int n, double exponent) {
+			this.cumulative = new double[n];
+			double total = 0;
+			for (int i = 0; i < n; ++i) {
+				total += 1.0 / Math.pow(i + 1, exponent);
+				this.cumulative[i] = total;
+			}
+			for (int i = 0; i < n; ++i) {
+				this.cumulative[i] /= total;
+			}
+		}
+
+		int sample(Random random) {
+			int index = Arrays.binarySearch(this.cumulative, random.nextDouble());
+			index = (index >= 0) ? index : -index - 1;
+			return Math.min(index, this.cumulative.length - 1);
+		}
+	}
+
+	public WorkloadGenerator prefixes(int prefixes, double exponent, int depth) {
+		Preconditions.checkArgument(prefixes >= 0, "The number of prefixes cannot be negative");
+		Preconditions.checkArgument(depth > 0, "The depth of the prefixes must be positive");
+		this.prefixes = prefixes;
+		this.prefixExponent = exponent;
+		this.prefixDepth = depth;
+		return this;
+	}
+
+	public WorkloadGenerator shape(int depth, int width, int maxParents) {
+		Preconditions.checkArgument(depth >= 0, "The depth cannot be negative");
+		Preconditions.checkArgument(width > 0, "The width must be positive");
+		Preconditions.checkArgument(maxParents > 0, "The maximum number of parents must be positive");
+		this.depth = depth;
+		this.width = width;
+		this.maxParents = maxParents;
+		return this;
+	}
+
+	public WorkloadGenerator operations(int operations, double exponent) {
+		Preconditions.checkArgument(operations > 0, "The number of operations must be positive");
+		this.operations = operations;
+		this.operationExponent = exponent;
+		return this;
+	}
+
+	public WorkloadGenerator inputs(int inputs, double exponent) {
+		Preconditions.checkArgument(inputs > 0, "The number of inputs must be positive");
+		this.inputs = inputs;
+		this.inputExponent = exponent;
+		return this;
+	}
+
+	public WorkloadGenerator sizes(double medianSizeInMB, double sigma) {
+		Preconditions.checkArgument(medianSizeInMB > 0, "The median size must be positive");
+		Preconditions.checkArgument(sigma >= 0, "The sigma cannot be negative");
+		this.medianSizeInMB = medianSizeInMB;
+		this.sizeSigma = sigma;
+		return this;
+	}
+
+	public WorkloadGenerator runtimes(double medianRuntimeMillis, double sigma) {
+		Preconditions.checkArgument(medianRuntimeMillis > 0, "The median runtime must be positive");
+		Preconditions.checkArgument(sigma >= 0, "The sigma cannot be negative");
+		this.medianRuntimeMillis = medianRuntimeMillis;
+		this.runtimeSigma = sigma;
+		return this;
+	}
+
+	public WorkloadGenerator cluster(String nameNode, String jobTracker, String actionFolder,
+			String inputFolder, String mainClassName) {
+		this.nameNode = Preconditions.checkNotNull(nameNode);
+		this.jobTracker = Preconditions.checkNotNull(jobTracker);
+		this.actionFolder = Preconditions.checkNotNull(actionFolder);
+		this.inputFolder = Preconditions.checkNotNull(inputFolder);
+		this.mainClassName = Preconditions.checkNotNull(mainClassName);
+		return this;
+	}
+
+	/**
+	 * Writes the given number of workflows, one per line.
+	 * @param workflows
+	 * @param writer
+	 * @throws IOException
+	 */
+	public void generate(int workflows, Writer writer) throws IOException {
+		for (int i = 0; i < workflows; ++i) {
+			writer.write(nextWorkflow());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Returns the JSON of the next workflow.
+	 * @return
+	 */
+	public String nextWorkflow() {
+		Preconditions.checkState(this.prefixes > 0 || this.depth > 0, "The workflows would be empty");
+		if (null == this.random) {
+			initialize();
+		}
+		int workflowId = ++this.nextWorkflowId;
+		List<Node> nodes = new ArrayList<>();
+		Set<String> keys = new HashSet<>();
+		List<Integer> last = new ArrayList<>();
+		if (this.prefixes > 0) {
+			List<Node> prefix = this.prefixTemplates.get(this.prefixZipf.sample(this.random));
+			for (Node node : prefix) {
+				keys.add(node.getKey());
+				nodes.add(node);
+			}
+			last = lastLayer(prefix);
+		}
+		addLayers(this.random, nodes, keys, last, this.depth);
+		return toJson("workflow-" + workflowId, nodes);
+	}
+
+	private void initialize() {
+		this.random = new Random(this.seed);
+		this.prefixZipf = new Zipf(Math.max(this.prefixes, 1), this.prefixExponent);
+		this.operationZipf = new Zipf(this.operations, this.operationExponent);
+		this.inputZipf = new Zipf(this.inputs, this.inputExponent);
+
+		this.sizesInMB = new int[this.operations];
+		this.runtimesMillis = new long[this.operations];
+		for (int i = 0; i < this.operations; ++i) {
+			double size = this.medianSizeInMB * Math.exp(this.sizeSigma * this.random.nextGaussian());
+			double runtime = this.medianRuntimeMillis * Math.exp(this.runtimeSigma * this.random.nextGaussian());
+			this.sizesInMB[i] = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(size)));
+			this.runtimesMillis[i] = Math.max(1, Math.round(runtime));
+		}
+
+		//Each prefix has its own random generator, so that it does
+		//not depend on the number of prefixes.
+		this.prefixTemplates = new ArrayList<>(this.prefixes);
+		for (int i = 0; i < this.prefixes; ++i) {
+			Random prefixRandom = new Random(this.seed * 31 + i);
+			List<Node> prefix = new ArrayList<>();
+			addLayers(prefixRandom, prefix, new HashSet<String>(), new ArrayList<Integer>(), this.prefixDepth);
+			this.prefixTemplates.add(prefix);
+		}
+	}
+
+	/**
+	 * Adds up to depth layers of actions below the previous layer.  The
+	 * actions of the first layer read raw inputs when there is no
+	 * previous layer.  Actions that are already in the workflow are not
+	 * added again.
+	 */
+	private void addLayers(Random random, List<Node> nodes, Set<String> keys, List<Integer> previous, int depth) {
+		for (int layer = 0; layer < depth; ++layer) {
+			List<Integer> current = new ArrayList<>();
+			int layerWidth = 1 + random.nextInt(this.width);
+			for (int i = 0; i < layerWidth; ++i) {
+				int operation = this.operationZipf.sample(random);
+				Node node;
+				if (previous.isEmpty()) {
+					node = new Node(operation, this.inputZipf.sample(random), new int[0]);
+				}
+				else {
+					node = new Node(operation, -1, pickParents(random, previous));
+				}
+				if (keys.add(node.getKey())) {
+					current.add(nodes.size());
+					nodes.add(node);
+				}
+			}
+			if (current.isEmpty()) {
+				return;
+			}
+			previous = current;
+		}
+	}
+
+	private int[] pickParents(Random random, List<Integer> previous) {
+		int n = 1 + random.nextInt(Math.min(this.maxParents, previous.size()));
+		List<Integer> candidates = new ArrayList<>(previous);
+		int[] parents = new int[n];
+		for (int i = 0; i < n; ++i) {
+			parents[i] = candidates.remove(random.nextInt(candidates.size()));
+		}
+		Arrays.sort(parents);
+		return parents;
+	}
+
+	/**
+	 * Returns the indexes of the nodes of the last layer, which are the
+	 * ones with the greatest depth.
+	 */
+	private static List<Integer> lastLayer(List<Node> nodes) {
+		int[] depths = new int[nodes.size()];
+		int maxDepth = 0;
+		for (int i = 0; i < nodes.size(); ++i) {
+			for (int parent : nodes.get(i).parents) {
+				depths[i] = Math.max(depths[i], depths[parent] + 1);
+			}
+			maxDepth = Math.max(maxDepth, depths[i]);
+		}
+		List<Integer> toReturn = new ArrayList<>();
+		for (int i = 0; i < nodes.size(); ++i) {
+			if (depths[i] == maxDepth) {
+				toReturn.add(i);
+			}
+		}
+		return toReturn;
+	}
+
+	private String toJson(String name, List<Node> nodes) {
+		List<Document> actions = new ArrayList<>(nodes.size());
+		for (int i = 0; i < nodes.size(); ++i) {
+			Node node = nodes.get(i);
+			Document action = new Document("type", ActionType.COMMAND_LINE.name())
+					.append(ACTION_ID, i + 1)
+					.append(ACTION_NAME, "operation" + node.operation)
+					.append(COMMANDLINE_MAIN_CLASS_NAME, this.mainClassName)
+					.append(COMMANDLINE_NAME_NODE, this.nameNode)
+					.append(COMMANDLINE_JOB_TRACKER, this.jobTracker)
+					.append(ACTION_FOLDER, this.actionFolder);
+			List<Integer> parentIds = new ArrayList<>(node.parents.length);
+			for (int parent : node.parents) {
+				parentIds.add(parent + 1);
+			}
+			action.append(ACTION_PARENT_ACTIONS, parentIds);
+			if (node.input >= 0) {
+				action.append(ACTION_ADDITIONAL_INPUT, Arrays.asList(
+						new Document("key", "input").append("value", this.inputFolder + "/input" + node.input)));
+			}
+			action.append(ACTION_CONFIGURATION_PARAMETERS, Arrays.asList(
+					new Document("key", Simulator.SIZE_PARAMETER)
+						.append("value", Integer.toString(this.sizesInMB[node.operation])),
+					new Document("key", Simulator.RUNTIME_PARAMETER)
+						.append("value", Long.toString(this.runtimesMillis[node.operation]))));
+			actions.add(action);
+		}
+		Document workflow = new Document("name", name)
+				.append("version", "1.0")
+				.append("startActionId", 1)
+				.append("endActionId", nodes.size())
+				.append("actions", actions);
+		return workflow.toJson();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: WorkloadGenerator <output> <workflows> [seed] [prefixes] "
+					+ "[depth] [width] [operations]");
+			System.exit(1);
+		}
+		String outputPath = args[0];
+		int workflows = Integer.parseInt(args[1]);
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+		WorkloadGenerator generator = new WorkloadGenerator(seed);
+		if (args.length > 3) {
+			generator.prefixes(Integer.parseInt(args[3]), generator.prefixExponent, generator.prefixDepth);
+		}
+		if (args.length > 4) {
+			int width = (args.length > 5) ? Integer.parseInt(args[5]) : generator.width;
+			generator.shape(Integer.parseInt(args[4]), width, generator.maxParents);
+		}
+		if (args.length > 6) {
+			generator.operations(Integer.parseInt(args[6]), generator.operationExponent);
+		}
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(outputPath), StandardCharsets.UTF_8))) {
+			generator.generate(workflows, writer);
+		}
+	}
+}
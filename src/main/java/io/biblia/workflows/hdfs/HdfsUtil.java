@@ -3,6 +3,7 @@ package io.biblia.workflows.hdfs;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.InputStream;
@@ -12,6 +13,7 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
@@ -25,6 +27,8 @@ import java.net.MalformedURLException;
 import com.google.common.base.Preconditions;
 
 import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.utils.ConcurrencyLimiter;
+import io.biblia.workflows.utils.ConcurrencyLimiter.ExternalSystem;
 
 public class HdfsUtil implements ConfigurationKeys {
 
@@ -65,24 +69,81 @@ public class HdfsUtil implements ConfigurationKeys {
 	 */
 	public static void deletePath(String path) throws IOException {
 		Preconditions.checkNotNull(path);
-		fs.delete(new Path(path), true);
+		ConcurrencyLimiter.acquire(ExternalSystem.HDFS);
+		try {
+			fs.delete(new Path(path), true);
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.HDFS);
+		}
 	}
 	
+	/**
+	 * Returns true if the path exists.
+	 * @param path The path does not include the base url of the namenode.
+	 */
+	public static boolean exists(String path) throws IOException {
+		Preconditions.checkNotNull(path);
+		ConcurrencyLimiter.acquire(ExternalSystem.HDFS);
+		try {
+			return fs.exists(new Path(path));
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.HDFS);
+		}
+	}
+
 	public static void writeStringToFile(String text, String folderPath, String fileName) throws IllegalArgumentException, IOException {
 
 		// 2. Create outputStream with correct path
 		String workflowPath = combinePath(folderPath, fileName);
 		Path file = new Path(workflowPath);
-		if (fs.exists(file)) {
-			fs.delete(file, true);
+		ConcurrencyLimiter.acquire(ExternalSystem.HDFS);
+		try {
+			if (fs.exists(file)) {
+				fs.delete(file, true);
+			}
+			OutputStream out = fs.create(file);
+			BufferedWriter br = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			br.write(text);
+			br.close();
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.HDFS);
 		}
-		OutputStream out = fs.create(file);
-		BufferedWriter br = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
-		br.write(text);
-		br.close();
 		
 	}
 	
+	/**
+	 * Writes the file only if it does not exist yet.  The text is
+	 * written to a temporary file first and then renamed, so that the
+	 * file is never seen half written, even when several servers write
+	 * it at the same time.
+	 * @return true if the file was written, false if it already existed.
+	 */
+	public static boolean writeStringToFileIfAbsent(String text, String folderPath, String fileName) throws IllegalArgumentException, IOException {
+		Path file = new Path(combinePath(folderPath, fileName));
+		Path temporary = new Path(combinePath(folderPath, fileName + "." + UUID.randomUUID() + ".tmp"));
+		ConcurrencyLimiter.acquire(ExternalSystem.HDFS);
+		try {
+			if (fs.exists(file)) {
+				return false;
+			}
+			OutputStream out = fs.create(temporary);
+			BufferedWriter br = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			br.write(text);
+			br.close();
+			if (!fs.rename(temporary, file)) {
+				fs.delete(temporary, false);
+				return false;
+			}
+			return true;
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.HDFS);
+		}
+	}
+	
 	/**
 	 * 
 	 * Combines the hdfs paths into one.
@@ -129,17 +190,61 @@ public class HdfsUtil implements ConfigurationKeys {
 		//recursively. I don't want it recursivel
 		Preconditions.checkNotNull(filename);
 		Path filenamePath = new Path(filename);
-		if (fs.exists(filenamePath)) {
-			long bytes = fs.getContentSummary(filenamePath).getSpaceConsumed();
-			
-			return Long.valueOf(bytes);
+		ConcurrencyLimiter.acquire(ExternalSystem.HDFS);
+		try {
+			if (fs.exists(filenamePath)) {
+				long bytes = fs.getContentSummary(filenamePath).getSpaceConsumed();
+				
+				return Long.valueOf(bytes);
+			}
+			else {
+				return null;
+			}
 		}
-		else {
-			return null;
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.HDFS);
 		}
 		
 	}
 	
+	/**
+	 * Returns the modification time of the path, or null if the
+	 * path does not exist.  Unlike {@link #getSizeInBytes(String)},
+	 * it is a single call to the NameNode.
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static Long getModificationTime(String filename) throws IOException {
+		Preconditions.checkNotNull(filename);
+		Path filenamePath = new Path(filename);
+		ConcurrencyLimiter.acquire(ExternalSystem.HDFS);
+		try {
+			return Long.valueOf(fs.getFileStatus(filenamePath).getModificationTime());
+		}
+		catch(FileNotFoundException ex) {
+			return null;
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.HDFS);
+		}
+	}
+	
+	/**
+	 * Returns the space in MB that the given number of bytes written
+	 * to the path take, factoring in the default replication of the
+	 * path, as {@link #getSizeInMB(String)} does.  It does not call
+	 * the NameNode.
+	 * @param filename
+	 * @param bytes
+	 * @return
+	 */
+	public static Double getSpaceConsumedInMB(String filename, long bytes) {
+		Preconditions.checkNotNull(filename);
+		short replication = fs.getDefaultReplication(new Path(filename));
+		return Double.valueOf(bytes * replication / 1000000.0);
+	}
+	
 	public static Long getFileSystemCapacityInMB() throws IOException {
 		FsStatus status = fs.getStatus();
 		long capacity = status.getCapacity();
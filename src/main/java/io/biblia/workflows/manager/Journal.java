@@ -0,0 +1,149 @@
+package io.biblia.workflows.manager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.BSONException;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Write-ahead journal of the in-memory persistances.  Records are
+ * appended as one JSON document per line, before the change they
+ * describe is applied in memory, so that the state can be rebuilt by
+ * replaying them after a restart.
+ *
+ * Each append is flushed to the operating system.  If sync is true, it is
+ * also forced to the disk, which survives a crash of the machine and not
+ * only of the process, at the cost of one fsync per append.
+ *
+ * A last line that was written only partially when the process died is
+ * ignored when the journal is read.  {@link #rewrite(Collection)} replaces
+ * the content of the journal atomically, and it is used to compact it.
+ * @author dearj019
+ *
+ */
+public class Journal implements Closeable {
+
+	private final File file;
+	private final boolean sync;
+	private FileOutputStream out;
+	private Writer writer;
+
+	private static final Logger logger = Logger.getLogger(Journal.class.getName());
+
+	public Journal(File file, boolean sync) throws IOException {
+		Preconditions.checkNotNull(file);
+		this.file = file;
+		this.sync = sync;
+		open();
+	}
+
+	private void open() throws IOException {
+		this.out = new FileOutputStream(this.file, true);
+		this.writer = new BufferedWriter(new OutputStreamWriter(this.out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads all the records of the journal, in the order in which they
+	 * were appended.
+	 * @return
+	 * @throws IOException if a record other than the last one cannot
+	 * be parsed.
+	 */
+	public synchronized List<Document> read() throws IOException {
+		List<Document> toReturn = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(this.file), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			int lineNumber = 0;
+			while (null != line) {
+				lineNumber++;
+				String next = reader.readLine();
+				if (!line.isEmpty()) {
+					try {
+						toReturn.add(Document.parse(line));
+					}
+					//A line cut short may fail as a syntax error or as a
+					//document that ends too early.
+					catch(JsonParseException | BSONException ex) {
+						if (null != next) {
+							throw new IOException("Could not parse line " + lineNumber + " of journal " + this.file, ex);
+						}
+						logger.log(Level.WARNING, "Ignoring incomplete last record of journal {0}", this.file);
+					}
+				}
+				line = next;
+			}
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Appends the record to the journal.
+	 * @param record
+	 * @throws UncheckedIOException if the record could not be written,
+	 * in which case the change must not be applied.
+	 */
+	public synchronized void append(Document record) {
+		try {
+			this.writer.write(record.toJson());
+			this.writer.write('\n');
+			this.writer.flush();
+			if (this.sync) {
+				this.out.getChannel().force(false);
+			}
+		}
+		catch(IOException ex) {
+			throw new UncheckedIOException("Could not append to journal " + this.file, ex);
+		}
+	}
+
+	/**
+	 * Replaces all the records of the journal by the given ones.  The new
+	 * records are written to a temporary file that is moved over the
+	 * journal, so that a crash leaves either the old or the new journal.
+	 * @param records
+	 * @throws IOException
+	 */
+	public synchronized void rewrite(Collection<Document> records) throws IOException {
+		File tmp = new File(this.file.getPath() + ".tmp");
+		try (FileOutputStream tmpOut = new FileOutputStream(tmp)) {
+			Writer tmpWriter = new BufferedWriter(new OutputStreamWriter(tmpOut, StandardCharsets.UTF_8));
+			for (Document record : records) {
+				tmpWriter.write(record.toJson());
+				tmpWriter.write('\n');
+			}
+			tmpWriter.flush();
+			tmpOut.getChannel().force(false);
+		}
+		this.writer.close();
+		Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		open();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.writer.close();
+	}
+}
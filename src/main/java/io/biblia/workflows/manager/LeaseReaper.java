@@ -0,0 +1,135 @@
+package io.biblia.workflows.manager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.manager.action.ActionPersistance;
+import io.biblia.workflows.manager.dataset.DatasetPersistance;
+
+/**
+ * Singleton instance that runs on its own thread and periodically
+ * requeues the actions and datasets whose lease has expired.  A lease
+ * expires when the server that claimed an action or a dataset died, or
+ * hung, before finishing processing it.
+ *
+ * Expired actions are moved back to READY and expired datasets are
+ * moved back to TO_DELETE, so that the scrapers of any live server can
+ * claim them again.  Rows whose lease has not expired are never touched,
+ * so work in flight on live servers is not submitted twice.
+ * @author dearj019
+ *
+ */
+public class LeaseReaper implements ConfigurationKeys {
+
+	private static LeaseReaper instance = null;
+
+	private static Thread t;
+
+	private static final long DEFAULT_REAPER_SECONDS = 60;
+
+	private static final AtomicLong reclaimedActions = new AtomicLong();
+
+	private static final AtomicLong reclaimedDatasets = new AtomicLong();
+
+	private final ActionPersistance actionDao;
+
+	private final DatasetPersistance datasetDao;
+
+	private final long reaperMillis;
+
+	private static final Logger logger = Logger.getLogger(LeaseReaper.class.getName());
+
+	private class LeaseReaperRunner implements Runnable {
+
+		@Override
+		public void run() {
+
+			logger.info("Started LeaseReaper");
+			while (!Thread.currentThread().isInterrupted()) {
+
+				try {
+					long actions = actionDao.requeueExpiredActions();
+					if (actions > 0) {
+						reclaimedActions.addAndGet(actions);
+						logger.log(Level.WARNING, "Requeued {0} actions with expired lease", actions);
+					}
+				}
+				catch(Exception e) {
+					logger.log(Level.SEVERE, "Could not requeue actions with expired lease", e);
+				}
+
+				try {
+					long datasets = datasetDao.requeueExpiredDatasets();
+					if (datasets > 0) {
+						reclaimedDatasets.addAndGet(datasets);
+						logger.log(Level.WARNING, "Requeued {0} datasets with expired lease", datasets);
+					}
+				}
+				catch(Exception e) {
+					logger.log(Level.SEVERE, "Could not requeue datasets with expired lease", e);
+				}
+
+				try {
+					Thread.sleep(reaperMillis);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private LeaseReaper(ActionPersistance actionDao, DatasetPersistance datasetDao) {
+		Preconditions.checkNotNull(actionDao);
+		Preconditions.checkNotNull(datasetDao);
+		this.actionDao = actionDao;
+		this.datasetDao = datasetDao;
+		long seconds;
+		try {
+			seconds = Long.parseLong(Configuration.getValue(LEASE_REAPER_SECONDS,
+					Long.toString(DEFAULT_REAPER_SECONDS)));
+		}
+		catch(NumberFormatException e) {
+			seconds = DEFAULT_REAPER_SECONDS;
+		}
+		this.reaperMillis = seconds * 1000;
+		t = new Thread(new LeaseReaperRunner(), "Lease Reaper Thread");
+		t.start();
+	}
+
+	/**
+	 * Returns the number of actions requeued by this server
+	 * since it started.
+	 * @return
+	 */
+	public static long getReclaimedActions() {
+		return reclaimedActions.get();
+	}
+
+	/**
+	 * Returns the number of datasets requeued by this server
+	 * since it started.
+	 * @return
+	 */
+	public static long getReclaimedDatasets() {
+		return reclaimedDatasets.get();
+	}
+
+	public static void start(ActionPersistance actionDao, DatasetPersistance datasetDao) {
+		if (null == instance) {
+			instance = new LeaseReaper(actionDao, datasetDao);
+		}
+	}
+
+	public static void stop() {
+		logger.info("Stopping LeaseReaper...");
+		if (null != t) {
+			t.interrupt();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package io.biblia.workflows.manager;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.google.common.base.Preconditions;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+
+import io.biblia.workflows.manager.action.ActionState;
+import io.biblia.workflows.manager.dataset.DatasetState;
+
+/**
+ * Declares the indexes that the queries of the persistence classes
+ * need, and creates them on startup if they do not exist yet.  After
+ * that it runs an explain of each of the queries that are run on every
+ * scrape, and logs a warning for each of them that would still need a
+ * collection scan.
+ *
+ * The counters collection is only accessed by _id, which is always
+ * indexed.
+ * @author dearj019
+ *
+ */
+public class MongoIndexBootstrapper implements DatabaseConstants {
+
+	private final MongoDatabase workflows;
+
+	private static final Logger logger = Logger.getLogger(MongoIndexBootstrapper.class.getName());
+
+	/**
+	 * An index of a collection.
+	 */
+	private static class IndexDefinition {
+
+		private final String collection;
+		private final Document keys;
+		private final IndexOptions options;
+
+		IndexDefinition(String collection, Document keys, IndexOptions options) {
+			this.collection = collection;
+			this.keys = keys;
+			this.options = options;
+		}
+	}
+
+	/**
+	 * A query that runs often, to be checked with explain.
+	 */
+	private static class HotQuery {
+
+		private final String description;
+		private final String collection;
+		private final Bson filter;
+
+		HotQuery(String description, String collection, Bson filter) {
+			this.description = description;
+			this.collection = collection;
+			this.filter = filter;
+		}
+	}
+
+	public MongoIndexBootstrapper(MongoClient mongo) {
+		Preconditions.checkNotNull(mongo);
+		this.workflows = mongo.getDatabase(WORKFLOWS_DATABASE);
+	}
+
+	/**
+	 * Creates the missing indexes and checks the query plans of
+	 * the hot queries.
+	 */
+	public void bootstrap() {
+		createIndexes();
+		verifyQueryPlans();
+	}
+
+	/**
+	 * Creates all the indexes. Creating an index that already
+	 * exists is a no-op in MongoDB.
+	 */
+	public void createIndexes() {
+		for (IndexDefinition index : getIndexDefinitions()) {
+			MongoCollection<Document> collection = this.workflows.getCollection(index.collection);
+			try {
+				String name = collection.createIndex(index.keys, index.options);
+				logger.log(Level.FINE, "Index {0} on collection {1} is in place", new Object[] {name, index.collection});
+			}
+			catch(MongoException e) {
+				logger.log(Level.SEVERE, "Could not create index " + index.keys.toJson() + " on collection " + index.collection, e);
+			}
+		}
+	}
+
+	/**
+	 * Runs an explain of every hot query and logs the ones
+	 * that are not using an index.
+	 * @return the number of hot queries that are not using an index.
+	 */
+	public int verifyQueryPlans() {
+		int collectionScans = 0;
+		for (HotQuery query : getHotQueries()) {
+			Document command = new Document("explain", new Document("find", query.collection)
+					.append("filter", query.filter))
+					.append("verbosity", "queryPlanner");
+			try {
+				Document explain = this.workflows.runCommand(command);
+				Object queryPlanner = explain.get("queryPlanner");
+				Object winningPlan = (queryPlanner instanceof Document) ?
+						((Document) queryPlanner).get("winningPlan") : null;
+				if (containsStage(winningPlan, "COLLSCAN")) {
+					collectionScans++;
+					logger.log(Level.WARNING, "Query \"{0}\" on collection {1} is doing a collection scan",
+							new Object[] {query.description, query.collection});
+				}
+				else {
+					logger.log(Level.FINE, "Query \"{0}\" on collection {1} is using an index",
+							new Object[] {query.description, query.collection});
+				}
+			}
+			catch(MongoException e) {
+				logger.log(Level.WARNING, "Could not explain query \"" + query.description + "\"", e);
+			}
+		}
+		return collectionScans;
+	}
+
+	/**
+	 * Returns true if the plan, or any of its input stages,
+	 * has the given stage.
+	 */
+	private static boolean containsStage(Object plan, String stage) {
+		if (plan instanceof Document) {
+			Document document = (Document) plan;
+			if (stage.equals(document.getString("stage"))) {
+				return true;
+			}
+			for (Object value : document.values()) {
+				if (containsStage(value, stage)) {
+					return true;
+				}
+			}
+		}
+		else if (plan instanceof List) {
+			for (Object value : (List<?>) plan) {
+				if (containsStage(value, stage)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static List<IndexDefinition> getIndexDefinitions() {
+		List<IndexDefinition> indexes = new ArrayList<>();
+
+		//Actions
+		//Scrapers and the lease reaper: by state, and stale or expired rows.
+		indexes.add(new IndexDefinition(ACTIONS_COLLECTION,
+				new Document("state", 1).append("lastUpdatedDate", 1), new IndexOptions()));
+		indexes.add(new IndexDefinition(ACTIONS_COLLECTION,
+				new Document("state", 1).append("leaseExpiry", 1), new IndexOptions()));
+		//Batch claims read back their actions by claim id.
+		indexes.add(new IndexDefinition(ACTIONS_COLLECTION,
+				new Document("claimId", 1), new IndexOptions().sparse(true)));
+		//Oozie notifications.
+		indexes.add(new IndexDefinition(ACTIONS_COLLECTION,
+				new Document("submissionId", 1), new IndexOptions().sparse(true)));
+		//Readying the children of an action.
+		indexes.add(new IndexDefinition(ACTIONS_COLLECTION,
+				new Document("parentsActionIds", 1), new IndexOptions()));
+		//Rolling window of the decision manager.
+		indexes.add(new IndexDefinition(ACTIONS_COLLECTION,
+				new Document("state", 1).append("marker", 1), new IndexOptions()));
+
+		//Datasets
+		indexes.add(new IndexDefinition(DATASETS_COLLECTION,
+				new Document("path", 1), new IndexOptions().unique(true)));
+		indexes.add(new IndexDefinition(DATASETS_COLLECTION,
+				new Document("state", 1).append("lastUpdatedDate", 1), new IndexOptions()));
+		indexes.add(new IndexDefinition(DATASETS_COLLECTION,
+				new Document("state", 1).append("leaseExpiry", 1), new IndexOptions()));
+		indexes.add(new IndexDefinition(DATASETS_COLLECTION,
+				new Document("claimId", 1), new IndexOptions().sparse(true)));
+		//Removing the claims of an action.
+		indexes.add(new IndexDefinition(DATASETS_COLLECTION,
+				new Document("claims", 1), new IndexOptions()));
+
+		//Datasets log
+		indexes.add(new IndexDefinition(DATASETS_LOG_COLLECTION,
+				new Document("marker", 1), new IndexOptions()));
+
+		return indexes;
+	}
+
+	private static List<HotQuery> getHotQueries() {
+		List<HotQuery> queries = new ArrayList<>();
+		Date now = new Date();
+		queries.add(new HotQuery("READY actions", ACTIONS_COLLECTION,
+				new Document("state", ActionState.READY.name())));
+		queries.add(new HotQuery("SUBMITTED actions", ACTIONS_COLLECTION,
+				new Document("state", ActionState.SUBMITTED.name())));
+		queries.add(new HotQuery("PROCESSING actions with expired lease", ACTIONS_COLLECTION,
+				new Document("state", ActionState.PROCESSING.name())
+					.append("leaseExpiry", new Document("$lt", now))));
+		queries.add(new HotQuery("actions by claim id", ACTIONS_COLLECTION,
+				new Document("claimId", new ObjectId())));
+		queries.add(new HotQuery("action by submission id", ACTIONS_COLLECTION,
+				new Document("submissionId", "")));
+		queries.add(new HotQuery("child actions", ACTIONS_COLLECTION,
+				new Document("parentsActionIds", "")));
+		queries.add(new HotQuery("rolling window of FINISHED actions", ACTIONS_COLLECTION,
+				new Document("state", ActionState.FINISHED.name())
+					.append("marker", new Document("$gt", 0L))));
+		queries.add(new HotQuery("datasets to delete", DATASETS_COLLECTION,
+				new Document("state", DatasetState.STORED_TO_DELETE.name())
+					.append("claims", new Document("$size", 0))));
+		queries.add(new HotQuery("DELETING datasets with expired lease", DATASETS_COLLECTION,
+				new Document("state", DatasetState.DELETING.name())
+					.append("leaseExpiry", new Document("$lt", now))));
+		queries.add(new HotQuery("dataset by path", DATASETS_COLLECTION,
+				new Document("path", "")));
+		queries.add(new HotQuery("datasets claimed by an action", DATASETS_COLLECTION,
+				new Document("claims", "")));
+		queries.add(new HotQuery("new datasets log entries", DATASETS_LOG_COLLECTION,
+				new Document("marker", new Document("$gt", 0L))));
+		return queries;
+	}
+}
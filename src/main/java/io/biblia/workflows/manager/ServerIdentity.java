@@ -0,0 +1,53 @@
+package io.biblia.workflows.manager;
+
+import java.lang.management.ManagementFactory;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+
+/**
+ * Identifies this Pingo server among all the servers that share
+ * the same database.  The id is written as the owner of the actions
+ * and datasets that this server claims, so that leases taken by
+ * a server can be told apart from leases taken by others.
+ * @author dearj019
+ *
+ */
+public class ServerIdentity implements ConfigurationKeys {
+
+	private static final String ownerId;
+	
+	static {
+		String configured = Configuration.getValue(SERVER_ID);
+		if (null != configured) {
+			ownerId = configured;
+		}
+		else {
+			//It has the form pid@hostname
+			ownerId = ManagementFactory.getRuntimeMXBean().getName();
+		}
+	}
+	
+	/**
+	 * Returns the id of this server.
+	 * @return
+	 */
+	public static String getOwnerId() {
+		return ownerId;
+	}
+	
+	/**
+	 * Returns the number of milliseconds that a lease taken
+	 * by this server is valid for.
+	 * @return
+	 */
+	public static long getLeaseMillis() {
+		String leaseSeconds = Configuration.getValue(LEASE_SECONDS);
+		try {
+			return Long.parseLong(leaseSeconds) * 1000;
+		}
+		catch(NumberFormatException ex) {
+			return DatabaseConstants.OUTDATED_SECONDS * 1000L;
+		}
+	}
+}
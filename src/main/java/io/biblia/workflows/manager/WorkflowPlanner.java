@@ -0,0 +1,149 @@
+package io.biblia.workflows.manager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.definition.Workflow;
+import io.biblia.workflows.manager.dataset.DatasetState;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+
+/**
+ * Decides, in memory, which actions of a workflow need to be computed
+ * and which ones can reuse a dataset that is already stored.
+ *
+ * The workflow is traversed from its leaves towards its roots.  An action
+ * is reused if it is managed, it is not forced to be computed, and its
+ * output dataset is STORED or LEAF.  Otherwise it is computed, and its
+ * parents are visited too, since their outputs will be needed.  Parents of
+ * reused actions are not visited.
+ * @author dearj019
+ *
+ */
+public class WorkflowPlanner {
+
+	/**
+	 * The result of planning a workflow.
+	 */
+	public static class Plan {
+
+		private final Set<Integer> actionsToCompute;
+		private final Set<Integer> actionsToReuse;
+
+		private Plan(Set<Integer> actionsToCompute, Set<Integer> actionsToReuse) {
+			this.actionsToCompute = Collections.unmodifiableSet(actionsToCompute);
+			this.actionsToReuse = Collections.unmodifiableSet(actionsToReuse);
+		}
+
+		/**
+		 * Returns the ids (in the workflow) of the actions that need to
+		 * be computed, in the order in which they were visited: from the
+		 * leaves towards the roots.
+		 * @return
+		 */
+		public Set<Integer> getActionsToCompute() {
+			return actionsToCompute;
+		}
+
+		/**
+		 * Returns the ids (in the workflow) of the actions whose
+		 * stored output is reused.
+		 * @return
+		 */
+		public Set<Integer> getActionsToReuse() {
+			return actionsToReuse;
+		}
+
+		public boolean isToCompute(Integer actionId) {
+			return actionsToCompute.contains(actionId);
+		}
+	}
+
+	/**
+	 * Plans the workflow.
+	 * @param workflow
+	 * @param datasets the datasets known, by path.  Paths that are not in
+	 * the map are considered not to have a dataset.
+	 * @param mustCompute ids (in the workflow) of actions that must be
+	 * computed regardless of the state of their dataset.
+	 * @return
+	 */
+	public Plan plan(Workflow workflow, Map<String, PersistedDataset> datasets,
+			Set<Integer> mustCompute) {
+		Preconditions.checkNotNull(workflow);
+		Preconditions.checkNotNull(datasets);
+		Preconditions.checkNotNull(mustCompute);
+
+		Set<Integer> actionsToCompute = new LinkedHashSet<>();
+		Set<Integer> actionsToReuse = new LinkedHashSet<>();
+
+		//1. Start from the leaves of the workflow.
+		Deque<Action> Q = new LinkedList<Action>();
+		Set<Integer> processedActions = new HashSet<>();
+		for (Action action : workflow.getActions()) {
+			if (isLeaf(action, workflow)) {
+				Q.addLast(action);
+				processedActions.add(action.getActionId());
+			}
+		}
+
+		//2. Decide for each action, and visit the parents of the
+		//actions to be computed.
+		while (!Q.isEmpty()) {
+			Action next = Q.pollFirst();
+			if (needsComputation(next, datasets, mustCompute)) {
+				actionsToCompute.add(next.getActionId());
+				List<Integer> parentIds = next.getParentIds();
+				if (null != parentIds) {
+					for (Integer parentId : parentIds) {
+						if (!processedActions.contains(parentId)) {
+							Q.addLast(workflow.getAction(parentId));
+							processedActions.add(parentId);
+						}
+					}
+				}
+			}
+			else {
+				actionsToReuse.add(next.getActionId());
+			}
+		}
+
+		return new Plan(actionsToCompute, actionsToReuse);
+	}
+
+	private boolean needsComputation(Action action, Map<String, PersistedDataset> datasets,
+			Set<Integer> mustCompute) {
+		if (!action.isManaged() || action.forceComputation()
+				|| mustCompute.contains(action.getActionId())) {
+			return true;
+		}
+		PersistedDataset dataset = datasets.get(action.getOutputPath());
+		return !isReusable(dataset);
+	}
+
+	/**
+	 * Returns true if the dataset can be reused, that is, if it
+	 * is in state STORED or LEAF.
+	 * @param dataset
+	 * @return
+	 */
+	public static boolean isReusable(PersistedDataset dataset) {
+		return null != dataset
+				&& (DatasetState.STORED.equals(dataset.getState())
+				|| DatasetState.LEAF.equals(dataset.getState()));
+	}
+
+	public static boolean isLeaf(Action action, Workflow workflow) {
+		Collection<Action> childs = workflow.getChildActions(action.getActionId());
+		return null == childs || childs.size() == 0;
+	}
+}
@@ -1,14 +1,22 @@
 package io.biblia.workflows.manager.action;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.common.base.Preconditions;
 
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.manager.LeaseReaper;
+import io.biblia.workflows.manager.dataset.DatasetPersistance;
+import io.biblia.workflows.utils.ConcurrencyLimiter;
+import io.biblia.workflows.utils.ConcurrencyLimiter.ExternalSystem;
+import io.biblia.workflows.utils.WorkExecutors;
+
 /**
  * The action manager's purpose is to submit actions to Hadoop, in this case
  * using Apache Oozie as intermediary.  It uses the database to synchronize
@@ -35,15 +43,17 @@ import com.google.common.base.Preconditions;
 	FAILED, KILLED.
    
    2. The {@link ActionScraper} will find available actions in the database to start
-   processing: Available actions are defined as actions that are in the READY state,
-   or actions that have been in the PROCESSING state for a long time.  The reason
-   to include these last kind of actions is the following: It well could be that
-   another server started processing an action and then it died without being 
-   able to change the state of that action to submitted.
+   processing: Available actions are defined as actions that are in the READY state.
+   Actions are claimed with a lease.  It well could be that another server started
+   processing an action and then it died without being able to change the state of
+   that action to submitted, so the {@link io.biblia.workflows.manager.LeaseReaper}
+   moves actions whose lease expired back to READY.
    
    3. The {@link ActionManager} is constantly taking new elements from the queue and
    passing them to {@link ActionSubmitter} threads that take care of submitting the
-   actions to Hadoop.  The decision of including old PROCESSING actions in the queue
+   actions to Hadoop.  The queue is bounded and an action is only taken from the
+   queue when a submitter is free, so when all the submitters are busy the queue
+   fills up and the scraper stops claiming actions (backpressure).  The decision of including old PROCESSING actions in the queue
    makes the design of the {@link ActionSubmitter} more careful.
    
    4. The {@link ActionSubmitter} will immediately attempt to mark an action as submitted
@@ -63,7 +73,7 @@ import com.google.common.base.Preconditions;
    currently running servers at that addresss.  This is a best solution, and more 
    natural.
  */
-public class ActionManager {
+public class ActionManager implements ConfigurationKeys {
 
 	private static ActionManager instance = null;
 	
@@ -73,19 +83,44 @@ public class ActionManager {
 	
 	private static final ExecutorService actionSubmittersExecutor;
 	
-	private static final int NUMBER_OF_ACTION_SUBMITTERS = 5;
+	/**
+	 * One permit per free action submitter.
+	 */
+	private static final Semaphore freeSubmitters;
+	
+	/**
+	 * Maximum number of actions submitted in a single Oozie workflow.
+	 */
+	private static final int maxDagSize;
+	
+	private static final int DEFAULT_NUMBER_OF_ACTION_SUBMITTERS = 5;
+	
+	private static final int DEFAULT_QUEUE_CAPACITY = 100;
+	
+	private static final int DEFAULT_MAX_DAG_SIZE = 1;
 	
 	private ActionPersistance actionPersistance;
 	
+	private DatasetPersistance datasetPersistance;
+	
 	final static private Logger logger = Logger.getLogger(ActionManager.class.getName());
 	
 	static {
-		//1. Create the concurrent queue.
-		actionsQueue = new LinkedBlockingQueue<>();
+		//1. Create the bounded concurrent queue.
+		int capacity = Math.max(Configuration.getIntValue(ACTIONMANAGER_QUEUECAPACITY, DEFAULT_QUEUE_CAPACITY), 1);
+		actionsQueue = new ArrayBlockingQueue<>(capacity);
 		
-		//2. Create the executors.
-		actionSubmittersExecutor = 
-						Executors.newFixedThreadPool(NUMBER_OF_ACTION_SUBMITTERS);
+		//2. Create the executors. With virtual threads submitters are
+		//cheap, and the number of concurrent submissions is bounded by
+		//the number of threads that can wait for a MongoDB connection.
+		int defaultSubmitters = WorkExecutors.isVirtual() ?
+				ConcurrencyLimiter.getLimit(ExternalSystem.MONGODB) : DEFAULT_NUMBER_OF_ACTION_SUBMITTERS;
+		int submitters = Math.max(Configuration.getIntValue(ACTIONMANAGER_SUBMITTERS, defaultSubmitters), 1);
+		actionSubmittersExecutor = WorkExecutors.newExecutor(submitters);
+		freeSubmitters = new Semaphore(submitters);
+		maxDagSize = Math.max(Configuration.getIntValue(ACTIONMANAGER_MAXDAGSIZE, DEFAULT_MAX_DAG_SIZE), 1);
+		logger.log(Level.INFO, "ActionManager queue capacity: {0}, submitters: {1}, max DAG size: {2}",
+				new Object[] {capacity, submitters, maxDagSize});
 	}
 	
 	private class ActionManagerRunner implements Runnable {
@@ -97,10 +132,31 @@ public class ActionManager {
 			while(!Thread.currentThread().isInterrupted()) {
 				
 				try {
-					PersistedAction action = actionsQueue.take();	
+					//Wait for a free submitter before taking the next action,
+					//so that actions stay in the bounded queue meanwhile.
+					freeSubmitters.acquire();
+					final PersistedAction action;
+					try {
+						action = actionsQueue.take();
+					}
+					catch(InterruptedException e) {
+						freeSubmitters.release();
+						throw e;
+					}
 					logger.log(Level.FINE, "Action {0} has been taken from the queue", action.getAction().getOriginalName());
-					actionSubmittersExecutor.execute(new ActionSubmitter(action, actionPersistance));
-					Thread.sleep(100);
+					final ActionSubmitter submitter = new ActionSubmitter(action, actionPersistance, datasetPersistance, maxDagSize);
+					actionSubmittersExecutor.execute(new Runnable() {
+						
+						@Override
+						public void run() {
+							try {
+								submitter.run();
+							}
+							finally {
+								freeSubmitters.release();
+							}
+						}
+					});
 				} catch (InterruptedException e) {
 					Thread.currentThread().interrupt();
 				}
@@ -123,11 +179,13 @@ public class ActionManager {
 	 * The concurrent queue receives from the scrapper and
 	 * gives to the submitter.
 	 */
-	private ActionManager(ActionPersistance actionPersistance) {
+	private ActionManager(ActionPersistance actionPersistance, DatasetPersistance datasetPersistance) {
 		
 		Preconditions.checkNotNull(actionPersistance);
+		Preconditions.checkNotNull(datasetPersistance);
 		
 		this.actionPersistance = actionPersistance;
+		this.datasetPersistance = datasetPersistance;
 		
 		t = new Thread(new ActionManagerRunner(), "ActionManager thread");
 		
@@ -135,9 +193,14 @@ public class ActionManager {
 		
 	}
 	
-	public static void start(ActionPersistance persistance) {
+	/**
+	 * Starts the manager and the {@link LeaseReaper}, which needs the
+	 * actions and the datasets that the manager is given.
+	 */
+	public static void start(ActionPersistance persistance, DatasetPersistance datasetPersistance) {
 		if (null == instance) {
-			instance = new ActionManager(persistance);
+			instance = new ActionManager(persistance, datasetPersistance);
+			LeaseReaper.start(persistance, datasetPersistance);
 		}
 	}
 	
@@ -154,6 +217,7 @@ public class ActionManager {
 		System.out.println("Shutting down Action Manager... ");
 		finishActionScraper();
 		finishActionSubmitters();
+		LeaseReaper.stop();
 		if (null != t) {
 			t.interrupt();
 		}
@@ -1,5 +1,6 @@
 package io.biblia.workflows.manager.action;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Date;
 
@@ -22,12 +23,44 @@ public interface ActionPersistance {
 	 */
 	public List<PersistedAction> getAvailableActions(int n);
 	
+	/**
+	 * Claims up to n available actions for the server identified by
+	 * ownerId: it moves them to the PROCESSING state and gives them a
+	 * lease that expires leaseMillis milliseconds from now.  Only actions
+	 * in the READY state are claimed: actions whose lease expired are
+	 * moved back to READY by {@link #requeueExpiredActions()}.
+	 * 
+	 * The claim is done in a constant number of round trips to the
+	 * database regardless of n.  Actions claimed by someone else in
+	 * the meantime are not returned, so the caller can submit all the
+	 * returned actions without further checks.
+	 * @param n the maximum number of actions to claim
+	 * @param ownerId the id of the server claiming the actions
+	 * @param leaseMillis the duration of the lease
+	 * @return the claimed actions
+	 */
+	public List<PersistedAction> claimAvailableActions(int n, String ownerId, long leaseMillis);
+	
+	/**
+	 * Moves back to READY all the actions in the PROCESSING state whose
+	 * lease has expired, so that they can be claimed again.
+	 * @return the number of actions requeued.
+	 */
+	public long requeueExpiredActions();
+	
 	/**
 	 * Returns all the actions that are in the SUBMITTED state.
 	 * @return
 	 */
 	public List<PersistedAction> getSubmittedActions();
 	
+	/**
+	 * Returns a summary of all the actions that are in the SUBMITTED
+	 * state, without reading their action definitions.
+	 * @return
+	 */
+	public List<ActionSummary> getSubmittedActionSummaries();
+	
 	public void readyAction(String databaseId);
 	
 	/**
@@ -77,7 +110,9 @@ public interface ActionPersistance {
 	public PersistedAction addActionSubmissionId(PersistedAction action, String id) throws OutdatedActionException, NullPointerException, JsonParseException, WorkflowParseException;
 	
 	/**
-	 * Adds start and end time to an action.
+	 * Adds start and end time to an action, and gives it the next
+	 * marker, so that it enters the rolling window of the decision
+	 * manager.
 	 * @param action
 	 * @param startTime
 	 * @param endTime
@@ -118,6 +153,15 @@ public interface ActionPersistance {
 	 */
 	public String insertComputedAction(Action action, Long workflowId, List<String> parentsActionIds, List<String> parentActionOutputs);
 	
+	/**
+	 * Inserts all the actions in a single ordered batch, using the
+	 * ids and states already assigned to them.  Only the states READY,
+	 * WAITING and COMPUTED are expected.  COMPUTED actions are given
+	 * a marker when inserted.
+	 * @param actions
+	 */
+	public void insertActions(List<PendingAction> actions);
+	
 	/**
 	 * Updates the state of an action ignoring the version of the action.
 	 * @param id
@@ -126,26 +170,33 @@ public interface ActionPersistance {
 	public void forceUpdateActionState(ObjectId id, ActionState state);
 	
 	/**
-	 * FOrce updates the action state to FINISHED, as well as it adds
-	 * a counter value to it.
+	 * FOrce updates the action state to FINISHED.  The action gets its
+	 * marker from {@link #addStartAndEndTimeAndSize}, so that each action
+	 * uses a single marker.
 	 * @param id the database id of the action
 	 */
 	public void actionFinished(ObjectId id);
 	
 	/**
-	 * Force updates the action state to FAILED, as well as it adds a counter
-	 * value to it
+	 * Force updates the action state to FAILED.
 	 * @param id the database id of the action.
 	 */
 	public void actionFailed(ObjectId id);
 	
 	/**
-	 * Forces update the action state to KILLED, as well as it adds a counter
-	 * value to it.
+	 * Forces update the action state to KILLED.
 	 * @param id
 	 */
 	public void actionKilled(ObjectId id);
 	
+	/**
+	 * Force updates the size of the output of the action.  Used to
+	 * correct the sizes that were estimated when the action finished.
+	 * @param id the database id of the action.
+	 * @param sizeInMB
+	 */
+	public void updateActionSizeInMB(ObjectId id, Double sizeInMB);
+	
 	/**
 	 * The implementation of this function is interesting:
 	 * 1. It finds all the child actions of actionId
@@ -153,11 +204,23 @@ public interface ActionPersistance {
 	 * 3. from the list found in 1, it marks as READY all the actions
 	 * that do not have any other dependency.
 	 * 
+	 * Child actions in the SUBMITTED state, which were submitted in the
+	 * same Oozie workflow as their parents, are also found and have
+	 * actionId removed, but they stay SUBMITTED.
+	 * 
 	 * @param actionId
 	 * @return It returns all the child actions found on step 1.
 	 */
 	public List<ObjectId> readyChildActions(String actionId);
 	
+	/**
+	 * Returns the actions in the WAITING state that have any of the
+	 * given actions as parent.
+	 * @param parentIds the database ids of the parents
+	 * @return
+	 */
+	public List<PersistedAction> getWaitingChildActions(Collection<String> parentIds);
+	
 	/**
 	 * Adds dependecy to action represented by childDatabaseId on action represented by
 	 * parentDatabaseId.  Dependency means that child action needs to wait for parent action
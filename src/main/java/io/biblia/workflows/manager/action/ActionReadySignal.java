@@ -0,0 +1,62 @@
+package io.biblia.workflows.manager.action;
+
+/**
+ * In-process notification used to wake up the {@link ActionScraper}
+ * as soon as an action is moved to the READY state, instead of waiting
+ * for the next polling cycle.
+ * 
+ * Signals are not lost: if {@link #signal()} is called while nobody is
+ * waiting, the next call to {@link #await(long)} returns immediately.
+ * Actions readied by other servers are not seen by this signal, which is
+ * why the scraper still polls the database as a fallback.
+ * @author dearj019
+ *
+ */
+public class ActionReadySignal {
+
+	private static final ActionReadySignal instance = new ActionReadySignal();
+	
+	private final Object lock = new Object();
+	
+	private boolean signaled = false;
+	
+	private ActionReadySignal() {
+		
+	}
+	
+	/**
+	 * Notifies the waiting threads that there are new READY actions.
+	 */
+	public void signal() {
+		synchronized(this.lock) {
+			this.signaled = true;
+			this.lock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Waits until a signal arrives or until the timeout expires,
+	 * whichever happens first.
+	 * @param timeoutMillis
+	 * @return true if it returned because of a signal, false if the
+	 * timeout expired.
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized(this.lock) {
+			long remaining = timeoutMillis;
+			while (!this.signaled && remaining > 0) {
+				this.lock.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+			boolean toReturn = this.signaled;
+			this.signaled = false;
+			return toReturn;
+		}
+	}
+	
+	public static ActionReadySignal getInstance() {
+		return instance;
+	}
+}
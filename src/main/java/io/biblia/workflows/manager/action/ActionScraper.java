@@ -2,6 +2,10 @@ package io.biblia.workflows.manager.action;
 
 import com.google.common.base.Preconditions;
 
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.manager.ServerIdentity;
+
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
@@ -10,12 +14,18 @@ import java.util.logging.Level;
 
 /**
  * Independent threaded class that runs every certain amount
- * of time (60 seconds) scraping the database to see if
+ * of time (10 seconds) scraping the database to see if
  * there are actions that are available to be submitted.
+ * 
+ * In push dispatch mode the scraper is also woken up by the
+ * {@link ActionReadySignal} whenever an action is moved to the
+ * READY state, so that READY actions do not wait for the next
+ * polling cycle.  Polling is kept as a fallback for actions
+ * readied by other servers.
  * @author jadiel
  *
  */
-class ActionScraper {
+class ActionScraper implements ConfigurationKeys {
 
 	
 	private static ActionScraper instance = null;
@@ -42,7 +52,20 @@ class ActionScraper {
 	 */
 	private static final long ACTION_SCRAPER_TIMEOUT = 10000;
 	
-	private static final int QUEUE_SOFT_MAX_CAPACITY = 20;
+	/**
+	 * Milliseconds to wait before checking again when the
+	 * queue has no free space.
+	 */
+	private static final long QUEUE_FULL_BACKOFF = 50;
+	
+	static final String POLLING_DISPATCH_MODE = "polling";
+	
+	static final String PUSH_DISPATCH_MODE = "push";
+	
+	/**
+	 * True if the scraper is woken up by the {@link ActionReadySignal}
+	 */
+	private final boolean pushDispatch;
 	
 	private static final Logger logger = Logger.getLogger(ActionScraper.class.getName());
 	
@@ -57,39 +80,55 @@ class ActionScraper {
 				//actions from the database.
 				//1.1 Actions that qualify are the following:
 				// Actions that are not being processed yet
-				// Actions that have been started processing, but have
-				// been on that state for a long time. That could signal
-				// that the server that started processing them died.
-				int number = Math.max(QUEUE_SOFT_MAX_CAPACITY - queue.size(), 0);
-				List<PersistedAction> actions = actionDao.getAvailableActions(number);
-				
-				logger.log(Level.INFO, "Scraped {0} available actions from the database", actions.size());
-				
-				//2. For each of the actions, update the entry of the
-				//action in the database, if it is that it has not been
-				//updated by someone else first.  If it has been updated
-				//by someone else, drop it, otherwise, insert it into
-				//the queue.
-				for (PersistedAction pAction : actions) {
-					
-					try{
-						pAction = actionDao.updateActionState(pAction, ActionState.PROCESSING);
-						logger.log(Level.FINE, "Changed the state of action {0} to PROCESSING", pAction.get_id());
-						
+				// Actions whose lease expired, because the server that
+				// claimed them died, are moved back to READY by the
+				// LeaseReaper.
+				//2. The actions are claimed in a single batch: all the
+				//actions returned have been moved to PROCESSING and are
+				//owned by this server, so they go straight to the queue.
+				//Only claim as many actions as the queue can hold, so
+				//that claimed actions never wait for a free slot while
+				//their lease runs.
+				int number = queue.remainingCapacity();
+				if (number == 0) {
+					try {
+						Thread.sleep(QUEUE_FULL_BACKOFF);
 					}
-					catch(OutdatedActionException ex) {
-						logger.log(Level.FINE, "Could not change the state of action {0} to PROCESSING because action was outdated", pAction.get_id());
-						continue;
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
 					}
-					catch(Exception e) {
-						logger.log(Level.FINE, "Could not change the state of action {0} to PROCESSING for unknown reason", pAction.get_id());
-						continue;
+					continue;
+				}
+				List<PersistedAction> actions = actionDao.claimAvailableActions(number,
+						ServerIdentity.getOwnerId(), ServerIdentity.getLeaseMillis());
+				
+				logger.log(Level.INFO, "Claimed {0} available actions from the database", actions.size());
+				logger.log(Level.FINE, "Dispatch latency: {0}", DispatchLatencyMonitor.getInstance());
+				
+				try {
+					for (PersistedAction pAction : actions) {
+						logger.log(Level.FINE, "Claimed action {0} in PROCESSING state", pAction.get_id());
+						queue.put(pAction);
 					}
-					queue.add(pAction);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					continue;
+				}
+				
+				//3. If the batch was full there are probably more
+				//actions waiting, so claim again right away.
+				if (actions.size() == number) {
+					continue;
 				}
 				
 				try {
-					Thread.sleep(ActionScraper.ACTION_SCRAPER_TIMEOUT);
+					if (pushDispatch) {
+						ActionReadySignal.getInstance().await(ActionScraper.ACTION_SCRAPER_TIMEOUT);
+					}
+					else {
+						Thread.sleep(ActionScraper.ACTION_SCRAPER_TIMEOUT);
+					}
 				} catch (InterruptedException e) {
 					
 					Thread.currentThread().interrupt();
@@ -105,6 +144,9 @@ class ActionScraper {
 		Preconditions.checkNotNull(actionDao);
 		this.queue = queue;
 		this.actionDao = actionDao;
+		String dispatchMode = Configuration.getValue(ACTIONSCRAPER_DISPATCHMODE, POLLING_DISPATCH_MODE);
+		this.pushDispatch = PUSH_DISPATCH_MODE.equalsIgnoreCase(dispatchMode);
+		logger.log(Level.INFO, "ActionScraper dispatch mode: {0}", this.pushDispatch ? PUSH_DISPATCH_MODE : POLLING_DISPATCH_MODE);
 		t = new Thread(new ActionScraperRunner(), "Action Scraper Thread");
 		t.start();
 	}
@@ -1,6 +1,13 @@
 package io.biblia.workflows.manager.action;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -8,6 +15,10 @@ import org.apache.oozie.client.OozieClientException;
 
 import com.google.common.base.Preconditions;
 
+import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.manager.dataset.DatasetPersistance;
+import io.biblia.workflows.manager.dataset.OutdatedDatasetException;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
 import io.biblia.workflows.oozie.OozieClientUtil;
 import io.biblia.workflows.definition.parser.WorkflowParseException;
 
@@ -16,6 +27,22 @@ import io.biblia.workflows.definition.parser.WorkflowParseException;
  * be ran depends on the type of the action.  We are using
  * Oozie as an intermediary right now on the submission
  * of the action.
+ *
+ * If maxDagSize is greater than one, the waiting actions that depend
+ * only on the action, or on each other, are submitted with it in a
+ * single Oozie workflow, up to maxDagSize actions.  Each action of the
+ * workflow gets as submission id the id that Oozie gives to its node,
+ * so that its completion is reported on its own.  The claims of the
+ * actions on the outputs of their parents in the workflow are laid
+ * before the submission, since an action can finish before the
+ * callback of its parent runs.
+ *
+ * The workflow runs its actions level by level, so an action also
+ * waits for the actions of the previous level that it does not depend
+ * on.  When an action of the workflow fails, Oozie kills the rest of
+ * the workflow: the actions that were killed because of it, or that
+ * never ran, are not failed, but go back to READY or WAITING (see
+ * {@link Callback#actionNotRun(PersistedAction)}).
  * @author dearj019
  *
  */
@@ -23,13 +50,31 @@ public class ActionSubmitter implements Runnable {
 
 	private final PersistedAction action;
 	private final ActionPersistance persistance;
+	private final DatasetPersistance dPersistance;
+	private final int maxDagSize;
 	final Logger logger = Logger.getLogger(ActionSubmitter.class.getName());
 
-	public ActionSubmitter(PersistedAction action, ActionPersistance persistance) {
+	/**
+	 * Number of times that a claim is tried when the dataset is
+	 * updated by someone else in the meantime.
+	 */
+	private static final int MAX_CLAIM_ATTEMPTS = 5;
+
+	public ActionSubmitter(PersistedAction action, ActionPersistance persistance,
+			DatasetPersistance dPersistance) {
+		this(action, persistance, dPersistance, 1);
+	}
+
+	public ActionSubmitter(PersistedAction action, ActionPersistance persistance,
+			DatasetPersistance dPersistance, int maxDagSize) {
 		Preconditions.checkNotNull(action);
 		Preconditions.checkNotNull(persistance);
+		Preconditions.checkNotNull(dPersistance);
+		Preconditions.checkArgument(maxDagSize >= 1);
 		this.action = action;
 		this.persistance = persistance;
+		this.dPersistance = dPersistance;
+		this.maxDagSize = maxDagSize;
 	}
 
 	@Override
@@ -58,6 +103,14 @@ public class ActionSubmitter implements Runnable {
 		} catch (Exception e) {
 			return;
 		} 
+		
+		if (this.maxDagSize > 1) {
+			List<PersistedAction> dag = this.collectDag(action);
+			if (dag.size() > 1) {
+				this.submitDag(dag);
+				return;
+			}
+		}
 
 		// 1.2.1 If database accepts update by comparing versions
 		// Submit to Oozie.
@@ -65,6 +118,11 @@ public class ActionSubmitter implements Runnable {
 		try {
 			submissionId = OozieClientUtil.submitAndStartOozieJob(action.getAction());
 			logger.log(Level.INFO, "Oozie client submitted action {0}", action.get_id());
+			if (null != action.getReadyDate()) {
+				long latency = System.currentTimeMillis() - action.getReadyDate().getTime();
+				DispatchLatencyMonitor.getInstance().record(latency);
+				logger.log(Level.FINE, "Action {0} went from READY to SUBMITTED in {1} ms", new Object[] {action.get_id(), latency});
+			}
 		} catch (OozieClientException | IOException ex) {
 			ex.printStackTrace();
 			logger.log(Level.FINE, "Oozie client was not able to submit action {0}", action.get_id());
@@ -97,4 +155,210 @@ public class ActionSubmitter implements Runnable {
 		}
 	}
 
+	/**
+	 * Moves to SUBMITTED the waiting actions that can run in the same
+	 * workflow as the root: the ones whose remaining parents are all
+	 * already in the workflow.  Actions that were changed by someone
+	 * else in the meantime are left out, and so are their children.
+	 * @param root the action already in the SUBMITTED state.
+	 * @return the actions of the workflow, each one after its parents,
+	 * starting with the root.
+	 */
+	private List<PersistedAction> collectDag(PersistedAction root) {
+		Map<String, PersistedAction> dag = new LinkedHashMap<>();
+		dag.put(root.get_id().toHexString(), root);
+		Map<String, PersistedAction> candidates = new LinkedHashMap<>();
+		List<String> frontier = Collections.singletonList(root.get_id().toHexString());
+		while (!frontier.isEmpty() && dag.size() < this.maxDagSize) {
+			for (PersistedAction child : this.persistance.getWaitingChildActions(frontier)) {
+				String childId = child.get_id().toHexString();
+				if (!dag.containsKey(childId) && !candidates.containsKey(childId)) {
+					candidates.put(childId, child);
+				}
+			}
+			frontier = new ArrayList<>();
+			boolean added = true;
+			while (added && dag.size() < this.maxDagSize) {
+				added = false;
+				Iterator<PersistedAction> iterator = candidates.values().iterator();
+				while (iterator.hasNext() && dag.size() < this.maxDagSize) {
+					PersistedAction candidate = iterator.next();
+					if (!dag.keySet().containsAll(candidate.getParentActionIds())) {
+						continue;
+					}
+					iterator.remove();
+					try {
+						PersistedAction submitted = this.persistance.updateActionState(candidate, ActionState.SUBMITTED);
+						String id = submitted.get_id().toHexString();
+						dag.put(id, submitted);
+						frontier.add(id);
+						added = true;
+					}
+					catch (Exception e) {
+						logger.log(Level.FINE, "Action {0} was left out of the workflow of action {1}",
+								new Object[] {candidate.get_id(), root.get_id()});
+					}
+				}
+			}
+		}
+		return new ArrayList<>(dag.values());
+	}
+
+	/**
+	 * Submits the actions in a single Oozie workflow.  If the submission
+	 * fails, the claims laid for it are removed, the first action goes
+	 * back to READY and the rest back to WAITING.
+	 * @param dag the actions in the SUBMITTED state, starting with the
+	 * ready one.
+	 */
+	private void submitDag(List<PersistedAction> dag) {
+		PersistedAction root = dag.get(0);
+		Map<String, String> nodeNames = new HashMap<>();
+		Map<String, String> outputPaths = new HashMap<>();
+		for (int i = 0; i < dag.size(); i++) {
+			nodeNames.put(dag.get(i).get_id().toHexString(), getNodeName(i));
+			outputPaths.put(dag.get(i).get_id().toHexString(), dag.get(i).getAction().getOutputPath());
+		}
+		Map<String, Action> nodes = new LinkedHashMap<>();
+		Map<String, List<String>> parents = new LinkedHashMap<>();
+		Map<String, List<String>> claims = new LinkedHashMap<>();
+		for (PersistedAction member : dag) {
+			String memberId = member.get_id().toHexString();
+			String nodeName = nodeNames.get(memberId);
+			nodes.put(nodeName, member.getAction());
+			List<String> nodeParents = new ArrayList<>();
+			for (String parentId : member.getParentActionIds()) {
+				nodeParents.add(nodeNames.get(parentId));
+				String parentOutput = outputPaths.get(parentId);
+				if (null == parentOutput) {
+					continue;
+				}
+				if (!claims.containsKey(parentOutput)) {
+					claims.put(parentOutput, new ArrayList<String>());
+				}
+				claims.get(parentOutput).add(memberId);
+			}
+			parents.put(nodeName, nodeParents);
+		}
+
+		// The callbacks of the parents only claim their outputs for the
+		// children that are still waiting.
+		Map<String, List<String>> laidClaims = new LinkedHashMap<>();
+		for (Map.Entry<String, List<String>> entry : claims.entrySet()) {
+			try {
+				if (this.claimDataset(entry.getKey(), entry.getValue())) {
+					laidClaims.put(entry.getKey(), entry.getValue());
+				}
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Could not claim dataset " + entry.getKey() + " for the workflow of action " + root.get_id(), e);
+				this.rollbackDag(dag, laidClaims);
+				return;
+			}
+		}
+
+		String jobId = null;
+		try {
+			jobId = OozieClientUtil.submitAndStartOozieDag("dag-" + dag.size(), nodes, parents);
+			logger.log(Level.INFO, "Oozie client submitted action {0} with {1} more actions",
+					new Object[] {root.get_id(), dag.size() - 1});
+			if (null != root.getReadyDate()) {
+				long latency = System.currentTimeMillis() - root.getReadyDate().getTime();
+				DispatchLatencyMonitor.getInstance().record(latency);
+			}
+		} catch (OozieClientException | IOException | RuntimeException ex) {
+			logger.log(Level.WARNING, "Oozie client was not able to submit the workflow of action " + root.get_id(), ex);
+			this.rollbackDag(dag, laidClaims);
+			return;
+		}
+		for (PersistedAction member : dag) {
+			String submissionId = OozieClientUtil.getActionId(jobId, nodeNames.get(member.get_id().toHexString()));
+			try {
+				this.persistance.addActionSubmissionId(member, submissionId);
+				logger.log(Level.FINE, "Added the submission id {0} to action {1}", new Object[] {submissionId, member.get_id()});
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Could not update action " + member.get_id() + " with submission id " + submissionId, e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the claims laid for the workflow, and moves the first
+	 * action back to READY and the rest back to WAITING.
+	 */
+	private void rollbackDag(List<PersistedAction> dag, Map<String, List<String>> laidClaims) {
+		for (Map.Entry<String, List<String>> entry : laidClaims.entrySet()) {
+			for (String actionId : entry.getValue()) {
+				try {
+					this.unclaimDataset(entry.getKey(), actionId);
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Could not remove the claim of action " + actionId + " on dataset " + entry.getKey(), e);
+				}
+			}
+		}
+		for (int i = 0; i < dag.size(); i++) {
+			ActionState previous = (i == 0) ? ActionState.READY : ActionState.WAITING;
+			try {
+				this.persistance.updateActionState(dag.get(i), previous);
+			} catch (Exception e) {
+				logger.log(Level.FINE, "Action {0} state could not be changed back to {1}",
+						new Object[] {dag.get(i).get_id(), previous});
+			}
+		}
+	}
+
+	/**
+	 * Adds the claims of the actions to the dataset.
+	 * @return false if the dataset does not exist, in which case the
+	 * callback of the action that computes it creates it.
+	 * @throws OutdatedDatasetException if the dataset kept changing.
+	 */
+	private boolean claimDataset(String path, List<String> actionIds) throws Exception {
+		for (int attempt = 1; ; attempt++) {
+			PersistedDataset dataset = this.dPersistance.getDatasetByPath(path);
+			if (null == dataset) {
+				logger.log(Level.WARNING, "Dataset {0} does not exist, so it was not claimed", path);
+				return false;
+			}
+			try {
+				this.dPersistance.addClaimsToDataset(dataset, actionIds);
+				return true;
+			} catch (OutdatedDatasetException e) {
+				if (attempt >= MAX_CLAIM_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the claim of the action from the dataset.
+	 * @throws OutdatedDatasetException if the dataset kept changing.
+	 */
+	private void unclaimDataset(String path, String actionId) throws Exception {
+		for (int attempt = 1; ; attempt++) {
+			PersistedDataset dataset = this.dPersistance.getDatasetByPath(path);
+			if (null == dataset) {
+				return;
+			}
+			try {
+				this.dPersistance.removeClaimFromDataset(dataset, actionId);
+				return;
+			} catch (OutdatedDatasetException e) {
+				if (attempt >= MAX_CLAIM_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Name of the node of the i-th action in the Oozie workflow.  Names
+	 * only depend on the position of the action, so that workflows with
+	 * the same shape share their definition.
+	 * @param i
+	 */
+	private static String getNodeName(int i) {
+		return "a" + i;
+	}
+
 }
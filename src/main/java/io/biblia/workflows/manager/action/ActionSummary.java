@@ -0,0 +1,125 @@
+package io.biblia.workflows.manager.action;
+
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.model.Projections;
+
+import io.biblia.workflows.definition.ActionAttributesConstants;
+
+/**
+ * Lightweight view of a persisted action with only the fields that
+ * the pollers and the decision loop need.  It is read with
+ * {@link #PROJECTION}, so the nested action definition is neither
+ * transferred from the database nor parsed.  Use
+ * {@link ActionPersistance#getActionById(String)} when the full
+ * action is needed.
+ * @author dearj019
+ *
+ */
+public class ActionSummary {
+
+	private static final String OUTPUT_PATH_FIELD = "action." + ActionAttributesConstants.ACTION_OUTPUT_PATH;
+
+	/**
+	 * Projection of the fields read by {@link #parseSummary(Document)}.
+	 */
+	public static final Bson PROJECTION = Projections.include("_id", "version", "state",
+			"submissionId", "workflowId", "sizeInMB", "startTime", "endTime",
+			"marker", "parentActionOutputs", OUTPUT_PATH_FIELD);
+
+	private final ObjectId id;
+	private final int version;
+	private final ActionState state;
+	private final String submissionId;
+	private final String outputPath;
+	private final Long workflowId;
+	private final Double sizeInMB;
+	private final Date startTime;
+	private final Date endTime;
+	private final Long marker;
+	private final List<String> parentActionOutputs;
+
+	private ActionSummary(ObjectId id, int version, ActionState state, String submissionId,
+			String outputPath, Long workflowId, Double sizeInMB, Date startTime,
+			Date endTime, Long marker, List<String> parentActionOutputs) {
+		this.id = id;
+		this.version = version;
+		this.state = state;
+		this.submissionId = submissionId;
+		this.outputPath = outputPath;
+		this.workflowId = workflowId;
+		this.sizeInMB = sizeInMB;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.marker = marker;
+		this.parentActionOutputs = parentActionOutputs;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ActionSummary parseSummary(Document document) {
+		Document actionDoc = (Document) document.get("action");
+		String outputPath = (null != actionDoc) ?
+				actionDoc.getString(ActionAttributesConstants.ACTION_OUTPUT_PATH) : null;
+		Integer version = document.getInteger("version");
+		return new ActionSummary(document.getObjectId("_id"),
+				(null != version) ? version : 0,
+				ActionState.valueOf(document.getString("state")),
+				document.getString("submissionId"),
+				outputPath,
+				document.getLong("workflowId"),
+				document.getDouble("sizeInMB"),
+				document.getDate("startTime"),
+				document.getDate("endTime"),
+				document.getLong("marker"),
+				(List<String>) document.get("parentActionOutputs", List.class));
+	}
+
+	public ObjectId getId() {
+		return id;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public ActionState getState() {
+		return state;
+	}
+
+	public String getSubmissionId() {
+		return submissionId;
+	}
+
+	public String getOutputPath() {
+		return outputPath;
+	}
+
+	public Long getWorkflowId() {
+		return workflowId;
+	}
+
+	public Double getSizeInMB() {
+		return sizeInMB;
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public Date getEndTime() {
+		return endTime;
+	}
+
+	public Long getMarker() {
+		return marker;
+	}
+
+	public List<String> getParentActionOutputs() {
+		return parentActionOutputs;
+	}
+}
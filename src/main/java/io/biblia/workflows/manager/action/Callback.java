@@ -1,8 +1,11 @@
 package io.biblia.workflows.manager.action;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -10,8 +13,10 @@ import org.bson.types.ObjectId;
 
 import io.biblia.workflows.hdfs.HdfsUtil;
 import io.biblia.workflows.manager.dataset.DatasetPersistance;
+import io.biblia.workflows.manager.dataset.DatasetSizeService;
 import io.biblia.workflows.manager.dataset.PersistedDataset;
 import io.biblia.workflows.oozie.OozieClientUtil;
+import io.biblia.workflows.oozie.OozieJobReport;
 import io.biblia.workflows.manager.dataset.DatasetState;
 import io.biblia.workflows.manager.decision.DatasetLogDao;
 
@@ -31,17 +36,34 @@ public class Callback {
 	private final ActionPersistance aPersistance;
 	private final DatasetPersistance dPersistance;
 	private final DatasetLogDao dLogDao;
+	private final DatasetSizeService sizeService;
+	
+	/**
+	 * Size written for outputs that are still being measured.
+	 */
+	private static final Double UNMEASURED_SIZE_IN_MB = 0.0;
+	
 	final static Logger logger = Logger.getLogger(Callback.class.getName());
 	
 	public Callback(ActionPersistance aPersistance,
 			DatasetPersistance dPersistance,
 			DatasetLogDao datasetLogDao) {
+		this(aPersistance, dPersistance, datasetLogDao,
+				new DatasetSizeService(dPersistance, aPersistance, datasetLogDao));
+	}
+	
+	public Callback(ActionPersistance aPersistance,
+			DatasetPersistance dPersistance,
+			DatasetLogDao datasetLogDao,
+			DatasetSizeService sizeService) {
 		Preconditions.checkNotNull(aPersistance);
 		Preconditions.checkNotNull(dPersistance);
 		Preconditions.checkNotNull(datasetLogDao);
+		Preconditions.checkNotNull(sizeService);
 		this.aPersistance = aPersistance;
 		this.dPersistance = dPersistance;
 		this.dLogDao = datasetLogDao;
+		this.sizeService = sizeService;
 	}
 	
 	/**
@@ -55,11 +77,30 @@ public class Callback {
 		Preconditions.checkNotNull(actionId);
 		logger.log(Level.FINE, "actionFinished called on action {0}", actionId);
 		
+		//0. If the job did not report the bytes it wrote, start measuring
+		//its output in the background, so that the NameNode is queried
+		//while the database is being updated.
+		OozieJobReport report = OozieClientUtil.getJobReport(pAction.getSubmissionId());
+		String outputPath = pAction.getAction().getOutputPath();
+		Future<Double> measurement = null;
+		if (null == report.getBytesWritten()) {
+			measurement = this.sizeService.measure(outputPath);
+		}
+		
 		//1. Decrease dataset claims
 		decreaseDatasetClaims(actionId.toHexString());
 		
 		//2. Change state of child actions to READY if they
-		//are not waiting on any other dependants.
+		//are not waiting on any other dependants.  The children that
+		//are not waiting were submitted in the same workflow as the
+		//action, and their claims were laid on submission, so only the
+		//waiting ones are claimed here: a child of the same workflow
+		//may have finished and removed its claims already.
+		List<String> waitingChildActionIds = new ArrayList<>();
+		for (PersistedAction child : this.aPersistance.getWaitingChildActions(
+				Collections.singletonList(actionId.toHexString()))) {
+			waitingChildActionIds.add(child.get_id().toHexString());
+		}
 		List<ObjectId> childActionIdsObjects = readyChildActions(actionId.toHexString());
 		List<String> childActionIds = new ArrayList<>();
 		for (ObjectId id : childActionIdsObjects) {
@@ -75,13 +116,25 @@ public class Callback {
 			
 			//1. Updating start and end time.
 			pAction = this.aPersistance.getActionById(actionId.toHexString());
-			String oozieId = pAction.getSubmissionId();
-			List<Date> times = OozieClientUtil.getStartAndEndTime(oozieId);
-			Date startTime = times.get(0);
-			Date endTime = times.get(1);
+			Date startTime = report.getStartTime();
+			Date endTime = report.getEndTime();
 			//2. Inserting a record of the output action into the database.
-			String outputPath = pAction.getAction().getOutputPath();
-			Double sizeInMB = HdfsUtil.getSizeInMB(outputPath);
+			//The callback does not wait for the measurement: if it is not
+			//done yet, the output is written as empty and corrected later.
+			Double sizeInMB = UNMEASURED_SIZE_IN_MB;
+			boolean estimated = true;
+			if (null == measurement) {
+				sizeInMB = this.sizeService.getReportedSizeInMB(outputPath, report.getBytesWritten());
+			}
+			else if (measurement.isDone()) {
+				try {
+					sizeInMB = measurement.get();
+					estimated = false;
+				}
+				catch(ExecutionException e) {
+					logger.log(Level.FINE, "Could not measure the output of action {0}, it will be measured again", actionId);
+				}
+			}
 			
 			pAction = this.aPersistance.addStartAndEndTimeAndSize(pAction, startTime, endTime, sizeInMB);
 			logger.log(Level.FINER, "Action {0} startTime: {1}, endTime: {2}, sizeInMB: {3}", new Object[]{ actionId, startTime, endTime, sizeInMB});
@@ -90,7 +143,7 @@ public class Callback {
 				PersistedDataset actionDataset = this.dPersistance.getDatasetByPath(outputPath);
 				if (null == actionDataset) {
 					PersistedDataset newDataset = new PersistedDataset(outputPath,
-							sizeInMB, DatasetState.STORED, new Date(), 1, childActionIds);
+							sizeInMB, DatasetState.STORED, new Date(), 1, waitingChildActionIds);
 					this.dPersistance.insertDataset(newDataset);
 					logger.log(Level.FINER, "Inserted new dataset {0} for action {1} with state STORED", new Object[]{outputPath, actionId});
 					this.dLogDao.insertLogEntry(outputPath, DatasetState.PROCESSING, DatasetState.STORED, sizeInMB);
@@ -113,7 +166,7 @@ public class Callback {
 						this.dLogDao.insertLogEntry(outputPath, DatasetState.TO_DELETE, DatasetState.STORED_TO_DELETE, sizeInMB);
 					}
 					actionDataset = this.dPersistance.updateDatasetSizeInMB(actionDataset, sizeInMB);
-					for (String childActionId : childActionIds) {
+					for (String childActionId : waitingChildActionIds) {
 						actionDataset = this.dPersistance.addClaimToDataset(actionDataset, childActionId);
 						logger.log(Level.FINER, "Added claim to dataset {0} from child action id {1}", new Object[]{outputPath, childActionId});
 					}
@@ -121,6 +174,13 @@ public class Callback {
 				}
 				
 			}
+			
+			//3. The size derived from the bytes written, or written before
+			//the measurement was done, is an estimate, so the action, its
+			//dataset and the log are corrected later.
+			if (estimated) {
+				this.sizeService.backfillLater(outputPath, actionId, sizeInMB);
+			}
 		}
 		catch(Exception e) {
 			e.printStackTrace();
@@ -199,6 +259,56 @@ public class Callback {
 		
 	}
 	
+	/**
+	 * Called for an action that was submitted in a workflow with other
+	 * actions, and that did not run, or was killed, because another
+	 * action of the workflow failed.  Its claims and its dataset are
+	 * kept, whatever it wrote is removed, and it goes back to READY if
+	 * all its parents are done, or to WAITING otherwise.
+	 * @param pAction
+	 */
+	public void actionNotRun(PersistedAction pAction) {
+		ObjectId actionId = pAction.getId();
+		logger.log(Level.FINE, "actionNotRun called on action {0}", actionId);
+		try {
+			HdfsUtil.deletePath(pAction.getAction().getOutputPath());
+		}
+		catch(Exception e) {
+			logger.log(Level.WARNING, "Could not remove the output of action " + actionId, e);
+		}
+		try {
+			pAction = this.aPersistance.getActionById(actionId.toHexString());
+			ActionState state = hasParents(pAction) ? ActionState.WAITING : ActionState.READY;
+			this.aPersistance.updateActionState(pAction, state);
+			logger.log(Level.FINE, "Updated state of action {0} to {1}", new Object[] {actionId, state});
+			
+			//A parent that finished in the meantime only readies the
+			//children that were already waiting.
+			if (ActionState.WAITING.equals(state)) {
+				pAction = this.aPersistance.getActionById(actionId.toHexString());
+				if (ActionState.WAITING.equals(pAction.getState()) && !hasParents(pAction)) {
+					this.aPersistance.updateActionState(pAction, ActionState.READY);
+					logger.log(Level.FINE, "Updated state of action {0} to READY", actionId);
+				}
+			}
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+			logger.log(Level.WARNING, "Exception thrown " + e.toString());
+		}
+	}
+	
+	private static boolean hasParents(PersistedAction pAction) {
+		return null != pAction.getParentActionIds() && !pAction.getParentActionIds().isEmpty();
+	}
+	
+	/**
+	 * Stops measuring the size of datasets.
+	 */
+	public void stop() {
+		this.sizeService.stop();
+	}
+	
 	/**
 	 * Reduce by one the counter on each dataset on which I have layed a claim
 	 * before.
@@ -0,0 +1,196 @@
+package io.biblia.workflows.manager.action;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.oozie.client.WorkflowJob.Status;
+
+import com.google.common.base.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.biblia.workflows.oozie.OozieClientUtil;
+import io.biblia.workflows.utils.WorkExecutors;
+
+/**
+ * Embedded HTTP listener that receives the workflow notifications
+ * sent by Oozie (oozie.wf.workflow.notification.url).  Oozie calls
+ * the URL given on submission with the job id and the new status of
+ * the job every time the status changes.  When the job is done, the
+ * listener finds the action that was submitted with that job id,
+ * confirms the status with Oozie, since the requests are not
+ * authenticated, and hands the action to the {@link CallbackManager},
+ * so that the callback runs right away instead of on the next polling
+ * cycle.
+ *
+ * The actions submitted together in a single workflow are notified
+ * on their own (oozie.wf.action.notification.url) with the job id and
+ * the name of the node of the action, which make up the id of the
+ * action in Oozie.  When the action is done, its status is read from
+ * Oozie and the action is handed to the {@link CallbackManager}.
+ * @author dearj019
+ *
+ */
+class CallbackListener {
+
+	static final String CALLBACK_PATH = "/callback";
+
+	private static final int NUMBER_OF_LISTENER_THREADS = 2;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final ActionPersistance actionDao;
+
+	private static final Logger logger = Logger.getLogger(CallbackListener.class.getName());
+
+	private class NotificationHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			//Answer right away: Oozie does not care about the result
+			//and retries are covered by polling.
+			exchange.sendResponseHeaders(200, -1);
+			OutputStream body = exchange.getResponseBody();
+			body.close();
+			exchange.close();
+
+			String jobId = parameters.get("jobId");
+			if (null != jobId && null != parameters.get("nodeName")) {
+				handleActionNotification(OozieClientUtil.getActionId(jobId, parameters.get("nodeName")),
+						parameters.get("status"));
+				return;
+			}
+			String statusName = parameters.get("status");
+			if (null == jobId || null == statusName) {
+				logger.log(Level.WARNING, "Received notification without jobId or status: {0}", exchange.getRequestURI());
+				return;
+			}
+			Status status;
+			try {
+				status = Status.valueOf(statusName);
+			}
+			catch(IllegalArgumentException e) {
+				logger.log(Level.FINE, "Ignoring notification with unknown status {0} for job {1}", new Object[] {statusName, jobId});
+				return;
+			}
+			logger.log(Level.FINE, "Received notification of job {0} with status {1}", new Object[] {jobId, status});
+			if (!CallbackManager.isDone(status)) {
+				return;
+			}
+
+			PersistedAction action;
+			try {
+				action = actionDao.getActionBySubmissionId(jobId);
+			}
+			catch(Exception e) {
+				logger.log(Level.WARNING, "Could not retrieve the action of job " + jobId, e);
+				return;
+			}
+			if (null == action) {
+				logger.log(Level.FINE, "No action found for job {0}. Polling will pick it up", jobId);
+				return;
+			}
+			if (!ActionState.SUBMITTED.equals(action.getState())) {
+				logger.log(Level.FINE, "Ignoring notification of action {0} with state {1}", new Object[] {action.get_id(), action.getState()});
+				return;
+			}
+			//Anyone can call the listener, so the status is confirmed
+			//with Oozie before it is acted upon.
+			try {
+				status = OozieClientUtil.getOozieWorkflowStatus(jobId);
+			}
+			catch(Exception e) {
+				logger.log(Level.WARNING, "Could not confirm the status of job " + jobId, e);
+				return;
+			}
+			if (!CallbackManager.isDone(status)) {
+				logger.log(Level.WARNING, "Ignoring notification of job {0}: Oozie reports status {1}", new Object[] {jobId, status});
+				return;
+			}
+			CallbackManager.notifyStatus(action, status);
+		}
+		
+		/**
+		 * Oozie sends S:&lt;status&gt; while the action is running, and
+		 * T:&lt;transition&gt; when it is done, which does not tell apart
+		 * success from failure, so the status is read from Oozie.
+		 */
+		private void handleActionNotification(String actionId, String statusName) {
+			logger.log(Level.FINE, "Received notification of action {0} with status {1}", new Object[] {actionId, statusName});
+			if (null != statusName && statusName.startsWith("S:")) {
+				return;
+			}
+			PersistedAction action;
+			Status status;
+			try {
+				action = actionDao.getActionBySubmissionId(actionId);
+				if (null == action || !ActionState.SUBMITTED.equals(action.getState())) {
+					return;
+				}
+				status = OozieClientUtil.getActionStatus(actionId);
+			}
+			catch(Exception e) {
+				logger.log(Level.WARNING, "Could not retrieve the status of action " + actionId, e);
+				return;
+			}
+			if (null != status) {
+				CallbackManager.notifyStatus(action, status);
+			}
+		}
+	}
+
+	CallbackListener(int port, ActionPersistance actionDao) throws IOException {
+		Preconditions.checkNotNull(actionDao);
+		this.actionDao = actionDao;
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		this.executor = WorkExecutors.newExecutor(NUMBER_OF_LISTENER_THREADS);
+		this.server.createContext(CALLBACK_PATH, new NotificationHandler());
+		this.server.setExecutor(this.executor);
+	}
+
+	void start() {
+		this.server.start();
+		int port = this.server.getAddress().getPort();
+		OozieClientUtil.setNotificationPort(port);
+		logger.log(Level.INFO, "Started CallbackListener on port {0}", port);
+	}
+
+	void stop() {
+		logger.info("Stopping CallbackListener...");
+		this.server.stop(0);
+		this.executor.shutdown();
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> toReturn = new HashMap<>();
+		if (null == query) {
+			return toReturn;
+		}
+		for (String pair : query.split("&")) {
+			int index = pair.indexOf('=');
+			if (index <= 0) {
+				continue;
+			}
+			try {
+				toReturn.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+						URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+			}
+			catch(UnsupportedEncodingException e) {
+				continue;
+			}
+		}
+		return toReturn;
+	}
+}
@@ -1,7 +1,15 @@
 package io.biblia.workflows.manager.action;
 
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
 import io.biblia.workflows.oozie.OozieClientUtil;
+import io.biblia.workflows.utils.AllocationProbe;
+import io.biblia.workflows.utils.WorkExecutors;
+
+import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -11,9 +19,29 @@ import org.apache.oozie.client.OozieClientException;
 import org.apache.oozie.client.WorkflowJob.Status;
 import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public class CallbackManager {
+/**
+ * Runs the callbacks of the actions that have finished running
+ * in Oozie.  The {@link SubmittedActionScraper} finds the submitted
+ * actions that are done and places them in a queue together with
+ * their final status, and the CallbackManager runs the callback that
+ * corresponds to each of them.
+ *
+ * If callback.listener.port is set, a {@link CallbackListener} also
+ * receives the notifications that Oozie sends when a job is done, and
+ * the submitted actions are polled much less often, only as a safety
+ * net for lost notifications.
+ *
+ * An action stays in the set of actions in flight from the moment it
+ * is placed in the queue until its callback finishes, so that the
+ * same action is never queued or processed twice at the same time.
+ */
+public class CallbackManager implements ConfigurationKeys {
 
 	private static CallbackManager instance = null;
 	
@@ -21,14 +49,39 @@ public class CallbackManager {
 	
 	private Callback callback;
 	
-	private static final BlockingQueue<PersistedAction> queue;
+	private static final BlockingQueue<SubmittedActionStatus> queue;
+	
+	/**
+	 * Ids of the actions that are in the queue or whose
+	 * callback is running.
+	 */
+	private static final Set<ObjectId> actionsInFlight;
+
+	/**
+	 * Executor that runs the callbacks.
+	 */
+	private static final ExecutorService callbacksExecutor;
+	
+	private static final int NUMBER_OF_CALLBACK_WORKERS = 5;
 	
+	private static final int DEFAULT_POLLING_SECONDS = 10;
+	
+	/**
+	 * Default polling interval when notifications are received
+	 * from Oozie.
+	 */
+	private static final int DEFAULT_SAFETY_NET_POLLING_SECONDS = 300;
+	
+	private static CallbackListener listener = null;
+
 	private ActionPersistance actionPersistance;
 	
 	final static Logger logger = Logger.getLogger(CallbackManager.class.getName());
 	
 	static {
 		queue = new LinkedBlockingQueue<>();
+		actionsInFlight = ConcurrentHashMap.newKeySet();
+		callbacksExecutor = WorkExecutors.newExecutor(NUMBER_OF_CALLBACK_WORKERS);
 	}
 	
 	private class CallbackManagerRunner implements Runnable {
@@ -36,32 +89,25 @@ public class CallbackManager {
 		@Override
 		public void run() {
 			logger.info("Started CallbackManager.");
-			SubmittedActionScraper.start(queue, actionPersistance);
+			int defaultPolling = (null != listener) ? DEFAULT_SAFETY_NET_POLLING_SECONDS : DEFAULT_POLLING_SECONDS;
+			long pollingMillis = Math.max(Configuration.getIntValue(CALLBACK_POLLING_SECONDS, defaultPolling), 1) * 1000L;
+			SubmittedActionScraper.start(actionsInFlight, actionPersistance, pollingMillis);
 			while(!Thread.currentThread().isInterrupted()) {
 				try {
-					PersistedAction pAction = queue.take();
-					logger.log(Level.FINE, "Processing action {0} from the submitted actions queue", pAction.get_id());
-					String oozieSubmissionId = pAction.getSubmissionId();
-					
-					try {
-						Status status = OozieClientUtil.getOozieWorkflowStatus(oozieSubmissionId);
-						logger.log(Level.FINE, "Action " + pAction.get_id() + " has status {0}", status.name());
-						if (Status.SUCCEEDED.equals(status)) {
-							callback.actionFinished(pAction);
-						}
-						else if (Status.FAILED.equals(status)) {
-							callback.actionFailed(pAction);
-						}
-						else if (Status.KILLED.equals(status)) {
-							callback.actionKilled(pAction);
-						}
+					final SubmittedActionStatus actionStatus = queue.take();
+					logger.log(Level.FINE, "Processing action {0} from the submitted actions queue", actionStatus.getAction().get_id());
+					callbacksExecutor.execute(new Runnable() {
 						
-						Thread.sleep(100);
-					}
-					catch (OozieClientException ex) {
-						continue;
-					}
-					
+						@Override
+						public void run() {
+							try {
+								processAction(actionStatus.getAction(), actionStatus.getStatus());
+							}
+							finally {
+								actionsInFlight.remove(actionStatus.getAction().get_id());
+							}
+						}
+					});
 				}
 				catch (InterruptedException e) {
 					Thread.currentThread().interrupt();
@@ -72,12 +118,71 @@ public class CallbackManager {
 		}
 	}
 	
+	/**
+	 * Calls the callback that corresponds to the final status
+	 * of the action.
+	 * @param pAction
+	 * @param status
+	 */
+	private void processAction(PersistedAction pAction, Status status) {
+		logger.log(Level.FINE, "Action " + pAction.get_id() + " has status {0}", status.name());
+		if (Status.SUCCEEDED.equals(status)) {
+			callback.actionFinished(pAction);
+		}
+		else if (Status.FAILED.equals(status)) {
+			callback.actionFailed(pAction);
+		}
+		else if (Status.KILLED.equals(status)) {
+			callback.actionKilled(pAction);
+		}
+		else if (Status.PREP.equals(status)) {
+			callback.actionNotRun(pAction);
+		}
+	}
+	
+	/**
+	 * Queues the action to run the callback that corresponds to the
+	 * given final status, unless the action is already in flight.
+	 * @param pAction
+	 * @param status
+	 */
+	static void notifyStatus(PersistedAction pAction, Status status) {
+		if (actionsInFlight.add(pAction.get_id())) {
+			queue.add(new SubmittedActionStatus(pAction, status));
+			logger.log(Level.FINE, "Added action {0} with status {1} to the submitted actions queue",
+					new Object[] {pAction.get_id(), status});
+		}
+	}
+
+	/**
+	 * Returns true if the status is final: succeeded, failed or killed.
+	 * @param status
+	 * @return
+	 */
+	static boolean isDone(Status status) {
+		return Status.SUCCEEDED.equals(status) ||
+				Status.FAILED.equals(status) ||
+				Status.KILLED.equals(status);
+	}
+
 	private CallbackManager(ActionPersistance aPersistance, Callback callback) {
 		Preconditions.checkNotNull(aPersistance);
 		
 		this.actionPersistance = aPersistance;
 		this.callback = callback;
 		
+		int port = Configuration.getIntValue(CALLBACK_LISTENER_PORT, -1);
+		if (port >= 0) {
+			try {
+				listener = new CallbackListener(port, aPersistance);
+				listener.start();
+			}
+			catch(IOException e) {
+				logger.log(Level.SEVERE, "Could not start the CallbackListener. Falling back to polling", e);
+				listener = null;
+			}
+		}
+		
 		t = new Thread(new CallbackManagerRunner(), "CallbackManager thread");
 		
 		t.start();
@@ -99,10 +204,17 @@ public class CallbackManager {
 	}
 	
 	public static void stop() {
+		if (null != listener) {
+			listener.stop();
+		}
 		finishSubmittedActionScraper();
+		callbacksExecutor.shutdown();
 		if (null != t) {
 			t.interrupt();
 		}
+		if (null != instance) {
+			instance.callback.stop();
+		}
 	}
 	
 	private static void finishSubmittedActionScraper() {
@@ -110,17 +222,54 @@ public class CallbackManager {
 	}
 }
 
+/**
+ * A submitted action together with the final status
+ * that Oozie reported for it.
+ */
+class SubmittedActionStatus {
+
+	private final PersistedAction action;
+
+	private final Status status;
+
+	SubmittedActionStatus(PersistedAction action, Status status) {
+		this.action = action;
+		this.status = status;
+	}
+
+	PersistedAction getAction() {
+		return action;
+	}
+
+	Status getStatus() {
+		return status;
+	}
+}
+
+/**
+ * Reconciles the state of the submitted actions with their status
+ * in Oozie.  Every certain amount of time it reads the submitted
+ * actions from the database, gets the status of all of them from
+ * Oozie in bulk, and hands the actions that are done (succeeded,
+ * failed or killed) to the {@link CallbackManager}.  Actions that were
+ * submitted together in a single workflow are reported one by one, as
+ * soon as their own node in the workflow is done.  Actions that
+ * are still running, or that are already in flight, are skipped.
+ */
 class SubmittedActionScraper {
 	
 	private static SubmittedActionScraper instance = null;
 	
 	private static Thread t;
 	
-	private final BlockingQueue<PersistedAction> queue;
+	private final Set<ObjectId> actionsInFlight;
 	
 	private final ActionPersistance actionDao;
 	
-	private static final long SUBMITTED_ACTION_SCRAPER_TIMEOUT = 10000;
+	/**
+	 * Milliseconds to wait until polling again.
+	 */
+	private final long pollingMillis;
 	
 	final Logger logger = Logger.getLogger(SubmittedActionScraper.class.getName());
 	
@@ -131,23 +280,81 @@ class SubmittedActionScraper {
 			
 			while(!Thread.currentThread().isInterrupted()) {
 				
-				//1. Get all the submitted actions
-				List<PersistedAction> actions =  actionDao.getSubmittedActions();
-				logger.log(Level.FINE, "Obtained {0} actions from the submitted actions queue", actions.size());;
+				long allocationStart = AllocationProbe.allocatedBytes();
 				
-				//2. Place the action submitted id in the queue
-				for (PersistedAction pAction : actions) {
-					if (null != pAction) {
-						queue.add(pAction);
-						logger.log(Level.FINE, "Added action {0} to the submitted actions queue", pAction.get_id());
+				//1. Get a summary of all the submitted actions that are
+				//not in flight.
+				List<ActionSummary> actions =  actionDao.getSubmittedActionSummaries();
+				logger.log(Level.FINE, "Obtained {0} submitted actions from the database", actions.size());
+				
+				Map<String, ActionSummary> actionsBySubmissionId = new HashMap<>();
+				List<String> jobIds = new ArrayList<>();
+				Map<String, List<String>> actionIdsByJobId = new HashMap<>();
+				for (ActionSummary summary : actions) {
+					String submissionId = summary.getSubmissionId();
+					if (null == submissionId) {
+						logger.log(Level.FINE, "Skipping action {0} because it does not have a submission id yet", summary.getId());
+						continue;
+					}
+					if (actionsInFlight.contains(summary.getId())) {
+						continue;
+					}
+					actionsBySubmissionId.put(submissionId, summary);
+					if (OozieClientUtil.isActionId(submissionId)) {
+						String jobId = OozieClientUtil.getJobId(submissionId);
+						List<String> actionIds = actionIdsByJobId.get(jobId);
+						if (null == actionIds) {
+							actionIds = new ArrayList<>();
+							actionIdsByJobId.put(jobId, actionIds);
+						}
+						actionIds.add(submissionId);
 					}
 					else {
-						logger.log(Level.SEVERE, "Could not add action {0} to the queue because it had null submissionID", pAction.get_id());
+						jobIds.add(submissionId);
+					}
+				}
+
+				//2. Get their status from Oozie in bulk, and the status of
+				//the actions submitted in the same workflow with one query
+				//per workflow. Only the actions that are done are read in
+				//full and handed to the CallbackManager.
+				Map<String, Status> statuses = OozieClientUtil.getOozieWorkflowStatuses(jobIds);
+				for (Map.Entry<String, List<String>> entry : actionIdsByJobId.entrySet()) {
+					try {
+						statuses.putAll(OozieClientUtil.getActionStatuses(entry.getKey(), entry.getValue()));
+					}
+					catch(OozieClientException e) {
+						logger.log(Level.FINE, "Could not get the status of the actions of job {0}", entry.getKey());
+					}
+				}
+				int done = 0;
+				for (Map.Entry<String, Status> entry : statuses.entrySet()) {
+					ActionSummary summary = actionsBySubmissionId.get(entry.getKey());
+					Status status = entry.getValue();
+					//Actions of a workflow that is done come as PREP
+					//if they have to be submitted again.
+					boolean notRun = Status.PREP.equals(status) && OozieClientUtil.isActionId(entry.getKey());
+					if (null == summary || !(CallbackManager.isDone(status) || notRun)) {
+						continue;
+					}
+					try {
+						PersistedAction pAction = actionDao.getActionById(summary.getId().toHexString());
+						if (null != pAction && ActionState.SUBMITTED.equals(pAction.getState())) {
+							CallbackManager.notifyStatus(pAction, status);
+							done++;
+						}
+					}
+					catch(Exception e) {
+						logger.log(Level.WARNING, "Could not retrieve action " + summary.getId(), e);
 					}
 				}
+				logger.log(Level.FINE, "Found {0} actions that are done out of {1} submitted actions",
+						new Object[] {done, actionsBySubmissionId.size()});
+				logger.log(Level.FINER, "Bytes allocated by the submitted actions scrape: {0}",
+						AllocationProbe.allocatedSince(allocationStart));
 				
 				try {
-					Thread.sleep(SubmittedActionScraper.SUBMITTED_ACTION_SCRAPER_TIMEOUT);
+					Thread.sleep(pollingMillis);
 				}
 				catch(InterruptedException e) {
 					Thread.currentThread().interrupt();
@@ -156,11 +363,13 @@ class SubmittedActionScraper {
 		}
 	}
 	
-	private SubmittedActionScraper(BlockingQueue<PersistedAction> queue, ActionPersistance actionDao) {
-		Preconditions.checkNotNull(queue);
+	private SubmittedActionScraper(Set<ObjectId> actionsInFlight,
+			ActionPersistance actionDao, long pollingMillis) {
+		Preconditions.checkNotNull(actionsInFlight);
 		Preconditions.checkNotNull(actionDao);
-		this.queue = queue;
+		this.actionsInFlight = actionsInFlight;
 		this.actionDao = actionDao;
+		this.pollingMillis = pollingMillis;
 		t = new Thread(new ActionScraperRunner(), "Submitted Action Scraper Thread");
 		t.start();
 	}
@@ -171,9 +380,10 @@ class SubmittedActionScraper {
 		}
 	}
 	
-	public static void start(BlockingQueue<PersistedAction> actionsQueue, ActionPersistance actionDao) {
+	public static void start(Set<ObjectId> actionsInFlight,
+			ActionPersistance actionDao, long pollingMillis) {
 		if (null == instance){
-			instance = new SubmittedActionScraper(actionsQueue, actionDao);
+			instance = new SubmittedActionScraper(actionsInFlight, actionDao, pollingMillis);
 		}
 			
 	}
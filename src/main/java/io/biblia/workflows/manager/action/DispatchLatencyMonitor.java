@@ -0,0 +1,67 @@
+package io.biblia.workflows.manager.action;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the time it takes for an action to go from the
+ * READY state to being SUBMITTED to Oozie.  It is used to compare
+ * the polling and the push dispatch modes of the {@link ActionScraper}.
+ * @author dearj019
+ *
+ */
+public class DispatchLatencyMonitor {
+
+	private static final DispatchLatencyMonitor instance = new DispatchLatencyMonitor();
+	
+	private final AtomicLong count = new AtomicLong();
+	
+	private final AtomicLong totalMillis = new AtomicLong();
+	
+	private final AtomicLong maxMillis = new AtomicLong();
+	
+	private DispatchLatencyMonitor() {
+		
+	}
+	
+	/**
+	 * Registers the READY to SUBMITTED latency of one action.
+	 * @param millis
+	 */
+	public void record(long millis) {
+		if (millis < 0) {
+			millis = 0;
+		}
+		this.count.incrementAndGet();
+		this.totalMillis.addAndGet(millis);
+		long currentMax = this.maxMillis.get();
+		while (millis > currentMax && !this.maxMillis.compareAndSet(currentMax, millis)) {
+			currentMax = this.maxMillis.get();
+		}
+	}
+	
+	public long getCount() {
+		return this.count.get();
+	}
+	
+	public long getMaxMillis() {
+		return this.maxMillis.get();
+	}
+	
+	public double getMeanMillis() {
+		long n = this.count.get();
+		if (n == 0) {
+			return 0;
+		}
+		return this.totalMillis.get() / (double) n;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("dispatched=%d, meanReadyToSubmittedMs=%.1f, maxReadyToSubmittedMs=%d",
+				this.getCount(), this.getMeanMillis(), this.getMaxMillis());
+	}
+	
+	public static DispatchLatencyMonitor getInstance() {
+		return instance;
+	}
+}
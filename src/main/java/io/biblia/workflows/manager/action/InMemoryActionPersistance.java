@@ -0,0 +1,782 @@
+package io.biblia.workflows.manager.action;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.definition.parser.WorkflowParseException;
+import io.biblia.workflows.manager.DatabaseConstants;
+import io.biblia.workflows.manager.Journal;
+
+/**
+ * Keeps the actions in memory, with the same semantics as the
+ * {@link MongoActionPersistance}: the actions are kept as documents
+ * with the same fields, conditional updates fail with an
+ * OutdatedActionException when the version does not match, and unconditional
+ * updates behave as the corresponding MongoDB updates.
+ *
+ * All the operations take a read or a write lock of the whole store, so
+ * they are linearizable, and reads run concurrently.  Documents are never
+ * modified once stored: updates replace them by a modified copy.  The
+ * definition of each action is parsed only once, when it is inserted.
+ *
+ * If a {@link Journal} is given, every change is appended to it before
+ * it is applied, and the actions are recovered from it on construction.
+ * It is compacted after recovery, to the latest version of each action.
+ * @author dearj019
+ *
+ */
+public class InMemoryActionPersistance implements ActionPersistance, DatabaseConstants {
+
+	private static final String WORKFLOWS_COUNTER = "workflows";
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Journal journal;
+	private final ActionReadySignal readySignal = ActionReadySignal.getInstance();
+
+	private final Map<ObjectId, Document> actions = new HashMap<>();
+	private final Map<ObjectId, Action> definitions = new HashMap<>();
+
+	/**
+	 * Indexes of the actions by state, by submission id, by the ids of their
+	 * parents and by marker.
+	 */
+	private final Map<ActionState, Set<ObjectId>> byState = new EnumMap<>(ActionState.class);
+	private final Map<String, ObjectId> bySubmissionId = new HashMap<>();
+	private final Map<String, Set<ObjectId>> byParentId = new HashMap<>();
+	private final NavigableMap<Long, ObjectId> byMarker = new TreeMap<>();
+
+	private long actionsSequence = 0;
+	private long workflowsSequence = 0;
+
+	public InMemoryActionPersistance() {
+		this.journal = null;
+		for (ActionState state : ActionState.values()) {
+			this.byState.put(state, new LinkedHashSet<ObjectId>());
+		}
+	}
+
+	/**
+	 * Recovers the actions from the journal and appends the changes
+	 * to it from now on.
+	 * @param journal
+	 * @throws IOException
+	 */
+	public InMemoryActionPersistance(Journal journal) throws IOException {
+		Preconditions.checkNotNull(journal);
+		this.journal = journal;
+		for (ActionState state : ActionState.values()) {
+			this.byState.put(state, new LinkedHashSet<ObjectId>());
+		}
+		try {
+			for (Document record : journal.read()) {
+				if (record.containsKey("docs")) {
+					@SuppressWarnings("unchecked")
+					List<Document> documents = (List<Document>) record.get("docs");
+					for (Document document : documents) {
+						ObjectId id = document.getObjectId("_id");
+						if (!this.definitions.containsKey(id)) {
+							this.definitions.put(id, PersistedAction.parseAction(document).getAction());
+						}
+						apply(document);
+					}
+				}
+				else if (WORKFLOWS_COUNTER.equals(record.getString("counter"))) {
+					this.workflowsSequence = record.getLong("value");
+				}
+			}
+		}
+		catch(WorkflowParseException | JsonParseException ex) {
+			throw new IOException("Could not recover an action from the journal", ex);
+		}
+		List<Document> snapshot = new ArrayList<>();
+		snapshot.add(new Document("counter", WORKFLOWS_COUNTER).append("value", this.workflowsSequence));
+		for (Document document : this.actions.values()) {
+			snapshot.add(new Document("docs", Collections.singletonList(document)));
+		}
+		journal.rewrite(snapshot);
+	}
+
+	/**
+	 * Journals and stores the new versions of the documents.  It must be
+	 * called with the write lock held.
+	 */
+	private void write(List<Document> documents) {
+		if (documents.isEmpty()) {
+			return;
+		}
+		if (null != this.journal) {
+			this.journal.append(new Document("docs", documents));
+		}
+		for (Document document : documents) {
+			apply(document);
+		}
+	}
+
+	private void write(Document document) {
+		write(Collections.singletonList(document));
+	}
+
+	/**
+	 * Replaces the previous version of the document and updates the
+	 * indexes.
+	 */
+	private void apply(Document document) {
+		ObjectId id = document.getObjectId("_id");
+		Document previous = this.actions.put(id, document);
+		if (null != previous) {
+			this.byState.get(ActionState.valueOf(previous.getString("state"))).remove(id);
+			String submissionId = previous.getString("submissionId");
+			if (null != submissionId) {
+				this.bySubmissionId.remove(submissionId);
+			}
+			for (String parentId : getParentsActionIds(previous)) {
+				Set<ObjectId> children = this.byParentId.get(parentId);
+				children.remove(id);
+				if (children.isEmpty()) {
+					this.byParentId.remove(parentId);
+				}
+			}
+			Long marker = previous.getLong("marker");
+			if (null != marker) {
+				this.byMarker.remove(marker);
+			}
+		}
+		this.byState.get(ActionState.valueOf(document.getString("state"))).add(id);
+		String submissionId = document.getString("submissionId");
+		if (null != submissionId) {
+			this.bySubmissionId.put(submissionId, id);
+		}
+		for (String parentId : getParentsActionIds(document)) {
+			Set<ObjectId> children = this.byParentId.get(parentId);
+			if (null == children) {
+				children = new LinkedHashSet<>();
+				this.byParentId.put(parentId, children);
+			}
+			children.add(id);
+		}
+		Long marker = document.getLong("marker");
+		if (null != marker) {
+			this.byMarker.put(marker, id);
+			this.actionsSequence = Math.max(this.actionsSequence, marker);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> getParentsActionIds(Document document) {
+		List<String> parentsActionIds = (List<String>) document.get("parentsActionIds", List.class);
+		return (null != parentsActionIds) ? parentsActionIds : Collections.<String>emptyList();
+	}
+
+	/**
+	 * Returns a copy of the document with the version increased and the
+	 * last updated date set, ready to be modified.
+	 */
+	private static Document nextVersion(Document document, Date now) {
+		Document toReturn = new Document(document);
+		toReturn.put("version", document.getInteger("version") + 1);
+		toReturn.put("lastUpdatedDate", now);
+		return toReturn;
+	}
+
+	private static Document withState(Document document, ActionState state, Date now) {
+		Document toReturn = nextVersion(document, now);
+		toReturn.put("state", state.name());
+		if (ActionState.READY.equals(state)) {
+			toReturn.put("readyDate", now);
+		}
+		return toReturn;
+	}
+
+	private PersistedAction toPersistedAction(Document document) {
+		ObjectId id = document.getObjectId("_id");
+		List<String> parentsActionIds = new ArrayList<>(getParentsActionIds(document));
+		@SuppressWarnings("unchecked")
+		List<String> parentActionOutputs = (List<String>) document.get("parentActionOutputs", List.class);
+		PersistedAction toReturn = new PersistedAction(this.definitions.get(id), id,
+				document.getLong("workflowId"),
+				ActionState.valueOf(document.getString("state")),
+				document.getDate("lastUpdatedDate"),
+				document.getInteger("version"),
+				document.getString("submissionId"),
+				document.getDate("startTime"),
+				document.getDate("endTime"),
+				parentsActionIds,
+				(null != parentActionOutputs) ? new ArrayList<>(parentActionOutputs) : null,
+				document.getDouble("sizeInMB"),
+				document.getLong("marker"));
+		toReturn.setReadyDate(document.getDate("readyDate"));
+		return toReturn;
+	}
+
+	private List<PersistedAction> toPersistedActions(Iterable<Document> documents) {
+		List<PersistedAction> toReturn = new ArrayList<>();
+		for (Document document : documents) {
+			toReturn.add(toPersistedAction(document));
+		}
+		return toReturn;
+	}
+
+	private Document newDocument(ObjectId id, Action action, Long workflowId, ActionState state,
+			List<String> parentsActionIds, List<String> parentActionOutputs, Date now) {
+		Document document = new Document();
+		document.append("_id", id);
+		document.append("version", 1);
+		document.append("lastUpdatedDate", now);
+		document.append("workflowId", workflowId);
+		document.append("state", state.name());
+		if (ActionState.READY.equals(state)) {
+			document.append("readyDate", now);
+		}
+		document.append("action", action.toBson());
+		document.append("parentsActionIds", (null != parentsActionIds) ?
+				new ArrayList<>(parentsActionIds) : new ArrayList<String>());
+		document.append("parentActionOutputs", (null != parentActionOutputs) ?
+				new ArrayList<>(parentActionOutputs) : null);
+		return document;
+	}
+
+	private String insertAction(Action action, Long workflowId, ActionState state,
+			List<String> parentsActionIds, List<String> parentActionOutputs) {
+		ObjectId id = new ObjectId();
+		this.lock.writeLock().lock();
+		try {
+			this.definitions.put(id, action);
+			write(newDocument(id, action, workflowId, state, parentsActionIds, parentActionOutputs, new Date()));
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		if (ActionState.READY.equals(state)) {
+			this.readySignal.signal();
+		}
+		return id.toHexString();
+	}
+
+	@Override
+	public List<PersistedAction> getAvailableActions(int n) {
+		Date minus = new Date(System.currentTimeMillis() - OUTDATED_SECONDS * 1000L);
+		List<Document> documents = new ArrayList<>();
+		this.lock.readLock().lock();
+		try {
+			for (ObjectId id : this.byState.get(ActionState.READY)) {
+				if (n > 0 && documents.size() >= n) {
+					break;
+				}
+				documents.add(this.actions.get(id));
+			}
+			for (ObjectId id : this.byState.get(ActionState.PROCESSING)) {
+				if (n > 0 && documents.size() >= n) {
+					break;
+				}
+				Document document = this.actions.get(id);
+				if (document.getDate("lastUpdatedDate").before(minus)) {
+					documents.add(document);
+				}
+			}
+			return toPersistedActions(documents);
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<PersistedAction> claimAvailableActions(int n, String ownerId, long leaseMillis) {
+		Preconditions.checkNotNull(ownerId);
+		if (n <= 0) {
+			return new ArrayList<>();
+		}
+		Date now = new Date();
+		ObjectId claimId = new ObjectId();
+		List<Document> claimed = new ArrayList<>();
+		this.lock.writeLock().lock();
+		try {
+			Iterator<ObjectId> it = this.byState.get(ActionState.READY).iterator();
+			while (it.hasNext() && claimed.size() < n) {
+				Document document = withState(this.actions.get(it.next()), ActionState.PROCESSING, now);
+				document.put("owner", ownerId);
+				document.put("leaseExpiry", new Date(now.getTime() + leaseMillis));
+				document.put("claimId", claimId);
+				claimed.add(document);
+			}
+			write(claimed);
+			return toPersistedActions(claimed);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public long requeueExpiredActions() {
+		Date now = new Date();
+		Date minus = new Date(now.getTime() - OUTDATED_SECONDS * 1000L);
+		List<Document> requeued = new ArrayList<>();
+		this.lock.writeLock().lock();
+		try {
+			for (ObjectId id : this.byState.get(ActionState.PROCESSING)) {
+				Document document = this.actions.get(id);
+				Date leaseExpiry = document.getDate("leaseExpiry");
+				boolean expired = (null != leaseExpiry) ? leaseExpiry.before(now)
+						: document.getDate("lastUpdatedDate").before(minus);
+				if (expired) {
+					Document updated = withState(document, ActionState.READY, now);
+					updated.remove("owner");
+					updated.remove("leaseExpiry");
+					updated.remove("claimId");
+					requeued.add(updated);
+				}
+			}
+			write(requeued);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		if (!requeued.isEmpty()) {
+			this.readySignal.signal();
+		}
+		return requeued.size();
+	}
+
+	@Override
+	public List<PersistedAction> getSubmittedActions() {
+		this.lock.readLock().lock();
+		try {
+			List<PersistedAction> toReturn = new ArrayList<>();
+			for (ObjectId id : this.byState.get(ActionState.SUBMITTED)) {
+				toReturn.add(toPersistedAction(this.actions.get(id)));
+			}
+			return toReturn;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<ActionSummary> getSubmittedActionSummaries() {
+		this.lock.readLock().lock();
+		try {
+			List<ActionSummary> toReturn = new ArrayList<>();
+			for (ObjectId id : this.byState.get(ActionState.SUBMITTED)) {
+				toReturn.add(ActionSummary.parseSummary(this.actions.get(id)));
+			}
+			return toReturn;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a summary of at most max actions FINISHED or COMPUTED with a
+	 * marker greater than the given one, by increasing marker.  All the
+	 * actions with a marker are considered if marker is null.  Used by
+	 * the in-memory rolling window of the decision manager.
+	 * @param marker
+	 * @param max
+	 * @return
+	 */
+	public List<ActionSummary> getSummariesAfterMarker(Long marker, int max) {
+		this.lock.readLock().lock();
+		try {
+			NavigableMap<Long, ObjectId> after = (null == marker) ? this.byMarker
+					: this.byMarker.tailMap(marker, false);
+			List<ActionSummary> toReturn = new ArrayList<>();
+			for (ObjectId id : after.values()) {
+				if (toReturn.size() >= max) {
+					break;
+				}
+				Document document = this.actions.get(id);
+				if (isInWindow(document)) {
+					toReturn.add(ActionSummary.parseSummary(document));
+				}
+			}
+			return toReturn;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a summary of the last n actions FINISHED or COMPUTED, by
+	 * increasing marker.
+	 * @param n
+	 * @return
+	 */
+	public List<ActionSummary> getLastSummaries(int n) {
+		this.lock.readLock().lock();
+		try {
+			List<ActionSummary> toReturn = new ArrayList<>();
+			for (ObjectId id : this.byMarker.descendingMap().values()) {
+				if (toReturn.size() >= n) {
+					break;
+				}
+				Document document = this.actions.get(id);
+				if (isInWindow(document)) {
+					toReturn.add(ActionSummary.parseSummary(document));
+				}
+			}
+			Collections.reverse(toReturn);
+			return toReturn;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	private static boolean isInWindow(Document document) {
+		String state = document.getString("state");
+		return ActionState.FINISHED.name().equals(state) || ActionState.COMPUTED.name().equals(state);
+	}
+
+	@Override
+	public void readyAction(String databaseId) {
+		ObjectId id = new ObjectId(databaseId);
+		boolean readied = false;
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.actions.get(id);
+			if (null != document && ActionState.WAITING.name().equals(document.getString("state"))
+					&& getParentsActionIds(document).isEmpty()) {
+				write(withState(document, ActionState.READY, new Date()));
+				readied = true;
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		if (readied) {
+			this.readySignal.signal();
+		}
+	}
+
+	/**
+	 * Applies the update to the action if its version matches.
+	 */
+	private PersistedAction updateIfCurrent(PersistedAction action, Map<String, Object> fields,
+			ActionState state) throws OutdatedActionException {
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.actions.get(action.getId());
+			if (null == document || document.getInteger("version") != action.getVersion()) {
+				throw new OutdatedActionException();
+			}
+			Date now = new Date();
+			Document updated = (null != state) ? withState(document, state, now) : nextVersion(document, now);
+			updated.putAll(fields);
+			write(updated);
+			return toPersistedAction(updated);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public PersistedAction updateActionState(PersistedAction action, ActionState state)
+			throws OutdatedActionException, NullPointerException, JsonParseException, WorkflowParseException {
+		PersistedAction toReturn = updateIfCurrent(action, Collections.<String, Object>emptyMap(), state);
+		if (ActionState.READY.equals(state)) {
+			this.readySignal.signal();
+		}
+		return toReturn;
+	}
+
+	@Override
+	public PersistedAction getActionById(String actionId)
+			throws WorkflowParseException, NullPointerException, JsonParseException {
+		ObjectId id = new ObjectId(actionId);
+		this.lock.readLock().lock();
+		try {
+			Document document = this.actions.get(id);
+			return (null != document) ? toPersistedAction(document) : null;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public PersistedAction getActionBySubmissionId(String submissionId)
+			throws WorkflowParseException, NullPointerException, JsonParseException {
+		this.lock.readLock().lock();
+		try {
+			ObjectId id = this.bySubmissionId.get(submissionId);
+			return (null != id) ? toPersistedAction(this.actions.get(id)) : null;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public PersistedAction addActionSubmissionId(PersistedAction action, String id)
+			throws OutdatedActionException, NullPointerException, JsonParseException, WorkflowParseException {
+		Map<String, Object> fields = new HashMap<>();
+		fields.put("submissionId", id);
+		return updateIfCurrent(action, fields, null);
+	}
+
+	@Override
+	public PersistedAction addStartAndEndTimeAndSize(PersistedAction action, Date startTime, Date endTime,
+			Double sizeInMB) throws OutdatedActionException, NullPointerException, JsonParseException,
+			WorkflowParseException {
+		Preconditions.checkNotNull(action);
+		Preconditions.checkNotNull(startTime);
+		Preconditions.checkNotNull(endTime);
+		this.lock.writeLock().lock();
+		try {
+			Map<String, Object> fields = new HashMap<>();
+			fields.put("startTime", startTime);
+			fields.put("endTime", endTime);
+			fields.put("sizeInMB", sizeInMB);
+			fields.put("marker", this.actionsSequence + 1);
+			return updateIfCurrent(action, fields, null);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public String insertReadyAction(Action action, Long workflowId, List<String> parentsActionIds,
+			List<String> parentActionOutputs) {
+		return insertAction(action, workflowId, ActionState.READY, parentsActionIds, parentActionOutputs);
+	}
+
+	@Override
+	public String insertWaitingAction(Action action, Long workflowId, List<String> parentsActionIds,
+			List<String> parentActionOutputs) {
+		return insertAction(action, workflowId, ActionState.WAITING, parentsActionIds, parentActionOutputs);
+	}
+
+	@Override
+	public String insertComputedAction(Action action, Long workflowId, List<String> parentsActionIds,
+			List<String> parentActionOutputs) {
+		return insertAction(action, workflowId, ActionState.COMPUTED, parentsActionIds, parentActionOutputs);
+	}
+
+	@Override
+	public void insertActions(List<PendingAction> pendingActions) {
+		if (pendingActions.isEmpty()) {
+			return;
+		}
+		boolean anyReady = false;
+		Date now = new Date();
+		List<Document> documents = new ArrayList<>(pendingActions.size());
+		this.lock.writeLock().lock();
+		try {
+			long nextMarker = this.actionsSequence + 1;
+			for (PendingAction pending : pendingActions) {
+				Document document = newDocument(pending.getId(), pending.getAction(), pending.getWorkflowId(),
+						pending.getState(), pending.getParentsActionIds(), pending.getParentActionOutputs(), now);
+				if (ActionState.READY.equals(pending.getState())) {
+					anyReady = true;
+				}
+				else if (ActionState.COMPUTED.equals(pending.getState())) {
+					document.append("marker", nextMarker++);
+				}
+				this.definitions.put(pending.getId(), pending.getAction());
+				documents.add(document);
+			}
+			write(documents);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		if (anyReady) {
+			this.readySignal.signal();
+		}
+	}
+
+	@Override
+	public void forceUpdateActionState(ObjectId id, ActionState state) {
+		boolean updated = false;
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.actions.get(id);
+			if (null != document) {
+				write(withState(document, state, new Date()));
+				updated = true;
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		if (updated && ActionState.READY.equals(state)) {
+			this.readySignal.signal();
+		}
+	}
+
+	/**
+	 * Moves the action to a final state.
+	 */
+	private void actionEnded(ObjectId id, ActionState state) {
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.actions.get(id);
+			if (null != document) {
+				Document updated = withState(document, state, new Date());
+				write(updated);
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void actionFinished(ObjectId id) {
+		actionEnded(id, ActionState.FINISHED);
+	}
+
+	@Override
+	public void actionFailed(ObjectId id) {
+		actionEnded(id, ActionState.FAILED);
+	}
+
+	@Override
+	public void actionKilled(ObjectId id) {
+		actionEnded(id, ActionState.KILLED);
+	}
+
+	@Override
+	public void updateActionSizeInMB(ObjectId id, Double sizeInMB) {
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.actions.get(id);
+			if (null != document) {
+				Document updated = nextVersion(document, new Date());
+				updated.put("sizeInMB", sizeInMB);
+				write(updated);
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<ObjectId> readyChildActions(String actionId) {
+		List<ObjectId> childIds = new ArrayList<>();
+		boolean anyReady = false;
+		this.lock.writeLock().lock();
+		try {
+			Set<ObjectId> children = this.byParentId.get(actionId);
+			if (null == children) {
+				return childIds;
+			}
+			//As in MongoDB, removing the parent does not change the
+			//version of the child, but readying it does.
+			Date now = new Date();
+			List<Document> updated = new ArrayList<>();
+			for (ObjectId childId : children) {
+				Document child = this.actions.get(childId);
+				boolean waiting = ActionState.WAITING.name().equals(child.getString("state"));
+				if (!waiting && !ActionState.SUBMITTED.name().equals(child.getString("state"))) {
+					continue;
+				}
+				childIds.add(childId);
+				List<String> parentsActionIds = new ArrayList<>(getParentsActionIds(child));
+				parentsActionIds.removeAll(Collections.singleton(actionId));
+				Document next = (waiting && parentsActionIds.isEmpty()) ? withState(child, ActionState.READY, now)
+						: new Document(child);
+				next.put("parentsActionIds", parentsActionIds);
+				anyReady |= waiting && parentsActionIds.isEmpty();
+				updated.add(next);
+			}
+			write(updated);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		if (anyReady) {
+			this.readySignal.signal();
+		}
+		return childIds;
+	}
+
+	@Override
+	public List<PersistedAction> getWaitingChildActions(Collection<String> parentIds) {
+		Preconditions.checkNotNull(parentIds);
+		this.lock.readLock().lock();
+		try {
+			Set<ObjectId> childIds = new LinkedHashSet<>();
+			for (String parentId : parentIds) {
+				Set<ObjectId> children = this.byParentId.get(parentId);
+				if (null != children) {
+					childIds.addAll(children);
+				}
+			}
+			List<PersistedAction> toReturn = new ArrayList<>();
+			for (ObjectId childId : childIds) {
+				Document child = this.actions.get(childId);
+				if (ActionState.WAITING.name().equals(child.getString("state"))) {
+					toReturn.add(toPersistedAction(child));
+				}
+			}
+			return toReturn;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void addParentIdToAction(String childDatabaseId, String parentDatabaseId) {
+		ObjectId id = new ObjectId(childDatabaseId);
+		this.lock.writeLock().lock();
+		try {
+			Document child = this.actions.get(id);
+			if (null != child) {
+				Document next = new Document(child);
+				List<String> parentsActionIds = new ArrayList<>(getParentsActionIds(child));
+				parentsActionIds.add(parentDatabaseId);
+				next.put("parentsActionIds", parentsActionIds);
+				write(next);
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Long getNextWorkflowSequence() {
+		this.lock.writeLock().lock();
+		try {
+			long next = this.workflowsSequence + 1;
+			if (null != this.journal) {
+				this.journal.append(new Document("counter", WORKFLOWS_COUNTER).append("value", next));
+			}
+			this.workflowsSequence = next;
+			return next;
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+}
@@ -7,6 +7,7 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.result.UpdateResult;
 
@@ -25,6 +26,7 @@ import org.bson.types.ObjectId;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -41,7 +43,11 @@ import static com.mongodb.client.model.Filters.*;
  *          type: "command-line" | "map-reduce-1",
  *     }
  *     lastUpdatedDate: [Timestamp],
+ *     readyDate: [Timestamp], //Last time the action was moved to READY.
  *     submissionId: [String] //Submission id given by Oozie.
+ *     owner: [String] //Id of the server that claimed the action.
+ *     leaseExpiry: [Timestamp] //Time when the claim of the owner expires.
+ *     claimId: [ObjectId] //Id of the batch claim that claimed the action.
  *     state: ["READY", "PROCESSING", "SUBMITTED", "RUNNING", "FINISHED", "FAILED", "KILLED"];
  *     ...// Here go fields that are particular to specific action types
  *     ...//
@@ -53,6 +59,7 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
     private final MongoDatabase workflows;
     private final MongoCollection<Document> actions;
     private final MongoCollection<Document> counters;
+    private final ActionReadySignal readySignal = ActionReadySignal.getInstance();
     final static Logger logger = Logger.getLogger(MongoActionPersistance.class.getName());
     
  
@@ -94,6 +101,31 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
     	return toReturn;
     }
     
+    @Override
+    public List<ActionSummary> getSubmittedActionSummaries() {
+    	List<ActionSummary> toReturn = new ArrayList<>();
+    	
+    	MongoCursor<Document> iterator = this.actions.find(eq("state", ActionState.SUBMITTED.name()))
+    			.projection(ActionSummary.PROJECTION)
+    			.iterator();
+    	try {
+    		while(iterator.hasNext()) {
+    			Document next = iterator.next();
+    			try {
+    				toReturn.add(ActionSummary.parseSummary(next));
+    			}
+    			catch(Exception e) {
+    				logger.log(Level.WARNING, "Could not parse summary of action " + next.getObjectId("_id"), e);
+    			}
+    		}
+    	}
+    	finally {
+    		iterator.close();
+    	}
+    	
+    	return toReturn;
+    }
+    
     @Override
     public List<PersistedAction> getAvailableActions(int n) {
     	List<PersistedAction> toReturn = new ArrayList<>();
@@ -107,7 +139,7 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
                 eq("state", ActionState.READY.name()),
                 and(
                     eq("state", ActionState.PROCESSING.name()),
-                    gte("lastUpdatedDate", minus)
+                    lt("lastUpdatedDate", minus)
                 )
             )
         );
@@ -138,6 +170,147 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
     }
 
 
+	@Override
+	public List<PersistedAction> claimAvailableActions(int n, String ownerId, long leaseMillis) {
+		Preconditions.checkNotNull(ownerId);
+		List<PersistedAction> toReturn = new ArrayList<>();
+		if (n <= 0) {
+			return toReturn;
+		}
+		Date now = new Date();
+		//Actions whose lease expired are moved back to READY by the
+		//LeaseReaper, so only READY actions need to be considered here.
+		final Bson available = eq("state", ActionState.READY.name());
+		
+		//1. Find the ids of the candidate actions
+		List<ObjectId> candidates = new ArrayList<>();
+		MongoCursor<Document> idsIterator = this.actions.find(available)
+				.projection(new Document("_id", 1))
+				.limit(n)
+				.iterator();
+		try {
+			while (idsIterator.hasNext()) {
+				candidates.add(idsIterator.next().getObjectId("_id"));
+			}
+		}
+		finally {
+			idsIterator.close();
+		}
+		if (candidates.isEmpty()) {
+			return toReturn;
+		}
+		
+		//2. Claim all the candidates that are still available with a
+		//single update.  The availability filter is evaluated again
+		//by the database, so candidates taken by someone else in the
+		//meantime are left untouched.
+		ObjectId claimId = new ObjectId();
+		final Document update = new Document().append("$set", new Document("state", ActionState.PROCESSING.name())
+					.append("owner", ownerId)
+					.append("leaseExpiry", new Date(now.getTime() + leaseMillis))
+					.append("claimId", claimId))
+				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$inc", new Document("version", 1));
+		UpdateResult result = this.actions.updateMany(and(in("_id", candidates), available), update);
+		if (result.getModifiedCount() == 0) {
+			return toReturn;
+		}
+		
+		//3. Read back the actions that were claimed by this call.
+		MongoCursor<Document> iterator = this.actions.find(eq("claimId", claimId)).iterator();
+		try {
+			while (iterator.hasNext()) {
+				Document next = iterator.next();
+				try {
+					toReturn.add(PersistedAction.parseAction(next));
+				}
+				catch(Exception e) {
+					logger.log(Level.WARNING, "Could not parse claimed action " + next.getObjectId("_id"), e);
+				}
+			}
+		}
+		finally {
+			iterator.close();
+		}
+		return toReturn;
+	}
+
+	@Override
+	public long requeueExpiredActions() {
+		Date now = new Date();
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.SECOND, -1 * OUTDATED_SECONDS);
+		Date minus = calendar.getTime();
+		
+		//Actions claimed before leases existed do not have a leaseExpiry,
+		//so for those the lastUpdatedDate is used instead.
+		final Bson expired = and(
+				eq("state", ActionState.PROCESSING.name()),
+				or(
+					lt("leaseExpiry", now),
+					and(
+						exists("leaseExpiry", false),
+						lt("lastUpdatedDate", minus)
+					)
+				)
+			);
+		final Document update = new Document().append("$set", new Document("state", ActionState.READY.name()))
+				.append("$unset", new Document("owner", "")
+						.append("leaseExpiry", "")
+						.append("claimId", ""))
+				.append("$currentDate", currentDates(ActionState.READY))
+				.append("$inc", new Document("version", 1));
+		UpdateResult result = this.actions.updateMany(expired, update);
+		long requeued = result.getModifiedCount();
+		if (requeued > 0) {
+			this.readySignal.signal();
+		}
+		return requeued;
+	}
+
+	@Override
+	public void insertActions(List<PendingAction> pendingActions) {
+		if (pendingActions.isEmpty()) {
+			return;
+		}
+		List<Document> toInsert = new ArrayList<>(pendingActions.size());
+		boolean anyReady = false;
+		Date now = new Date();
+		//Reused actions are already COMPUTED, so they enter the rolling
+		//window of the decision manager right away.  Their markers are
+		//reserved with a single update of the counter.
+		int computed = 0;
+		for (PendingAction pending : pendingActions) {
+			if (ActionState.COMPUTED.equals(pending.getState())) {
+				computed++;
+			}
+		}
+		long nextMarker = (computed > 0) ? reserveLogSequence(computed) - computed + 1 : 0;
+		for (PendingAction pending : pendingActions) {
+			Document document = new Document();
+			document.append("_id", pending.getId());
+			document.append("version", 1);
+			document.append("lastUpdatedDate", now);
+			document.append("workflowId", pending.getWorkflowId());
+			document.append("state", pending.getState());
+			if (ActionState.READY.equals(pending.getState())) {
+				document.append("readyDate", now);
+				anyReady = true;
+			}
+			else if (ActionState.COMPUTED.equals(pending.getState())) {
+				document.append("marker", nextMarker++);
+			}
+			document.append("action", pending.getAction().toBson());
+			document.append("parentsActionIds", pending.getParentsActionIds());
+			document.append("parentActionOutputs", pending.getParentActionOutputs());
+			toInsert.add(document);
+		}
+		this.actions.insertMany(toInsert, new InsertManyOptions().ordered(true));
+		if (anyReady) {
+			this.readySignal.signal();
+		}
+	}
+
 	@Override
 	public String insertReadyAction(Action action, Long workflowId, List<String> parentsActionIds, List<String> parentActionOutputs) {
 		Document actionDoc = action.toBson();
@@ -145,11 +318,13 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
 		toInsert.append("version", 1);
 		toInsert.append("lastUpdatedDate", new Date());
 		toInsert.append("state", ActionState.READY);
+		toInsert.append("readyDate", new Date());
 		toInsert.append("workflowId", workflowId);
 		toInsert.append("action", actionDoc);
 		toInsert.append("parentsActionIds", parentsActionIds);
 		toInsert.append("parentActionOutputs", parentActionOutputs);
 		this.actions.insertOne(toInsert);
+		this.readySignal.signal();
 		return toInsert.getObjectId("_id").toHexString();
 	}
 	
@@ -223,8 +398,8 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
 		Preconditions.checkNotNull(endTime);
 		final Document filter = new Document().append("_id", action.getId())
 				.append("version", action.getVersion());
-		final Document update = new Document().append("$set", new Document("startTime", startTime).append("endTime", endTime).append("sizeInMB", sizeInMB))
-				
+		final Document update = new Document().append("$set", new Document("startTime", startTime).append("endTime", endTime).append("sizeInMB", sizeInMB)
+						.append("marker", getNextLogSequence()))
 				.append("$currentDate", new Document("lastUpdatedDate", true))
 				.append("$inc", new Document("version", 1));
 		
@@ -244,9 +419,12 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
 		
 		final Document filter = new Document().append("_id", id);
 		final Document update = new Document().append("$set", new Document("state", state))
-				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$currentDate", currentDates(state))
 				.append("$inc", new Document("version", 1));
-		this.actions.updateOne(filter, update);
+		UpdateResult result = this.actions.updateOne(filter, update);
+		if (ActionState.READY.equals(state) && result.getModifiedCount() > 0) {
+			this.readySignal.signal();
+		}
 	}
 
 	@Override
@@ -283,9 +461,7 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
 	public PersistedAction getActionBySubmissionId(String submissionId) throws WorkflowParseException,
 		NullPointerException, JsonParseException {
 		
-		final Document filter = new Document().append("submissionId", submissionId);
-		final Document update = new Document();
-		final Document found = this.actions.findOneAndUpdate(filter, update);
+		final Document found = this.actions.find(eq("submissionId", submissionId)).first();
 		if (null != found) {
 			PersistedAction toReturn = PersistedAction.parseAction(found);
 			return toReturn;
@@ -302,17 +478,23 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
         		eq("_id", actionId)
         	);
         final Document readyUpdate = new Document().append("$set", new Document("state", ActionState.READY.name()))
-				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$currentDate", currentDates(ActionState.READY))
 				.append("$inc", new Document("version", 1));
-        this.actions.updateOne(readyFilter, readyUpdate);
+        UpdateResult result = this.actions.updateOne(readyFilter, readyUpdate);
+        if (result.getModifiedCount() > 0) {
+        	this.readySignal.signal();
+        }
 		
 	}
 	
 	@Override
 	public List<ObjectId> readyChildActions(String actionId) {
 		//1. Find all the child actions with actionId as parent
+		//Children in the SUBMITTED state were submitted in the same Oozie
+		//workflow as actionId.
 		List<PersistedAction> childActions = new ArrayList<>();
-		final Document filter = new Document().append("state", ActionState.WAITING)
+		final Document filter = new Document().append("state", new Document("$in",
+										Arrays.asList(ActionState.WAITING.name(), ActionState.SUBMITTED.name())))
 									.append("parentsActionIds", actionId);
 		final FindIterable<Document> documents = this.actions.find(filter);
         
@@ -352,13 +534,44 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
         											.append("parentsActionIds", new Document("$size", 0))
         											.append("_id", new Document("$in", childIds));
         final Document readyUpdate = new Document().append("$set", new Document("state", ActionState.READY.name()))
-				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$currentDate", currentDates(ActionState.READY))
 				.append("$inc", new Document("version", 1));
-        this.actions.updateMany(readyFilter, readyUpdate);
+        UpdateResult readyResult = this.actions.updateMany(readyFilter, readyUpdate);
+        if (readyResult.getModifiedCount() > 0) {
+        	this.readySignal.signal();
+        }
         return childIds;
 		
 	}
 
+	@Override
+	public List<PersistedAction> getWaitingChildActions(Collection<String> parentIds) {
+		Preconditions.checkNotNull(parentIds);
+		List<PersistedAction> toReturn = new ArrayList<>();
+		if (parentIds.isEmpty()) {
+			return toReturn;
+		}
+		final FindIterable<Document> documents = this.actions.find(and(
+				eq("state", ActionState.WAITING.name()),
+				in("parentsActionIds", new ArrayList<>(parentIds))));
+		MongoCursor<Document> iterator = documents.iterator();
+		try {
+			while (iterator.hasNext()) {
+				try {
+					toReturn.add(PersistedAction.parseAction(iterator.next()));
+				}
+				catch(Exception e) {
+					e.printStackTrace();
+					continue;
+				}
+			}
+		}
+		finally {
+			iterator.close();
+		}
+		return toReturn;
+	}
+
 	@Override
 	public void addParentIdToAction(String childDatabaseId, String parentDatabaseId) {
 		
@@ -377,7 +590,7 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
         final Document filter = new Document().append("_id", action.getId())
                 .append("version", action.getVersion());
         final Document update = new Document().append("$set", new Document("state", state.name()))
-        		.append("$currentDate", new Document("lastUpdatedDate", true))
+        		.append("$currentDate", currentDates(state))
         		.append("$inc", new Document("version", 1));
 
         FindOneAndUpdateOptions options = new FindOneAndUpdateOptions();
@@ -387,6 +600,9 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
         	throw new OutdatedActionException();
         }
         else {
+        	if (ActionState.READY.equals(state)) {
+        		this.readySignal.signal();
+        	}
         	return PersistedAction.parseAction(newDocument);
         }
     }
@@ -395,7 +611,6 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
 	public void actionFinished(ObjectId id) {
 		final Document filter = new Document().append("_id", id);
 		final Document update = new Document().append("$set", new Document("state", ActionState.FINISHED.name()))
-				.append("$set", new Document("marker", getNextLogSequence()))
 				.append("$currentDate", new Document("lastUpdatedDate", true))
 				.append("$inc", new Document("version", 1));
 		UpdateResult result = this.actions.updateOne(filter, update);
@@ -405,7 +620,6 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
 	public void actionFailed(ObjectId id) {
 		final Document filter = new Document().append("_id", id);
 		final Document update = new Document().append("$set", new Document("state", ActionState.FAILED))
-				.append("$set", new Document("marker", getNextLogSequence()))
 				.append("$currentDate", new Document("lastUpdatedDate", true))
 				.append("$inc", new Document("version", 1));
 		this.actions.updateOne(filter, update);
@@ -415,21 +629,52 @@ public class MongoActionPersistance implements ActionPersistance, DatabaseConsta
 	public void actionKilled(ObjectId id) {
 		final Document filter = new Document().append("_id", id);
 		final Document update = new Document().append("$set", new Document("state", ActionState.KILLED))
-				.append("$set", new Document("marker", getNextLogSequence()))
 				.append("$currentDate", new Document("lastUpdatedDate", true))
 				.append("$inc", new Document("version", 1));
 		this.actions.updateOne(filter, update);
 	}
 
+	@Override
+	public void updateActionSizeInMB(ObjectId id, Double sizeInMB) {
+		final Document filter = new Document().append("_id", id);
+		final Document update = new Document().append("$set", new Document("sizeInMB", sizeInMB))
+				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$inc", new Document("version", 1));
+		this.actions.updateOne(filter, update);
+	}
+
+	/**
+	 * Returns the $currentDate fields to set when moving an action to
+	 * the given state.  Actions moved to READY also get their readyDate
+	 * updated, which is used to measure dispatch latency.
+	 * @param state
+	 * @return
+	 */
+	private Document currentDates(ActionState state) {
+		Document toReturn = new Document("lastUpdatedDate", true);
+		if (ActionState.READY.equals(state)) {
+			toReturn.append("readyDate", true);
+		}
+		return toReturn;
+	}
+
 	private Long getNextLogSequence() {
+		return reserveLogSequence(1);
+	}
+
+	/**
+	 * Reserves n consecutive markers and returns the last one.
+	 * @param n
+	 * @return
+	 */
+	private long reserveLogSequence(int n) {
 		final Document filter = new Document().append("_id", "actions");
-		final Document update = new Document().append("$inc", new Document("seq", 1));
+		final Document update = new Document().append("$inc", new Document("seq", n));
 		FindOneAndUpdateOptions options = new FindOneAndUpdateOptions();
 		options.returnDocument(ReturnDocument.AFTER);
 		options.upsert(true);
 		Document newDocument = this.counters.findOneAndUpdate(filter,  update, options);
-		Long toReturn = new Long(newDocument.getInteger("seq"));
-		return toReturn;
+		return ((Number) newDocument.get("seq")).longValue();
 	}
 	
 	@Override
@@ -0,0 +1,65 @@
+package io.biblia.workflows.manager.action;
+
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.definition.Action;
+
+/**
+ * An action that has been planned but not yet inserted in
+ * the database.  Its database id is generated beforehand, so that
+ * other actions and datasets can refer to it before it is inserted,
+ * and all the actions of a workflow can be inserted in one batch.
+ * @author dearj019
+ *
+ */
+public class PendingAction {
+
+	private final ObjectId id;
+	private final Action action;
+	private final Long workflowId;
+	private final ActionState state;
+	private final List<String> parentsActionIds;
+	private final List<String> parentActionOutputs;
+
+	public PendingAction(ObjectId id, Action action, Long workflowId,
+			ActionState state, List<String> parentsActionIds,
+			List<String> parentActionOutputs) {
+		Preconditions.checkNotNull(id);
+		Preconditions.checkNotNull(action);
+		Preconditions.checkNotNull(state);
+		this.id = id;
+		this.action = action;
+		this.workflowId = workflowId;
+		this.state = state;
+		this.parentsActionIds = parentsActionIds;
+		this.parentActionOutputs = parentActionOutputs;
+	}
+
+	public ObjectId getId() {
+		return id;
+	}
+
+	public Action getAction() {
+		return action;
+	}
+
+	public Long getWorkflowId() {
+		return workflowId;
+	}
+
+	public ActionState getState() {
+		return state;
+	}
+
+	public List<String> getParentsActionIds() {
+		return parentsActionIds;
+	}
+
+	public List<String> getParentActionOutputs() {
+		return parentActionOutputs;
+	}
+}
@@ -65,6 +65,11 @@ public class PersistedAction {
     
     private Long marker;
     
+    /**
+     * Last time the action was moved to the READY state.
+     */
+    private Date readyDate = null;
+    
     private final Long workflowId;
     
     private List<String> parentsActionIds;
@@ -204,6 +209,14 @@ public class PersistedAction {
 	public Date getEndTime() {
 		return endTime;
 	}
+	
+	public Date getReadyDate() {
+		return readyDate;
+	}
+	
+	void setReadyDate(Date readyDate) {
+		this.readyDate = readyDate;
+	}
 
 	public static PersistedAction parseAction(Document document) throws
     	WorkflowParseException, NullPointerException, JsonParseException {
@@ -224,7 +237,9 @@ public class PersistedAction {
 		List<String> parentsActionIds = (List<String>) document.get("parentsActionIds", List.class);
 		List<String> parentActionOutputs = (List<String>) document.get("parentActionOutputs", List.class);
 		
-		return new PersistedAction(action, id, workflowId, state, date, version, submissionId,
+		PersistedAction toReturn = new PersistedAction(action, id, workflowId, state, date, version, submissionId,
 				startTime, endTime, parentsActionIds, parentActionOutputs, sizeInMB, marker);
+		toReturn.setReadyDate(document.getDate("readyDate"));
+		return toReturn;
 	}
 }
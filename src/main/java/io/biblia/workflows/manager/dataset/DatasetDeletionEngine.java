@@ -0,0 +1,223 @@
+package io.biblia.workflows.manager.dataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.RateLimiter;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.hdfs.HdfsUtil;
+import io.biblia.workflows.manager.ServerIdentity;
+import io.biblia.workflows.manager.decision.DatasetLogDao;
+import io.biblia.workflows.utils.WorkExecutors;
+
+/**
+ * Deletes datasets in batches.  Each call to {@link #deleteBatch()}:
+ *
+ * 1. Claims up to datasetdeletion.batchsize datasets to delete.
+ * 2. Moves all of them to DELETING with one bulk update, and orders
+ * them by the space they free, largest first.
+ * 3. Deletes their paths concurrently, at most
+ * datasetdeletion.opspersecond deletes per second, so that the
+ * NameNode is not flooded.
+ * 4. Moves the deleted datasets to DELETED, and the ones that could not
+ * be deleted back to STORED_TO_DELETE, with one bulk update each.
+ *
+ * Every change of state is logged in the {@link DatasetLogDao}.  The
+ * engine keeps the number of paths deleted and MB freed, and logs the
+ * throughput of each batch.
+ * @author dearj019
+ *
+ */
+public class DatasetDeletionEngine implements ConfigurationKeys {
+
+	private static final int DEFAULT_BATCH_SIZE = 200;
+
+	private static final int DEFAULT_OPS_PER_SECOND = 50;
+
+	private static final int DEFAULT_THREADS = 10;
+
+	private static final Logger logger = Logger.getLogger(DatasetDeletionEngine.class.getName());
+
+	private final DatasetPersistance datasetPersistance;
+
+	private final DatasetLogDao datasetLogDao;
+
+	private final int batchSize;
+
+	private final RateLimiter rateLimiter;
+
+	private final ExecutorService deletors;
+
+	private final AtomicLong deletedPaths = new AtomicLong();
+
+	/**
+	 * Space freed, in bytes so that it can be kept in an AtomicLong.
+	 */
+	private final AtomicLong freedBytes = new AtomicLong();
+
+	private final AtomicLong busyMillis = new AtomicLong();
+
+	private static final Comparator<PersistedDataset> LARGEST_FIRST = new Comparator<PersistedDataset>() {
+
+		@Override
+		public int compare(PersistedDataset o1, PersistedDataset o2) {
+			return Double.compare(getSizeInMB(o2), getSizeInMB(o1));
+		}
+	};
+
+	public DatasetDeletionEngine(DatasetPersistance datasetPersistance,
+			DatasetLogDao datasetLogDao) {
+		Preconditions.checkNotNull(datasetPersistance);
+		Preconditions.checkNotNull(datasetLogDao);
+		this.datasetPersistance = datasetPersistance;
+		this.datasetLogDao = datasetLogDao;
+		this.batchSize = Math.max(Configuration.getIntValue(DATASETDELETION_BATCHSIZE, DEFAULT_BATCH_SIZE), 1);
+		this.rateLimiter = RateLimiter.create(Math.max(Configuration.getIntValue(DATASETDELETION_OPSPERSECOND,
+				DEFAULT_OPS_PER_SECOND), 1));
+		this.deletors = WorkExecutors.newExecutor(
+				Math.max(Configuration.getIntValue(DATASETDELETION_THREADS, DEFAULT_THREADS), 1));
+	}
+
+	/**
+	 * Claims and deletes a batch of datasets.
+	 * @return the number of datasets claimed, which is 0 if there
+	 * was nothing to delete.
+	 * @throws InterruptedException
+	 */
+	public int deleteBatch() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		List<PersistedDataset> claimed = this.datasetPersistance.claimDatasetsToDelete(this.batchSize,
+				ServerIdentity.getOwnerId(), ServerIdentity.getLeaseMillis());
+		if (claimed.isEmpty()) {
+			return 0;
+		}
+
+		//1. Move all the datasets to DELETING.
+		List<PersistedDataset> deleting = new ArrayList<>(
+				this.datasetPersistance.updateDatasetsState(claimed, DatasetState.DELETING));
+		logEntries(deleting, DatasetState.STORED_TO_DELETE, DatasetState.DELETING);
+		if (deleting.size() < claimed.size()) {
+			logger.log(Level.WARNING, "{0} claimed datasets changed before they were deleted",
+					claimed.size() - deleting.size());
+		}
+		Collections.sort(deleting, LARGEST_FIRST);
+
+		//2. Delete the paths, largest datasets first.
+		List<Future<Boolean>> deletions = new ArrayList<>(deleting.size());
+		for (final PersistedDataset dataset : deleting) {
+			deletions.add(this.deletors.submit(new Callable<Boolean>() {
+
+				@Override
+				public Boolean call() {
+					rateLimiter.acquire();
+					try {
+						HdfsUtil.deletePath(dataset.getPath());
+						return true;
+					}
+					catch(IOException ex) {
+						logger.log(Level.WARNING, "Could not delete dataset " + dataset.getPath(), ex);
+						return false;
+					}
+				}
+			}));
+		}
+		List<PersistedDataset> deleted = new ArrayList<>();
+		List<PersistedDataset> failed = new ArrayList<>();
+		for (int i = 0; i < deleting.size(); i++) {
+			boolean success;
+			try {
+				success = deletions.get(i).get();
+			}
+			catch(ExecutionException ex) {
+				logger.log(Level.WARNING, "Could not delete dataset " + deleting.get(i).getPath(), ex);
+				success = false;
+			}
+			(success ? deleted : failed).add(deleting.get(i));
+		}
+
+		//3. Commit the new states.
+		List<PersistedDataset> committed = this.datasetPersistance.updateDatasetsState(deleted, DatasetState.DELETED);
+		logEntries(committed, DatasetState.DELETING, DatasetState.DELETED);
+		List<PersistedDataset> requeued = this.datasetPersistance.updateDatasetsState(failed, DatasetState.STORED_TO_DELETE);
+		logEntries(requeued, DatasetState.DELETING, DatasetState.STORED_TO_DELETE);
+
+		double freedInMB = 0;
+		for (PersistedDataset dataset : committed) {
+			freedInMB += getSizeInMB(dataset);
+		}
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		this.deletedPaths.addAndGet(committed.size());
+		this.freedBytes.addAndGet((long) (freedInMB * 1000000));
+		this.busyMillis.addAndGet(elapsed);
+		logger.log(Level.INFO, "Deleted {0} datasets ({1} MB) in {2} ms: {3} paths/s, {4} MB/s. {5} could not be deleted",
+				new Object[] {committed.size(), freedInMB, elapsed, committed.size() * 1000.0 / elapsed,
+						freedInMB * 1000.0 / elapsed, failed.size()});
+		return claimed.size();
+	}
+
+	private void logEntries(List<PersistedDataset> datasets, DatasetState previousState,
+			DatasetState newState) {
+		for (PersistedDataset dataset : datasets) {
+			try {
+				this.datasetLogDao.insertLogEntry(dataset.getPath(), previousState, newState, getSizeInMB(dataset));
+			}
+			catch(RuntimeException ex) {
+				logger.log(Level.WARNING, "Could not log the change of state of dataset " + dataset.getPath(), ex);
+			}
+		}
+	}
+
+	/**
+	 * The size of the dataset, which is unknown for the outputs of
+	 * actions that failed or were killed.
+	 */
+	private static double getSizeInMB(PersistedDataset dataset) {
+		Double sizeInMB = dataset.getSizeInMB();
+		return (null == sizeInMB) ? 0.0 : sizeInMB;
+	}
+
+	/**
+	 * @return the number of paths deleted so far.
+	 */
+	public long getDeletedPaths() {
+		return this.deletedPaths.get();
+	}
+
+	/**
+	 * @return the MB freed so far.
+	 */
+	public double getFreedMB() {
+		return this.freedBytes.get() / 1000000.0;
+	}
+
+	/**
+	 * @return the paths deleted per second of work.
+	 */
+	public double getPathsPerSecond() {
+		return this.deletedPaths.get() * 1000.0 / Math.max(this.busyMillis.get(), 1);
+	}
+
+	/**
+	 * @return the MB freed per second of work.
+	 */
+	public double getMBPerSecond() {
+		return getFreedMB() * 1000.0 / Math.max(this.busyMillis.get(), 1);
+	}
+
+	public void shutdown() {
+		this.deletors.shutdown();
+	}
+}
@@ -1,22 +1,17 @@
 package io.biblia.workflows.manager.dataset;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import io.biblia.workflows.manager.decision.DatasetLogDao;
 import com.google.common.base.Preconditions;
 
-import java.util.concurrent.BlockingQueue;
-
 /**
- * It sets to run the dataset scraper and the dataset deletors.
- * The dataset scraper is constantly checking for datasets
- * marked TO_DELETE in the database to fill the queue of datasets
- * to be deleted.  The Dataset deletors are consumers that
- * take those datasets from the queue and delete them.
+ * It sets to run the {@link DatasetDeletionEngine}, that claims
+ * the datasets marked TO_DELETE in the database in batches and
+ * deletes them.  While there are datasets to delete, batches are
+ * deleted one after the other. Otherwise, the database is checked
+ * again after some time.
  * @author dearj019
  *
  */
@@ -26,27 +21,11 @@ public class DatasetManager {
 	
 	private static Thread t;
 	
-	private static final BlockingQueue<PersistedDataset> datasetsQueue;
-	
-	private static final ExecutorService datasetDeletorsExecutor;
-	
-	private static final int NUMBER_OF_DATASET_DELETORS = 5;
+	private static final long DATASET_SCRAPER_TIMEOUT = 10000;
 	
 	private static final Logger logger = Logger.getLogger(DatasetManager.class.getName());
 	
-	private DatasetPersistance datasetPersistance;
-	
-	private DatasetLogDao datasetLogDao;
-	
-	static {
-		
-		//1. Create the concurrent queue
-		datasetsQueue = new LinkedBlockingQueue<>();
-		
-		datasetDeletorsExecutor = 
-				Executors.newFixedThreadPool(NUMBER_OF_DATASET_DELETORS);
-		
-	}
+	private static DatasetDeletionEngine engine;
 	
 	private class DatasetManagerRunner implements Runnable {
 
@@ -54,12 +33,18 @@ public class DatasetManager {
 		public void run() {
 			
 			logger.info("Started DatasetManager");
-			while (!Thread.currentThread().isInterrupted()) {
+			while(!Thread.currentThread().isInterrupted()) {
 				try{
-					PersistedDataset dataset = datasetsQueue.take();
-					logger.log(Level.FINER, "Took dataset {0} to the deletion queue", dataset.getPath());
-					datasetDeletorsExecutor.execute(new DatasetDeletor(dataset, datasetPersistance, datasetLogDao));
-					Thread.sleep(100);
+					int claimed = 0;
+					try {
+						claimed = engine.deleteBatch();
+					}
+					catch(RuntimeException ex) {
+						logger.log(Level.SEVERE, "Exception thrown when deleting a batch of datasets", ex);
+					}
+					if (0 == claimed) {
+						Thread.sleep(DATASET_SCRAPER_TIMEOUT);
+					}
 				}
 				catch (InterruptedException ex) {
 					Thread.currentThread().interrupt();
@@ -75,10 +60,7 @@ public class DatasetManager {
 		
 		Preconditions.checkNotNull(datasetPersistance);
 		Preconditions.checkNotNull(datasetLogDao);
-		this.datasetPersistance = datasetPersistance;
-		this.datasetLogDao = datasetLogDao;
-		
-		DatasetScraper.start(datasetsQueue, datasetPersistance);
+		engine = new DatasetDeletionEngine(datasetPersistance, datasetLogDao);
 		
 		t = new Thread(new DatasetManagerRunner(), "DatasetManager thread");
 		t.start();
@@ -101,19 +83,13 @@ public class DatasetManager {
 	}
 	public static void stop() {
 		logger.log(Level.INFO, "Shutting down Dataset Manager... ");
-		finishActionScraper();
-		finishDatasetDeletors();
 		if (null != t) {
 			t.interrupt();
 		}
-		
-	}
-	
-	private static void finishDatasetDeletors() {
-		datasetDeletorsExecutor.shutdown();
-	}
-	
-	private static void finishActionScraper() {
-		DatasetScraper.stop();
+		if (null != engine) {
+			engine.shutdown();
+			logger.log(Level.INFO, "Deleted {0} datasets, {1} MB freed",
+					new Object[] {engine.getDeletedPaths(), engine.getFreedMB()});
+		}
 	}
 }
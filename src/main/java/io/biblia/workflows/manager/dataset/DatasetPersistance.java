@@ -1,6 +1,8 @@
 package io.biblia.workflows.manager.dataset;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import io.biblia.workflows.definition.parser.DatasetParseException;
 
 public interface DatasetPersistance {
@@ -15,6 +17,31 @@ public interface DatasetPersistance {
 	 */
 	public List<PersistedDataset> getDatasetsToDelete(int number);
 	
+	/**
+	 * Claims up to number datasets to delete for the server identified
+	 * by ownerId: it moves them to the PROCESSING state and gives them
+	 * a lease that expires leaseMillis milliseconds from now. Datasets
+	 * that qualify are the datasets with state TO_DELETE and no claims
+	 * on them.  Datasets whose lease expired are moved back to TO_DELETE
+	 * by {@link #requeueExpiredDatasets()}.
+	 * 
+	 * The claim is done in a constant number of round trips to the
+	 * database, and datasets claimed by someone else in the meantime
+	 * are not returned.
+	 * @param number
+	 * @param ownerId
+	 * @param leaseMillis
+	 * @return the claimed datasets
+	 */
+	public List<PersistedDataset> claimDatasetsToDelete(int number, String ownerId, long leaseMillis);
+	
+	/**
+	 * Moves back to TO_DELETE all the datasets in the PROCESSING or
+	 * DELETING state whose lease has expired.
+	 * @return the number of datasets requeued.
+	 */
+	public long requeueExpiredDatasets();
+	
 	/**
 	 * Returns the path of all the paths that have been stored
 	 * @return
@@ -48,6 +75,19 @@ public interface DatasetPersistance {
 	PersistedDataset updateDatasetSizeInMB(PersistedDataset dataset,
 			Double sizeInMB) throws OutdatedDatasetException, DatasetParseException;
 	
+	/**
+	 * Updates the state of all the given datasets in a constant number
+	 * of round trips to the database.  As in
+	 * {@link #updateDatasetState(PersistedDataset, DatasetState)}, a
+	 * dataset is only updated if its version did not change, but
+	 * outdated datasets are left out of the result instead of throwing.
+	 * @param datasets
+	 * @param newState
+	 * @return the datasets that were updated.
+	 */
+	List<PersistedDataset> updateDatasetsState(Collection<PersistedDataset> datasets,
+			DatasetState newState);
+	
 	/**
 	 * Inserts the dataset into MongoDB. If the dataset already exists, it
 	 * replaces by a new one with version and lastUpdatedDate initialized new.
@@ -56,6 +96,13 @@ public interface DatasetPersistance {
 	 */
 	String insertDataset(PersistedDataset dataset);
 	
+	/**
+	 * Inserts all the datasets in a single ordered batch, with the
+	 * same semantics as {@link #insertDataset(PersistedDataset)}.
+	 * @param datasets
+	 */
+	void insertDatasets(List<PersistedDataset> datasets);
+	
 	/**
 	 * Adds the given action id to the list of actions that depend on this
 	 * dataset. When a dataset is initially created, it is given an initial 
@@ -67,6 +114,18 @@ public interface DatasetPersistance {
 	 */
 	PersistedDataset addClaimToDataset(PersistedDataset dataset, String actionId) throws DatasetParseException, OutdatedDatasetException;
 	
+	/**
+	 * Adds all the given action ids to the claims of the dataset
+	 * with a single update.
+	 * @param dataset
+	 * @param actionIds
+	 * @return the updated dataset
+	 * @throws DatasetParseException
+	 * @throws OutdatedDatasetException if the dataset was updated by
+	 * someone else in the meantime.
+	 */
+	PersistedDataset addClaimsToDataset(PersistedDataset dataset, Collection<String> actionIds) throws DatasetParseException, OutdatedDatasetException;
+	
 	/**
 	 * Removes the action id from the list of actions that depend on a dataset.
 	 * It is usually called whenever an action has finished executing.
@@ -89,4 +148,13 @@ public interface DatasetPersistance {
 	 * @return
 	 */
 	PersistedDataset getDatasetByPath(String outputPath) throws DatasetParseException;
+	
+	/**
+	 * Retrieves all the datasets with the given paths with a single
+	 * query.  Paths without a dataset, or whose dataset cannot be parsed,
+	 * are not included in the returned map.
+	 * @param paths
+	 * @return a map from path to dataset.
+	 */
+	Map<String, PersistedDataset> getDatasetsByPaths(Collection<String> paths);
 }
@@ -0,0 +1,299 @@
+package io.biblia.workflows.manager.dataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.types.ObjectId;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.definition.parser.DatasetParseException;
+import io.biblia.workflows.hdfs.HdfsUtil;
+import io.biblia.workflows.manager.action.ActionPersistance;
+import io.biblia.workflows.manager.decision.DatasetLogDao;
+import io.biblia.workflows.utils.WorkExecutors;
+
+/**
+ * Measures the size of datasets out of the callback path.
+ *
+ * {@link #measure(String)} computes the size of a path in the
+ * background.  Sizes are cached by path and modification time, so a
+ * path that has not changed costs a single call to the NameNode
+ * instead of a recursive content summary, and concurrent measurements
+ * of the same path share the same computation.  Outputs of actions are
+ * not modified once the action is done, which is what makes the
+ * modification time of the path a good enough key.
+ *
+ * When the job reported how many bytes it wrote, the size is derived
+ * from them with {@link #getReportedSizeInMB(String, long)} without
+ * calling the NameNode at all.  Those sizes are estimates, and so are
+ * the sizes that the callback writes when it does not want to wait
+ * for a measurement, so once the callback has written them, the path
+ * is queued with
+ * {@link #backfillLater(String, ObjectId, Double)}.  Every
+ * datasetsize.backfill.seconds seconds the queued paths are measured
+ * in bulk, and the size of the action, of its dataset, and of the
+ * dataset in the log are corrected.
+ * @author dearj019
+ *
+ */
+public class DatasetSizeService implements ConfigurationKeys {
+
+	private static final int DEFAULT_THREADS = 4;
+
+	private static final int DEFAULT_CACHE_SIZE = 10000;
+
+	private static final int DEFAULT_BACKFILL_SECONDS = 60;
+
+	/**
+	 * Sizes that differ by less than this are considered equal.
+	 */
+	private static final double SIZE_TOLERANCE_IN_MB = 0.000001;
+
+	private static final Logger logger = Logger.getLogger(DatasetSizeService.class.getName());
+
+	private final DatasetPersistance datasetPersistance;
+
+	private final ActionPersistance actionPersistance;
+
+	private final DatasetLogDao datasetLogDao;
+
+	private final ExecutorService measurers;
+
+	private final ScheduledExecutorService backfiller;
+
+	private final Cache<String, MeasuredSize> sizes;
+
+	private final ConcurrentMap<String, Future<Double>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Estimated sizes to correct, by path.
+	 */
+	private final ConcurrentMap<String, Estimate> toBackfill = new ConcurrentHashMap<>();
+
+	public DatasetSizeService(DatasetPersistance datasetPersistance,
+			ActionPersistance actionPersistance, DatasetLogDao datasetLogDao) {
+		Preconditions.checkNotNull(datasetPersistance);
+		Preconditions.checkNotNull(actionPersistance);
+		Preconditions.checkNotNull(datasetLogDao);
+		this.datasetPersistance = datasetPersistance;
+		this.actionPersistance = actionPersistance;
+		this.datasetLogDao = datasetLogDao;
+		this.measurers = WorkExecutors.newExecutor(
+				Math.max(Configuration.getIntValue(DATASETSIZE_THREADS, DEFAULT_THREADS), 1));
+		this.sizes = CacheBuilder.newBuilder()
+				.maximumSize(Math.max(Configuration.getIntValue(DATASETSIZE_CACHESIZE, DEFAULT_CACHE_SIZE), 1))
+				.build();
+		long backfillSeconds = Math.max(Configuration.getIntValue(DATASETSIZE_BACKFILL_SECONDS,
+				DEFAULT_BACKFILL_SECONDS), 1);
+		this.backfiller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DatasetSize backfiller");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.backfiller.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					backfill();
+				}
+				catch(RuntimeException ex) {
+					logger.log(Level.SEVERE, "Could not backfill the sizes of datasets", ex);
+				}
+			}
+		}, backfillSeconds, backfillSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Starts measuring the size of the path in the background.
+	 * @param path
+	 * @return the size of the path in MB, which is null if the path
+	 * does not exist.
+	 */
+	public Future<Double> measure(final String path) {
+		Preconditions.checkNotNull(path);
+		Future<Double> existing = this.inFlight.get(path);
+		if (null != existing) {
+			return existing;
+		}
+		FutureTask<Double> task = new FutureTask<Double>(new Callable<Double>() {
+
+			@Override
+			public Double call() throws IOException {
+				return computeSizeInMB(path);
+			}
+		}) {
+
+			@Override
+			protected void done() {
+				inFlight.remove(path, this);
+			}
+		};
+		existing = this.inFlight.putIfAbsent(path, task);
+		if (null != existing) {
+			return existing;
+		}
+		try {
+			this.measurers.execute(task);
+		}
+		catch(RejectedExecutionException ex) {
+			//Stopped: the callbacks still in flight measure on their own.
+			task.run();
+		}
+		return task;
+	}
+
+	/**
+	 * Returns the size of the path derived from the bytes that the job
+	 * reported to have written.
+	 * @param path
+	 * @param bytesWritten
+	 * @return the size in MB.
+	 */
+	public Double getReportedSizeInMB(String path, long bytesWritten) {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkArgument(bytesWritten >= 0);
+		return HdfsUtil.getSpaceConsumedInMB(path, bytesWritten);
+	}
+
+	/**
+	 * Queues the path so that it is measured later, and the estimated
+	 * size written for the action that computed it, for its dataset and
+	 * in the log is corrected.  It must be called after those writes.
+	 * @param path
+	 * @param actionId
+	 * @param estimatedSizeInMB
+	 */
+	public void backfillLater(String path, ObjectId actionId, Double estimatedSizeInMB) {
+		Preconditions.checkNotNull(path);
+		Preconditions.checkNotNull(actionId);
+		Preconditions.checkNotNull(estimatedSizeInMB);
+		this.toBackfill.put(path, new Estimate(actionId, estimatedSizeInMB));
+	}
+
+	private Double computeSizeInMB(String path) throws IOException {
+		Long modificationTime = HdfsUtil.getModificationTime(path);
+		if (null == modificationTime) {
+			this.sizes.invalidate(path);
+			return null;
+		}
+		MeasuredSize cached = this.sizes.getIfPresent(path);
+		if (null != cached && cached.modificationTime == modificationTime.longValue()) {
+			return cached.sizeInMB;
+		}
+		Double sizeInMB = HdfsUtil.getSizeInMB(path);
+		if (null != sizeInMB) {
+			this.sizes.put(path, new MeasuredSize(modificationTime, sizeInMB));
+		}
+		return sizeInMB;
+	}
+
+	/**
+	 * Measures all the queued paths at once, reads their datasets with
+	 * a single query, and corrects the sizes that differ from the
+	 * measured ones: the size of the action, the size of the dataset
+	 * and, if the dataset is on disk, the size in the log.  Paths that
+	 * could not be measured or updated stay queued.
+	 * @return the number of paths corrected.
+	 */
+	public int backfill() {
+		Map<String, Estimate> estimates = new HashMap<>(this.toBackfill);
+		if (estimates.isEmpty()) {
+			return 0;
+		}
+		for (Map.Entry<String, Estimate> entry : estimates.entrySet()) {
+			this.toBackfill.remove(entry.getKey(), entry.getValue());
+		}
+		List<String> paths = new ArrayList<>(estimates.keySet());
+		Map<String, Future<Double>> measurements = new HashMap<>();
+		for (String path : paths) {
+			measurements.put(path, measure(path));
+		}
+		Map<String, PersistedDataset> datasets = this.datasetPersistance.getDatasetsByPaths(paths);
+		int updated = 0;
+		for (String path : paths) {
+			Estimate estimate = estimates.get(path);
+			try {
+				Double sizeInMB = measurements.get(path).get();
+				if (null == sizeInMB || !differ(estimate.sizeInMB, sizeInMB)) {
+					continue;
+				}
+				this.actionPersistance.updateActionSizeInMB(estimate.actionId, sizeInMB);
+				PersistedDataset dataset = datasets.get(path);
+				if (null != dataset && (null == dataset.getSizeInMB() || differ(dataset.getSizeInMB(), sizeInMB))) {
+					Double previousSizeInMB = (null != dataset.getSizeInMB()) ? dataset.getSizeInMB() : estimate.sizeInMB;
+					this.datasetPersistance.updateDatasetSizeInMB(dataset, sizeInMB);
+					this.datasetLogDao.insertSizeCorrection(path, dataset.getState(), previousSizeInMB, sizeInMB);
+				}
+				updated++;
+			}
+			catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				this.toBackfill.putIfAbsent(path, estimate);
+			}
+			catch(ExecutionException | OutdatedDatasetException | DatasetParseException ex) {
+				logger.log(Level.WARNING, "Could not backfill the size of dataset " + path, ex);
+				this.toBackfill.putIfAbsent(path, estimate);
+			}
+		}
+		logger.log(Level.FINE, "Backfilled the size of {0} datasets", updated);
+		return updated;
+	}
+
+	private static boolean differ(double sizeInMB, double otherSizeInMB) {
+		return Math.abs(sizeInMB - otherSizeInMB) > SIZE_TOLERANCE_IN_MB;
+	}
+
+	public void stop() {
+		this.backfiller.shutdown();
+		this.measurers.shutdown();
+	}
+
+	private static class Estimate {
+
+		private final ObjectId actionId;
+		private final Double sizeInMB;
+
+		Estimate(ObjectId actionId, Double sizeInMB) {
+			this.actionId = actionId;
+			this.sizeInMB = sizeInMB;
+		}
+	}
+
+	private static class MeasuredSize {
+
+		private final long modificationTime;
+		private final Double sizeInMB;
+
+		MeasuredSize(long modificationTime, Double sizeInMB) {
+			this.modificationTime = modificationTime;
+			this.sizeInMB = sizeInMB;
+		}
+	}
+}
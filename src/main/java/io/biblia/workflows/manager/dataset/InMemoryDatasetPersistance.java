@@ -0,0 +1,496 @@
+package io.biblia.workflows.manager.dataset;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.definition.parser.DatasetParseException;
+import io.biblia.workflows.manager.DatabaseConstants;
+import io.biblia.workflows.manager.Journal;
+
+/**
+ * Keeps the datasets in memory, with the same semantics as the
+ * {@link MongoDatasetPersistance}: conditional updates fail with an
+ * OutdatedDatasetException when the version does not match, and
+ * unconditional updates behave as the corresponding MongoDB updates.
+ *
+ * As in the InMemoryActionPersistance, operations take a read or a write
+ * lock of the whole store, and stored documents are replaced, never
+ * modified.  If a {@link Journal} is given, every change is appended
+ * to it before it is applied, and the datasets are recovered from it
+ * on construction.
+ * @author dearj019
+ *
+ */
+public class InMemoryDatasetPersistance implements DatasetPersistance, DatabaseConstants {
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Journal journal;
+
+	private final Map<String, Document> datasets = new HashMap<>();
+
+	/**
+	 * Indexes of the datasets by state and by the action ids that
+	 * claim them.
+	 */
+	private final Map<DatasetState, Set<String>> byState = new EnumMap<>(DatasetState.class);
+	private final Map<String, Set<String>> byClaim = new HashMap<>();
+
+	public InMemoryDatasetPersistance() {
+		this.journal = null;
+		for (DatasetState state : DatasetState.values()) {
+			this.byState.put(state, new LinkedHashSet<String>());
+		}
+	}
+
+	/**
+	 * Recovers the datasets from the journal and appends the changes
+	 * to it from now on.
+	 * @param journal
+	 * @throws IOException
+	 */
+	public InMemoryDatasetPersistance(Journal journal) throws IOException {
+		Preconditions.checkNotNull(journal);
+		this.journal = journal;
+		for (DatasetState state : DatasetState.values()) {
+			this.byState.put(state, new LinkedHashSet<String>());
+		}
+		for (Document record : journal.read()) {
+			@SuppressWarnings("unchecked")
+			List<Document> documents = (List<Document>) record.get("docs");
+			for (Document document : documents) {
+				apply(document);
+			}
+		}
+		List<Document> snapshot = new ArrayList<>();
+		for (Document document : this.datasets.values()) {
+			snapshot.add(new Document("docs", Collections.singletonList(document)));
+		}
+		journal.rewrite(snapshot);
+	}
+
+	/**
+	 * Journals and stores the new versions of the documents.  It must be
+	 * called with the write lock held.
+	 */
+	private void write(List<Document> documents) {
+		if (documents.isEmpty()) {
+			return;
+		}
+		if (null != this.journal) {
+			this.journal.append(new Document("docs", documents));
+		}
+		for (Document document : documents) {
+			apply(document);
+		}
+	}
+
+	private void write(Document document) {
+		write(Collections.singletonList(document));
+	}
+
+	private void apply(Document document) {
+		String path = document.getString("path");
+		Document previous = this.datasets.put(path, document);
+		if (null != previous) {
+			this.byState.get(DatasetState.valueOf(previous.getString("state"))).remove(path);
+			for (String claim : getClaims(previous)) {
+				Set<String> paths = this.byClaim.get(claim);
+				paths.remove(path);
+				if (paths.isEmpty()) {
+					this.byClaim.remove(claim);
+				}
+			}
+		}
+		this.byState.get(DatasetState.valueOf(document.getString("state"))).add(path);
+		for (String claim : getClaims(document)) {
+			Set<String> paths = this.byClaim.get(claim);
+			if (null == paths) {
+				paths = new LinkedHashSet<>();
+				this.byClaim.put(claim, paths);
+			}
+			paths.add(path);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> getClaims(Document document) {
+		List<String> claims = (List<String>) document.get("claims", List.class);
+		return (null != claims) ? claims : Collections.<String>emptyList();
+	}
+
+	private static Document nextVersion(Document document, Date now) {
+		Document toReturn = new Document(document);
+		toReturn.put("version", document.getInteger("version", 0) + 1);
+		toReturn.put("lastUpdatedDate", now);
+		return toReturn;
+	}
+
+	private static PersistedDataset parseDataset(Document document) {
+		@SuppressWarnings("unchecked")
+		List<String> claims = (List<String>) document.get("claims", List.class);
+		return new PersistedDataset(document.getString("path"),
+				document.getDouble("sizeInMB"),
+				DatasetState.valueOf(document.getString("state")),
+				document.getDate("lastUpdatedDate"),
+				document.getInteger("version", 0),
+				(null != claims) ? new ArrayList<>(claims) : null);
+	}
+
+	private List<PersistedDataset> parseDatasets(Iterable<String> paths, int n) {
+		List<PersistedDataset> toReturn = new ArrayList<>();
+		for (String path : paths) {
+			if (n > 0 && toReturn.size() >= n) {
+				break;
+			}
+			toReturn.add(parseDataset(this.datasets.get(path)));
+		}
+		return toReturn;
+	}
+
+	private static boolean isUnclaimed(Document document) {
+		return getClaims(document).isEmpty();
+	}
+
+	private static Document newDocument(PersistedDataset dataset, Date now) {
+		return new Document().append("version", 1)
+				.append("lastUpdatedDate", now)
+				.append("state", dataset.getState().name())
+				.append("path", dataset.getPath())
+				.append("sizeInMB", dataset.getSizeInMB())
+				.append("claims", (null != dataset.getClaims()) ?
+						new ArrayList<>(dataset.getClaims()) : null);
+	}
+
+	@Override
+	public List<PersistedDataset> getDatasetsToDelete(int number) {
+		Date minus = new Date(System.currentTimeMillis() - OUTDATED_SECONDS * 1000L);
+		List<PersistedDataset> toReturn = new ArrayList<>();
+		this.lock.readLock().lock();
+		try {
+			for (String path : this.byState.get(DatasetState.STORED_TO_DELETE)) {
+				if (number > 0 && toReturn.size() >= number) {
+					return toReturn;
+				}
+				Document document = this.datasets.get(path);
+				if (isUnclaimed(document)) {
+					toReturn.add(parseDataset(document));
+				}
+			}
+			for (DatasetState state : new DatasetState[] {DatasetState.DELETING, DatasetState.PROCESSING}) {
+				for (String path : this.byState.get(state)) {
+					if (number > 0 && toReturn.size() >= number) {
+						return toReturn;
+					}
+					Document document = this.datasets.get(path);
+					if (document.getDate("lastUpdatedDate").before(minus)) {
+						toReturn.add(parseDataset(document));
+					}
+				}
+			}
+			return toReturn;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<PersistedDataset> claimDatasetsToDelete(int number, String ownerId, long leaseMillis) {
+		Preconditions.checkNotNull(ownerId);
+		List<Document> claimed = new ArrayList<>();
+		if (number <= 0) {
+			return new ArrayList<>();
+		}
+		Date now = new Date();
+		ObjectId claimId = new ObjectId();
+		this.lock.writeLock().lock();
+		try {
+			Iterator<String> it = this.byState.get(DatasetState.STORED_TO_DELETE).iterator();
+			while (it.hasNext() && claimed.size() < number) {
+				Document document = this.datasets.get(it.next());
+				if (isUnclaimed(document)) {
+					Document updated = nextVersion(document, now);
+					updated.put("state", DatasetState.PROCESSING.name());
+					updated.put("owner", ownerId);
+					updated.put("leaseExpiry", new Date(now.getTime() + leaseMillis));
+					updated.put("claimId", claimId);
+					claimed.add(updated);
+				}
+			}
+			write(claimed);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		List<PersistedDataset> toReturn = new ArrayList<>(claimed.size());
+		for (Document document : claimed) {
+			toReturn.add(parseDataset(document));
+		}
+		return toReturn;
+	}
+
+	@Override
+	public long requeueExpiredDatasets() {
+		Date now = new Date();
+		Date minus = new Date(now.getTime() - OUTDATED_SECONDS * 1000L);
+		List<Document> requeued = new ArrayList<>();
+		this.lock.writeLock().lock();
+		try {
+			for (DatasetState state : new DatasetState[] {DatasetState.DELETING, DatasetState.PROCESSING}) {
+				for (String path : this.byState.get(state)) {
+					Document document = this.datasets.get(path);
+					Date leaseExpiry = document.getDate("leaseExpiry");
+					boolean expired = (null != leaseExpiry) ? leaseExpiry.before(now)
+							: document.getDate("lastUpdatedDate").before(minus);
+					if (expired) {
+						Document updated = nextVersion(document, now);
+						updated.put("state", DatasetState.STORED_TO_DELETE.name());
+						updated.remove("owner");
+						updated.remove("leaseExpiry");
+						updated.remove("claimId");
+						requeued.add(updated);
+					}
+				}
+			}
+			write(requeued);
+			return requeued.size();
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<String> getAllStoredDatasetPaths() {
+		this.lock.readLock().lock();
+		try {
+			return new ArrayList<>(this.byState.get(DatasetState.STORED));
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<PersistedDataset> getAllStoredDatasets() {
+		this.lock.readLock().lock();
+		try {
+			return parseDatasets(this.byState.get(DatasetState.STORED), -1);
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Applies the update to the dataset if its version matches.
+	 */
+	private PersistedDataset updateIfCurrent(PersistedDataset dataset, String field, Object value)
+			throws OutdatedDatasetException {
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.datasets.get(dataset.getPath());
+			if (null == document || document.getInteger("version", 0) != dataset.getVersion()) {
+				throw new OutdatedDatasetException();
+			}
+			Document updated = nextVersion(document, new Date());
+			updated.put(field, value);
+			write(updated);
+			return parseDataset(updated);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public PersistedDataset updateDatasetState(PersistedDataset dataset, DatasetState newState)
+			throws OutdatedDatasetException, DatasetParseException {
+		return updateIfCurrent(dataset, "state", newState.name());
+	}
+
+	@Override
+	public PersistedDataset updateDatasetSizeInMB(PersistedDataset dataset, Double sizeInMB)
+			throws OutdatedDatasetException, DatasetParseException {
+		return updateIfCurrent(dataset, "sizeInMB", sizeInMB);
+	}
+
+	@Override
+	public List<PersistedDataset> updateDatasetsState(Collection<PersistedDataset> toUpdate,
+			DatasetState newState) {
+		List<PersistedDataset> toReturn = new ArrayList<>();
+		Date now = new Date();
+		this.lock.writeLock().lock();
+		try {
+			List<Document> updated = new ArrayList<>();
+			for (PersistedDataset dataset : toUpdate) {
+				Document document = this.datasets.get(dataset.getPath());
+				if (null == document || document.getInteger("version", 0) != dataset.getVersion()) {
+					continue;
+				}
+				Document next = nextVersion(document, now);
+				next.put("state", newState.name());
+				updated.add(next);
+			}
+			write(updated);
+			for (Document document : updated) {
+				toReturn.add(parseDataset(document));
+			}
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+		return toReturn;
+	}
+
+	@Override
+	public String insertDataset(PersistedDataset dataset) {
+		this.lock.writeLock().lock();
+		try {
+			write(newDocument(dataset, new Date()));
+			return dataset.getPath();
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void insertDatasets(List<PersistedDataset> toInsert) {
+		if (toInsert.isEmpty()) {
+			return;
+		}
+		Date now = new Date();
+		List<Document> documents = new ArrayList<>(toInsert.size());
+		for (PersistedDataset dataset : toInsert) {
+			documents.add(newDocument(dataset, now));
+		}
+		this.lock.writeLock().lock();
+		try {
+			write(documents);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public PersistedDataset addClaimToDataset(PersistedDataset dataset, String actionId)
+			throws DatasetParseException, OutdatedDatasetException {
+		return addClaimsToDataset(dataset, Collections.singletonList(actionId));
+	}
+
+	@Override
+	public PersistedDataset addClaimsToDataset(PersistedDataset dataset, Collection<String> actionIds)
+			throws DatasetParseException, OutdatedDatasetException {
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.datasets.get(dataset.getPath());
+			if (null == document || document.getInteger("version", 0) != dataset.getVersion()) {
+				throw new OutdatedDatasetException();
+			}
+			//As $addToSet, claims that are already there are not repeated.
+			Set<String> claims = new LinkedHashSet<>(getClaims(document));
+			claims.addAll(actionIds);
+			Document updated = nextVersion(document, new Date());
+			updated.put("claims", new ArrayList<>(claims));
+			write(updated);
+			return parseDataset(updated);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public PersistedDataset removeClaimFromDataset(PersistedDataset dataset, String actionId)
+			throws DatasetParseException, OutdatedDatasetException {
+		this.lock.writeLock().lock();
+		try {
+			Document document = this.datasets.get(dataset.getPath());
+			if (null == document || document.getInteger("version", 0) != dataset.getVersion()) {
+				throw new OutdatedDatasetException();
+			}
+			List<String> claims = new ArrayList<>(getClaims(document));
+			claims.removeAll(Collections.singleton(actionId));
+			Document updated = nextVersion(document, new Date());
+			updated.put("claims", claims);
+			write(updated);
+			return parseDataset(updated);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void removeClaimFromDatasets(String actionId) {
+		this.lock.writeLock().lock();
+		try {
+			Set<String> paths = this.byClaim.get(actionId);
+			if (null == paths) {
+				return;
+			}
+			//As in MongoDB, this does not change the version of the datasets.
+			List<Document> updated = new ArrayList<>(paths.size());
+			for (String path : paths) {
+				Document document = new Document(this.datasets.get(path));
+				List<String> claims = new ArrayList<>(getClaims(document));
+				claims.removeAll(Collections.singleton(actionId));
+				document.put("claims", claims);
+				updated.add(document);
+			}
+			write(updated);
+		}
+		finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public PersistedDataset getDatasetByPath(String outputPath) throws DatasetParseException {
+		this.lock.readLock().lock();
+		try {
+			Document document = this.datasets.get(outputPath);
+			return (null != document) ? parseDataset(document) : null;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, PersistedDataset> getDatasetsByPaths(Collection<String> paths) {
+		Map<String, PersistedDataset> toReturn = new HashMap<>();
+		this.lock.readLock().lock();
+		try {
+			for (String path : paths) {
+				Document document = this.datasets.get(path);
+				if (null != document) {
+					toReturn.put(path, parseDataset(document));
+				}
+			}
+			return toReturn;
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package io.biblia.workflows.manager.dataset;
 
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Date;
@@ -11,19 +12,27 @@ import java.util.HashMap;
 
 import io.biblia.workflows.definition.parser.DatasetParseException;
 
+import com.google.common.base.Preconditions;
 import com.mongodb.MongoClient;
 import com.mongodb.client.FindIterable;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
 
 import io.biblia.workflows.manager.DatabaseConstants;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
 import static com.mongodb.client.model.Filters.*;
 
@@ -91,6 +100,98 @@ public class MongoDatasetPersistance implements DatasetPersistance, DatabaseCons
 	}
 	
 	
+	@Override
+	public List<PersistedDataset> claimDatasetsToDelete(int n, String ownerId, long leaseMillis) {
+		Preconditions.checkNotNull(ownerId);
+		List<PersistedDataset> toReturn = new ArrayList<>();
+		if (n <= 0) {
+			return toReturn;
+		}
+		Date now = new Date();
+		//Datasets whose lease expired are moved back to STORED_TO_DELETE
+		//by the LeaseReaper.
+		final Bson toDelete = and(
+				eq("state", DatasetState.STORED_TO_DELETE.name()),
+				size("claims", 0)
+			);
+		
+		List<ObjectId> candidates = new ArrayList<>();
+		MongoCursor<Document> idsIterator = this.datasets.find(toDelete)
+				.projection(new Document("_id", 1))
+				.limit(n)
+				.iterator();
+		try {
+			while (idsIterator.hasNext()) {
+				candidates.add(idsIterator.next().getObjectId("_id"));
+			}
+		}
+		finally {
+			idsIterator.close();
+		}
+		if (candidates.isEmpty()) {
+			return toReturn;
+		}
+		
+		ObjectId claimId = new ObjectId();
+		final Document update = new Document().append("$set", new Document("state", DatasetState.PROCESSING.name())
+					.append("owner", ownerId)
+					.append("leaseExpiry", new Date(now.getTime() + leaseMillis))
+					.append("claimId", claimId))
+				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$inc", new Document("version", 1));
+		UpdateResult result = this.datasets.updateMany(and(in("_id", candidates), toDelete), update);
+		if (result.getModifiedCount() == 0) {
+			return toReturn;
+		}
+		
+		MongoCursor<Document> iterator = this.datasets.find(eq("claimId", claimId)).iterator();
+		try {
+			while (iterator.hasNext()) {
+				Document next = iterator.next();
+				try {
+					toReturn.add(parseDataset(next));
+				}
+				catch(Exception e) {
+					continue;
+				}
+			}
+		}
+		finally {
+			iterator.close();
+		}
+		return toReturn;
+	}
+	
+	@Override
+	public long requeueExpiredDatasets() {
+		Date now = new Date();
+		Calendar calendar = Calendar.getInstance();
+		calendar.add(Calendar.SECOND, -1 * OUTDATED_SECONDS);
+		Date minus = calendar.getTime();
+		
+		final Bson expired = and(
+				or(
+					eq("state", DatasetState.DELETING.name()),
+					eq("state", DatasetState.PROCESSING.name())
+				),
+				or(
+					lt("leaseExpiry", now),
+					and(
+						exists("leaseExpiry", false),
+						lt("lastUpdatedDate", minus)
+					)
+				)
+			);
+		final Document update = new Document().append("$set", new Document("state", DatasetState.STORED_TO_DELETE.name()))
+				.append("$unset", new Document("owner", "")
+						.append("leaseExpiry", "")
+						.append("claimId", ""))
+				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$inc", new Document("version", 1));
+		UpdateResult result = this.datasets.updateMany(expired, update);
+		return result.getModifiedCount();
+	}
+	
 	@Override
 	public List<PersistedDataset> getDatasetsToDelete(int n) {
 		List<PersistedDataset> toReturn = new ArrayList<>();
@@ -108,7 +209,7 @@ public class MongoDatasetPersistance implements DatasetPersistance, DatabaseCons
 						eq("state", DatasetState.DELETING.name()),
 						eq("state", DatasetState.PROCESSING.name())
 					),
-					gte("lastUpdatedDate", minus)
+					lt("lastUpdatedDate", minus)
 				)
 			)
 		);
@@ -182,6 +283,56 @@ public class MongoDatasetPersistance implements DatasetPersistance, DatabaseCons
 		return this.updateDatasetFields(dataset, fields);
 	}
 	
+	/**
+	 * Updates the datasets with one unordered bulk write, and reads them
+	 * back with one query.  A dataset was updated if it is in the new
+	 * state with the next version.
+	 */
+	@Override
+	public List<PersistedDataset> updateDatasetsState(Collection<PersistedDataset> toUpdate,
+			DatasetState newState) {
+		List<PersistedDataset> toReturn = new ArrayList<>();
+		if (toUpdate.isEmpty()) {
+			return toReturn;
+		}
+		List<WriteModel<Document>> requests = new ArrayList<>(toUpdate.size());
+		Map<String, Integer> versions = new HashMap<>();
+		for (PersistedDataset dataset : toUpdate) {
+			final Document filter = new Document().append("path", dataset.getPath())
+					.append("version", dataset.getVersion());
+			final Document update = new Document().append("$set", new Document("state", newState.name()))
+					.append("$currentDate", new Document("lastUpdatedDate", true))
+					.append("$inc", new Document("version", 1));
+			requests.add(new UpdateOneModel<Document>(filter, update));
+			versions.put(dataset.getPath(), dataset.getVersion() + 1);
+		}
+		this.datasets.bulkWrite(requests, new BulkWriteOptions().ordered(false));
+		
+		MongoCursor<Document> iterator = this.datasets.find(and(
+				in("path", new ArrayList<>(versions.keySet())),
+				eq("state", newState.name())
+			)).iterator();
+		try {
+			while (iterator.hasNext()) {
+				Document next = iterator.next();
+				Integer version = versions.get(next.getString("path"));
+				if (null == version || version.intValue() != next.getInteger("version", 0)) {
+					continue;
+				}
+				try {
+					toReturn.add(parseDataset(next));
+				}
+				catch(Exception e) {
+					continue;
+				}
+			}
+		}
+		finally {
+			iterator.close();
+		}
+		return toReturn;
+	}
+	
 	private PersistedDataset parseDataset(Document document) throws DatasetParseException {
 		
 		Date date = (Date) document.getDate("lastUpdatedDate");
@@ -220,6 +371,46 @@ public class MongoDatasetPersistance implements DatasetPersistance, DatabaseCons
 		return dataset.getPath();
 	}
 
+	@Override
+	public void insertDatasets(List<PersistedDataset> toInsert) {
+		if (toInsert.isEmpty()) {
+			return;
+		}
+		List<WriteModel<Document>> requests = new ArrayList<>(toInsert.size());
+		Date now = new Date();
+		for (PersistedDataset dataset : toInsert) {
+			final Document filter = new Document().append("path", dataset.getPath());
+			final Document replace = new Document().append("version", 1)
+					.append("lastUpdatedDate", now)
+					.append("state", dataset.getState())
+					.append("path", dataset.getPath())
+					.append("sizeInMB", dataset.getSizeInMB())
+					.append("claims", dataset.getClaims());
+			requests.add(new ReplaceOneModel<Document>(filter, replace, new UpdateOptions().upsert(true)));
+		}
+		this.datasets.bulkWrite(requests, new BulkWriteOptions().ordered(true));
+	}
+
+	@Override
+	public PersistedDataset addClaimsToDataset(PersistedDataset dataset, Collection<String> actionIds)
+		throws DatasetParseException, OutdatedDatasetException
+	{
+		final Document filter = new Document().append("path", dataset.getPath())
+				.append("version", dataset.getVersion());
+		final Document update = new Document().append("$addToSet", new Document("claims",
+					new Document("$each", new ArrayList<>(actionIds))))
+				.append("$currentDate", new Document("lastUpdatedDate", true))
+				.append("$inc", new Document("version", 1));
+		FindOneAndUpdateOptions options = new FindOneAndUpdateOptions();
+		options.returnDocument(ReturnDocument.AFTER);
+		Document newDocument = this.datasets.findOneAndUpdate(filter, update, options);
+		if (null == newDocument) {
+			throw new OutdatedDatasetException();
+		}
+		
+		return parseDataset(newDocument);
+	}
+
 	@Override
 	public PersistedDataset addClaimToDataset(PersistedDataset dataset, String actionId) 
 		throws DatasetParseException, OutdatedDatasetException
@@ -274,7 +465,6 @@ public class MongoDatasetPersistance implements DatasetPersistance, DatabaseCons
 		throws DatasetParseException
 	{
 		final Document filter = new Document().append("path", outputPath);
-		final Document update = new Document();
 		final FindIterable<Document> documents = this.datasets.find(filter);
 		
 		MongoCursor<Document> iterator = documents.iterator();
@@ -298,7 +488,28 @@ public class MongoDatasetPersistance implements DatasetPersistance, DatabaseCons
 		return null;
 	}
 
-
-
-
+	@Override
+	public Map<String, PersistedDataset> getDatasetsByPaths(Collection<String> paths) {
+		Map<String, PersistedDataset> toReturn = new HashMap<>();
+		if (paths.isEmpty()) {
+			return toReturn;
+		}
+		MongoCursor<Document> iterator = this.datasets.find(in("path", new ArrayList<>(paths))).iterator();
+		try {
+			while (iterator.hasNext()) {
+				Document next = iterator.next();
+				try {
+					PersistedDataset dataset = parseDataset(next);
+					toReturn.put(dataset.getPath(), dataset);
+				}
+				catch(Exception e) {
+					continue;
+				}
+			}
+		}
+		finally {
+			iterator.close();
+		}
+		return toReturn;
+	}
 }
@@ -1,20 +1,12 @@
 package io.biblia.workflows.manager.decision;
 
-import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import org.apache.commons.math3.stat.StatUtils;
-import com.google.common.primitives.Doubles;
 
 import io.biblia.workflows.manager.dataset.PersistedDataset;
 
@@ -23,107 +15,104 @@ public class AdaptiveDecisionAlgorithm implements DecisionAlgorithm {
 	@Override
 	public List<String> toDelete(SimplifiedWorkflowHistory history, List<PersistedDataset> storedDatasets,
 			Long spaceToFree) {
-		
+
 		Map<String, PersistedDataset> storedDatasetsMap = new HashMap<>();
-		
+
 		for (PersistedDataset d : storedDatasets) {
 			storedDatasetsMap.put(d.getPath(), d);
 		}
 		List<String> toReturn = new ArrayList<>();
-		
-		//1. Create an inverted index from workflow to datasets
-		SortedMap<Long, Set<String>> workflowToDatasets = new TreeMap<>();
-		Set<String> datasets = history.getActions();
-		for (String dataset : datasets) {
-			List<Long> workflowsIds = history.getActionWorkflows(dataset);
-			if (null != workflowsIds) {
-				for (Long workflowId : workflowsIds) {
-					if (!workflowToDatasets.containsKey(workflowId)) {
-						workflowToDatasets.put(workflowId, new HashSet<String>());
-					}
-					workflowToDatasets.get(workflowId).add(dataset);
-				}
+
+		//1. Create an inverted index from workflow to datasets: the
+		//actions of the history are packed as (workflow id, dataset id)
+		//and sorted, so that the datasets of each workflow are together
+		//and workflows are in ascending order.
+		int n = 0;
+		long[] workflowToDatasets = new long[history.size()];
+		for (int i = 0; i < history.size(); ++i) {
+			long workflowId = history.getEntryWorkflowId(i);
+			if (workflowId >= 0) {
+				workflowToDatasets[n++] = (workflowId << 32) | history.getEntryPathId(i);
 			}
 		}
-		
-		//2. Create a map from action to last workflow where it was 
+		Arrays.sort(workflowToDatasets, 0, n);
+
+		//2. Create a map from action to last workflow where it was
 		//seen
 		//3. Create a recency list and add elements to it
-		List<Double> recencyList = new ArrayList<>();
-		Map<String, Long> datasetToLastWorkflow = new HashMap<>();
-		Set<Entry<Long, Set<String>>> entrySet = workflowToDatasets.entrySet();
-		for(Entry<Long, Set<String>> e : entrySet) {
-			Long workflowId = e.getKey();
-			Set<String> wDatasets = e.getValue();
-			for (String dataset : wDatasets) {
-				if (datasetToLastWorkflow.containsKey(dataset)) {
-					Long lastWorkflowId = datasetToLastWorkflow.get(dataset);
-					recencyList.add(new Double(workflowId - lastWorkflowId));
-				}
-				datasetToLastWorkflow.put(dataset, workflowId);
+		double[] recencyList = new double[n];
+		int recencies = 0;
+		long[] datasetToLastWorkflow = new long[history.getPathIdBound()];
+		Arrays.fill(datasetToLastWorkflow, SimplifiedWorkflowHistory.UNKNOWN);
+		for (int i = 0; i < n; ++i) {
+			if (i > 0 && workflowToDatasets[i] == workflowToDatasets[i - 1]) {
+				continue;
+			}
+			long workflowId = workflowToDatasets[i] >>> 32;
+			int dataset = (int) workflowToDatasets[i];
+			if (SimplifiedWorkflowHistory.UNKNOWN != datasetToLastWorkflow[dataset]) {
+				recencyList[recencies++] = workflowId - datasetToLastWorkflow[dataset];
 			}
+			datasetToLastWorkflow[dataset] = workflowId;
 		}
-		
+
 		//5. Find mean and std of recency list
-		double [] numbers = Doubles.toArray(recencyList);
-		double mean = StatUtils.mean(numbers);
-		double std = Math.sqrt(StatUtils.variance(numbers));
-		
-		//6. Calculate value of each dataset with workflow id within mean + 3std of 
+		double mean = StatUtils.mean(recencyList, 0, recencies);
+		double std = Math.sqrt(StatUtils.variance(recencyList, 0, recencies));
+
+		//6. Calculate value of each dataset with workflow id within mean + 3std of
 		//current time
 		int a = (int)(mean + 3 * std);
-		Map<String, Double> datasetToValue = new HashMap<>();
-		SortedMap<Long, Set<String>> tailWorkflows = workflowToDatasets.tailMap(workflowToDatasets.lastKey() - a);
-		for(Entry<Long, Set<String>> e : tailWorkflows.entrySet()) {
-			Set<String> tDatasets = e.getValue();
-			for (String dataset : tDatasets) {
-				if (!datasetToValue.containsKey(dataset)) {
-					datasetToValue.put(dataset, 1.0);
-				}
-				else {
-					datasetToValue.put(dataset, datasetToValue.get(dataset) + 1);
+		int[] datasetToValue = new int[history.getPathIdBound()];
+		if (n > 0) {
+			long firstTailWorkflow = (workflowToDatasets[n - 1] >>> 32) - a;
+			for (int i = n - 1; i >= 0 && (workflowToDatasets[i] >>> 32) >= firstTailWorkflow; --i) {
+				if (i < n - 1 && workflowToDatasets[i] == workflowToDatasets[i + 1]) {
+					continue;
 				}
+				datasetToValue[(int) workflowToDatasets[i]]++;
 			}
 		}
-		
-		ArrayList<SimpleEntry<String, Double>> values = new ArrayList<>();
-		for (Entry<String, Double> e : datasetToValue.entrySet()) {
-			values.add(new SimpleEntry<>(e.getKey(), e.getValue()));
-		}
-		Collections.sort(values, new Comparator<SimpleEntry<String, Double>>() {
-			
-			public int compare(final SimpleEntry<String, Double> e1,
-					final SimpleEntry<String, Double> e2) {
-				return e1.getValue().compareTo(e2.getValue());
+
+		//Values packed with the id of the dataset, sorted ascending.
+		int valued = 0;
+		long[] values = new long[datasetToValue.length];
+		for (int dataset = 0; dataset < datasetToValue.length; ++dataset) {
+			if (datasetToValue[dataset] > 0) {
+				values[valued++] = ((long) datasetToValue[dataset] << 32) | dataset;
 			}
-		});
-		
+		}
+		Arrays.sort(values, 0, valued);
+
 		//7. Pick values until we fill the spaceToFree.
-		long spaceFred = 0;	
+		double spaceFred = 0;
 		for (PersistedDataset dataset : storedDatasets) {
-			if (!datasetToValue.containsKey(dataset.getPath())) {
+			int id = history.getPathId(dataset.getPath());
+			if (SimplifiedWorkflowHistory.NO_ID == id || 0 == datasetToValue[id]) {
 				toReturn.add(dataset.getPath());
-				spaceFred += dataset.getSizeInMB();
+				Double sizeInMB = dataset.getSizeInMB();
+				if (null != sizeInMB) {
+					spaceFred += sizeInMB;
+				}
 			}
 			if (spaceFred > spaceToFree) {
 				break;
 			}
 		}
-		
-		int i = 0; 
-		while (i < values.size() && spaceFred < spaceToFree) {
-			SimpleEntry<String, Double> e = values.get(i);
-			String outputPath = e.getKey();
-			
-			if (storedDatasetsMap.containsKey(outputPath)) {
-				ActionData actionData = history.getActionData(outputPath);
-				double sizeInMB = actionData.getSizeInMB();
-				spaceFred += sizeInMB;
+
+		int i = 0;
+		while (i < valued && spaceFred < spaceToFree) {
+			int dataset = (int) values[i];
+			String outputPath = history.getPath(dataset);
+
+			PersistedDataset stored = storedDatasetsMap.get(outputPath);
+			if (null != stored) {
+				spaceFred += DecisionAlgorithms.sizeInMB(history, dataset, stored);
 				toReturn.add(outputPath);
-				
 			}
+			i++;
 		}
-		
+
 		return toReturn;
 	}
 
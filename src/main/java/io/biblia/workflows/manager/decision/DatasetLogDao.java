@@ -1,5 +1,7 @@
 package io.biblia.workflows.manager.decision;
 
+import java.util.Map;
+
 import io.biblia.workflows.manager.dataset.DatasetState;
 
 /**
@@ -23,10 +25,39 @@ public interface DatasetLogDao {
 	public String insertLogEntry(String datasetPath, DatasetState previousState,
 			DatasetState newState, Double datasetSize);
 	
+	/**
+	 * Inserts an entry that corrects the size of a dataset that did not
+	 * change its state.  If the dataset is on disk, the space used
+	 * changes by the difference between both sizes.
+	 * @param datasetPath The path of the dataset in the file system
+	 * @param state The current state of the dataset
+	 * @param previousSize The size of the dataset in the previous entries
+	 * @param datasetSize The current size of the dataset
+	 * @return The id entry of the log.
+	 */
+	public String insertSizeCorrection(String datasetPath, DatasetState state,
+			Double previousSize, Double datasetSize);
+	
 	/**
 	 * Queries the log database and calculates how much space has been 
 	 * used by datasets in the file system. 
 	 * @return the space used in megabytes.
 	 */
 	public long currentlyUsedSpace();
+	
+	/**
+	 * Same as {@link #currentlyUsedSpace()}, and puts in newStates the
+	 * new state of the datasets of the entries counted for the first
+	 * time, which include at least the entries written by other
+	 * servers.
+	 * @param newStates the new state of each dataset, by path.
+	 * @return the space used in megabytes.
+	 */
+	public long currentlyUsedSpace(Map<String, DatasetState> newStates);
+	
+	/**
+	 * Writes to the database the entries that have been inserted
+	 * but not written yet.
+	 */
+	public void flush();
 }
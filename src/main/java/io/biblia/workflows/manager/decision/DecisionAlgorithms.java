@@ -0,0 +1,86 @@
+package io.biblia.workflows.manager.decision;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+
+/**
+ * Creates the decision algorithms by name, so that the algorithm used
+ * by the DecisionManager can be chosen with the
+ * {@link ConfigurationKeys#DECISIONMANAGER_ALGORITHM} key.
+ * @author dearj019
+ *
+ */
+public class DecisionAlgorithms implements ConfigurationKeys {
+
+	public static final String MOST_COMMONLY_USED = "mostcommonlyused";
+
+	public static final String ADAPTIVE = "adaptive";
+
+	public static final String KNAPSACK = "knapsack";
+
+	public static final String GDSF = "gdsf";
+
+	public static final String LINEAGE = "lineage";
+
+	/**
+	 * Returns a new instance of the algorithm with the given name.
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException if there is no algorithm with
+	 * that name.
+	 */
+	public static DecisionAlgorithm newAlgorithm(String name) {
+		if (MOST_COMMONLY_USED.equalsIgnoreCase(name)) {
+			return new MostCommonlyUsedDecisionAlgorithm();
+		}
+		else if (ADAPTIVE.equalsIgnoreCase(name)) {
+			return new AdaptiveDecisionAlgorithm();
+		}
+		else if (KNAPSACK.equalsIgnoreCase(name)) {
+			return new KnapsackDecisionAlgorithm();
+		}
+		else if (GDSF.equalsIgnoreCase(name)) {
+			return new GreedyDualSizeFrequencyDecisionAlgorithm();
+		}
+		else if (LINEAGE.equalsIgnoreCase(name)) {
+			return new LineageAwareDecisionAlgorithm();
+		}
+		throw new IllegalArgumentException("Unknown decision algorithm: " + name);
+	}
+
+	/**
+	 * Returns a new instance of the configured algorithm, which
+	 * by default is {@link #MOST_COMMONLY_USED}.
+	 * @return
+	 */
+	public static DecisionAlgorithm fromConfiguration() {
+		return newAlgorithm(Configuration.getValue(DECISIONMANAGER_ALGORITHM, MOST_COMMONLY_USED));
+	}
+
+	/**
+	 * Returns the size of the dataset, as recorded in the history.
+	 * Reused actions may not have a size in the history, in which
+	 * case the size of the stored dataset is used.
+	 * @param history
+	 * @param id the id of the path of the dataset in the history, or
+	 * {@link SimplifiedWorkflowHistory#NO_ID}.
+	 * @param dataset
+	 * @return
+	 */
+	static double sizeInMB(SimplifiedWorkflowHistory history, int id, PersistedDataset dataset) {
+		return sizeInMB(history, id, dataset.getSizeInMB());
+	}
+
+	/**
+	 * Same as {@link #sizeInMB(SimplifiedWorkflowHistory, int, PersistedDataset)},
+	 * given the size of the stored dataset, which may be null.
+	 */
+	static double sizeInMB(SimplifiedWorkflowHistory history, int id, Double storedSizeInMB) {
+		double sizeInMB = (SimplifiedWorkflowHistory.NO_ID != id) ? history.getActionSizeInMB(id) : Double.NaN;
+		if (Double.isNaN(sizeInMB)) {
+			sizeInMB = (null != storedSizeInMB) ? storedSizeInMB : 0;
+		}
+		return sizeInMB;
+	}
+}
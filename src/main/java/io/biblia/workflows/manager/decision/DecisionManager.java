@@ -6,11 +6,8 @@ import java.util.logging.Level;
 
 import com.google.common.base.Preconditions;
 
-import java.util.Date;
-import java.io.IOException;
-
-import io.biblia.workflows.hdfs.HdfsUtil;
-import io.biblia.workflows.manager.action.PersistedAction;
+import io.biblia.workflows.manager.action.ActionSummary;
+import io.biblia.workflows.utils.AllocationProbe;
 import io.biblia.workflows.Configuration;
 import io.biblia.workflows.ConfigurationKeys;
 import io.biblia.workflows.manager.dataset.DatasetPersistance;
@@ -27,24 +24,84 @@ public class DecisionManager {
 	
 	private DatasetPersistance dPersistance;
 	
+	private StorageLedger ledger;
+	
 	private static final Logger logger = Logger.getLogger(DecisionManager.class.getName());
 	
 	private DecisionAlgorithm decisionAlgorithm = new MostCommonlyUsedDecisionAlgorithm();
 	
+	/**
+	 * Default maximum number of actions kept in the history.
+	 */
+	private static final int DEFAULT_HISTORY_SIZE = 20000;
+	
+	/**
+	 * Maximum number of new actions read from the rolling
+	 * window at once.
+	 */
+	private static final int HISTORY_BATCH = 1000;
+	
+	/**
+	 * History of the last actions, kept across cycles and updated
+	 * only with the actions that finish.
+	 */
+	private final SimplifiedWorkflowHistory history;
+	
+	private boolean historyLoaded = false;
+	
 	private DecisionManager(DatasetPersistance dPersistance,
 			DecisionAlgorithm decisionAlgorithm,
-			ActionRollingWindow actionRollingWindow) {
+			ActionRollingWindow actionRollingWindow,
+			StorageLedger ledger) {
 		Preconditions.checkNotNull(dPersistance);
 		Preconditions.checkNotNull(actionRollingWindow);
 		Preconditions.checkNotNull(decisionAlgorithm);
+		Preconditions.checkNotNull(ledger);
 		this.dPersistance = dPersistance;
+		this.ledger = ledger;
 		this.decisionAlgorithm = decisionAlgorithm;
 		this.actionRollingWindow = actionRollingWindow;
+		this.history = new SimplifiedWorkflowHistory(
+				Configuration.getIntValue(ConfigurationKeys.DECISIONMANAGER_HISTORYSIZE, DEFAULT_HISTORY_SIZE));
 		
 		t = new Thread(new DecisionManagerRunner(), "DecisionManager thread");
 		t.start();
 	}
 	
+	/**
+	 * Feeds the history with the actions that have finished since the
+	 * last call.  The first call loads the last actions that fit in the
+	 * history.
+	 */
+	private void updateHistory() {
+		long allocationStart = AllocationProbe.allocatedBytes();
+		int added = 0;
+		if (!historyLoaded) {
+			added += addToHistory(actionRollingWindow.getLastActions(history.getCapacity()));
+			historyLoaded = true;
+		}
+		while (true) {
+			List<ActionSummary> newActions = actionRollingWindow.getNewActions(HISTORY_BATCH);
+			added += addToHistory(newActions);
+			if (newActions.size() < HISTORY_BATCH) {
+				break;
+			}
+		}
+		if (added > 0) {
+			logger.log(Level.FINER, "Added {0} actions to the history, which has {1} actions. Bytes allocated: {2}",
+					new Object[] {added, history.size(), AllocationProbe.allocatedSince(allocationStart)});
+		}
+	}
+	
+	private int addToHistory(List<ActionSummary> actions) {
+		for (ActionSummary action : actions) {
+			history.addAction(action.getOutputPath(), action.getParentActionOutputs(),
+					action.getWorkflowId(), action.getSizeInMB(),
+					action.getStartTime(), action.getEndTime());
+		}
+		return actions.size();
+	}
+	
 	private class DecisionManagerRunner implements Runnable, ConfigurationKeys {
 		
 		@Override
@@ -52,66 +109,60 @@ public class DecisionManager {
 			logger.info("Started DecisionManager");
 			while (!Thread.currentThread().isInterrupted()) {
 				try {
-					//1. Get the dataset space used. If dataset space
-					//is within a threshold percentage of total allowed
-					//space, keep going:
+					//0. Add the actions finished since the last cycle
+					//to the history.
 					try {
-						Long capacity = HdfsUtil.getFileSystemCapacityInMB();
-						Long capacityLimit = Long.parseLong(Configuration.getValue(DECISIONMANAGER_CAPACITYLIMIT));
-						capacity = Math.min(capacity, capacityLimit);
-						logger.log(Level.FINER, "Current system capacity in MB: {0}", capacity);
-						Long used = HdfsUtil.getFileSystemUsedSpaceInMB();
-						logger.log(Level.FINER, "Current system usagae in MB: {0}", used);
-						float usageRatio = Float.parseFloat(Configuration.getValue(DECISIONMANAGER_USAGERATIO, "0.8"));
-						if (used > capacity * usageRatio) {
-							long spaceToDelete = (long)(used - capacity * usageRatio); 
-							
-							//2. Get the last actions
-							List<PersistedAction> lastActions = actionRollingWindow.getLastActions(200);
-							logger.log(Level.FINER, "Obtained the last {0} actions from the rolling window", lastActions.size());
-							
-							//3. Create a SimplifiedWorkflow
-							SimplifiedWorkflowHistory sWorkflow = new SimplifiedWorkflowHistory();
-							for (PersistedAction action : lastActions) {
-								String outputPath = action.getAction().getOutputPath();
-								Double sizeInMB = action.getSizeInMB();
-								Date startTime = action.getStartTime();
-								Date endTime = action.getEndTime();
-								List<String> parentOutputPaths = action.getParentActionOutputs();
-								Long workflowId = action.getWorkflowId();
-								
-								sWorkflow.addAction(outputPath, parentOutputPaths, workflowId, sizeInMB, startTime, endTime);
+						updateHistory();
+					}
+					catch (Exception ex) {
+						logger.log(Level.WARNING, "Exception thrown when updating the workflow history: {0}", ex.toString());
+					}
+					
+					//1. Get the space that the managed datasets will use
+					//from the ledger, counting the datasets being computed
+					//and not the ones being deleted, once it has caught up
+					//with the entries of the other servers. If it is within a
+					//threshold percentage of total allowed space, keep going:
+					try {
+						ledger.refresh();
+					}
+					catch (Exception ex) {
+						logger.log(Level.WARNING, "Could not refresh the storage ledger: {0}", ex.toString());
+					}
+					long capacity = Long.parseLong(Configuration.getValue(DECISIONMANAGER_CAPACITYLIMIT));
+					long used = ledger.getPotentialSpaceInMB();
+					logger.log(Level.FINER, "Managed space in MB: {0}, reserved: {1}, being deleted: {2}, capacity: {3}",
+							new Object[] {ledger.getManagedSpaceInMB(), ledger.getReservedSpaceInMB(),
+									ledger.getDeletingSpaceInMB(), capacity});
+					float usageRatio = Float.parseFloat(Configuration.getValue(DECISIONMANAGER_USAGERATIO, "0.8"));
+					if (used > capacity * usageRatio) {
+						long spaceToDelete = (long)(used - capacity * usageRatio); 
+						
+						//2. Pass to the algorithm the space to free
+						//and the simplified workflow.
+						//3. Get the list of datasets to mark TO_DELETE
+						List<PersistedDataset> allDatasets = dPersistance.getAllStoredDatasets();
+						
+						logger.log(Level.FINER, "The number of datasets stored in the system is {0}", allDatasets.size());
+						List<String> toDelete = decisionAlgorithm.toDelete(history, allDatasets, spaceToDelete);
+						
+						//4. Mark those datasets STORED_TO_DELETE.
+						for (String actionOutput : toDelete) {
+							try {
+								PersistedDataset dataset = dPersistance.getDatasetByPath(actionOutput);
+								if (null != dataset) {
+									dPersistance.updateDatasetState(dataset, DatasetState.STORED_TO_DELETE);
+									logger.log(Level.INFO, "The state of dataset {0} was changed to STORED_TO_DELETE", dataset.getPath());
+								}
+							}
+							catch(Exception e) {
+								logger.severe("Unknown exception thrown when updating datasets state: " + e.toString());
+								continue;
 							}
 							
-							//4. Pass to the algorithm the space to free
-							//and the simplified workflow.
-							//5. Get the list of datasets to mark TO_DELETE
-							List<PersistedDataset> allDatasets = dPersistance.getAllStoredDatasets();
-							
-							logger.log(Level.FINER, "The number of datasets stored in the system is {0}", allDatasets.size());
-							List<String> toDelete = decisionAlgorithm.toDelete(sWorkflow, allDatasets, spaceToDelete);
 							
-							//6. Mark those datasets STORED_TO_DELETE.
-							for (String actionOutput : toDelete) {
-								try {
-									PersistedDataset dataset = dPersistance.getDatasetByPath(actionOutput);
-									if (null != dataset) {
-										dPersistance.updateDatasetState(dataset, DatasetState.STORED_TO_DELETE);
-										logger.log(Level.INFO, "The state of dataset {0} was changed to STORED_TO_DELETE", dataset.getPath());
-									}
-								}
-								catch(Exception e) {
-									logger.severe("Unknown exception thrown when updating datasets state: " + e.toString());
-									continue;
-								}
-								
-								
-							}
 						}
 					}
-					catch (IOException ex) {
-						logger.severe("IOException thrown when trying to get Hdfs usage info");
-					}
 					
 					Thread.sleep(10000);
 				}
@@ -141,13 +192,26 @@ public class DecisionManager {
 	
 	public static void start(DatasetPersistance persistance,
 			DecisionAlgorithm decisionAlgorithm,
-			ActionRollingWindow actionRollingWindow
+			ActionRollingWindow actionRollingWindow,
+			StorageLedger ledger
 			) {
 		if (null == instance) {
 			instance = new DecisionManager(persistance, 
 					decisionAlgorithm, 
-					actionRollingWindow);
+					actionRollingWindow,
+					ledger);
 		}
 	}
 	
+	/**
+	 * Starts the DecisionManager with the algorithm chosen in the
+	 * configuration.
+	 * @see DecisionAlgorithms#fromConfiguration()
+	 */
+	public static void start(DatasetPersistance persistance,
+			ActionRollingWindow actionRollingWindow,
+			StorageLedger ledger) {
+		start(persistance, DecisionAlgorithms.fromConfiguration(), actionRollingWindow, ledger);
+	}
+	
 }
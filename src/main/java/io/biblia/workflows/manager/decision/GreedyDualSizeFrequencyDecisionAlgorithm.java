@@ -0,0 +1,220 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+
+/**
+ * GreedyDual-Size-Frequency policy, weighted by the cost of recomputing
+ * the datasets.  Each stored dataset has a priority
+ *
+ *     H = L + frequency * cost / size
+ *
+ * where frequency is the number of times its action is in the history,
+ * cost is the time to recompute it (see {@link RecomputationCostTracker}) and
+ * L is the priority of the last dataset deleted.  Datasets are deleted
+ * by increasing priority, and L grows as they are deleted, so datasets
+ * that are not used again age out.
+ *
+ * The priority queue and the recomputation costs are kept across calls.
+ * On each call only the datasets that are new, that are actions of the
+ * history that changed, or whose cost depends on one of those, are
+ * evaluated again and moved in the queue.  A dataset whose frequency
+ * grew gets the current L as if it had just been accessed.  Instances
+ * are not thread safe, and are meant to be used by a single
+ * DecisionManager with a single history.
+ * @author dearj019
+ *
+ */
+public class GreedyDualSizeFrequencyDecisionAlgorithm implements DecisionAlgorithm {
+
+	private static class Entry implements Comparable<Entry> {
+
+		private final String path;
+
+		/**
+		 * Used to break ties, so that entries with the same priority
+		 * are different elements of the queue.
+		 */
+		private final long sequence;
+		private double base;
+		private int frequency;
+		private double value;
+		private double sizeInMB;
+		private Double storedSizeInMB;
+		private boolean queued = false;
+
+		Entry(String path, long sequence) {
+			this.path = path;
+			this.sequence = sequence;
+		}
+
+		double getPriority() {
+			return this.base + this.value;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int c = Double.compare(getPriority(), other.getPriority());
+			return (0 != c) ? c : Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	private final TreeSet<Entry> queue = new TreeSet<>();
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * The inflation value L.
+	 */
+	private double inflation = 0;
+
+	private long nextSequence = 0;
+
+	private final RecomputationCostTracker costs;
+
+	public GreedyDualSizeFrequencyDecisionAlgorithm() {
+		this(new RecomputationCostTracker());
+	}
+
+	GreedyDualSizeFrequencyDecisionAlgorithm(RecomputationCostTracker costs) {
+		this.costs = costs;
+	}
+
+	@Override
+	public List<String> toDelete(SimplifiedWorkflowHistory history, List<PersistedDataset> storedDatasets,
+			Long spaceToFree) {
+
+		//1. Apply the changes of the history since the last call.
+		boolean evaluateAll = this.costs.update(history);
+
+		//2. Add the datasets that are new, and note the ones whose
+		//stored size changed.
+		Set<String> toEvaluate = new HashSet<>();
+		int found = 0;
+		int added = 0;
+		for (PersistedDataset d : storedDatasets) {
+			Entry entry = this.entries.get(d.getPath());
+			if (null == entry) {
+				entry = new Entry(d.getPath(), this.nextSequence++);
+				entry.base = this.inflation;
+				entry.storedSizeInMB = d.getSizeInMB();
+				this.entries.put(d.getPath(), entry);
+				this.costs.setStored(d.getPath(), true);
+				toEvaluate.add(d.getPath());
+				added++;
+			}
+			else {
+				found++;
+				if (!Objects.equals(entry.storedSizeInMB, d.getSizeInMB())) {
+					entry.storedSizeInMB = d.getSizeInMB();
+					toEvaluate.add(d.getPath());
+				}
+			}
+		}
+
+		//3. Remove the datasets that are no longer stored, if any.
+		if (found + added < this.entries.size()) {
+			Set<String> storedPaths = new HashSet<>();
+			for (PersistedDataset d : storedDatasets) {
+				storedPaths.add(d.getPath());
+			}
+			Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Entry entry = it.next().getValue();
+				if (!storedPaths.contains(entry.path)) {
+					this.queue.remove(entry);
+					this.costs.setStored(entry.path, false);
+					it.remove();
+				}
+			}
+		}
+
+		//4. Evaluate again the datasets that changed.
+		Set<String> changed = this.costs.drainChanged();
+		if (evaluateAll) {
+			toEvaluate = this.entries.keySet();
+		}
+		else {
+			toEvaluate.addAll(changed);
+		}
+		for (String path : toEvaluate) {
+			Entry entry = this.entries.get(path);
+			if (null != entry) {
+				evaluate(history, entry);
+			}
+		}
+
+		//5. Delete by increasing priority until freeing enough space.
+		List<String> toReturn = new ArrayList<>();
+		double spaceFred = 0;
+		while (spaceFred < spaceToFree && !this.queue.isEmpty()) {
+			Entry entry = this.queue.pollFirst();
+			this.entries.remove(entry.path);
+			this.costs.setStored(entry.path, false);
+			this.inflation = entry.getPriority();
+			spaceFred += entry.sizeInMB;
+			toReturn.add(entry.path);
+		}
+		return toReturn;
+	}
+
+	private void evaluate(SimplifiedWorkflowHistory history, Entry entry) {
+		int id = history.getPathId(entry.path);
+		double sizeInMB = DecisionAlgorithms.sizeInMB(history, id, entry.storedSizeInMB);
+		int frequency = Math.max(1, history.getActionCount(id));
+		double cost = (SimplifiedWorkflowHistory.NO_ID != id) ? this.costs.getRecomputationTime(entry.path) : 0;
+		double value = frequency * Math.max(cost, 1.0) / Math.max(sizeInMB, 1.0);
+		update(entry, frequency, value, sizeInMB);
+	}
+
+	/**
+	 * Moves the dataset in the queue if it is new or its frequency
+	 * or value changed.
+	 */
+	private void update(Entry entry, int frequency, double value, double sizeInMB) {
+		entry.sizeInMB = sizeInMB;
+		if (entry.queued) {
+			if (entry.frequency == frequency && entry.value == value) {
+				return;
+			}
+			this.queue.remove(entry);
+			if (frequency > entry.frequency) {
+				entry.base = this.inflation;
+			}
+		}
+		entry.frequency = frequency;
+		entry.value = value;
+		entry.queued = this.queue.add(entry);
+	}
+
+	/**
+	 * Returns the paths of the datasets in the queue, in the order
+	 * in which they would be deleted.
+	 * @return
+	 */
+	List<String> getQueuedPaths() {
+		List<String> toReturn = new ArrayList<>(this.queue.size());
+		for (Entry entry : this.queue) {
+			toReturn.add(entry.path);
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Returns the number of datasets in the queue.
+	 * @return
+	 */
+	public int size() {
+		return this.queue.size();
+	}
+
+}
@@ -0,0 +1,47 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.manager.action.ActionSummary;
+import io.biblia.workflows.manager.action.InMemoryActionPersistance;
+
+/**
+ * Rolling window over the actions of an {@link InMemoryActionPersistance}.
+ * @author dearj019
+ *
+ */
+public class InMemoryActionRollingWindow implements ActionRollingWindow {
+
+	private final InMemoryActionPersistance persistance;
+
+	private Long marker = null;
+
+	public InMemoryActionRollingWindow(InMemoryActionPersistance persistance) {
+		Preconditions.checkNotNull(persistance);
+		this.persistance = persistance;
+	}
+
+	@Override
+	public List<ActionSummary> getLastActions(int n) {
+		Preconditions.checkArgument(n > 0);
+		return moveMarker(this.persistance.getLastSummaries(n));
+	}
+
+	@Override
+	public List<ActionSummary> getNewActions(int max) {
+		Preconditions.checkArgument(max > 0);
+		return moveMarker(this.persistance.getSummariesAfterMarker(this.marker, max));
+	}
+
+	private List<ActionSummary> moveMarker(List<ActionSummary> actions) {
+		if (!actions.isEmpty()) {
+			Long newest = actions.get(actions.size() - 1).getMarker();
+			if (null == this.marker || newest > this.marker) {
+				this.marker = newest;
+			}
+		}
+		return actions;
+	}
+}
@@ -0,0 +1,158 @@
+package io.biblia.workflows.manager.decision;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.manager.Journal;
+import io.biblia.workflows.manager.dataset.DatasetState;
+
+/**
+ * Keeps in memory the space used by the datasets, with the same
+ * accounting as the {@link MongoDatasetLogDao}.  The entries themselves
+ * are not kept: each one updates the used space when it is inserted.
+ *
+ * If a {@link Journal} is given, the entries are appended to it, and the
+ * used space is recovered from it on construction.  After recovery, the
+ * journal is compacted to a single record with the used space.
+ * @author dearj019
+ *
+ */
+public class InMemoryDatasetLogDao implements DatasetLogDao {
+
+	private final Journal journal;
+
+	private long marker = 0;
+
+	private double usedSpaceInMB = 0;
+
+	public InMemoryDatasetLogDao() {
+		this.journal = null;
+	}
+
+	public InMemoryDatasetLogDao(Journal journal) throws IOException {
+		Preconditions.checkNotNull(journal);
+		this.journal = journal;
+		for (Document record : journal.read()) {
+			if (record.containsKey("usedSpaceInMB")) {
+				this.marker = record.getLong("marker");
+				this.usedSpaceInMB = record.getDouble("usedSpaceInMB");
+			}
+			else if (record.containsKey("previousSizeInMB")) {
+				applyCorrection(DatasetState.valueOf(record.getString("newState")),
+						record.getDouble("previousSizeInMB"), record.getDouble("sizeInMB"));
+				this.marker = record.getLong("marker");
+			}
+			else {
+				apply(DatasetState.valueOf(record.getString("previousState")),
+						DatasetState.valueOf(record.getString("newState")),
+						record.getDouble("sizeInMB"));
+				this.marker = record.getLong("marker");
+			}
+		}
+		journal.rewrite(Arrays.asList(new Document("marker", this.marker)
+				.append("usedSpaceInMB", this.usedSpaceInMB)));
+	}
+
+	@Override
+	public synchronized String insertLogEntry(String datasetPath, DatasetState previousState,
+			DatasetState newState, Double sizeInMB) {
+		Preconditions.checkNotNull(datasetPath,
+				"datasetPath cannot be null");
+		Preconditions.checkNotNull(previousState,
+				"previousState cannot be null");
+		Preconditions.checkNotNull(newState,
+				"newState cannot be null");
+		Preconditions.checkNotNull(sizeInMB,
+				"sizeInMB cannot be null");
+		Preconditions.checkArgument(sizeInMB.longValue() >= 0,
+				"The sizeInMB most be greater than or equal to zero.");
+		Preconditions.checkArgument(!previousState.equals(newState),
+				"The previousState cannot be equal to newState");
+
+		long next = this.marker + 1;
+		if (null != this.journal) {
+			this.journal.append(new Document("datasetPath", datasetPath)
+					.append("previousState", previousState.name())
+					.append("newState", newState.name())
+					.append("marker", next)
+					.append("sizeInMB", sizeInMB));
+		}
+		apply(previousState, newState, sizeInMB);
+		this.marker = next;
+		return new ObjectId().toHexString();
+	}
+
+	@Override
+	public synchronized String insertSizeCorrection(String datasetPath, DatasetState state,
+			Double previousSizeInMB, Double sizeInMB) {
+		Preconditions.checkNotNull(datasetPath,
+				"datasetPath cannot be null");
+		Preconditions.checkNotNull(state,
+				"state cannot be null");
+		Preconditions.checkNotNull(previousSizeInMB,
+				"previousSizeInMB cannot be null");
+		Preconditions.checkNotNull(sizeInMB,
+				"sizeInMB cannot be null");
+
+		long next = this.marker + 1;
+		if (null != this.journal) {
+			this.journal.append(new Document("datasetPath", datasetPath)
+					.append("previousState", state.name())
+					.append("newState", state.name())
+					.append("marker", next)
+					.append("previousSizeInMB", previousSizeInMB)
+					.append("sizeInMB", sizeInMB));
+		}
+		applyCorrection(state, previousSizeInMB, sizeInMB);
+		this.marker = next;
+		return new ObjectId().toHexString();
+	}
+
+	private void applyCorrection(DatasetState state, double previousSizeInMB, double sizeInMB) {
+		if (isOnDisk(state)) {
+			this.usedSpaceInMB += sizeInMB - previousSizeInMB;
+		}
+	}
+
+	private void apply(DatasetState previousState, DatasetState newState, double sizeInMB) {
+		if (DatasetState.DELETED.equals(newState)) {
+			this.usedSpaceInMB -= sizeInMB;
+		}
+		else if (!isOnDisk(previousState) && isOnDisk(newState)) {
+			this.usedSpaceInMB += sizeInMB;
+		}
+	}
+
+	private static boolean isOnDisk(DatasetState state) {
+		return DatasetState.STORED.equals(state) || DatasetState.LEAF.equals(state)
+				|| DatasetState.STORED_TO_DELETE.equals(state) || DatasetState.DELETING.equals(state);
+	}
+
+	@Override
+	public synchronized long currentlyUsedSpace() {
+		return (long) this.usedSpaceInMB;
+	}
+
+	/**
+	 * The log is only written by this server, so newStates is
+	 * left untouched.
+	 */
+	@Override
+	public long currentlyUsedSpace(Map<String, DatasetState> newStates) {
+		return currentlyUsedSpace();
+	}
+
+	/**
+	 * Nothing to do: the entries are appended to the journal
+	 * when they are inserted.
+	 */
+	@Override
+	public void flush() {
+	}
+}
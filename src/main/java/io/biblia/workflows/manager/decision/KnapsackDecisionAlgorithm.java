@@ -0,0 +1,191 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+
+/**
+ * Picks the stored datasets to delete as a knapsack problem: among all
+ * the stored datasets, it chooses a set whose sizes add up to at least
+ * the space to free, minimizing the expected time spent recomputing
+ * them.
+ *
+ * The cost of deleting a dataset is the number of times its action
+ * appears in the history multiplied by the time needed to recompute
+ * it, which includes the time to recompute its ancestors that are not
+ * stored.  Costs are computed against the datasets currently stored, so
+ * the extra cost of deleting both a dataset and its parent is not
+ * accounted for.  Actions without a known runtime are assumed to take the
+ * mean runtime of the history.
+ *
+ * Small sets of candidates are solved exactly with dynamic programming
+ * over the space to free.  If the space to free is large, it is
+ * divided in units of more than 1 MB and the sizes of the datasets are
+ * rounded down, so the datasets chosen always free at least the space
+ * asked for.  Larger sets of candidates are solved greedily by cost per
+ * MB.
+ * @author dearj019
+ *
+ */
+public class KnapsackDecisionAlgorithm implements DecisionAlgorithm {
+
+	/**
+	 * Maximum number of candidates that are solved exactly.
+	 */
+	static final int EXACT_CANDIDATES = 256;
+
+	/**
+	 * Maximum number of cells of the dynamic programming table.
+	 */
+	static final int DP_CELLS = 1 << 21;
+
+	@Override
+	public List<String> toDelete(SimplifiedWorkflowHistory history, List<PersistedDataset> storedDatasets,
+			Long spaceToFree) {
+
+		if (null == spaceToFree || spaceToFree <= 0) {
+			return new ArrayList<>();
+		}
+
+		Set<String> storedPaths = new HashSet<>();
+		for (PersistedDataset d : storedDatasets) {
+			storedPaths.add(d.getPath());
+		}
+
+		//1. Compute the size and the cost of each candidate.
+		RecomputationCosts costs = new RecomputationCosts(history, storedPaths);
+		List<String> paths = new ArrayList<>();
+		double[] weights = new double[storedDatasets.size()];
+		double[] values = new double[storedDatasets.size()];
+		double totalSize = 0;
+		int n = 0;
+		for (PersistedDataset d : storedDatasets) {
+			int id = history.getPathId(d.getPath());
+			double sizeInMB = DecisionAlgorithms.sizeInMB(history, id, d);
+			if (sizeInMB <= 0) {
+				continue;
+			}
+			paths.add(d.getPath());
+			weights[n] = sizeInMB;
+			values[n] = costs.getCost(id);
+			totalSize += sizeInMB;
+			n++;
+		}
+		weights = Arrays.copyOf(weights, n);
+		values = Arrays.copyOf(values, n);
+
+		//2. If all of them are not enough, delete them all.
+		if (totalSize <= spaceToFree) {
+			return paths;
+		}
+
+		//3. Solve the knapsack.
+		boolean[] chosen = null;
+		if (n <= EXACT_CANDIDATES) {
+			chosen = solveExactly(weights, values, spaceToFree);
+		}
+		if (null == chosen) {
+			chosen = solveGreedily(weights, values, spaceToFree);
+		}
+
+		List<String> toReturn = new ArrayList<>();
+		for (int i = 0; i < n; ++i) {
+			if (chosen[i]) {
+				toReturn.add(paths.get(i));
+			}
+		}
+		return toReturn;
+	}
+
+	/**
+	 * Finds the items of minimum total value whose weights add up to at
+	 * least the target, with dynamic programming over the target divided
+	 * in units.  Returns null if no solution is found after rounding
+	 * the weights down.
+	 */
+	static boolean[] solveExactly(double[] weights, double[] values, double target) {
+		int n = weights.length;
+		int units = (int) Math.min(Math.ceil(target), DP_CELLS / Math.max(1, n) - 1);
+		if (units < 1) {
+			return null;
+		}
+		double unit = target / units;
+
+		//best[k] is the minimum value needed to get at least k units
+		//with the items seen so far.
+		double[] best = new double[units + 1];
+		Arrays.fill(best, Double.POSITIVE_INFINITY);
+		best[0] = 0;
+		boolean[][] taken = new boolean[n][units + 1];
+		for (int i = 0; i < n; ++i) {
+			int w = (int) Math.min(units, Math.floor(weights[i] / unit));
+			if (w <= 0) {
+				continue;
+			}
+			for (int k = units; k > 0; --k) {
+				double withItem = best[Math.max(0, k - w)] + values[i];
+				if (withItem < best[k]) {
+					best[k] = withItem;
+					taken[i][k] = true;
+				}
+			}
+		}
+		if (Double.isInfinite(best[units])) {
+			return null;
+		}
+
+		boolean[] chosen = new boolean[n];
+		int k = units;
+		for (int i = n - 1; i >= 0 && k > 0; --i) {
+			if (taken[i][k]) {
+				chosen[i] = true;
+				k = Math.max(0, k - (int) Math.min(units, Math.floor(weights[i] / unit)));
+			}
+		}
+		return chosen;
+	}
+
+	/**
+	 * Takes items by increasing value per unit of weight until the
+	 * target is reached, and then drops the most valuable items that are
+	 * not needed to reach it.
+	 */
+	static boolean[] solveGreedily(final double[] weights, final double[] values, double target) {
+		int n = weights.length;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Double.compare(values[a] / weights[a], values[b] / weights[b]);
+			}
+		});
+
+		boolean[] chosen = new boolean[n];
+		double total = 0;
+		int last = 0;
+		while (last < n && total < target) {
+			chosen[order[last]] = true;
+			total += weights[order[last]];
+			last++;
+		}
+
+		for (int j = last - 1; j >= 0; --j) {
+			int i = order[j];
+			if (total - weights[i] >= target) {
+				chosen[i] = false;
+				total -= weights[i];
+			}
+		}
+		return chosen;
+	}
+
+}
@@ -0,0 +1,273 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+
+/**
+ * Deletes datasets taking into account the lineage recorded in the
+ * history, so that a dataset that is cheap to recompute, but that saves
+ * the recomputation of an expensive chain of ancestors, is kept.
+ *
+ * For a dataset d, given the datasets that are stored:
+ *
+ * - rc(d) is the time to recompute d: its runtime plus the rc of its
+ * parents that are not stored.  Stored ancestors are the frontier where
+ * recomputation stops.
+ * - D(d) is the demand of d: its frequency in the history plus the D of
+ * its children that are not stored, since they need d to be recomputed.
+ *
+ * Deleting a stored dataset d adds rc(d) * D(d) to the expected
+ * recomputation time, and datasets are deleted by increasing cost per
+ * MB.  After each deletion, rc is updated for the stored datasets below d,
+ * and D for the stored datasets above d, whose frontier has changed.
+ * Their entries in the queue are replaced lazily: outdated entries are
+ * skipped when they reach the head of the queue.  Ancestors that are
+ * reached through more than one path are counted once per path.
+ *
+ * Stored datasets that are not in the history are deleted first.
+ * @author dearj019
+ *
+ */
+public class LineageAwareDecisionAlgorithm implements DecisionAlgorithm {
+
+	private static class Candidate implements Comparable<Candidate> {
+
+		private final int id;
+		private final int version;
+		private final double priority;
+
+		Candidate(int id, int version, double priority) {
+			this.id = id;
+			this.version = version;
+			this.priority = priority;
+		}
+
+		@Override
+		public int compareTo(Candidate other) {
+			return Double.compare(this.priority, other.priority);
+		}
+	}
+
+	@Override
+	public List<String> toDelete(SimplifiedWorkflowHistory history, List<PersistedDataset> storedDatasets,
+			Long spaceToFree) {
+
+		List<String> toReturn = new ArrayList<>();
+		double spaceFred = 0;
+
+		//1. Datasets that are not in the history go first.
+		Set<String> storedPaths = new HashSet<>();
+		for (PersistedDataset d : storedDatasets) {
+			storedPaths.add(d.getPath());
+		}
+		for (PersistedDataset d : storedDatasets) {
+			if (spaceFred >= spaceToFree) {
+				return toReturn;
+			}
+			if (SimplifiedWorkflowHistory.NO_ID == history.getPathId(d.getPath())) {
+				spaceFred += DecisionAlgorithms.sizeInMB(history, SimplifiedWorkflowHistory.NO_ID, d);
+				toReturn.add(d.getPath());
+			}
+		}
+
+		//2. Build the lineage graph of the history and queue the
+		//stored datasets.
+		Lineage lineage = new Lineage(history, new RecomputationCosts(history, storedPaths));
+		PriorityQueue<Candidate> queue = new PriorityQueue<>();
+		for (PersistedDataset d : storedDatasets) {
+			int id = history.getPathId(d.getPath());
+			if (SimplifiedWorkflowHistory.NO_ID != id) {
+				lineage.store(id, DecisionAlgorithms.sizeInMB(history, id, d));
+			}
+		}
+		for (int id = 0; id < lineage.stored.length; ++id) {
+			if (lineage.stored[id]) {
+				queue.add(lineage.newCandidate(id));
+			}
+		}
+
+		//3. Delete by increasing cost per MB, updating the costs of the
+		//datasets affected by each deletion.
+		while (spaceFred < spaceToFree && !queue.isEmpty()) {
+			Candidate next = queue.poll();
+			if (!lineage.stored[next.id] || next.version != lineage.versions[next.id]) {
+				continue;
+			}
+			spaceFred += lineage.sizesInMB[next.id];
+			toReturn.add(history.getPath(next.id));
+			for (int affected : lineage.delete(next.id)) {
+				queue.add(lineage.newCandidate(affected));
+			}
+		}
+		return toReturn;
+	}
+
+	/**
+	 * The lineage graph of the actions of the history, with the costs
+	 * of the stored datasets.
+	 */
+	static class Lineage {
+
+		private final SimplifiedWorkflowHistory history;
+		private final RecomputationCosts runtimes;
+		private final int[][] children;
+		private final boolean[] stored;
+		private final double[] sizesInMB;
+		private final int[] versions;
+
+		/**
+		 * Cached values of rc and D, NaN when they need to be computed.
+		 */
+		private final double[] recomputationTimes;
+		private final double[] demands;
+		private final boolean[] visiting;
+
+		Lineage(SimplifiedWorkflowHistory history, RecomputationCosts runtimes) {
+			this.history = history;
+			this.runtimes = runtimes;
+			int bound = history.getPathIdBound();
+			this.stored = new boolean[bound];
+			this.sizesInMB = new double[bound];
+			this.versions = new int[bound];
+			this.recomputationTimes = new double[bound];
+			this.demands = new double[bound];
+			this.visiting = new boolean[bound];
+			Arrays.fill(this.recomputationTimes, Double.NaN);
+			Arrays.fill(this.demands, Double.NaN);
+
+			//Children are built from the parents of each action.
+			int[] childCounts = new int[bound];
+			int[] actions = history.getActionIds();
+			for (int id : actions) {
+				for (int parent : history.getActionParents(id)) {
+					childCounts[parent]++;
+				}
+			}
+			this.children = new int[bound][];
+			for (int id = 0; id < bound; ++id) {
+				this.children[id] = new int[childCounts[id]];
+			}
+			for (int id : actions) {
+				for (int parent : history.getActionParents(id)) {
+					this.children[parent][--childCounts[parent]] = id;
+				}
+			}
+		}
+
+		void store(int id, double sizeInMB) {
+			this.stored[id] = true;
+			this.sizesInMB[id] = sizeInMB;
+		}
+
+		Candidate newCandidate(int id) {
+			double cost = getRecomputationTime(id) * getDemand(id);
+			return new Candidate(id, this.versions[id], cost / Math.max(this.sizesInMB[id], 1.0));
+		}
+
+		/**
+		 * Deletes the dataset and returns the stored datasets whose
+		 * cost changed.
+		 */
+		List<Integer> delete(int id) {
+			this.stored[id] = false;
+			List<Integer> affected = new ArrayList<>();
+
+			//The recomputation time of the datasets below changes...
+			Deque<Integer> Q = new ArrayDeque<>();
+			boolean[] seen = new boolean[this.stored.length];
+			for (int child : this.children[id]) {
+				Q.add(child);
+			}
+			while (!Q.isEmpty()) {
+				int next = Q.poll();
+				if (seen[next]) {
+					continue;
+				}
+				seen[next] = true;
+				this.recomputationTimes[next] = Double.NaN;
+				if (this.stored[next]) {
+					affected.add(next);
+				}
+				else {
+					for (int child : this.children[next]) {
+						Q.add(child);
+					}
+				}
+			}
+
+			//...and so does the demand of the datasets above.
+			Arrays.fill(seen, false);
+			for (int parent : this.history.getActionParents(id)) {
+				Q.add(parent);
+			}
+			while (!Q.isEmpty()) {
+				int next = Q.poll();
+				if (seen[next]) {
+					continue;
+				}
+				seen[next] = true;
+				this.demands[next] = Double.NaN;
+				if (this.stored[next]) {
+					affected.add(next);
+				}
+				else {
+					for (int parent : this.history.getActionParents(next)) {
+						Q.add(parent);
+					}
+				}
+			}
+
+			for (int a : affected) {
+				this.versions[a]++;
+			}
+			return affected;
+		}
+
+		double getRecomputationTime(int id) {
+			if (!Double.isNaN(this.recomputationTimes[id])) {
+				return this.recomputationTimes[id];
+			}
+			if (this.visiting[id]) {
+				return 0;
+			}
+			this.visiting[id] = true;
+			double time = this.runtimes.getRuntime(id);
+			for (int parent : this.history.getActionParents(id)) {
+				if (!this.stored[parent]) {
+					time += getRecomputationTime(parent);
+				}
+			}
+			this.visiting[id] = false;
+			this.recomputationTimes[id] = time;
+			return time;
+		}
+
+		double getDemand(int id) {
+			if (!Double.isNaN(this.demands[id])) {
+				return this.demands[id];
+			}
+			if (this.visiting[id]) {
+				return 0;
+			}
+			this.visiting[id] = true;
+			double demand = this.history.getActionCount(id);
+			for (int child : this.children[id]) {
+				if (!this.stored[child]) {
+					demand += getDemand(child);
+				}
+			}
+			this.visiting[id] = false;
+			this.demands[id] = demand;
+			return demand;
+		}
+	}
+
+}
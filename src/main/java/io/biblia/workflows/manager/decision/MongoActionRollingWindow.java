@@ -0,0 +1,189 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.manager.DatabaseConstants;
+import io.biblia.workflows.manager.action.ActionState;
+import io.biblia.workflows.manager.action.ActionSummary;
+
+import static com.mongodb.client.model.Filters.*;
+
+/**
+ * Reads the actions that have been FINISHED or COMPUTED from MongoDB
+ * in the order of their markers.
+ *
+ * An action gets its marker before the write that makes it visible,
+ * and the callbacks of different actions run concurrently, so an
+ * action can become visible after actions with greater markers.  The
+ * window remembers a low-water mark, the marker of the newest action
+ * last updated more than decisionmanager.window.settle.millis ago,
+ * and each call reads again from it, skipping the actions that were
+ * already returned.
+ * @author dearj019
+ *
+ */
+public class MongoActionRollingWindow implements ActionRollingWindow, DatabaseConstants, ConfigurationKeys {
+
+	private final MongoClient mongo;
+	private final MongoDatabase workflows;
+	private final MongoCollection<Document> actions;
+
+	private static MongoActionRollingWindow instance = null;
+
+	private static final Logger logger = Logger.getLogger(MongoActionRollingWindow.class.getName());
+
+	private static final Bson WINDOW_STATES = in("state",
+			ActionState.FINISHED.name(), ActionState.COMPUTED.name());
+
+	private static final Bson WINDOW_PROJECTION = Projections.fields(ActionSummary.PROJECTION,
+			Projections.include("lastUpdatedDate"));
+
+	private static final int DEFAULT_SETTLE_MILLIS = 60000;
+
+	private final long settleMillis;
+
+	/**
+	 * Low-water mark: all the actions up to it have been returned.
+	 */
+	private Long marker = null;
+
+	/**
+	 * Markers of the actions above the low-water mark that have been
+	 * returned.
+	 */
+	private final TreeSet<Long> returnedMarkers = new TreeSet<>();
+
+	private MongoActionRollingWindow(MongoClient mongo) {
+		this.mongo = mongo;
+		this.workflows = this.mongo.getDatabase(WORKFLOWS_DATABASE);
+		this.actions = this.workflows.getCollection(ACTIONS_COLLECTION);
+		this.settleMillis = Math.max(Configuration.getIntValue(DECISIONMANAGER_WINDOW_SETTLE_MILLIS,
+				DEFAULT_SETTLE_MILLIS), 0);
+	}
+
+	@Override
+	public List<ActionSummary> getLastActions(int n) {
+		Preconditions.checkArgument(n > 0);
+
+		FindIterable<Document> documents = this.actions.find(
+				and(WINDOW_STATES, exists("marker"))
+			).projection(WINDOW_PROJECTION)
+			.sort(Sorts.descending("marker"))
+			.limit(n);
+
+		List<Document> read = new ArrayList<>(Math.min(n, 1024));
+		MongoCursor<Document> iterator = documents.iterator();
+		try {
+			while (iterator.hasNext()) {
+				read.add(iterator.next());
+			}
+		}
+		finally {
+			iterator.close();
+		}
+		Collections.reverse(read);
+
+		//Later calls read again from the oldest action returned, unless
+		//a newer one has settled.
+		if (!read.isEmpty() && null == this.marker) {
+			this.marker = read.get(0).getLong("marker") - 1;
+		}
+		for (Document document : read) {
+			this.settle(document);
+		}
+		return this.parse(read, n);
+	}
+
+	@Override
+	public List<ActionSummary> getNewActions(int max) {
+		Preconditions.checkArgument(max > 0);
+
+		Bson filter = (null == this.marker) ? and(WINDOW_STATES, exists("marker"))
+				: and(WINDOW_STATES, gt("marker", this.marker));
+		FindIterable<Document> documents = this.actions.find(filter)
+			.projection(WINDOW_PROJECTION)
+			.sort(Sorts.ascending("marker"))
+			.limit(max + this.returnedMarkers.size());
+
+		List<Document> read = new ArrayList<>(Math.min(max, 1024));
+		MongoCursor<Document> iterator = documents.iterator();
+		try {
+			while (iterator.hasNext() && read.size() < max) {
+				Document next = iterator.next();
+				if (!this.returnedMarkers.contains(next.getLong("marker"))) {
+					read.add(next);
+				}
+				this.settle(next);
+			}
+		}
+		finally {
+			iterator.close();
+		}
+		return this.parse(read, max);
+	}
+
+	/**
+	 * Moves the low-water mark to the action if it was last updated
+	 * long enough ago.  Markers are given in order, so the actions with
+	 * lower markers are visible too.
+	 */
+	private void settle(Document document) {
+		Date lastUpdated = document.getDate("lastUpdatedDate");
+		Long documentMarker = document.getLong("marker");
+		if ((null == lastUpdated || lastUpdated.getTime() < System.currentTimeMillis() - this.settleMillis)
+				&& (null == this.marker || documentMarker > this.marker)) {
+			this.marker = documentMarker;
+		}
+	}
+
+	/**
+	 * Parses the documents and remembers their markers, even for the
+	 * ones that cannot be parsed.  The markers up to the low-water mark
+	 * are forgotten.
+	 */
+	private List<ActionSummary> parse(List<Document> documents, int expected) {
+		if (null != this.marker) {
+			this.returnedMarkers.headSet(this.marker, true).clear();
+		}
+		List<ActionSummary> toReturn = new ArrayList<>(Math.min(expected, 1024));
+		for (Document next : documents) {
+			if (null == this.marker || next.getLong("marker") > this.marker) {
+				this.returnedMarkers.add(next.getLong("marker"));
+			}
+			try{
+				toReturn.add(ActionSummary.parseSummary(next));
+			}
+			catch(Exception ex) {
+				logger.log(Level.WARNING, "Could not parse action {0} of the rolling window", next.get("_id"));
+			}
+		}
+		return toReturn;
+	}
+
+	public static ActionRollingWindow getInstance(MongoClient mongo) {
+		if (null == instance) {
+			instance = new MongoActionRollingWindow(mongo);
+		}
+		return instance;
+	}
+
+}
@@ -1,46 +1,168 @@
 package io.biblia.workflows.manager.decision;
 
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
 import io.biblia.workflows.manager.DatabaseConstants;
 
 import com.google.common.base.Preconditions;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
 
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
 import io.biblia.workflows.manager.dataset.DatasetState;
 
 import static com.mongodb.client.model.Filters.*;
 
-//TODO: Create mongo index for marker field in datasets_log entries.
-public class MongoDatasetLogDao implements DatasetLogDao, DatabaseConstants {
+/**
+ * Writes the log entries behind the callers.  The entries are kept in
+ * a buffer that is written with a single ordered insertMany when it
+ * reaches datasetlog.batchsize entries, or every
+ * datasetlog.flush.millis milliseconds.  The markers of a batch are
+ * reserved from the counter with a single round trip right before it
+ * is written, so entries become visible shortly after they get their
+ * marker.
+ *
+ * Batches are written one after the other, and a batch that fails is
+ * put back at the head of the buffer.  The entries of a batch that
+ * were already inserted when it failed are not written again.  An
+ * entry that the database rejects for a reason other than a duplicate
+ * key is dropped after datasetlog.maxattempts attempts.
+ *
+ * The entries of different servers are not written in marker order,
+ * so the reads of the log go back to a low-water mark: the marker
+ * below which every entry is older than datasetlog.settle.millis, and
+ * so already visible.  The entries above it that were already counted
+ * are skipped.
+ *
+ * The index on the marker field is created by
+ * {@link io.biblia.workflows.manager.MongoIndexBootstrapper}.
+ */
+public class MongoDatasetLogDao implements DatasetLogDao, DatabaseConstants, ConfigurationKeys {
 
 	private final MongoClient mongo;
 	private final MongoDatabase workflows;
 	private final MongoCollection<Document> datasets_log;
 	private final MongoCollection<Document> counters;
 	private static MongoDatasetLogDao instance = null;
+
+	private static final int DEFAULT_BATCH_SIZE = 64;
+
+	private static final int DEFAULT_FLUSH_MILLIS = 200;
+
+	private static final int DEFAULT_MAX_ATTEMPTS = 5;
 	
+	private static final int DEFAULT_SETTLE_MILLIS = 60000;
+
+	private static final int DUPLICATE_KEY_ERROR = 11000;
+
+	private static final Logger logger = Logger.getLogger(MongoDatasetLogDao.class.getName());
+
+	private final int batchSize;
+
+	private final int maxAttempts;
+
+	private final long settleMillis;
+
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * Entries not yet written, in the order of their markers.
+	 * Guarded by this.
+	 */
+	private List<Document> buffer = new ArrayList<>();
+
+	/**
+	 * Number of failed attempts of the entries that the database
+	 * rejected.  Guarded by flushLock.
+	 */
+	private final Map<ObjectId, Integer> failedAttempts = new HashMap<>();
+
+	/**
+	 * Held while a batch is written, so that batches are written
+	 * one after the other.  Acquired before this.
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Low-water mark: all the entries up to it have been counted.
+	 */
 	private Long marker = null;
-	
-	private long storageUsedAtMarker = -1;
-	
+
+	/**
+	 * Markers of the entries above the low-water mark that have been
+	 * counted.
+	 */
+	private final TreeSet<Long> countedMarkers = new TreeSet<>();
+
+	private double storageUsedAtMarker = 0;
+
 	private MongoDatasetLogDao(MongoClient mongo) {
 		this.mongo = mongo;
 		this.workflows = this.mongo.getDatabase(WORKFLOWS_DATABASE);
 		this.datasets_log = this.workflows.getCollection(DATASETS_LOG_COLLECTION);
 		this.counters = this.workflows.getCollection(COUNTERS_COLLECTION);
+		this.batchSize = Math.max(Configuration.getIntValue(DATASETLOG_BATCHSIZE, DEFAULT_BATCH_SIZE), 1);
+		this.maxAttempts = Math.max(Configuration.getIntValue(DATASETLOG_MAXATTEMPTS, DEFAULT_MAX_ATTEMPTS), 1);
+		this.settleMillis = Math.max(Configuration.getIntValue(DATASETLOG_SETTLE_MILLIS, DEFAULT_SETTLE_MILLIS), 0);
+		long flushMillis = Math.max(Configuration.getIntValue(DATASETLOG_FLUSH_MILLIS, DEFAULT_FLUSH_MILLIS), 1);
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DatasetLog flusher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.flusher.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					flush();
+				}
+				catch(RuntimeException ex) {
+					logger.log(Level.SEVERE, "Could not flush the dataset log", ex);
+				}
+			}
+		}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				flusher.shutdown();
+				flush();
+			}
+		}, "DatasetLog shutdown flusher"));
 	}
-	
+
 	@Override
-	public String insertLogEntry(String datasetPath, DatasetState previousState, 
+	public String insertLogEntry(String datasetPath, DatasetState previousState,
 			DatasetState newState, Double sizeInMB) {
 		Preconditions.checkNotNull(datasetPath,
 				"datasetPath cannot be null");
@@ -48,29 +170,177 @@ public class MongoDatasetLogDao implements DatasetLogDao, DatabaseConstants {
 				"previousState cannot be null");
 		Preconditions.checkNotNull(newState,
 				"newState cannot be null");
-		Preconditions.checkNotNull(sizeInMB, 
+		Preconditions.checkNotNull(sizeInMB,
 				"sizeInMB cannot be null");
 		Preconditions.checkArgument(sizeInMB.longValue() >= 0,
 				"The sizeInMB most be greater than or equal to zero.");
-		Preconditions.checkArgument(!previousState.equals(newState), 
+		Preconditions.checkArgument(!previousState.equals(newState),
 				"The previousState cannot be equal to newState");
-		
-		Document insert = new Document().append("datasetPath", datasetPath)
-												.append("previousState", previousState)
-												.append("newState", newState)
-												.append("marker", this.getNextLogSequence())
-												.append("sizeInMB", sizeInMB)
-												.append("lastUpdatedDate", new Date());
-		
-		this.datasets_log.insertOne(insert);
-		return insert.getObjectId("_id").toHexString();
+
+		ObjectId id = new ObjectId();
+		buffer(new Document().append("_id", id)
+								.append("datasetPath", datasetPath)
+								.append("previousState", previousState.name())
+								.append("newState", newState.name())
+								.append("sizeInMB", sizeInMB));
+		return id.toHexString();
+	}
+
+	@Override
+	public String insertSizeCorrection(String datasetPath, DatasetState state,
+			Double previousSizeInMB, Double sizeInMB) {
+		Preconditions.checkNotNull(datasetPath,
+				"datasetPath cannot be null");
+		Preconditions.checkNotNull(state,
+				"state cannot be null");
+		Preconditions.checkNotNull(previousSizeInMB,
+				"previousSizeInMB cannot be null");
+		Preconditions.checkNotNull(sizeInMB,
+				"sizeInMB cannot be null");
+
+		ObjectId id = new ObjectId();
+		buffer(new Document().append("_id", id)
+								.append("datasetPath", datasetPath)
+								.append("previousState", state.name())
+								.append("newState", state.name())
+								.append("previousSizeInMB", previousSizeInMB)
+								.append("sizeInMB", sizeInMB));
+		return id.toHexString();
+	}
+
+	/**
+	 * Adds the entry to the buffer, and writes the buffer if it is full.
+	 */
+	private void buffer(Document entry) {
+		boolean full;
+		synchronized(this) {
+			this.buffer.add(entry);
+			full = this.buffer.size() >= this.batchSize;
+		}
+		if (full) {
+			try {
+				flush();
+			}
+			catch(MongoException ex) {
+				logger.log(Level.WARNING, "Could not flush the dataset log, the entries stay buffered", ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffered entries to the database.  If the write
+	 * fails, the entries that were not written stay in the buffer, and
+	 * get new markers on the next attempt.
+	 * @throws MongoException if the entries could not be written.
+	 */
+	@Override
+	public void flush() {
+		synchronized(this.flushLock) {
+			List<Document> batch;
+			synchronized(this) {
+				if (this.buffer.isEmpty()) {
+					return;
+				}
+				batch = this.buffer;
+				this.buffer = new ArrayList<>();
+			}
+			try {
+				this.assignMarkers(batch);
+				this.datasets_log.insertMany(batch, new InsertManyOptions().ordered(true));
+				this.forgetAttempts(batch, batch.size());
+			}
+			catch(MongoBulkWriteException ex) {
+				int written = written(batch, ex);
+				this.forgetAttempts(batch, written);
+				if (written < batch.size() && this.isRejected(batch.get(written), ex, written)) {
+					written++;
+				}
+				requeue(batch, written);
+				throw ex;
+			}
+			catch(MongoException ex) {
+				requeue(batch, 0);
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Number of entries at the head of the batch that are in the
+	 * database after the failed ordered insert.  An entry that fails
+	 * with a duplicate key was inserted by an earlier attempt whose
+	 * acknowledgement was lost.
+	 */
+	private static int written(List<Document> batch, MongoBulkWriteException ex) {
+		int written = ex.getWriteResult().getInsertedCount();
+		for (BulkWriteError error : ex.getWriteErrors()) {
+			if (error.getIndex() == written && error.getCode() == DUPLICATE_KEY_ERROR) {
+				written++;
+			}
+		}
+		return Math.min(written, batch.size());
+	}
+
+	/**
+	 * Counts the failed attempt of the entry that the database rejected.
+	 * @return true if the entry has been dropped.
+	 */
+	private boolean isRejected(Document entry, MongoBulkWriteException ex, int index) {
+		for (BulkWriteError error : ex.getWriteErrors()) {
+			if (error.getIndex() != index || error.getCode() == DUPLICATE_KEY_ERROR) {
+				continue;
+			}
+			ObjectId id = entry.getObjectId("_id");
+			Integer attempts = this.failedAttempts.get(id);
+			attempts = (null == attempts) ? 1 : attempts + 1;
+			if (attempts < this.maxAttempts) {
+				this.failedAttempts.put(id, attempts);
+				return false;
+			}
+			this.failedAttempts.remove(id);
+			logger.log(Level.SEVERE, "Dropped dataset log entry {0} after {1} attempts: {2}",
+					new Object[] {entry.toJson(), attempts, error.getMessage()});
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Forgets the failed attempts of the first written entries of the
+	 * batch.
+	 */
+	private void forgetAttempts(List<Document> batch, int written) {
+		if (this.failedAttempts.isEmpty()) {
+			return;
+		}
+		for (Document entry : batch.subList(0, written)) {
+			this.failedAttempts.remove(entry.getObjectId("_id"));
+		}
+	}
+
+	private synchronized void requeue(List<Document> batch, int written) {
+		List<Document> pending = new ArrayList<>(batch.subList(written, batch.size()));
+		pending.addAll(this.buffer);
+		this.buffer = pending;
 	}
 
 	@Override
 	public long currentlyUsedSpace() {
-		
+		return currentlyUsedSpace(null);
+	}
+
+	@Override
+	public long currentlyUsedSpace(Map<String, DatasetState> newStates) {
+
+		try {
+			flush();
+		}
+		catch(MongoException ex) {
+			logger.log(Level.WARNING, "Could not flush the dataset log before reading it", ex);
+		}
+
 		FindIterable<Document> documents;
-		if (null == this.marker || -1 == this.storageUsedAtMarker) {
+		if (null == this.marker) {
 			documents = this.datasets_log.find();
 		}
 		else {
@@ -78,55 +348,95 @@ public class MongoDatasetLogDao implements DatasetLogDao, DatabaseConstants {
 					gt("marker", this.marker)
 				);
 		}
-		
-		MongoCursor<Document> iterator = documents.iterator();
+
+		long settledBefore = System.currentTimeMillis() - this.settleMillis;
+		Long newMarker = this.marker;
+		MongoCursor<Document> iterator = documents.sort(new Document("marker", 1)).iterator();
 		try {
 			while (iterator.hasNext()) {
 				Document next = iterator.next();
-				long size = next.getLong("sizeInMB");
-				Long newMarker = next.getLong("marker");
+				Long entryMarker = ((Number) next.get("marker")).longValue();
+				Date date = next.getDate("lastUpdatedDate");
+				if (null == date || date.getTime() < settledBefore) {
+					newMarker = entryMarker;
+				}
+				if (!this.countedMarkers.add(entryMarker)) {
+					continue;
+				}
+				double size = ((Number) next.get("sizeInMB")).doubleValue();
 				String previousStateString = next.getString("previousState");
 				DatasetState previousState = DatasetState.valueOf(previousStateString);
 				String newStateString = next.getString("newState");
 				DatasetState newState = DatasetState.valueOf(newStateString);
-				
-				if (DatasetState.DELETED.equals(newState)) {
+				if (null != newStates) {
+					newStates.put(next.getString("datasetPath"), newState);
+				}
+
+				if (previousState.equals(newState)) {
+					//Size correction of a dataset that did not change its state.
+					if (isOnDisk(newState)) {
+						this.storageUsedAtMarker += size - ((Number) next.get("previousSizeInMB")).doubleValue();
+					}
+				}
+				else if (DatasetState.DELETED.equals(newState)) {
 					this.storageUsedAtMarker -= size;
 				}
 				else if (!DatasetState.STORED.equals(previousState) &&
 						 !DatasetState.LEAF.equals(previousState) &&
-						 !DatasetState.STORED_TO_DELETE.equals(previousState)) {
-					
+						 !DatasetState.STORED_TO_DELETE.equals(previousState) &&
+						 !DatasetState.DELETING.equals(previousState)) {
+
 					if (DatasetState.STORED.equals(newState) ||
 						DatasetState.LEAF.equals(newState) ||
-						DatasetState.STORED_TO_DELETE.equals(newState))
+						DatasetState.STORED_TO_DELETE.equals(newState) ||
+						DatasetState.DELETING.equals(newState))
 						{
 							this.storageUsedAtMarker += size;
 						}
-				
+
 				}
-				this.marker = newMarker;
 			}
 		}
-		
+
 		finally {
-			iterator.close();			
+			iterator.close();
+		}
+
+		//Markers are given in order, so an entry with a lower marker
+		//than a settled one is settled too.
+		if (null != newMarker) {
+			this.marker = newMarker;
+			this.countedMarkers.headSet(newMarker, true).clear();
 		}
-		
-		return this.storageUsedAtMarker;
+
+		return (long) this.storageUsedAtMarker;
 	}
-	
-	private Long getNextLogSequence() {
+
+	private static boolean isOnDisk(DatasetState state) {
+		return DatasetState.STORED.equals(state) || DatasetState.LEAF.equals(state)
+				|| DatasetState.STORED_TO_DELETE.equals(state) || DatasetState.DELETING.equals(state);
+	}
+
+	/**
+	 * Reserves the markers of the batch from the counter and gives them
+	 * to its entries, in order, together with the date of the entries.
+	 * Must be called holding flushLock.
+	 */
+	private void assignMarkers(List<Document> batch) {
 		final Document filter = new Document().append("_id", "datasets_log");
-		final Document update = new Document().append("$inc", new Document("seq", 1));
+		final Document update = new Document().append("$inc", new Document("seq", batch.size()));
 		FindOneAndUpdateOptions options = new FindOneAndUpdateOptions();
 		options.returnDocument(ReturnDocument.AFTER);
 		options.upsert(true);
 		Document newDocument = this.counters.findOneAndUpdate(filter, update, options);
-		Long toReturn = new Long(newDocument.getInteger("seq"));
-		return toReturn;
+		long next = ((Number) newDocument.get("seq")).longValue() - batch.size() + 1;
+		Date now = new Date();
+		for (Document entry : batch) {
+			entry.append("marker", next++)
+				.append("lastUpdatedDate", now);
+		}
  	}
-	
+
 	public static DatasetLogDao getInstance(MongoClient mongo) {
 		if (null == instance) {
 			instance = new MongoDatasetLogDao(mongo);
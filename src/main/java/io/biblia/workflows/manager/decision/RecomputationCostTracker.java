@@ -0,0 +1,231 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps, across cycles, the time needed to recompute the actions of
+ * the history given the datasets that are stored, as
+ * {@link RecomputationCosts} computes it in a single cycle.
+ *
+ * The times are remembered by path.  When an action of the history
+ * changes, or a dataset is stored or stops being stored, only the
+ * times that depend on it are forgotten, and the paths whose time
+ * may have changed are returned by {@link #drainChanged()}.  Actions
+ * whose runtime is not known take the mean runtime, which is only
+ * brought up to date, forgetting all the times, once it drifts more
+ * than {@link #MEAN_RUNTIME_TOLERANCE} away.
+ * @author dearj019
+ *
+ */
+class RecomputationCostTracker {
+
+	/**
+	 * Relative change of the mean runtime after which all the
+	 * times are computed again.
+	 */
+	static final double MEAN_RUNTIME_TOLERANCE = 0.1;
+
+	private SimplifiedWorkflowHistory history;
+	private long modificationCount;
+
+	private final Set<String> storedPaths = new HashSet<>();
+
+	//Output paths of the parents of each action, and the reverse.
+	private final Map<String, String[]> parents = new HashMap<>();
+	private final Map<String, Set<String>> children = new HashMap<>();
+
+	//Known runtimes of the actions, and their sum.
+	private final Map<String, Double> runtimes = new HashMap<>();
+	private double totalRuntime = 0;
+	private double meanRuntime = 0;
+
+	private final Map<String, Double> recomputationTimes = new HashMap<>();
+	private final Set<String> visiting = new HashSet<>();
+	private Set<String> changed = new HashSet<>();
+
+	/**
+	 * Brings the tracker up to date with the changes of the history
+	 * since the last call.
+	 * @param history
+	 * @return true if all the times were forgotten, because the history
+	 * is not the one of the last call, it does not remember all the
+	 * changes since then, or the mean runtime drifted.
+	 */
+	boolean update(SimplifiedWorkflowHistory history) {
+		List<String> modified = (history == this.history) ?
+				history.getPathsModifiedSince(this.modificationCount) : null;
+		this.history = history;
+		this.modificationCount = history.getModificationCount();
+		if (null == modified) {
+			this.parents.clear();
+			this.children.clear();
+			this.runtimes.clear();
+			this.totalRuntime = 0;
+			for (int id : history.getActionIds()) {
+				load(history.getPath(id));
+			}
+			return forgetAll();
+		}
+		for (String path : modified) {
+			unload(path);
+			load(path);
+			invalidate(path);
+		}
+		double mean = this.runtimes.isEmpty() ? 0 : this.totalRuntime / this.runtimes.size();
+		if (Math.abs(mean - this.meanRuntime) > MEAN_RUNTIME_TOLERANCE * this.meanRuntime) {
+			return forgetAll();
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether the dataset is stored, which changes the time
+	 * to recompute its descendants.
+	 */
+	void setStored(String path, boolean stored) {
+		boolean wasStored = stored ? !this.storedPaths.add(path) : this.storedPaths.remove(path);
+		if (wasStored == stored) {
+			return;
+		}
+		Set<String> pathChildren = this.children.get(path);
+		if (null != pathChildren) {
+			for (String child : pathChildren) {
+				invalidate(child);
+			}
+		}
+	}
+
+	/**
+	 * Returns the runtime, in seconds, used for the actions whose
+	 * runtime is not known.
+	 */
+	double getMeanRuntime() {
+		return this.meanRuntime;
+	}
+
+	/**
+	 * Returns the paths whose time may have changed since the last
+	 * call, and forgets them.
+	 */
+	Set<String> drainChanged() {
+		Set<String> toReturn = this.changed;
+		this.changed = new HashSet<>();
+		return toReturn;
+	}
+
+	/**
+	 * Returns the time, in seconds, to recompute the action and
+	 * the ancestors that are not stored.
+	 */
+	double getRecomputationTime(String path) {
+		Double time = this.recomputationTimes.get(path);
+		if (null != time) {
+			return time;
+		}
+		if (!this.visiting.add(path)) {
+			return 0;
+		}
+		Double runtime = this.runtimes.get(path);
+		double toReturn = (null != runtime) ? runtime : this.meanRuntime;
+		String[] pathParents = this.parents.get(path);
+		if (null != pathParents) {
+			for (String parent : pathParents) {
+				if (!this.storedPaths.contains(parent)) {
+					toReturn += getRecomputationTime(parent);
+				}
+			}
+		}
+		this.visiting.remove(path);
+		this.recomputationTimes.put(path, toReturn);
+		return toReturn;
+	}
+
+	private boolean forgetAll() {
+		this.meanRuntime = this.runtimes.isEmpty() ? 0 : this.totalRuntime / this.runtimes.size();
+		this.recomputationTimes.clear();
+		this.changed.clear();
+		return true;
+	}
+
+	/**
+	 * Reads the parents and the runtime of the action from the history.
+	 */
+	private void load(String path) {
+		int id = this.history.getPathId(path);
+		if (SimplifiedWorkflowHistory.NO_ID == id || 0 == this.history.getActionCount(id)) {
+			return;
+		}
+		int[] parentIds = this.history.getActionParents(id);
+		String[] pathParents = new String[parentIds.length];
+		for (int i = 0; i < parentIds.length; ++i) {
+			pathParents[i] = this.history.getPath(parentIds[i]);
+			Set<String> parentChildren = this.children.get(pathParents[i]);
+			if (null == parentChildren) {
+				parentChildren = new HashSet<>();
+				this.children.put(pathParents[i], parentChildren);
+			}
+			parentChildren.add(path);
+		}
+		this.parents.put(path, pathParents);
+		double runtime = RecomputationCosts.getKnownRuntime(this.history, id);
+		if (!Double.isNaN(runtime)) {
+			this.runtimes.put(path, runtime);
+			this.totalRuntime += runtime;
+		}
+	}
+
+	private void unload(String path) {
+		String[] pathParents = this.parents.remove(path);
+		if (null != pathParents) {
+			for (String parent : pathParents) {
+				Set<String> parentChildren = this.children.get(parent);
+				if (null != parentChildren) {
+					parentChildren.remove(path);
+					if (parentChildren.isEmpty()) {
+						this.children.remove(parent);
+					}
+				}
+			}
+		}
+		Double runtime = this.runtimes.remove(path);
+		if (null != runtime) {
+			this.totalRuntime -= runtime;
+		}
+	}
+
+	/**
+	 * Forgets the time of the path and of the descendants that
+	 * recompute it, which are those reached through datasets that
+	 * are not stored.
+	 */
+	private void invalidate(String path) {
+		//The times may have been computed again since the paths were
+		//last changed, so the walk does not stop at changed paths.
+		Set<String> visited = new HashSet<>();
+		Deque<String> pending = new ArrayDeque<>();
+		pending.push(path);
+		while (!pending.isEmpty()) {
+			String current = pending.pop();
+			if (!visited.add(current)) {
+				continue;
+			}
+			this.recomputationTimes.remove(current);
+			this.changed.add(current);
+			if (this.storedPaths.contains(current)) {
+				continue;
+			}
+			Set<String> currentChildren = this.children.get(current);
+			if (null != currentChildren) {
+				for (String child : currentChildren) {
+					pending.push(child);
+				}
+			}
+		}
+	}
+}
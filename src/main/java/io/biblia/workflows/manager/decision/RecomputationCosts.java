@@ -0,0 +1,106 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Computes, and remembers, the time needed to recompute the actions
+ * of the history given the datasets that are stored.
+ * @author dearj019
+ *
+ */
+class RecomputationCosts {
+
+	private final SimplifiedWorkflowHistory history;
+	private final Set<String> storedPaths;
+	private final double meanRuntime;
+	private final double[] recomputationTimes;
+	private final boolean[] visiting;
+
+	RecomputationCosts(SimplifiedWorkflowHistory history, Set<String> storedPaths) {
+		this(history, storedPaths, getMeanRuntime(history));
+	}
+
+	/**
+	 * @param meanRuntime runtime, in seconds, of the actions whose
+	 * runtime is not known.
+	 */
+	RecomputationCosts(SimplifiedWorkflowHistory history, Set<String> storedPaths, double meanRuntime) {
+		this.history = history;
+		this.storedPaths = storedPaths;
+		this.recomputationTimes = new double[history.getPathIdBound()];
+		Arrays.fill(this.recomputationTimes, Double.NaN);
+		this.visiting = new boolean[history.getPathIdBound()];
+		this.meanRuntime = meanRuntime;
+	}
+
+	/**
+	 * Returns the mean of the known runtimes, in seconds, of the
+	 * actions of the history, or 0 if none is known.
+	 */
+	static double getMeanRuntime(SimplifiedWorkflowHistory history) {
+		double total = 0;
+		int known = 0;
+		for (int id : history.getActionIds()) {
+			double runtime = getKnownRuntime(history, id);
+			if (!Double.isNaN(runtime)) {
+				total += runtime;
+				known++;
+			}
+		}
+		return (known > 0) ? total / known : 0;
+	}
+
+	/**
+	 * Returns the expected time, in seconds, spent recomputing the
+	 * dataset if it is deleted.
+	 */
+	double getCost(int id) {
+		if (SimplifiedWorkflowHistory.NO_ID == id) {
+			return 0;
+		}
+		return this.history.getActionCount(id) * getRecomputationTime(id);
+	}
+
+	/**
+	 * Returns the time, in seconds, to recompute the action and
+	 * the ancestors that are not stored.
+	 */
+	double getRecomputationTime(int id) {
+		if (!Double.isNaN(this.recomputationTimes[id])) {
+			return this.recomputationTimes[id];
+		}
+		if (this.visiting[id]) {
+			return 0;
+		}
+		this.visiting[id] = true;
+		double time = getRuntime(id);
+		for (int parent : this.history.getActionParents(id)) {
+			if (!this.storedPaths.contains(this.history.getPath(parent))) {
+				time += getRecomputationTime(parent);
+			}
+		}
+		this.visiting[id] = false;
+		this.recomputationTimes[id] = time;
+		return time;
+	}
+
+	double getRuntime(int id) {
+		double runtime = getKnownRuntime(this.history, id);
+		return Double.isNaN(runtime) ? this.meanRuntime : runtime;
+	}
+
+	/**
+	 * Returns the runtime, in seconds, of the last execution of the
+	 * action, or NaN if it is not known.
+	 */
+	static double getKnownRuntime(SimplifiedWorkflowHistory history, int id) {
+		long start = history.getActionStartTime(id);
+		long end = history.getActionEndTime(id);
+		if (SimplifiedWorkflowHistory.UNKNOWN == start || SimplifiedWorkflowHistory.UNKNOWN == end
+				|| end < start) {
+			return Double.NaN;
+		}
+		return (end - start) / 1000.0;
+	}
+}
@@ -1,58 +1,130 @@
 package io.biblia.workflows.manager.decision;
 
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Collection;
-import java.util.Date;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
 
 /**
  * The simplified workflow keeps data of the workflow that
  * will be enough for the algorithm to take decisions.
- * 
+ *
+ * It is meant to be long lived: actions are added as they finish,
+ * and once the history holds more than its capacity, the oldest
+ * actions are evicted, so keeping it up to date costs in proportion
+ * to the number of new actions, not to the size of the history.
+ *
+ * Actions are identified by their output path.  Paths are interned
+ * to int ids the first time they are seen, and all the data of the
+ * history is kept in primitive arrays indexed by those ids.  The id of
+ * a path is released, and may be given to another path, once the path
+ * is neither an action nor the parent of an action in the history.
+ * Ids are therefore only valid until the next call to
+ * {@link #addAction}.
+ *
+ * The history also remembers the last paths whose data changed, so
+ * that algorithms that keep state across cycles can update only what
+ * changed since they last looked at it (see
+ * {@link #getPathsModifiedSince(long)}).
+ *
  * @author dearj019
  *
  */
 public class SimplifiedWorkflowHistory {
 
 	/**
-	 * Contains an adjacency list of the graph of action
-	 * dependencies, where actions are identified
-	 * by their output path.
+	 * Returned for paths that are not in the history.
 	 */
-	private final Map<Tuple, List<String>> adjacencyList;
-	
+	public static final int NO_ID = -1;
+
 	/**
-	 * Map from an action to a list of the workflows where this
-	 * action was executed.
+	 * Used for times and workflow ids that are not known.
 	 */
-	private final Map<String, List<Long>> actionsWorkflows;
-	
+	public static final long UNKNOWN = -1L;
+
+	private static final int[] NO_PARENTS = new int[0];
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Maximum number of modified paths remembered.
+	 */
+	private static final int MAX_MODIFIED_PATHS = 1 << 20;
+
+	/**
+	 * Maximum number of actions kept in the history.
+	 */
+	private final int capacity;
+
+	//Interned paths
+	private final Map<String, Integer> pathIds = new HashMap<>();
+	private String[] paths = new String[INITIAL_CAPACITY];
+
+	/**
+	 * Number of entries and children that refer to each path.  The id
+	 * of a path is released when it reaches zero.
+	 */
+	private int[] references = new int[INITIAL_CAPACITY];
+	private int[] freeIds = new int[INITIAL_CAPACITY];
+	private int freeCount = 0;
+	private int idBound = 0;
+
 	/**
 	 * Contains the number of times an action happened.
 	 */
-	private final Map<String, Integer> actionsCount;
-	
+	private int[] counts = new int[INITIAL_CAPACITY];
+
+	//Data of the last execution of each action that has a size
+	private double[] sizesInMB = new double[INITIAL_CAPACITY];
+	private long[] startTimes = new long[INITIAL_CAPACITY];
+	private long[] endTimes = new long[INITIAL_CAPACITY];
+	private long[] lastWorkflowIds = new long[INITIAL_CAPACITY];
+
 	/**
-	 * Map from an action output path to the rest 
-	 * of data that is needed from that action
-	 * by the decision algorithm. 
+	 * Ids of the output paths of the parents of the last execution
+	 * of each action.
 	 */
-	private final Map<String, ActionData> actionsData;
-	
+	private int[][] parents = new int[INITIAL_CAPACITY][];
+
+	//The actions in the history, from the oldest to the newest,
+	//kept in a ring buffer.
+	private int[] entryPaths = new int[INITIAL_CAPACITY];
+	private long[] entryWorkflows = new long[INITIAL_CAPACITY];
+	private int head = 0;
+	private int size = 0;
+
+	//The paths whose data changed, from the oldest change to the
+	//newest, kept in a ring buffer.
+	private final int maxModifiedPaths;
+	private String[] modifiedPaths;
+	private int modifiedHead = 0;
+	private int modifiedSize = 0;
+	private long modificationCount = 0;
+
 	public SimplifiedWorkflowHistory() {
-		this.adjacencyList = new HashMap<>();
-		this.actionsData = new HashMap<>();
-		this.actionsCount = new HashMap<>();
-		this.actionsWorkflows = new HashMap<>();
+		this(Integer.MAX_VALUE);
+	}
+
+	public SimplifiedWorkflowHistory(int capacity) {
+		Preconditions.checkArgument(capacity > 0);
+		this.capacity = capacity;
+		//Adding an action usually changes two paths: its own and the
+		//one of the action evicted, so this remembers about a whole
+		//turn of the history.
+		this.maxModifiedPaths = (int) Math.min(2L * capacity, MAX_MODIFIED_PATHS);
+		this.modifiedPaths = new String[Math.min(INITIAL_CAPACITY, this.maxModifiedPaths)];
 	}
-	
+
 	/**
 	 * If the outputData has already been inserted, it keeps the last insertion
 	 * data.  Less simpler implementations may add other logic such as simply using
-	 * the average of a list of entries.
+	 * the average of a list of entries.  Actions without a size (such as reused
+	 * actions) are counted, but they do not replace the data of the action.
+	 * If the history exceeds its capacity, the oldest action is evicted.
 	 * @param outputData the output dataset path of this action
 	 * @param parentsOutputData the output dataset path of its parent actions
 	 * @param workflowId The id of the workflow to which the action belonged when it was submitted.
@@ -62,154 +134,311 @@ public class SimplifiedWorkflowHistory {
 	 */
 	public void addAction(String outputPath, List<String> parentsOutputData,
 			Long workflowId, Double sizeInMB, Date startTime, Date endTime) {
-		
-		//Updating actionsData
-		ActionData actionData = new ActionData(sizeInMB, startTime, endTime,
-				workflowId);
-		this.actionsData.put(outputPath, actionData);
-		
-		//Updating actionsWorkflows
-		if (!this.actionsWorkflows.containsKey(outputPath)) {
-			List<Long> workflows = new LinkedList<>();
-			workflows.add(workflowId);
-			this.actionsWorkflows.put(outputPath, workflows);
+		Preconditions.checkNotNull(outputPath);
+
+		int id = acquire(outputPath);
+		long workflow = (null != workflowId) ? workflowId : UNKNOWN;
+
+		//Updating counts and data
+		if (0 == this.counts[id]) {
+			this.sizesInMB[id] = Double.NaN;
+			this.startTimes[id] = UNKNOWN;
+			this.endTimes[id] = UNKNOWN;
+			this.lastWorkflowIds[id] = UNKNOWN;
 		}
-		else {
-			this.actionsWorkflows.get(outputPath).add(workflowId);
+		this.counts[id]++;
+		if (null != sizeInMB) {
+			this.sizesInMB[id] = sizeInMB;
+			this.startTimes[id] = (null != startTime) ? startTime.getTime() : UNKNOWN;
+			this.endTimes[id] = (null != endTime) ? endTime.getTime() : UNKNOWN;
+			this.lastWorkflowIds[id] = workflow;
 		}
-		
-		//Updating adjacencyList
-		Tuple tuple = new Tuple(workflowId, outputPath);
-		this.adjacencyList.put(tuple, parentsOutputData);
-		
-		//Updating actionsCount
-		if (!this.actionsCount.containsKey(outputPath)) {
-			this.actionsCount.put(outputPath, Integer.valueOf(1));
+
+		//Updating parents.  The new parents are acquired before the old
+		//ones are released, so that ids shared by both are kept.
+		int[] newParents = NO_PARENTS;
+		if (null != parentsOutputData && !parentsOutputData.isEmpty()) {
+			newParents = new int[parentsOutputData.size()];
+			int i = 0;
+			for (String parent : parentsOutputData) {
+				newParents[i++] = acquire(parent);
+			}
+		}
+		releaseAll(this.parents[id]);
+		this.parents[id] = newParents;
+
+		//Updating entries
+		if (this.size == this.entryPaths.length) {
+			growEntries();
+		}
+		int tail = (this.head + this.size) % this.entryPaths.length;
+		this.entryPaths[tail] = id;
+		this.entryWorkflows[tail] = workflow;
+		this.size++;
+		addModifiedPath(outputPath);
+
+		while (this.size > this.capacity) {
+			evictOldest();
+		}
+	}
+
+	/**
+	 * Removes the oldest action of the history, undoing what
+	 * {@link #addAction} did for it.
+	 */
+	private void evictOldest() {
+		int id = this.entryPaths[this.head];
+		this.head = (this.head + 1) % this.entryPaths.length;
+		this.size--;
+
+		this.counts[id]--;
+		if (0 == this.counts[id]) {
+			releaseAll(this.parents[id]);
+			this.parents[id] = null;
+		}
+		addModifiedPath(this.paths[id]);
+		release(id);
+	}
+
+	private void addModifiedPath(String path) {
+		if (this.modifiedSize == this.modifiedPaths.length) {
+			if (this.modifiedPaths.length < this.maxModifiedPaths) {
+				growModifiedPaths();
+			}
+			else {
+				this.modifiedHead = (this.modifiedHead + 1) % this.modifiedPaths.length;
+				this.modifiedSize--;
+			}
+		}
+		int tail = (this.modifiedHead + this.modifiedSize) % this.modifiedPaths.length;
+		this.modifiedPaths[tail] = path;
+		this.modifiedSize++;
+		this.modificationCount++;
+	}
+
+	private int acquire(String path) {
+		Integer existing = this.pathIds.get(path);
+		int id;
+		if (null != existing) {
+			id = existing;
 		}
 		else {
-			this.actionsCount.put(outputPath, this.actionsCount.get(outputPath) + 1);
+			id = (this.freeCount > 0) ? this.freeIds[--this.freeCount] : this.idBound++;
+			if (id == this.paths.length) {
+				growPaths();
+			}
+			this.pathIds.put(path, id);
+			this.paths[id] = path;
+			this.counts[id] = 0;
+			addModifiedPath(path);
 		}
+		this.references[id]++;
+		return id;
 	}
-	
-	public Set<String> getActions() {
-		return this.actionsData.keySet();
+
+	private void release(int id) {
+		this.references[id]--;
+		if (0 == this.references[id]) {
+			addModifiedPath(this.paths[id]);
+			this.pathIds.remove(this.paths[id]);
+			this.paths[id] = null;
+			if (this.freeCount == this.freeIds.length) {
+				this.freeIds = Arrays.copyOf(this.freeIds, this.freeCount * 2);
+			}
+			this.freeIds[this.freeCount++] = id;
+		}
 	}
-	
-	public List<String> getActionChildren(String actionOutputPath) {
-		return this.adjacencyList.get(actionOutputPath);
+
+	private void releaseAll(int[] ids) {
+		if (null != ids) {
+			for (int id : ids) {
+				release(id);
+			}
+		}
 	}
-	
-	public Integer getActionCount(String actionOutputPath) {
-		return this.actionsCount.get(actionOutputPath);
+
+	private void growPaths() {
+		int newLength = this.paths.length * 2;
+		this.paths = Arrays.copyOf(this.paths, newLength);
+		this.references = Arrays.copyOf(this.references, newLength);
+		this.counts = Arrays.copyOf(this.counts, newLength);
+		this.sizesInMB = Arrays.copyOf(this.sizesInMB, newLength);
+		this.startTimes = Arrays.copyOf(this.startTimes, newLength);
+		this.endTimes = Arrays.copyOf(this.endTimes, newLength);
+		this.lastWorkflowIds = Arrays.copyOf(this.lastWorkflowIds, newLength);
+		this.parents = Arrays.copyOf(this.parents, newLength);
 	}
-	
-	public ActionData getActionData(String actionOutputPath) {
-		return this.actionsData.get(actionOutputPath);
+
+	private void growEntries() {
+		int newLength = (int) Math.min((long) this.entryPaths.length * 2, Integer.MAX_VALUE - 8);
+		int[] newPaths = new int[newLength];
+		long[] newWorkflows = new long[newLength];
+		for (int i = 0; i < this.size; ++i) {
+			int index = (this.head + i) % this.entryPaths.length;
+			newPaths[i] = this.entryPaths[index];
+			newWorkflows[i] = this.entryWorkflows[index];
+		}
+		this.entryPaths = newPaths;
+		this.entryWorkflows = newWorkflows;
+		this.head = 0;
 	}
-	
-	public List<Long> getActionWorkflows(String actionOutputPath) {
-		return this.actionsWorkflows.get(actionOutputPath);
+
+	private void growModifiedPaths() {
+		int newLength = Math.min(this.modifiedPaths.length * 2, this.maxModifiedPaths);
+		String[] newPaths = new String[newLength];
+		for (int i = 0; i < this.modifiedSize; ++i) {
+			newPaths[i] = this.modifiedPaths[(this.modifiedHead + i) % this.modifiedPaths.length];
+		}
+		this.modifiedPaths = newPaths;
+		this.modifiedHead = 0;
 	}
- }
 
-class Tuple {
-	private final Long workflowId;
-	
-	private final String outputPath;
-	
-	public Tuple(Long workflowId, String outputPath) {
-		this.workflowId = workflowId;
-		this.outputPath = outputPath;
+	/**
+	 * Returns the number of actions in the history.
+	 * @return
+	 */
+	public int size() {
+		return this.size;
 	}
 
-	
-	public Long getWorkflowId() {
-		return workflowId;
+	public int getCapacity() {
+		return this.capacity;
 	}
 
+	/**
+	 * Returns the number of times that the data of a path changed:
+	 * an action was added or evicted, or the path entered or left
+	 * the history.
+	 * @return
+	 */
+	public long getModificationCount() {
+		return this.modificationCount;
+	}
 
-	public String getOutputPath() {
-		return outputPath;
+	/**
+	 * Returns the paths whose data changed after the given
+	 * modification count, from the oldest change to the
+	 * newest.  A path is returned once per change.
+	 * @param modificationCount a value previously returned by
+	 * {@link #getModificationCount()}.
+	 * @return the paths, or null if the history no longer remembers
+	 * all the changes since then.
+	 */
+	public List<String> getPathsModifiedSince(long modificationCount) {
+		Preconditions.checkArgument(modificationCount >= 0 && modificationCount <= this.modificationCount);
+		long changes = this.modificationCount - modificationCount;
+		if (changes > this.modifiedSize) {
+			return null;
+		}
+		List<String> toReturn = new ArrayList<>((int) changes);
+		for (int i = this.modifiedSize - (int) changes; i < this.modifiedSize; ++i) {
+			toReturn.add(this.modifiedPaths[(this.modifiedHead + i) % this.modifiedPaths.length]);
+		}
+		return toReturn;
 	}
 
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((outputPath == null) ? 0 : outputPath.hashCode());
-		result = prime * result + ((workflowId == null) ? 0 : workflowId.hashCode());
-		return result;
+	/**
+	 * Returns the id of the output path of the i-th action in the
+	 * history, where 0 is the oldest action.
+	 * @param i
+	 * @return
+	 */
+	public int getEntryPathId(int i) {
+		Preconditions.checkElementIndex(i, this.size);
+		return this.entryPaths[(this.head + i) % this.entryPaths.length];
 	}
 
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		Tuple other = (Tuple) obj;
-		if (outputPath == null) {
-			if (other.outputPath != null)
-				return false;
-		} else if (!outputPath.equals(other.outputPath))
-			return false;
-		if (workflowId == null) {
-			if (other.workflowId != null)
-				return false;
-		} else if (!workflowId.equals(other.workflowId))
-			return false;
-		return true;
+	/**
+	 * Returns the id of the workflow of the i-th action in the
+	 * history, or {@link #UNKNOWN}.
+	 * @param i
+	 * @return
+	 */
+	public long getEntryWorkflowId(int i) {
+		Preconditions.checkElementIndex(i, this.size);
+		return this.entryWorkflows[(this.head + i) % this.entryPaths.length];
 	}
-	
-	
-}
-class ActionData {
-	
+
 	/**
-	 * The id of the workflow to which this action belongs to.
+	 * Returns the id of the path, or {@link #NO_ID} if the path is
+	 * not in the history.
+	 * @param path
+	 * @return
 	 */
-	private final Long workflowId;
-	
+	public int getPathId(String path) {
+		Integer id = this.pathIds.get(path);
+		return (null != id) ? id : NO_ID;
+	}
+
+	public String getPath(int pathId) {
+		return this.paths[pathId];
+	}
+
 	/**
-	 * Size of the output dataset of the action
+	 * Returns an upper bound of the path ids in use, so that
+	 * algorithms can index arrays by path id.
+	 * @return
 	 */
-	private final double sizeInMB;
-	
+	public int getPathIdBound() {
+		return this.idBound;
+	}
+
 	/**
-	 * Time when computation started
+	 * Returns the ids of the output paths of the actions in the history.
+	 * @return
 	 */
-	private final Date startTime;
-	
+	public int[] getActionIds() {
+		int[] toReturn = new int[this.idBound];
+		int n = 0;
+		for (int id = 0; id < this.idBound; ++id) {
+			if (this.counts[id] > 0) {
+				toReturn[n++] = id;
+			}
+		}
+		return Arrays.copyOf(toReturn, n);
+	}
+
 	/**
-	 * Time when computation ended
+	 * Returns the number of times the action is in the history,
+	 * which is 0 for {@link #NO_ID}.
+	 * @param pathId
+	 * @return
 	 */
-	private final Date endTime;
-	
-	
-	public ActionData(double sizeInMB, Date startTime,
-			Date endTime, Long workflowId) {
-		this.sizeInMB = sizeInMB;
-		this.startTime = startTime;
-		this.endTime = endTime;
-		this.workflowId = workflowId;
+	public int getActionCount(int pathId) {
+		return (NO_ID == pathId) ? 0 : this.counts[pathId];
 	}
 
-	public double getSizeInMB() {
-		return sizeInMB;
+	/**
+	 * Returns the size of the last execution of the action with a size
+	 * since the action entered the history, which may have been evicted
+	 * already, or NaN if none of them has a size.
+	 * @param pathId
+	 * @return
+	 */
+	public double getActionSizeInMB(int pathId) {
+		return (this.counts[pathId] > 0) ? this.sizesInMB[pathId] : Double.NaN;
 	}
 
-	public Date getStartTime() {
-		return startTime;
+	public long getActionStartTime(int pathId) {
+		return (this.counts[pathId] > 0) ? this.startTimes[pathId] : UNKNOWN;
 	}
 
-	public Date getEndTime() {
-		return endTime;
+	public long getActionEndTime(int pathId) {
+		return (this.counts[pathId] > 0) ? this.endTimes[pathId] : UNKNOWN;
 	}
-	
-	public Long getWorkflowId() {
-		return workflowId;
+
+	public long getActionWorkflowId(int pathId) {
+		return (this.counts[pathId] > 0) ? this.lastWorkflowIds[pathId] : UNKNOWN;
 	}
-}
 
+	/**
+	 * Returns the ids of the output paths of the parents of the last
+	 * execution of the action.  The array must not be modified.
+	 * @param pathId
+	 * @return
+	 */
+	public int[] getActionParents(int pathId) {
+		int[] toReturn = (this.counts[pathId] > 0) ? this.parents[pathId] : null;
+		return (null != toReturn) ? toReturn : NO_PARENTS;
+	}
+ }
@@ -0,0 +1,271 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.manager.dataset.DatasetState;
+
+/**
+ * Keeps the accounting of the space of the datasets managed by the
+ * system, so that it can be queried without going to the NameNode or
+ * to the database.  It wraps the {@link DatasetLogDao}: every entry
+ * inserted in the log also updates the ledger, in constant time, and
+ * {@link #refresh()} catches up with the entries that the other
+ * servers wrote to the log.
+ *
+ * The ledger separates the real space from the potential one:
+ *
+ * a) Managed space: space of the datasets that are on disk, with the
+ *    same accounting as the log.
+ * b) Reserved space: space expected for the datasets that are being
+ *    computed (TO_STORE and TO_LEAF).  It is reserved when the workflow
+ *    is submitted, and released by the first log entry of the dataset.
+ * c) Deleting space: space of the datasets that are being deleted
+ *    (DELETING), which is still managed, but about to be freed.
+ *
+ * The managed space is the one read from the log on the last refresh,
+ * plus the changes of the entries inserted through this ledger since
+ * then.  Reservations and deletions in flight are only kept in memory,
+ * and are released when an entry of their dataset is inserted here or
+ * read from the log.
+ * @author dearj019
+ *
+ */
+public class StorageLedger implements DatasetLogDao, ConfigurationKeys {
+
+	private static final int DEFAULT_RESERVATION_IN_MB = 0;
+
+	/**
+	 * Maximum number of sizes of deleted datasets kept to estimate
+	 * the reservations of datasets that are computed again.
+	 */
+	private static final int KNOWN_SIZES = 10000;
+
+	private final DatasetLogDao log;
+
+	private final double defaultReservationInMB;
+
+	/**
+	 * Managed space read from the log on the last refresh.
+	 */
+	private double loggedInMB;
+
+	/**
+	 * Changes to the managed space of the entries inserted since
+	 * the last refresh.
+	 */
+	private double unloggedInMB = 0;
+
+	private double reservedInMB = 0;
+
+	private double deletingInMB = 0;
+
+	private final Map<String, Double> reservations = new HashMap<>();
+
+	private final Map<String, Double> deletions = new HashMap<>();
+
+	/**
+	 * Held while refreshing, so that the log is read by one
+	 * thread at a time.  Acquired before this.
+	 */
+	private final Object refreshLock = new Object();
+
+	private final Map<String, Double> knownSizes = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+			return size() > KNOWN_SIZES;
+		}
+	};
+
+	public StorageLedger(DatasetLogDao log) {
+		Preconditions.checkNotNull(log);
+		this.log = log;
+		this.loggedInMB = log.currentlyUsedSpace();
+		this.defaultReservationInMB = Math.max(Configuration.getIntValue(STORAGELEDGER_DEFAULTRESERVATION,
+				DEFAULT_RESERVATION_IN_MB), 0);
+	}
+
+	@Override
+	public String insertLogEntry(String datasetPath, DatasetState previousState,
+			DatasetState newState, Double sizeInMB) {
+		String toReturn = this.log.insertLogEntry(datasetPath, previousState, newState, sizeInMB);
+		apply(datasetPath, previousState, newState, sizeInMB);
+		return toReturn;
+	}
+
+	@Override
+	public String insertSizeCorrection(String datasetPath, DatasetState state,
+			Double previousSizeInMB, Double sizeInMB) {
+		String toReturn = this.log.insertSizeCorrection(datasetPath, state, previousSizeInMB, sizeInMB);
+		applyCorrection(datasetPath, state, sizeInMB - previousSizeInMB);
+		return toReturn;
+	}
+
+	private synchronized void applyCorrection(String datasetPath, DatasetState state, double deltaInMB) {
+		if (isOnDisk(state)) {
+			this.unloggedInMB += deltaInMB;
+		}
+		Double deleting = this.deletions.get(datasetPath);
+		if (null != deleting) {
+			this.deletions.put(datasetPath, deleting + deltaInMB);
+			this.deletingInMB += deltaInMB;
+		}
+	}
+
+	private synchronized void apply(String datasetPath, DatasetState previousState,
+			DatasetState newState, double sizeInMB) {
+		Double reserved = this.reservations.remove(datasetPath);
+		if (null != reserved) {
+			this.reservedInMB -= reserved;
+		}
+		Double deleting = this.deletions.remove(datasetPath);
+		if (null != deleting) {
+			this.deletingInMB -= deleting;
+		}
+
+		if (DatasetState.DELETED.equals(newState)) {
+			this.unloggedInMB -= sizeInMB;
+			this.knownSizes.put(datasetPath, sizeInMB);
+		}
+		else if (!isOnDisk(previousState) && isOnDisk(newState)) {
+			this.unloggedInMB += sizeInMB;
+		}
+		if (DatasetState.DELETING.equals(newState)) {
+			this.deletions.put(datasetPath, sizeInMB);
+			this.deletingInMB += sizeInMB;
+		}
+	}
+
+	/**
+	 * Catches up with the entries that all the servers wrote to the log
+	 * since the last refresh: the managed space is read from the log
+	 * again, and the reservations of the datasets computed elsewhere
+	 * and the deletions of the datasets deleted elsewhere are released.  Entries inserted while the
+	 * log is read may be counted twice until the next refresh.
+	 */
+	public void refresh() {
+		refresh(new HashMap<String, DatasetState>());
+	}
+
+	private long refresh(Map<String, DatasetState> newStates) {
+		synchronized(this.refreshLock) {
+			synchronized(this) {
+				this.unloggedInMB = 0;
+			}
+			long logged = this.log.currentlyUsedSpace(newStates);
+			synchronized(this) {
+				this.loggedInMB = logged;
+				for (Map.Entry<String, DatasetState> entry : newStates.entrySet()) {
+					release(entry.getKey(), entry.getValue());
+				}
+				return getManagedSpaceInMB();
+			}
+		}
+	}
+
+	/**
+	 * Releases the reservation of the dataset if it was computed, and
+	 * its deletion if it was deleted.  Older entries of the dataset,
+	 * which may be read after newer ones were inserted here, release
+	 * nothing.
+	 */
+	private void release(String datasetPath, DatasetState newState) {
+		if (DatasetState.STORED.equals(newState) || DatasetState.LEAF.equals(newState)
+				|| DatasetState.STORED_TO_DELETE.equals(newState)) {
+			Double reserved = this.reservations.remove(datasetPath);
+			if (null != reserved) {
+				this.reservedInMB -= reserved;
+			}
+		}
+		else if (DatasetState.DELETED.equals(newState)) {
+			Double deleting = this.deletions.remove(datasetPath);
+			if (null != deleting) {
+				this.deletingInMB -= deleting;
+			}
+		}
+	}
+
+	private static boolean isOnDisk(DatasetState state) {
+		return DatasetState.STORED.equals(state) || DatasetState.LEAF.equals(state)
+				|| DatasetState.STORED_TO_DELETE.equals(state) || DatasetState.DELETING.equals(state);
+	}
+
+	/**
+	 * Reserves space for a dataset that is going to be computed.  The
+	 * size reserved is the last size of the dataset, if it was deleted
+	 * before, or storageledger.defaultreservation otherwise.
+	 * @param datasetPath
+	 * @return the space reserved in MB.
+	 */
+	public synchronized double reserve(String datasetPath) {
+		Preconditions.checkNotNull(datasetPath);
+		Double sizeInMB = this.knownSizes.get(datasetPath);
+		if (null == sizeInMB) {
+			sizeInMB = this.defaultReservationInMB;
+		}
+		Double previous = this.reservations.put(datasetPath, sizeInMB);
+		if (null != previous) {
+			this.reservedInMB -= previous;
+		}
+		this.reservedInMB += sizeInMB;
+		return sizeInMB;
+	}
+
+	/**
+	 * Space in MB of the datasets that are on disk.
+	 */
+	public synchronized long getManagedSpaceInMB() {
+		return (long) (this.loggedInMB + this.unloggedInMB);
+	}
+
+	/**
+	 * Space in MB reserved for the datasets being computed.
+	 */
+	public synchronized long getReservedSpaceInMB() {
+		return (long) this.reservedInMB;
+	}
+
+	/**
+	 * Space in MB of the datasets being deleted.
+	 */
+	public synchronized long getDeletingSpaceInMB() {
+		return (long) this.deletingInMB;
+	}
+
+	/**
+	 * Space in MB that the managed datasets will take once the datasets
+	 * being computed are stored and the ones being deleted are gone.
+	 */
+	public synchronized long getPotentialSpaceInMB() {
+		return (long) (this.loggedInMB + this.unloggedInMB + this.reservedInMB - this.deletingInMB);
+	}
+
+	/**
+	 * Refreshes the ledger and returns the managed space.
+	 */
+	@Override
+	public long currentlyUsedSpace() {
+		return refresh(new HashMap<String, DatasetState>());
+	}
+
+	/**
+	 * Refreshes the ledger and returns the managed space.
+	 */
+	@Override
+	public long currentlyUsedSpace(Map<String, DatasetState> newStates) {
+		return refresh(newStates);
+	}
+
+	@Override
+	public void flush() {
+		this.log.flush();
+	}
+}
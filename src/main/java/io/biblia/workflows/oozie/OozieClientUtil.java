@@ -4,40 +4,101 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.oozie.client.OozieClient;
+import org.apache.oozie.client.WorkflowAction;
 import org.apache.oozie.client.WorkflowJob;
 import org.apache.oozie.client.WorkflowJob.Status;
 import org.apache.oozie.client.OozieClientException;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 
 import io.biblia.workflows.ConfigurationKeys;
 import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.evaluation.ActionStub;
 import io.biblia.workflows.hdfs.HdfsUtil;
+import io.biblia.workflows.utils.ConcurrencyLimiter;
+import io.biblia.workflows.utils.ConcurrencyLimiter.ExternalSystem;
 
 public class OozieClientUtil implements ConfigurationKeys {
 
 	private static FileSystem fs = null;
 	
 	private static final OozieClient client;
+	
+	private static final Logger logger = Logger.getLogger(OozieClientUtil.class.getName());
 
 	private static final String END_NODE_NAME = "done";
 	
 	private static final String ERROR_NODE_NAME = "fail";
 
 	private static final String WORKFLOW_DEFINITION_FILE_NAME = "workflow.xml";
+	
+	private static final String LIB_FOLDER_NAME = "lib";
+	
+	/**
+	 * Name of the node of the action in the workflows of a single action.
+	 */
+	private static final String ACTION_NODE_NAME = "action";
+	
+	private static final String DEFAULT_APPS_FOLDER = "/biblia/apps";
+	
+	/**
+	 * Folder where the workflow definitions are stored.
+	 */
+	private static final String appsFolder;
+	
+	/**
+	 * Hashes of the workflow definitions known to be in hdfs.
+	 */
+	private static final Set<String> publishedDefinitions = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Separates the job id from the node name in the ids that
+	 * Oozie gives to the actions of a workflow.
+	 */
+	public static final String ACTION_ID_SEPARATOR = "@";
+	
+	/**
+	 * Maximum number of job ids in a single jobs query to Oozie.
+	 */
+	private static final int JOBS_QUERY_BATCH_SIZE = 50;
+	
+	/**
+	 * URL that Oozie calls whenever the status of a submitted job
+	 * changes, or null if notifications are disabled.
+	 */
+	private static volatile String notificationUrl;
+	
+	/**
+	 * URL that Oozie calls whenever the status of an action of
+	 * a submitted DAG changes, or null if notifications are disabled.
+	 */
+	private static volatile String actionNotificationUrl;
 
 	static {
 		client = new OozieClient(io.biblia.workflows.Configuration.getValue(OOZIE_URL));
@@ -52,6 +113,44 @@ public class OozieClientUtil implements ConfigurationKeys {
 		catch(IOException e) {
 			e.printStackTrace();
 		}
+		appsFolder = io.biblia.workflows.Configuration.getValue(OOZIE_APPS_FOLDER, DEFAULT_APPS_FOLDER);
+		setNotificationUrls(buildNotificationBaseUrl(io.biblia.workflows.Configuration.getValue(CALLBACK_LISTENER_PORT)));
+	}
+	
+	private static void setNotificationUrls(String baseUrl) {
+		//Oozie replaces $jobId, $nodeName and $status before calling the URL.
+		//There is no token for the id of the action, so the listener
+		//builds it from the job id and the node name.
+		notificationUrl = (null == baseUrl) ? null : baseUrl + "?jobId=$jobId&status=$status";
+		actionNotificationUrl = (null == baseUrl) ? null : baseUrl + "?jobId=$jobId&nodeName=$nodeName&status=$status";
+	}
+	
+	private static String buildNotificationBaseUrl(String port) {
+		if (null == port) {
+			return null;
+		}
+		String baseUrl = io.biblia.workflows.Configuration.getValue(CALLBACK_NOTIFICATION_URL);
+		if (null == baseUrl) {
+			String host;
+			try {
+				host = InetAddress.getLocalHost().getCanonicalHostName();
+			}
+			catch(UnknownHostException e) {
+				host = "localhost";
+			}
+			baseUrl = "http://" + host + ":" + port.trim() + "/callback";
+		}
+		return baseUrl;
+	}
+	
+	/**
+	 * Sets the port where the listener of notifications is bound, which
+	 * differs from the configured one when that one is 0.  It has no
+	 * effect if the URL of the listener is configured.
+	 * @param port
+	 */
+	public static void setNotificationPort(int port) {
+		setNotificationUrls(buildNotificationBaseUrl(Integer.toString(port)));
 	}
 	
 	/**
@@ -60,12 +159,75 @@ public class OozieClientUtil implements ConfigurationKeys {
 	 */
 	public static Status getOozieWorkflowStatus(String submissionId) throws OozieClientException {
 		
-		WorkflowJob job = client.getJobInfo(submissionId);
-		Status status = job.getStatus();			
-		return status;
+		ConcurrencyLimiter.acquire(ExternalSystem.OOZIE);
+		try {
+			WorkflowJob job = client.getJobInfo(submissionId);
+			Status status = job.getStatus();			
+			return status;
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.OOZIE);
+		}
+	}
+
+	/**
+	 * Returns the status of all the given jobs, using one jobs query
+	 * to Oozie per batch of ids instead of one query per job.  Jobs
+	 * unknown to Oozie are left out of the returned map.  If a batch
+	 * query fails, the jobs of that batch are queried one by one.
+	 * @param submissionIds
+	 * @return a map from submission id to status.
+	 */
+	public static Map<String, Status> getOozieWorkflowStatuses(List<String> submissionIds) {
+		Preconditions.checkNotNull(submissionIds);
+		Map<String, Status> toReturn = new HashMap<>();
+		for (int i = 0; i < submissionIds.size(); i += JOBS_QUERY_BATCH_SIZE) {
+			List<String> batch = submissionIds.subList(i,
+					Math.min(i + JOBS_QUERY_BATCH_SIZE, submissionIds.size()));
+			StringBuilder filter = new StringBuilder();
+			for (String submissionId : batch) {
+				if (filter.length() > 0) {
+					filter.append(";");
+				}
+				filter.append(OozieClient.FILTER_ID).append("=").append(submissionId);
+			}
+			List<WorkflowJob> jobs = null;
+			ConcurrencyLimiter.acquire(ExternalSystem.OOZIE);
+			try {
+				jobs = client.getJobsInfo(filter.toString(), 1, batch.size());
+			}
+			catch(OozieClientException ex) {
+				jobs = null;
+			}
+			finally {
+				ConcurrencyLimiter.release(ExternalSystem.OOZIE);
+			}
+			if (null != jobs) {
+				for (WorkflowJob job : jobs) {
+					toReturn.put(job.getId(), job.getStatus());
+				}
+				continue;
+			}
+			
+			//Fall back to one query per job.
+			for (String submissionId : batch) {
+				try {
+					toReturn.put(submissionId, getOozieWorkflowStatus(submissionId));
+				}
+				catch(OozieClientException ex) {
+					continue;
+				}
+			}
+		}
+		return toReturn;
 	}
 
 	/**
+	 * Submits the action in a workflow of its own.  The workflow
+	 * definition is shared by all the actions with the same main class
+	 * and number of arguments: the arguments of the action are passed
+	 * as job properties, so the submission is a single call to Oozie,
+	 * plus one write to hdfs the first time that the definition is used.
 	 * @param ManagedAction
 	 *            action to submit to Oozie
 	 * @return the id of the workflow submitted to Oozie.
@@ -76,42 +238,323 @@ public class OozieClientUtil implements ConfigurationKeys {
 	 */
 	public static String submitAndStartOozieJob(Action action) throws OozieClientException, IOException {
 		Preconditions.checkNotNull(action);
-		try {
-
-			// 1. Convert the action to an Oozie action
-			OozieAction oAction = convertToOozieAction(action);
+		Properties conf = client.createConfiguration();
 
-			// 2. Create a workflow with that action as the only action
-			OozieWorkflowGenerator xmlGenerator = new OozieWorkflowGenerator();
-			xmlGenerator.addName(oAction.getName());
-			xmlGenerator.addStartNode(oAction.getName());
-			xmlGenerator.addEndNode(END_NODE_NAME);
-			xmlGenerator.addAction(oAction);
-			xmlGenerator.addKillNode(ERROR_NODE_NAME);
+		// 1. Convert the action to an Oozie action with parameterized arguments
+		OozieAction oAction = convertToOozieAction(action, ACTION_NODE_NAME, END_NODE_NAME, "", conf);
 
-			String xmlWorkflow = xmlGenerator.generateWorkflow();
+		// 2. Create a workflow with that action as the only action
+		OozieWorkflowGenerator xmlGenerator = new OozieWorkflowGenerator();
+		xmlGenerator.addName(getWorkflowName(oAction));
+		xmlGenerator.addStartNode(oAction.getName());
+		xmlGenerator.addEndNode(END_NODE_NAME);
+		xmlGenerator.addAction(oAction);
+		xmlGenerator.addKillNode(ERROR_NODE_NAME);
 
-			// 3. Save the workflow in the hdfs folder of the action
-			String actionFolder = action.getActionFolder();
-			try {
-				writeWorkflowDefinition(xmlWorkflow, actionFolder);
-			} catch (IOException ex) {
-				throw ex;
+		// 3. Make sure that the workflow is in hdfs and submit it.
+		String appFolder = publishWorkflowDefinition(xmlGenerator.generateWorkflow());
+		return run(appFolder, conf, false, Collections.singletonList(action));
+	}
+	
+	/**
+	 * Sets the properties shared by all the submissions and runs the job.
+	 * The folder of the app only has the definition, so the jars are
+	 * taken from the lib folder of the folder of each action.
+	 * @param notifyActions if the actions of the workflow must notify
+	 * their status on their own.
+	 * @param actions actions of the workflow.
+	 */
+	private static String run(String appFolder, Properties conf, boolean notifyActions,
+			Collection<Action> actions) throws OozieClientException, IOException {
+		conf.setProperty(OozieClient.APP_PATH, appFolder);
+		Set<String> libFolders = new LinkedHashSet<>();
+		for (Action action : actions) {
+			libFolders.add(HdfsUtil.combinePath(action.getActionFolder(), LIB_FOLDER_NAME));
+		}
+		conf.setProperty(OozieClient.LIBPATH, Joiner.on(',').join(libFolders));
+		conf.setProperty(OozieClient.USE_SYSTEM_LIBPATH, "true");
+		conf.setProperty("jobTracker", io.biblia.workflows.Configuration.getValue(JOBTRACKER));
+		conf.setProperty("nameNode", io.biblia.workflows.Configuration.getValue(NAMENODE));
+		if (null != notificationUrl) {
+			conf.setProperty(OozieClient.WORKFLOW_NOTIFICATION_URL, notificationUrl);
+			if (notifyActions) {
+				conf.setProperty(OozieClient.ACTION_NOTIFICATION_URL, actionNotificationUrl);
 			}
+		}
+		ConcurrencyLimiter.acquire(ExternalSystem.OOZIE);
+		try {
+			return client.run(conf);
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.OOZIE);
+		}
+	}
+	
+	/**
+	 * Stores the workflow definition in the folder of the apps, named
+	 * after the hash of the definition, unless it is known to be there
+	 * already.  Definitions are never modified once written, so a folder
+	 * that exists has the right definition.
+	 * @param workflowDefinition
+	 * @return the folder of the workflow definition.
+	 * @throws IOException
+	 */
+	private static String publishWorkflowDefinition(String workflowDefinition) throws IOException {
+		String hash = Hashing.sha256().hashString(workflowDefinition, StandardCharsets.UTF_8).toString();
+		String appFolder = HdfsUtil.combinePath(appsFolder, hash);
+		if (!publishedDefinitions.contains(hash)) {
+			if (HdfsUtil.writeStringToFileIfAbsent(workflowDefinition, appFolder, WORKFLOW_DEFINITION_FILE_NAME)) {
+				logger.log(Level.FINE, "Published workflow definition {0}", appFolder);
+			}
+			//The write also returns false when the rename fails, so the
+			//hash is only cached once the definition is seen in hdfs.
+			else if (!HdfsUtil.exists(HdfsUtil.combinePath(appFolder, WORKFLOW_DEFINITION_FILE_NAME))) {
+				throw new IOException("Could not publish workflow definition " + appFolder);
+			}
+			publishedDefinitions.add(hash);
+		}
+		return appFolder;
+	}
+	
+	private static String getWorkflowName(OozieAction action) {
+		if (action instanceof JavaAction) {
+			String mainClass = ((JavaAction) action).getMainClass();
+			return mainClass.substring(mainClass.lastIndexOf('.') + 1);
+		}
+		return action.getName();
+	}
+	
+	/**
+	 * Submits a DAG of actions as a single Oozie workflow, so that it
+	 * costs one submission and one scheduling round trip instead of one
+	 * per action.
+	 *
+	 * Oozie only accepts forks whose paths meet at the same join, so the
+	 * DAG is laid out in levels: the actions of a level are the ones whose
+	 * parents are all in earlier levels, and each level runs its actions
+	 * between a fork and a join.  A level with a single action does not
+	 * need them.  The join is a barrier: an action waits for all the
+	 * actions of the previous level, even for those it does not depend
+	 * on.  Any action that fails sends the workflow to the kill node,
+	 * which kills the actions that are running and skips the ones that
+	 * did not start (see {@link #getActionStatuses(String, Collection)}).
+	 *
+	 * As with {@link #submitAndStartOozieJob(Action)}, the arguments of
+	 * the actions are passed as job properties, so DAGs with the same
+	 * shape share the workflow definition.  The id that Oozie gives to
+	 * each action is the job id and the node name separated by
+	 * {@link #ACTION_ID_SEPARATOR}.
+	 * @param name name of the workflow.
+	 * @param nodes actions to submit, by node name.
+	 * @param parents node names of the parents of each node.  Parents
+	 * that are not in the DAG are ignored.
+	 * @return the id of the workflow submitted to Oozie.
+	 * @throws OozieClientException
+	 *             whenever there is problem submitting the workflow to Oozie.
+	 * @throws IOException
+	 *             whenever there is problem writing the workflow to hdfs.
+	 */
+	public static String submitAndStartOozieDag(String name, Map<String, Action> nodes,
+			Map<String, ? extends Collection<String>> parents)
+					throws OozieClientException, IOException {
+		Preconditions.checkNotNull(name);
+		Preconditions.checkNotNull(nodes);
+		Preconditions.checkNotNull(parents);
+		Preconditions.checkArgument(!nodes.isEmpty());
 
-			// 4. Create a properties file with the properties needed
-			// so that Hadoop knows how to find the action data.
+		// 1. Lay the nodes out in levels.
+		List<List<String>> levels = getLevels(nodes.keySet(), parents);
 
-			Properties conf = client.createConfiguration();
-			conf.setProperty(OozieClient.APP_PATH, action.getActionFolder());
-			conf.setProperty("jobTracker", io.biblia.workflows.Configuration.getValue(JOBTRACKER));
-			conf.setProperty("nameNode", io.biblia.workflows.Configuration.getValue(NAMENODE));
-			// 6. Return the job id of the action.
-			String jobId = client.run(conf);
-			return jobId;
+		// 2. Each level goes to the fork or the only action of the next one.
+		Properties conf = client.createConfiguration();
+		OozieWorkflowGenerator xmlGenerator = new OozieWorkflowGenerator();
+		xmlGenerator.addName(name);
+		xmlGenerator.addStartNode(getLevelEntry(levels, 0));
+		xmlGenerator.addEndNode(END_NODE_NAME);
+		xmlGenerator.addKillNode(ERROR_NODE_NAME);
+		for (int i = 0; i < levels.size(); i++) {
+			List<String> level = levels.get(i);
+			String next = (i + 1 < levels.size()) ? getLevelEntry(levels, i + 1) : END_NODE_NAME;
+			String okName = next;
+			if (level.size() > 1) {
+				xmlGenerator.addFork("fork-" + i, level);
+				xmlGenerator.addJoin("join-" + i, next);
+				okName = "join-" + i;
+			}
+			for (String node : level) {
+				xmlGenerator.addAction(convertToOozieAction(nodes.get(node), node, okName, node + "_", conf));
+			}
+		}
 
-		} catch (OozieClientException e) {
-			throw e;
+		// 3. Make sure that the workflow is in hdfs and submit it.
+		String appFolder = publishWorkflowDefinition(xmlGenerator.generateWorkflow());
+		return run(appFolder, conf, true, nodes.values());
+	}
+	
+	/**
+	 * Groups the nodes in levels, where the parents of the nodes of a
+	 * level are all in earlier levels.
+	 * @throws IllegalArgumentException if the nodes have a cycle.
+	 */
+	private static List<List<String>> getLevels(Collection<String> nodes,
+			Map<String, ? extends Collection<String>> parents) {
+		Map<String, Integer> levelOf = new HashMap<>();
+		List<List<String>> levels = new ArrayList<>();
+		while (levelOf.size() < nodes.size()) {
+			List<String> level = new ArrayList<>();
+			for (String node : nodes) {
+				if (levelOf.containsKey(node)) {
+					continue;
+				}
+				boolean ready = true;
+				Collection<String> nodeParents = parents.get(node);
+				if (null != nodeParents) {
+					for (String parent : nodeParents) {
+						if (nodes.contains(parent) && !levelOf.containsKey(parent)) {
+							ready = false;
+							break;
+						}
+					}
+				}
+				if (ready) {
+					level.add(node);
+				}
+			}
+			if (level.isEmpty()) {
+				throw new IllegalArgumentException("The nodes of the DAG have a cycle");
+			}
+			for (String node : level) {
+				levelOf.put(node, levels.size());
+			}
+			levels.add(level);
+		}
+		return levels;
+	}
+	
+	private static String getLevelEntry(List<List<String>> levels, int i) {
+		List<String> level = levels.get(i);
+		return (level.size() > 1) ? "fork-" + i : level.get(0);
+	}
+	
+	/**
+	 * @param submissionId
+	 * @return true if the submission id is the id of an action
+	 * inside of a workflow submitted with
+	 * {@link #submitAndStartOozieDag(String, Map, Map)}.
+	 */
+	public static boolean isActionId(String submissionId) {
+		return null != submissionId && submissionId.contains(ACTION_ID_SEPARATOR);
+	}
+	
+	/**
+	 * @param submissionId
+	 * @return the id of the Oozie job of the submission id.
+	 */
+	public static String getJobId(String submissionId) {
+		Preconditions.checkNotNull(submissionId);
+		int separator = submissionId.indexOf(ACTION_ID_SEPARATOR);
+		return (separator < 0) ? submissionId : submissionId.substring(0, separator);
+	}
+	
+	/**
+	 * @param jobId
+	 * @param nodeName
+	 * @return the id that Oozie gives to the node of the job.
+	 */
+	public static String getActionId(String jobId, String nodeName) {
+		return jobId + ACTION_ID_SEPARATOR + nodeName;
+	}
+	
+	/**
+	 * Returns the status of the actions of a workflow submitted with
+	 * {@link #submitAndStartOozieDag(String, Map, Map)}, with a
+	 * single call to Oozie.  Only the actions that are done are returned:
+	 * SUCCEEDED if the action went through its ok transition, FAILED if
+	 * it failed, and KILLED if it was killed.  Once the workflow is done,
+	 * the actions that never ran, and the ones that were killed because
+	 * another action of the workflow failed, are returned as PREP: they
+	 * did not fail, and can be submitted again.
+	 * @param jobId
+	 * @param actionIds ids of the actions of the job that we want to know about.
+	 * @return a map from action id to status.
+	 * @throws OozieClientException
+	 */
+	public static Map<String, Status> getActionStatuses(String jobId, Collection<String> actionIds)
+			throws OozieClientException {
+		Preconditions.checkNotNull(jobId);
+		Preconditions.checkNotNull(actionIds);
+		WorkflowJob info;
+		ConcurrencyLimiter.acquire(ExternalSystem.OOZIE);
+		try {
+			info = client.getJobInfo(jobId);
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.OOZIE);
+		}
+		Map<String, WorkflowAction> actions = new HashMap<>();
+		if (null != info.getActions()) {
+			for (WorkflowAction action : info.getActions()) {
+				actions.put(action.getId(), action);
+			}
+		}
+		boolean jobDone = !Status.PREP.equals(info.getStatus()) && !Status.RUNNING.equals(info.getStatus())
+				&& !Status.SUSPENDED.equals(info.getStatus());
+		boolean anyFailed = false;
+		for (WorkflowAction action : actions.values()) {
+			if (Status.FAILED.equals(toJobStatus(action.getStatus()))) {
+				anyFailed = true;
+				break;
+			}
+		}
+		Map<String, Status> toReturn = new HashMap<>();
+		for (String actionId : actionIds) {
+			WorkflowAction action = actions.get(actionId);
+			Status status = (null == action) ? null : toJobStatus(action.getStatus());
+			if (Status.KILLED.equals(status) && anyFailed) {
+				//Killed by the kill node after another action failed.
+				status = jobDone ? Status.PREP : null;
+			}
+			else if (null == status && jobDone) {
+				status = Status.PREP;
+			}
+			if (null != status) {
+				toReturn.put(actionId, status);
+			}
+		}
+		return toReturn;
+	}
+	
+	/**
+	 * Returns the status of a single action of a workflow submitted with
+	 * {@link #submitAndStartOozieDag(String, Map, Map)}, or null
+	 * if the action is not done yet.
+	 * @param actionId
+	 * @return
+	 * @throws OozieClientException
+	 */
+	public static Status getActionStatus(String actionId) throws OozieClientException {
+		Preconditions.checkNotNull(actionId);
+		return getActionStatuses(getJobId(actionId), Collections.singletonList(actionId)).get(actionId);
+	}
+	
+	/**
+	 * Translates the status of an Oozie action to the status of a job
+	 * that ran only that action, or null if the action is not done.
+	 */
+	private static Status toJobStatus(WorkflowAction.Status status) {
+		if (null == status) {
+			return null;
+		}
+		switch (status) {
+			case OK:
+				return Status.SUCCEEDED;
+			case ERROR:
+			case FAILED:
+				return Status.FAILED;
+			case KILLED:
+				return Status.KILLED;
+			default:
+				return null;
 		}
 	}
 	
@@ -124,52 +567,118 @@ public class OozieClientUtil implements ConfigurationKeys {
 	 * @return
 	 */
 	public static List<Date> getStartAndEndTime(String jobId) {
+		OozieJobReport report = getJobReport(jobId);
 		List<Date> toReturn = new ArrayList<Date>();
-		toReturn.add(null);
-		toReturn.add(null);
+		toReturn.add(report.getStartTime());
+		toReturn.add(report.getEndTime());
+		return toReturn;
+	}
+	
+	/**
+	 * Returns the start and end time of the job, and the bytes that
+	 * its actions reported in the property
+	 * {@link ActionStub#BYTES_WRITTEN_PROPERTY} of their captured
+	 * output, all with a single call to Oozie.  If the job cannot be
+	 * found, all of them are null.
+	 *
+	 * If the id is the id of an action of a DAG, the report is the
+	 * one of that action alone.
+	 * @param jobId
+	 * @return
+	 */
+	public static OozieJobReport getJobReport(String jobId) {
+		ConcurrencyLimiter.acquire(ExternalSystem.OOZIE);
 		try{
-			WorkflowJob info = client.getJobInfo(jobId);
+			WorkflowJob info = client.getJobInfo(getJobId(jobId));
+			if (null != info && isActionId(jobId)) {
+				return getActionReport(info, jobId);
+			}
 			if (null != info) {
-				Date start = info.getStartTime();
-				Date end = info.getEndTime();
-				toReturn.set(0, start);
-				toReturn.set(1, end);
+				return new OozieJobReport(info.getStartTime(), info.getEndTime(),
+						getBytesWritten(info.getActions()));
 			}
 		}
 		catch(OozieClientException ex) {
 			ex.printStackTrace();
 		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.OOZIE);
+		}
+		return new OozieJobReport(null, null, null);
+	}
+	
+	private static OozieJobReport getActionReport(WorkflowJob info, String actionId) {
+		if (null != info.getActions()) {
+			for (WorkflowAction action : info.getActions()) {
+				if (actionId.equals(action.getId())) {
+					return new OozieJobReport(action.getStartTime(), action.getEndTime(),
+							getBytesWritten(Collections.singletonList(action)));
+				}
+			}
+		}
+		return new OozieJobReport(null, null, null);
+	}
+	
+	private static Long getBytesWritten(List<WorkflowAction> actions) {
+		Long toReturn = null;
+		if (null == actions) {
+			return null;
+		}
+		for (WorkflowAction action : actions) {
+			String data = action.getData();
+			if (null == data) {
+				continue;
+			}
+			Properties properties = new Properties();
+			try {
+				properties.load(new StringReader(data));
+				String bytes = properties.getProperty(ActionStub.BYTES_WRITTEN_PROPERTY);
+				if (null != bytes) {
+					toReturn = (null == toReturn ? 0 : toReturn) + Long.parseLong(bytes.trim());
+				}
+			}
+			catch(IOException | NumberFormatException ex) {
+				logger.log(Level.WARNING, "Could not read the output of action " + action.getId(), ex);
+			}
+		}
 		return toReturn;
 	}
 
 	/**
+	 * Converts the action to an Oozie action whose arguments are the
+	 * parameters prefix + "arg" + i, and sets their values in conf.
 	 * @throws UnsupportedOperationException
 	 *             whenever the runtime type of the action parameter does not
 	 *             have an implemented translation to an Oozie action type yet.
 	 */
-	private static OozieAction convertToOozieAction(Action action) throws UnsupportedOperationException {
+	private static OozieAction convertToOozieAction(Action action, String actionName, String okName,
+			String prefix, Properties conf) throws UnsupportedOperationException {
 
 		if (action instanceof io.biblia.workflows.definition.CommandLineAction) {
 			io.biblia.workflows.definition.CommandLineAction javaAction = (io.biblia.workflows.definition.CommandLineAction) action;
-			String actionName = javaAction.getOriginalName();
-			String okName = END_NODE_NAME;
 			String errorName = ERROR_NODE_NAME;
 			String mainClassName = javaAction.getMainClassName();
 			Map<String, String> inputParameters = javaAction.getInputParameters();
 			Map<String, String> additionalInput = javaAction.getExtraInputs();
 			String output = javaAction.getOutputPath();
 			Map<String, String> configurationParameters = javaAction.getConfiguration();
-			List<String> arguments = new ArrayList<>();
+			List<String> values = new ArrayList<>();
 			if (null != inputParameters) {
-				arguments.addAll(inputParameters.values());
+				values.addAll(inputParameters.values());
 			}
 			if (null != additionalInput) {
-				arguments.addAll(additionalInput.values());
+				values.addAll(additionalInput.values());
 			}
 			if (null != configurationParameters) {
-				arguments.addAll(configurationParameters.values());
+				values.addAll(configurationParameters.values());
+			}
+			values.add(output);
+			List<String> arguments = new ArrayList<>();
+			for (int i = 0; i < values.size(); i++) {
+				String parameter = prefix + "arg" + i;
+				conf.setProperty(parameter, values.get(i));
+				arguments.add("${" + parameter + "}");
 			}
-			arguments.add(output);
 			
 			String nameNode = javaAction.getNameNode();
 			String jobTracker = javaAction.getJobTracker();
@@ -182,13 +691,15 @@ public class OozieClientUtil implements ConfigurationKeys {
 					+ action.getClass().getSimpleName() + " to any known Oozie action type");
 	}
 
-	private static void writeWorkflowDefinition(String workflowDefinition, String folderPath) throws IOException {
-		HdfsUtil.writeStringToFile(workflowDefinition, folderPath, WORKFLOW_DEFINITION_FILE_NAME);
-	}
-
 	public static void killJob(String jobId) throws OozieClientException {
 		Preconditions.checkNotNull(jobId);
-		client.kill(jobId);
+		ConcurrencyLimiter.acquire(ExternalSystem.OOZIE);
+		try {
+			client.kill(jobId);
+		}
+		finally {
+			ConcurrencyLimiter.release(ExternalSystem.OOZIE);
+		}
 	}
 
 }
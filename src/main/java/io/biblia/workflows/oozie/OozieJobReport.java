@@ -0,0 +1,39 @@
+package io.biblia.workflows.oozie;
+
+import java.util.Date;
+
+/**
+ * What Oozie reports about a job that is done: its start and end
+ * time, and the number of bytes that its actions reported to have
+ * written in their captured output.
+ * @author dearj019
+ *
+ */
+public class OozieJobReport {
+
+	private final Date startTime;
+	private final Date endTime;
+	private final Long bytesWritten;
+
+	public OozieJobReport(Date startTime, Date endTime, Long bytesWritten) {
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.bytesWritten = bytesWritten;
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public Date getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * @return the bytes written by the job, or null if no action
+	 * of the job reported them.
+	 */
+	public Long getBytesWritten() {
+		return bytesWritten;
+	}
+}
@@ -1,7 +1,10 @@
 package io.biblia.workflows.oozie;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import io.biblia.workflows.Configuration;
 import io.biblia.workflows.ConfigurationKeys;
@@ -41,6 +44,16 @@ ConfigurationKeys {
 	
 	private List<OozieAction> workflowActions = new LinkedList<OozieAction>();
 	
+	/**
+	 * Fork nodes, from name to the nodes where their paths start.
+	 */
+	private Map<String, List<String>> forkNodes = new LinkedHashMap<>();
+	
+	/**
+	 * Join nodes, from name to the node they transition to.
+	 */
+	private Map<String, String> joinNodes = new LinkedHashMap<>();
+	
 	public OozieWorkflowGenerator() {
 		
 	}
@@ -70,6 +83,30 @@ ConfigurationKeys {
 		return this;
 	}
 	
+	/**
+	 * Adds a fork node that starts a path of execution in
+	 * each one of the given nodes.
+	 * @param nodeName
+	 * @param paths
+	 * @return
+	 */
+	public OozieWorkflowGenerator addFork(String nodeName, List<String> paths) {
+		this.forkNodes.put(nodeName, new ArrayList<>(paths));
+		return this;
+	}
+	
+	/**
+	 * Adds a join node that waits for all the paths of its fork,
+	 * and then transitions to the given node.
+	 * @param nodeName
+	 * @param toNodeName
+	 * @return
+	 */
+	public OozieWorkflowGenerator addJoin(String nodeName, String toNodeName) {
+		this.joinNodes.put(nodeName, toNodeName);
+		return this;
+	}
+	
 	/**
 	 * Validates that the workflow is valid.
 	 * @return
@@ -87,6 +124,16 @@ ConfigurationKeys {
 			XmlBuilder builder = new XmlBuilder();
 			builder.openElement("workflow-app", "xmlns", XMLNS, "name", this.wName);
 			builder.openCloseElement("start", "to", this.startNodeName);
+			for (Map.Entry<String, List<String>> fork : this.forkNodes.entrySet()) {
+				builder.openElement("fork", "name", fork.getKey());
+				for (String path : fork.getValue()) {
+					builder.openCloseElement("path", "start", path);
+				}
+				builder.closeElement("fork");
+			}
+			for (Map.Entry<String, String> join : this.joinNodes.entrySet()) {
+				builder.openCloseElement("join", "name", join.getKey(), "to", join.getValue());
+			}
 			for (OozieAction action : this.workflowActions) {
 				builder.openElement("action", "name", action.getName());
 				this.addActionSpecificValues(builder, action);
@@ -135,6 +182,8 @@ ConfigurationKeys {
 			for (String arg : arguments) {
 				builder.openCloseTextElement("arg", arg);
 			}
+			//Lets the action report the bytes it wrote.
+			builder.openCloseElement("capture-output");
 			builder.closeElement("java");
 		}
 	}
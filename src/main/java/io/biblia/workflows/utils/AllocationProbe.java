@@ -0,0 +1,55 @@
+package io.biblia.workflows.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the bytes allocated by the current thread, so that the
+ * allocation cost of a polling cycle can be logged.  It relies on the
+ * HotSpot extension of {@link ThreadMXBean}; when it is not available,
+ * or allocation measurement is disabled, it returns -1.
+ * @author dearj019
+ *
+ */
+public class AllocationProbe {
+
+	private static final com.sun.management.ThreadMXBean threadBean;
+
+	static {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean) bean;
+		}
+		else {
+			threadBean = null;
+		}
+	}
+
+	/**
+	 * Returns the total number of bytes allocated so far by the
+	 * current thread, or -1 if it cannot be measured.
+	 * @return
+	 */
+	public static long allocatedBytes() {
+		if (null == threadBean || !threadBean.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread
+	 * since the given value of {@link #allocatedBytes()}, or -1 if
+	 * it cannot be measured.
+	 * @param start
+	 * @return
+	 */
+	public static long allocatedSince(long start) {
+		if (start < 0) {
+			return -1;
+		}
+		long now = allocatedBytes();
+		return (now < 0) ? -1 : now - start;
+	}
+}
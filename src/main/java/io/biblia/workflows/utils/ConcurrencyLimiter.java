@@ -0,0 +1,71 @@
+package io.biblia.workflows.utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+
+/**
+ * Bounds the number of concurrent calls made to each external
+ * system.  Callers must pair every call to {@link #acquire(ExternalSystem)}
+ * with a call to {@link #release(ExternalSystem)} in a finally block.
+ *
+ * It is what keeps virtual threads from overwhelming Oozie or the
+ * NameNode, since in that mode the number of threads is not bounded.
+ * Calls to MongoDB are bounded by the connection pool of the driver,
+ * which makes up to {@link #getLimit(ExternalSystem)} threads wait for
+ * a connection (see {@link MongoClientBuilder}).
+ * @author dearj019
+ *
+ */
+public class ConcurrencyLimiter implements ConfigurationKeys {
+
+	public enum ExternalSystem {
+		OOZIE, HDFS, MONGODB
+	}
+
+	private static final int DEFAULT_OOZIE_LIMIT = 32;
+
+	private static final int DEFAULT_HDFS_LIMIT = 64;
+
+	private static final Map<ExternalSystem, Semaphore> permits;
+
+	static {
+		permits = new EnumMap<>(ExternalSystem.class);
+		for (ExternalSystem system : ExternalSystem.values()) {
+			permits.put(system, new Semaphore(Math.max(getLimit(system), 1), true));
+		}
+	}
+
+	/**
+	 * Returns the maximum number of concurrent calls allowed
+	 * to the given system.
+	 * @param system
+	 * @return
+	 */
+	public static int getLimit(ExternalSystem system) {
+		switch(system) {
+		case OOZIE:
+			return Configuration.getIntValue(EXECUTOR_LIMIT_OOZIE, DEFAULT_OOZIE_LIMIT);
+		case HDFS:
+			return Configuration.getIntValue(EXECUTOR_LIMIT_HDFS, DEFAULT_HDFS_LIMIT);
+		default:
+			return Configuration.getIntValue(EXECUTOR_LIMIT_MONGODB,
+					MongoClientBuilder.DEFAULT_CONNECTIONS * MongoClientBuilder.DEFAULT_WAIT_MULTIPLIER);
+		}
+	}
+
+	/**
+	 * Blocks until a call to the given system is allowed.
+	 * @param system
+	 */
+	public static void acquire(ExternalSystem system) {
+		permits.get(system).acquireUninterruptibly();
+	}
+
+	public static void release(ExternalSystem system) {
+		permits.get(system).release();
+	}
+}
@@ -13,6 +13,7 @@ import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.ServerAddress;
 import io.biblia.workflows.ConfigurationKeys;
+import io.biblia.workflows.manager.MongoIndexBootstrapper;
 import io.biblia.workflows.manager.action.ActionState;
 import io.biblia.workflows.manager.dataset.DatasetState;
 import io.biblia.workflows.definition.ActionType;
@@ -20,11 +21,22 @@ import io.biblia.workflows.Configuration;
 
 public class MongoClientBuilder implements ConfigurationKeys {
 	
+	static final int DEFAULT_CONNECTIONS = 10;
+	
+	static final int DEFAULT_WAIT_MULTIPLIER = 5;
+	
+	/**
+	 * True once the indexes have been bootstrapped by this process.
+	 */
+	private static boolean bootstrapped = false;
+	
 	/**
-	 * Creates a MongoClient that supports multithreading.
+	 * Creates a MongoClient that supports multithreading.  The first
+	 * client created makes sure that the indexes exist, before any of
+	 * the managers can use it.
 	 * @return
 	 */
-	public static MongoClient getMongoClient() {
+	public static synchronized MongoClient getMongoClient() {
 		
 		MongoClient instance = null;
 		String mongo_host = Configuration.getValue(MONGODB_HOST, "192.168.99.100");
@@ -36,15 +48,24 @@ public class MongoClientBuilder implements ConfigurationKeys {
 				MongoClient.getDefaultCodecRegistry());
 			
 		MongoClientOptions.Builder builder = new MongoClientOptions.Builder();
-		builder.threadsAllowedToBlockForConnectionMultiplier(5);
+		//The number of threads allowed to wait for a connection
+		//is the concurrency limit for MongoDB.
+		int connections = Math.max(Configuration.getIntValue(MONGODB_CONNECTIONS, DEFAULT_CONNECTIONS), 1);
+		int limit = ConcurrencyLimiter.getLimit(ConcurrencyLimiter.ExternalSystem.MONGODB);
+		int multiplier = Math.max((limit + connections - 1) / connections, 1);
+		builder.threadsAllowedToBlockForConnectionMultiplier(multiplier);
 		builder.socketKeepAlive(true);
-		builder.connectionsPerHost(10);
+		builder.connectionsPerHost(connections);
 		builder.connectTimeout(30000);
 		builder.socketTimeout(30000);
 		builder.codecRegistry(codecRegistry);
 		MongoClientOptions options = builder.build();
 			
 		instance = new MongoClient(new ServerAddress(mongo_host, mongo_port), options);
+		if (!bootstrapped) {
+			new MongoIndexBootstrapper(instance).bootstrap();
+			bootstrapped = true;
+		}
 		
 		return instance;
 	}
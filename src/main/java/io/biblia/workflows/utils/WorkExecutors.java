@@ -0,0 +1,87 @@
+package io.biblia.workflows.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.biblia.workflows.Configuration;
+import io.biblia.workflows.ConfigurationKeys;
+
+/**
+ * Creates the executors that run the units of work of the managers
+ * (action submissions, dataset deletions and callbacks).
+ *
+ * In platform mode (the default) a fixed pool of platform threads is
+ * used.  In virtual mode each task runs on its own virtual thread, so
+ * that thousands of tasks blocked on Oozie, HDFS or MongoDB do not need
+ * thousands of OS threads.  Concurrency towards each external system is
+ * then bounded by the {@link ConcurrencyLimiter}.  Virtual threads are
+ * looked up at runtime, so the code still builds and runs on Java 8,
+ * falling back to platform threads.
+ * @author dearj019
+ *
+ */
+public class WorkExecutors implements ConfigurationKeys {
+
+	public static final String PLATFORM_MODE = "platform";
+
+	public static final String VIRTUAL_MODE = "virtual";
+
+	private static final boolean virtual;
+
+	private static final Logger logger = Logger.getLogger(WorkExecutors.class.getName());
+
+	static {
+		String mode = Configuration.getValue(EXECUTOR_MODE, PLATFORM_MODE);
+		if (VIRTUAL_MODE.equalsIgnoreCase(mode)) {
+			if (null == getVirtualThreadFactoryMethod()) {
+				logger.log(Level.WARNING, "Virtual threads are not supported by this Java runtime. Using platform threads");
+				virtual = false;
+			}
+			else {
+				virtual = true;
+			}
+		}
+		else {
+			virtual = false;
+		}
+	}
+
+	/**
+	 * Returns true if tasks are run on virtual threads.
+	 * @return
+	 */
+	public static boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Returns a new executor.  In platform mode it is a fixed thread
+	 * pool with the given number of threads. In virtual mode it starts
+	 * a new virtual thread per task.
+	 * @param platformThreads
+	 * @return
+	 */
+	public static ExecutorService newExecutor(int platformThreads) {
+		if (virtual) {
+			try {
+				return (ExecutorService) getVirtualThreadFactoryMethod().invoke(null);
+			}
+			catch(Exception e) {
+				logger.log(Level.WARNING, "Could not create virtual thread executor. Using platform threads", e);
+			}
+		}
+		return Executors.newFixedThreadPool(platformThreads);
+	}
+
+	private static Method getVirtualThreadFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch(NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package io.biblia.workflows.manager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the {@link Journal} reads back what was appended, that it
+ * ignores a last record written partially and that it is rewritten
+ * atomically.
+ */
+public class JournalTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.file = File.createTempFile("journal", ".json");
+	}
+
+	@Override
+	protected void tearDown() {
+		this.file.delete();
+		new File(this.file.getPath() + ".tmp").delete();
+	}
+
+	private void appendRaw(String text) throws IOException {
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(this.file, true),
+				StandardCharsets.UTF_8)) {
+			writer.write(text);
+		}
+	}
+
+	public void testReadsTheRecordsInOrder() throws IOException {
+		try (Journal journal = new Journal(this.file, true)) {
+			assertTrue(journal.read().isEmpty());
+			journal.append(new Document("n", 1));
+			journal.append(new Document("n", 2));
+			assertEquals(Arrays.asList(new Document("n", 1), new Document("n", 2)), journal.read());
+		}
+		try (Journal journal = new Journal(this.file, false)) {
+			journal.append(new Document("n", 3));
+			assertEquals(3, journal.read().size());
+		}
+	}
+
+	public void testIgnoresATruncatedLastRecord() throws IOException {
+		String record = new Document("n", 2).append("docs",
+				Arrays.asList(new Document("path", "/a").append("state", "STORED"))).toJson();
+		//The record may be cut at any point.
+		for (int length = 1; length < record.length(); length++) {
+			this.file.delete();
+			try (Journal journal = new Journal(this.file, false)) {
+				journal.append(new Document("n", 1));
+			}
+			appendRaw(record.substring(0, length));
+			try (Journal journal = new Journal(this.file, false)) {
+				assertEquals("Cut at " + length, Arrays.asList(new Document("n", 1)), journal.read());
+			}
+		}
+	}
+
+	public void testFailsOnACorruptedRecordBeforeTheLast() throws IOException {
+		appendRaw("{\"n\": 1}\n{\"n\": \n{\"n\": 3}\n");
+		try (Journal journal = new Journal(this.file, false)) {
+			journal.read();
+			fail("A corrupted record that is not the last one must not be ignored");
+		}
+		catch(IOException ex) {
+			//expected
+		}
+	}
+
+	public void testRewriteReplacesTheRecords() throws IOException {
+		try (Journal journal = new Journal(this.file, false)) {
+			for (int i = 0; i < 10; i++) {
+				journal.append(new Document("n", i));
+			}
+			journal.rewrite(Arrays.asList(new Document("n", 100)));
+			assertEquals(Arrays.asList(new Document("n", 100)), journal.read());
+			assertFalse(new File(this.file.getPath() + ".tmp").exists());
+
+			//Appends go to the rewritten journal.
+			journal.append(new Document("n", 101));
+		}
+		List<String> lines = Files.readAllLines(this.file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(2, lines.size());
+		try (Journal journal = new Journal(this.file, false)) {
+			assertEquals(Arrays.asList(new Document("n", 100), new Document("n", 101)), journal.read());
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package io.biblia.workflows.manager.action;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.types.ObjectId;
+
+import io.biblia.workflows.definition.Action;
+import io.biblia.workflows.definition.CommandLineAction;
+import io.biblia.workflows.manager.Journal;
+import junit.framework.TestCase;
+
+/**
+ * Checks the version checks, the claims and the recovery from the
+ * journal of the {@link InMemoryActionPersistance}.
+ */
+public class InMemoryActionPersistanceTest extends TestCase {
+
+	private static final long LEASE_MILLIS = 60000;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.file = File.createTempFile("actions", ".json");
+	}
+
+	@Override
+	protected void tearDown() {
+		this.file.delete();
+		new File(this.file.getPath() + ".tmp").delete();
+	}
+
+	private static Action newAction(int i) {
+		Action action = new CommandLineAction("action" + i, i, "/actions/action" + i,
+				new LinkedHashMap<String, String>(), new LinkedHashMap<String, String>(),
+				new ArrayList<Integer>(), false, "/output/action" + i, "Main", "jobTracker", "nameNode");
+		action.setLongName(new ArrayList<List<String>>());
+		return action;
+	}
+
+	public void testOutdatedVersionsAreRejected() throws Exception {
+		InMemoryActionPersistance persistance = new InMemoryActionPersistance();
+		String id = persistance.insertReadyAction(newAction(1), 1L, null, null);
+		PersistedAction action = persistance.getActionById(id);
+		assertEquals(1, action.getVersion());
+
+		PersistedAction submitted = persistance.updateActionState(action, ActionState.SUBMITTED);
+		assertEquals(2, submitted.getVersion());
+		try {
+			persistance.updateActionState(action, ActionState.RUNNING);
+			fail("The version of the action is outdated");
+		}
+		catch(OutdatedActionException ex) {
+			//expected
+		}
+		try {
+			persistance.addActionSubmissionId(action, "job");
+			fail("The version of the action is outdated");
+		}
+		catch(OutdatedActionException ex) {
+			//expected
+		}
+		assertEquals(ActionState.SUBMITTED, persistance.getActionById(id).getState());
+		assertNull(persistance.getActionBySubmissionId("job"));
+
+		PersistedAction withJob = persistance.addActionSubmissionId(submitted, "job");
+		assertEquals(3, withJob.getVersion());
+		assertEquals(id, persistance.getActionBySubmissionId("job").getId().toHexString());
+	}
+
+	public void testConcurrentClaimsDoNotOverlap() throws Exception {
+		final InMemoryActionPersistance persistance = new InMemoryActionPersistance();
+		int actions = 2000;
+		for (int i = 0; i < actions; i++) {
+			persistance.insertReadyAction(newAction(i), 1L, null, null);
+		}
+
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<List<ObjectId>>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final String owner = "owner" + t;
+			futures.add(executor.submit(new Callable<List<ObjectId>>() {
+
+				@Override
+				public List<ObjectId> call() {
+					List<ObjectId> claimed = new ArrayList<>();
+					while (true) {
+						List<PersistedAction> batch = persistance.claimAvailableActions(7, owner, LEASE_MILLIS);
+						if (batch.isEmpty()) {
+							return claimed;
+						}
+						for (PersistedAction action : batch) {
+							assertEquals(ActionState.PROCESSING, action.getState());
+							claimed.add(action.getId());
+						}
+					}
+				}
+			}));
+		}
+		Set<ObjectId> claimed = new HashSet<>();
+		int total = 0;
+		for (Future<List<ObjectId>> future : futures) {
+			List<ObjectId> ids = future.get();
+			claimed.addAll(ids);
+			total += ids.size();
+		}
+		executor.shutdown();
+
+		assertEquals(actions, total);
+		assertEquals(actions, claimed.size());
+		assertTrue(persistance.claimAvailableActions(10, "late", LEASE_MILLIS).isEmpty());
+		assertTrue(persistance.getAvailableActions(-1).isEmpty());
+	}
+
+	public void testRecoversFromTheJournal() throws Exception {
+		String readyId;
+		String submittedId;
+		String waitingId;
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryActionPersistance persistance = new InMemoryActionPersistance(journal);
+			readyId = persistance.insertReadyAction(newAction(1), 1L, null, null);
+			submittedId = persistance.insertReadyAction(newAction(2), 1L, null, null);
+			waitingId = persistance.insertWaitingAction(newAction(3), 1L,
+					Collections.singletonList(submittedId), Collections.singletonList("/output/action2"));
+			PersistedAction submitted = persistance.updateActionState(
+					persistance.getActionById(submittedId), ActionState.SUBMITTED);
+			persistance.addActionSubmissionId(submitted, "job");
+			assertEquals(Long.valueOf(1), persistance.getNextWorkflowSequence());
+			assertEquals(Long.valueOf(2), persistance.getNextWorkflowSequence());
+		}
+
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryActionPersistance persistance = new InMemoryActionPersistance(journal);
+			assertEquals(ActionState.READY, persistance.getActionById(readyId).getState());
+			PersistedAction submitted = persistance.getActionBySubmissionId("job");
+			assertEquals(submittedId, submitted.getId().toHexString());
+			assertEquals(ActionState.SUBMITTED, submitted.getState());
+			assertEquals(3, submitted.getVersion());
+			assertEquals("/output/action2", submitted.getAction().getOutputPath());
+			assertEquals(1, persistance.getWaitingChildActions(Collections.singletonList(submittedId)).size());
+			assertEquals(Long.valueOf(3), persistance.getNextWorkflowSequence());
+
+			//The children are indexed again on recovery.
+			assertEquals(Collections.singletonList(new ObjectId(waitingId)),
+					persistance.readyChildActions(submittedId));
+			assertEquals(ActionState.READY, persistance.getActionById(waitingId).getState());
+		}
+	}
+
+	public void testRecoveryCompactsTheJournal() throws Exception {
+		String id;
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryActionPersistance persistance = new InMemoryActionPersistance(journal);
+			id = persistance.insertReadyAction(newAction(1), 1L, null, null);
+			PersistedAction action = persistance.getActionById(id);
+			for (int i = 0; i < 10; i++) {
+				action = persistance.updateActionState(action, (0 == i % 2) ? ActionState.PROCESSING
+						: ActionState.READY);
+			}
+		}
+		assertEquals(12, Files.readAllLines(this.file.toPath(), StandardCharsets.UTF_8).size());
+
+		try (Journal journal = new Journal(this.file, false)) {
+			new InMemoryActionPersistance(journal);
+		}
+		//The workflow counter and the latest version of the action.
+		assertEquals(2, Files.readAllLines(this.file.toPath(), StandardCharsets.UTF_8).size());
+		try (Journal journal = new Journal(this.file, false)) {
+			PersistedAction action = new InMemoryActionPersistance(journal).getActionById(id);
+			assertEquals(ActionState.READY, action.getState());
+			assertEquals(11, action.getVersion());
+		}
+	}
+
+	public void testRecoveryIgnoresATruncatedLastRecord() throws Exception {
+		String id;
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryActionPersistance persistance = new InMemoryActionPersistance(journal);
+			id = persistance.insertReadyAction(newAction(1), 1L, null, null);
+			persistance.updateActionState(persistance.getActionById(id), ActionState.PROCESSING);
+		}
+		//The process died while appending the next change.
+		byte[] content = Files.readAllBytes(this.file.toPath());
+		String lastLine = Files.readAllLines(this.file.toPath(), StandardCharsets.UTF_8).get(2);
+		try (FileOutputStream out = new FileOutputStream(this.file, true)) {
+			out.write(lastLine.substring(0, lastLine.length() / 2).getBytes(StandardCharsets.UTF_8));
+		}
+		assertTrue(Files.size(this.file.toPath()) > content.length);
+
+		try (Journal journal = new Journal(this.file, false)) {
+			PersistedAction action = new InMemoryActionPersistance(journal).getActionById(id);
+			assertEquals(ActionState.PROCESSING, action.getState());
+			assertEquals(2, action.getVersion());
+		}
+		//The truncated record is not in the compacted journal.
+		try (Journal journal = new Journal(this.file, false)) {
+			assertEquals(2, journal.read().size());
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package io.biblia.workflows.manager.dataset;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.biblia.workflows.manager.Journal;
+import junit.framework.TestCase;
+
+/**
+ * Checks the version checks, the claims and the recovery from the
+ * journal of the {@link InMemoryDatasetPersistance}.
+ */
+public class InMemoryDatasetPersistanceTest extends TestCase {
+
+	private static final long LEASE_MILLIS = 60000;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		this.file = File.createTempFile("datasets", ".json");
+	}
+
+	@Override
+	protected void tearDown() {
+		this.file.delete();
+		new File(this.file.getPath() + ".tmp").delete();
+	}
+
+	private static PersistedDataset newDataset(String path, DatasetState state) {
+		return new PersistedDataset(path, 10.0, state, new Date(), 0, new ArrayList<String>());
+	}
+
+	public void testOutdatedVersionsAreRejected() throws Exception {
+		InMemoryDatasetPersistance persistance = new InMemoryDatasetPersistance();
+		persistance.insertDataset(newDataset("/a", DatasetState.STORED));
+		PersistedDataset dataset = persistance.getDatasetByPath("/a");
+		assertEquals(1, dataset.getVersion());
+
+		PersistedDataset claimed = persistance.addClaimToDataset(dataset, "action");
+		assertEquals(2, claimed.getVersion());
+		try {
+			persistance.updateDatasetState(dataset, DatasetState.STORED_TO_DELETE);
+			fail("The version of the dataset is outdated");
+		}
+		catch(OutdatedDatasetException ex) {
+			//expected
+		}
+		try {
+			persistance.updateDatasetSizeInMB(dataset, 20.0);
+			fail("The version of the dataset is outdated");
+		}
+		catch(OutdatedDatasetException ex) {
+			//expected
+		}
+		try {
+			persistance.removeClaimFromDataset(dataset, "action");
+			fail("The version of the dataset is outdated");
+		}
+		catch(OutdatedDatasetException ex) {
+			//expected
+		}
+		//Outdated datasets are skipped by the bulk update.
+		assertTrue(persistance.updateDatasetsState(Arrays.asList(dataset), DatasetState.DELETED).isEmpty());
+
+		PersistedDataset current = persistance.getDatasetByPath("/a");
+		assertEquals(DatasetState.STORED, current.getState());
+		assertEquals(Arrays.asList("action"), current.getClaims());
+		assertEquals(DatasetState.STORED_TO_DELETE,
+				persistance.updateDatasetState(current, DatasetState.STORED_TO_DELETE).getState());
+	}
+
+	public void testConcurrentClaimsDoNotOverlap() throws Exception {
+		final InMemoryDatasetPersistance persistance = new InMemoryDatasetPersistance();
+		int datasets = 2000;
+		List<PersistedDataset> toInsert = new ArrayList<>();
+		for (int i = 0; i < datasets; i++) {
+			toInsert.add(newDataset("/d" + i, DatasetState.STORED_TO_DELETE));
+		}
+		persistance.insertDatasets(toInsert);
+		//A claimed dataset is still in use, so it is not deleted.
+		persistance.addClaimToDataset(persistance.getDatasetByPath("/d0"), "action");
+
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<List<String>>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final String owner = "owner" + t;
+			futures.add(executor.submit(new Callable<List<String>>() {
+
+				@Override
+				public List<String> call() {
+					List<String> claimed = new ArrayList<>();
+					while (true) {
+						List<PersistedDataset> batch = persistance.claimDatasetsToDelete(7, owner, LEASE_MILLIS);
+						if (batch.isEmpty()) {
+							return claimed;
+						}
+						for (PersistedDataset dataset : batch) {
+							assertEquals(DatasetState.PROCESSING, dataset.getState());
+							claimed.add(dataset.getPath());
+						}
+					}
+				}
+			}));
+		}
+		Set<String> claimed = new HashSet<>();
+		int total = 0;
+		for (Future<List<String>> future : futures) {
+			List<String> paths = future.get();
+			claimed.addAll(paths);
+			total += paths.size();
+		}
+		executor.shutdown();
+
+		assertEquals(datasets - 1, total);
+		assertEquals(datasets - 1, claimed.size());
+		assertFalse(claimed.contains("/d0"));
+		assertEquals(DatasetState.STORED_TO_DELETE, persistance.getDatasetByPath("/d0").getState());
+	}
+
+	public void testRecoversFromTheJournal() throws Exception {
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryDatasetPersistance persistance = new InMemoryDatasetPersistance(journal);
+			persistance.insertDatasets(Arrays.asList(newDataset("/a", DatasetState.STORED),
+					newDataset("/b", DatasetState.STORED), newDataset("/c", DatasetState.STORED)));
+			persistance.addClaimsToDataset(persistance.getDatasetByPath("/a"), Arrays.asList("x", "y"));
+			persistance.updateDatasetState(persistance.getDatasetByPath("/b"), DatasetState.STORED_TO_DELETE);
+			persistance.updateDatasetSizeInMB(persistance.getDatasetByPath("/c"), 30.0);
+		}
+
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryDatasetPersistance persistance = new InMemoryDatasetPersistance(journal);
+			assertEquals(new HashSet<>(Arrays.asList("/a", "/c")),
+					new HashSet<>(persistance.getAllStoredDatasetPaths()));
+			PersistedDataset a = persistance.getDatasetByPath("/a");
+			assertEquals(Arrays.asList("x", "y"), a.getClaims());
+			assertEquals(2, a.getVersion());
+			assertEquals(Double.valueOf(30.0), persistance.getDatasetByPath("/c").getSizeInMB());
+			assertEquals(Arrays.asList("/b"), paths(persistance.getDatasetsToDelete(-1)));
+
+			//The claims are indexed again on recovery.
+			persistance.removeClaimFromDatasets("x");
+			assertEquals(Arrays.asList("y"), persistance.getDatasetByPath("/a").getClaims());
+		}
+		//One record per dataset after compaction, and the change
+		//made after it.
+		try (Journal journal = new Journal(this.file, false)) {
+			assertEquals(4, journal.read().size());
+		}
+	}
+
+	public void testRecoveryIgnoresATruncatedLastRecord() throws Exception {
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryDatasetPersistance persistance = new InMemoryDatasetPersistance(journal);
+			persistance.insertDataset(newDataset("/a", DatasetState.STORED));
+		}
+		//The process died while appending the next change.
+		try (FileOutputStream out = new FileOutputStream(this.file, true)) {
+			out.write("{\"docs\": [{\"version\": 2, \"state\": \"STOR".getBytes(StandardCharsets.UTF_8));
+		}
+
+		try (Journal journal = new Journal(this.file, false)) {
+			InMemoryDatasetPersistance persistance = new InMemoryDatasetPersistance(journal);
+			PersistedDataset a = persistance.getDatasetByPath("/a");
+			assertEquals(DatasetState.STORED, a.getState());
+			assertEquals(1, a.getVersion());
+
+			//Changes after recovery are appended to the compacted journal.
+			persistance.updateDatasetState(a, DatasetState.STORED_TO_DELETE);
+		}
+		try (Journal journal = new Journal(this.file, false)) {
+			assertEquals(DatasetState.STORED_TO_DELETE,
+					new InMemoryDatasetPersistance(journal).getDatasetByPath("/a").getState());
+		}
+	}
+
+	private static List<String> paths(List<PersistedDataset> datasets) {
+		List<String> toReturn = new ArrayList<>();
+		for (PersistedDataset dataset : datasets) {
+			toReturn.add(dataset.getPath());
+		}
+		return toReturn;
+	}
+}
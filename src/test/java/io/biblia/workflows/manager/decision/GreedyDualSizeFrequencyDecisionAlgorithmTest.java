@@ -0,0 +1,228 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import io.biblia.workflows.manager.dataset.DatasetState;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the queue kept by {@link GreedyDualSizeFrequencyDecisionAlgorithm}
+ * across calls is the one obtained by evaluating every stored dataset
+ * from scratch with {@link RecomputationCosts} on each call.
+ */
+public class GreedyDualSizeFrequencyDecisionAlgorithmTest extends TestCase {
+
+	private static final double DELTA = 1e-9;
+
+	/**
+	 * Evaluates all the stored datasets on each call, keeping only
+	 * the priorities and the inflation value across calls.
+	 */
+	private static class FromScratch {
+
+		private final Map<String, Double> bases = new HashMap<>();
+		private final Map<String, Integer> frequencies = new HashMap<>();
+		private final Map<String, Long> sequences = new HashMap<>();
+		private final Map<String, Double> priorities = new HashMap<>();
+		private final Map<String, Double> sizes = new HashMap<>();
+		private double inflation = 0;
+		private long nextSequence = 0;
+
+		/**
+		 * Returns the stored datasets in the order in which they would
+		 * be deleted.
+		 */
+		List<String> evaluate(SimplifiedWorkflowHistory history, List<PersistedDataset> storedDatasets,
+				double meanRuntime) {
+			Set<String> storedPaths = new HashSet<>();
+			for (PersistedDataset d : storedDatasets) {
+				storedPaths.add(d.getPath());
+			}
+			this.bases.keySet().retainAll(storedPaths);
+			this.frequencies.keySet().retainAll(storedPaths);
+			this.sequences.keySet().retainAll(storedPaths);
+			this.priorities.clear();
+			this.sizes.clear();
+
+			RecomputationCosts costs = new RecomputationCosts(history, storedPaths, meanRuntime);
+			List<String> order = new ArrayList<>();
+			for (PersistedDataset d : storedDatasets) {
+				String path = d.getPath();
+				int id = history.getPathId(path);
+				double sizeInMB = DecisionAlgorithms.sizeInMB(history, id, d);
+				int frequency = Math.max(1, history.getActionCount(id));
+				double cost = (SimplifiedWorkflowHistory.NO_ID != id) ? costs.getRecomputationTime(id) : 0;
+				double value = frequency * Math.max(cost, 1.0) / Math.max(sizeInMB, 1.0);
+				Integer previous = this.frequencies.get(path);
+				if (null == previous) {
+					this.sequences.put(path, this.nextSequence++);
+					this.bases.put(path, this.inflation);
+				}
+				else if (frequency > previous) {
+					this.bases.put(path, this.inflation);
+				}
+				this.frequencies.put(path, frequency);
+				this.priorities.put(path, this.bases.get(path) + value);
+				this.sizes.put(path, sizeInMB);
+				order.add(path);
+			}
+			Collections.sort(order, new Comparator<String>() {
+				@Override
+				public int compare(String a, String b) {
+					int c = Double.compare(priorities.get(a), priorities.get(b));
+					return (0 != c) ? c : Long.compare(sequences.get(a), sequences.get(b));
+				}
+			});
+			return order;
+		}
+
+		List<String> delete(List<String> order, long spaceToFree) {
+			List<String> toReturn = new ArrayList<>();
+			double spaceFreed = 0;
+			for (String path : order) {
+				if (spaceFreed >= spaceToFree) {
+					break;
+				}
+				this.inflation = this.priorities.get(path);
+				spaceFreed += this.sizes.get(path);
+				toReturn.add(path);
+				this.bases.remove(path);
+				this.frequencies.remove(path);
+				this.sequences.remove(path);
+			}
+			return toReturn;
+		}
+	}
+
+	private static PersistedDataset dataset(String path, double sizeInMB) {
+		return new PersistedDataset(path, sizeInMB, DatasetState.STORED, new Date(), 0,
+				new ArrayList<String>());
+	}
+
+	private static void addAction(SimplifiedWorkflowHistory history, Random random, int paths,
+			boolean knownRuntime) {
+		int n = random.nextInt(paths);
+		List<String> parents = new ArrayList<>();
+		for (int j = random.nextInt(3); j > 0; j--) {
+			int parent = random.nextInt(paths);
+			if (parent < n) {
+				parents.add("/p" + parent);
+			}
+		}
+		Date start = null;
+		Date end = null;
+		if (knownRuntime) {
+			start = new Date(0);
+			end = new Date(1000L * (1 + random.nextInt(100)));
+		}
+		history.addAction("/p" + n, parents, 1L, (double) (1 + random.nextInt(50)), start, end);
+	}
+
+	private void checkAgainstFromScratch(long seed, int capacity, int paths, int unknownRuntimeOneIn) {
+		Random random = new Random(seed);
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(capacity);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		GreedyDualSizeFrequencyDecisionAlgorithm algorithm = new GreedyDualSizeFrequencyDecisionAlgorithm(tracker);
+		FromScratch fromScratch = new FromScratch();
+		Map<String, PersistedDataset> stored = new HashMap<>();
+		List<String> storedOrder = new ArrayList<>();
+
+		for (int cycle = 0; cycle < 200; cycle++) {
+			for (int i = 0; i < 10; i++) {
+				addAction(history, random, paths, 0 != random.nextInt(unknownRuntimeOneIn));
+			}
+
+			//Datasets that start being stored, and datasets deleted
+			//by someone else.
+			for (int i = 0; i < 4; i++) {
+				String path = "/p" + random.nextInt(paths);
+				if (!stored.containsKey(path)) {
+					stored.put(path, dataset(path, 1 + random.nextInt(50)));
+					storedOrder.add(path);
+				}
+			}
+			if (random.nextInt(5) == 0 && !storedOrder.isEmpty()) {
+				stored.remove(storedOrder.remove(random.nextInt(storedOrder.size())));
+			}
+			//Changes the order of the list, which must not matter
+			//for the datasets already in the queue.
+			if (random.nextInt(5) == 0) {
+				Collections.shuffle(storedOrder, random);
+			}
+			List<PersistedDataset> storedDatasets = new ArrayList<>();
+			for (String path : storedOrder) {
+				storedDatasets.add(stored.get(path));
+			}
+
+			long spaceToFree = (cycle % 7 == 6) ? random.nextInt(200) : 0;
+			List<String> deleted = algorithm.toDelete(history, storedDatasets, spaceToFree);
+
+			List<String> expectedOrder = fromScratch.evaluate(history, storedDatasets, tracker.getMeanRuntime());
+			List<String> expectedDeleted = fromScratch.delete(expectedOrder, spaceToFree);
+			assertEquals("Deleted on cycle " + cycle, expectedDeleted, deleted);
+			assertEquals("Queue on cycle " + cycle,
+					expectedOrder.subList(deleted.size(), expectedOrder.size()), algorithm.getQueuedPaths());
+
+			for (String path : deleted) {
+				stored.remove(path);
+				storedOrder.remove(path);
+			}
+			Set<String> storedPaths = new LinkedHashSet<>(storedOrder);
+			RecomputationCosts costs = new RecomputationCosts(history, storedPaths, tracker.getMeanRuntime());
+			for (String path : storedPaths) {
+				int id = history.getPathId(path);
+				if (SimplifiedWorkflowHistory.NO_ID != id && 0 < history.getActionCount(id)) {
+					assertEquals("Cost of " + path + " on cycle " + cycle, costs.getRecomputationTime(id),
+							tracker.getRecomputationTime(path), DELTA);
+				}
+			}
+		}
+	}
+
+	public void testQueueMatchesEvaluationFromScratch() {
+		checkAgainstFromScratch(1, 1000, 60, 1000);
+	}
+
+	public void testQueueMatchesEvaluationFromScratchWithEvictions() {
+		checkAgainstFromScratch(2, 50, 120, 4);
+	}
+
+	public void testQueueMatchesEvaluationFromScratchWhenTheLogOverflows() {
+		//A history of capacity 3 remembers only 6 changes, fewer than
+		//those of a cycle, so the costs are forgotten on each call.
+		checkAgainstFromScratch(3, 3, 40, 3);
+	}
+
+	public void testDeletesByIncreasingPriorityAndInflates() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		history.addAction("/cheap", null, 1L, 10.0, new Date(0), new Date(10000));
+		history.addAction("/old", null, 1L, 10.0, new Date(0), new Date(12000));
+		GreedyDualSizeFrequencyDecisionAlgorithm algorithm = new GreedyDualSizeFrequencyDecisionAlgorithm();
+		List<PersistedDataset> storedDatasets = new ArrayList<>();
+		storedDatasets.add(dataset("/old", 10.0));
+		storedDatasets.add(dataset("/cheap", 10.0));
+
+		//Priorities are 1.0 for /cheap and 1.2 for /old.
+		assertEquals(Collections.singletonList("/cheap"), algorithm.toDelete(history, storedDatasets, 5L));
+		assertEquals(Collections.singletonList("/old"), algorithm.getQueuedPaths());
+
+		//A new dataset starts from the priority of /cheap, so its
+		//priority is 1.5 and /old is deleted first.
+		history.addAction("/new", null, 1L, 10.0, new Date(0), new Date(5000));
+		storedDatasets.remove(1);
+		storedDatasets.add(dataset("/new", 10.0));
+		assertEquals(Collections.singletonList("/old"), algorithm.toDelete(history, storedDatasets, 5L));
+		assertEquals(Collections.singletonList("/new"), algorithm.getQueuedPaths());
+	}
+}
@@ -0,0 +1,163 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import io.biblia.workflows.manager.dataset.DatasetState;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+import junit.framework.TestCase;
+
+/**
+ * Checks the solutions of {@link KnapsackDecisionAlgorithm} against
+ * the space to free and against a brute force search.
+ */
+public class KnapsackDecisionAlgorithmTest extends TestCase {
+
+	private static final double DELTA = 1e-9;
+
+	private static double total(double[] items, boolean[] chosen) {
+		double total = 0;
+		for (int i = 0; i < items.length; ++i) {
+			if (chosen[i]) {
+				total += items[i];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the minimum total value of the items whose weights add
+	 * up to at least the target, trying all the sets of items.
+	 */
+	private static double bruteForce(double[] weights, double[] values, double target) {
+		double best = Double.POSITIVE_INFINITY;
+		for (int set = 0; set < (1 << weights.length); ++set) {
+			double weight = 0;
+			double value = 0;
+			for (int i = 0; i < weights.length; ++i) {
+				if (0 != (set & (1 << i))) {
+					weight += weights[i];
+					value += values[i];
+				}
+			}
+			if (weight >= target && value < best) {
+				best = value;
+			}
+		}
+		return best;
+	}
+
+	private static PersistedDataset dataset(String path, double sizeInMB) {
+		return new PersistedDataset(path, sizeInMB, DatasetState.STORED, new Date(), 0,
+				new ArrayList<String>());
+	}
+
+	public void testSolutionsFreeAtLeastTheTarget() {
+		Random random = new Random(5);
+		for (int round = 0; round < 500; round++) {
+			int n = 1 + random.nextInt(30);
+			double[] weights = new double[n];
+			double[] values = new double[n];
+			double totalWeight = 0;
+			for (int i = 0; i < n; ++i) {
+				weights[i] = 0.1 + random.nextDouble() * 100;
+				values[i] = random.nextDouble() * 1000;
+				totalWeight += weights[i];
+			}
+			//Large targets are divided in units of more than 1 MB.
+			double target = (random.nextBoolean() ? 1 : 1000) * random.nextDouble() * totalWeight;
+
+			boolean[] exact = KnapsackDecisionAlgorithm.solveExactly(weights, values, target);
+			if (null != exact) {
+				assertTrue(total(weights, exact) >= target);
+			}
+			boolean[] greedy = KnapsackDecisionAlgorithm.solveGreedily(weights, values, target);
+			if (target <= totalWeight) {
+				assertTrue(total(weights, greedy) >= target);
+			}
+		}
+	}
+
+	public void testExactSolutionIsOptimal() {
+		Random random = new Random(7);
+		for (int round = 0; round < 500; round++) {
+			int n = 1 + random.nextInt(10);
+			double[] weights = new double[n];
+			double[] values = new double[n];
+			int totalWeight = 0;
+			for (int i = 0; i < n; ++i) {
+				weights[i] = 1 + random.nextInt(20);
+				values[i] = random.nextInt(100);
+				totalWeight += weights[i];
+			}
+			//Integer weights and targets are not rounded, so the
+			//solution must be the optimal one.
+			double target = 1 + random.nextInt(totalWeight);
+
+			boolean[] exact = KnapsackDecisionAlgorithm.solveExactly(weights, values, target);
+			assertNotNull(exact);
+			assertTrue(total(weights, exact) >= target);
+			assertEquals(bruteForce(weights, values, target), total(values, exact), DELTA);
+		}
+	}
+
+	public void testExactSolutionIsBetterThanTheGreedyOne() {
+		double[] weights = {10, 9, 2};
+		double[] values = {30, 18, 8};
+
+		assertTrue(Arrays.equals(new boolean[] {true, false, false},
+				KnapsackDecisionAlgorithm.solveGreedily(weights, values, 10)));
+		assertTrue(Arrays.equals(new boolean[] {false, true, true},
+				KnapsackDecisionAlgorithm.solveExactly(weights, values, 10)));
+	}
+
+	public void testNoExactSolutionAfterRoundingDown() {
+		//Each weight is rounded down to 0 units of 1 MB.
+		double[] weights = {0.6, 0.6, 0.6};
+		double[] values = {1, 2, 3};
+		assertNull(KnapsackDecisionAlgorithm.solveExactly(weights, values, 1));
+		assertTrue(Arrays.equals(new boolean[] {true, true, false},
+				KnapsackDecisionAlgorithm.solveGreedily(weights, values, 1)));
+	}
+
+	public void testFallsBackToGreedyWhenThereIsNoExactSolution() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		history.addAction("/a", null, 1L, 0.6, new Date(0), new Date(1000));
+		history.addAction("/b", null, 1L, 0.6, new Date(0), new Date(2000));
+		history.addAction("/c", null, 1L, 0.6, new Date(0), new Date(3000));
+		List<PersistedDataset> storedDatasets = Arrays.asList(dataset("/c", 0.6), dataset("/b", 0.6),
+				dataset("/a", 0.6));
+
+		List<String> toDelete = new KnapsackDecisionAlgorithm().toDelete(history, storedDatasets, 1L);
+		assertEquals(Arrays.asList("/b", "/a"), toDelete);
+	}
+
+	public void testPicksTheCheapestDatasetsThatFreeTheSpace() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		history.addAction("/a", null, 1L, 10.0, new Date(0), new Date(30000));
+		history.addAction("/b", null, 1L, 9.0, new Date(0), new Date(18000));
+		history.addAction("/c", null, 1L, 2.0, new Date(0), new Date(8000));
+		List<PersistedDataset> storedDatasets = Arrays.asList(dataset("/a", 10.0), dataset("/b", 9.0),
+				dataset("/c", 2.0));
+
+		assertEquals(Arrays.asList("/b", "/c"),
+				new KnapsackDecisionAlgorithm().toDelete(history, storedDatasets, 10L));
+		assertTrue(new KnapsackDecisionAlgorithm().toDelete(history, storedDatasets, 0L).isEmpty());
+	}
+
+	public void testDeletesEverythingWhenItIsNotEnough() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		history.addAction("/a", null, 1L, 10.0, new Date(0), new Date(30000));
+		List<PersistedDataset> storedDatasets = Arrays.asList(dataset("/a", 10.0), dataset("/b", 5.0),
+				dataset("/empty", 0.0));
+
+		//Datasets without a size free nothing, so they are kept.
+		assertEquals(Arrays.asList("/a", "/b"),
+				new KnapsackDecisionAlgorithm().toDelete(history, storedDatasets, 15L));
+		assertEquals(Arrays.asList("/a", "/b"),
+				new KnapsackDecisionAlgorithm().toDelete(history, storedDatasets, 100L));
+	}
+}
@@ -0,0 +1,135 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import io.biblia.workflows.manager.dataset.DatasetState;
+import io.biblia.workflows.manager.dataset.PersistedDataset;
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link LineageAwareDecisionAlgorithm} keeps the datasets
+ * that shield expensive ancestors, and that the costs it updates after
+ * each deletion are the ones computed from scratch.
+ */
+public class LineageAwareDecisionAlgorithmTest extends TestCase {
+
+	private static final double DELTA = 1e-9;
+
+	private static void addAction(SimplifiedWorkflowHistory history, String path,
+			List<String> parents, double sizeInMB, long runtimeInSeconds) {
+		history.addAction(path, parents, 1L, sizeInMB, new Date(0), new Date(runtimeInSeconds * 1000));
+	}
+
+	private static PersistedDataset dataset(String path, double sizeInMB) {
+		return new PersistedDataset(path, sizeInMB, DatasetState.STORED, new Date(), 0,
+				new ArrayList<String>());
+	}
+
+	private static LineageAwareDecisionAlgorithm.Lineage newLineage(SimplifiedWorkflowHistory history,
+			Set<Integer> storedIds) {
+		LineageAwareDecisionAlgorithm.Lineage lineage = new LineageAwareDecisionAlgorithm.Lineage(history,
+				new RecomputationCosts(history, Collections.<String>emptySet()));
+		for (int id : storedIds) {
+			lineage.store(id, history.getActionSizeInMB(id));
+		}
+		return lineage;
+	}
+
+	public void testKeepsACheapDatasetThatShieldsAnExpensiveChain() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/raw", null, 10.0, 1000);
+		addAction(history, "/clean", Arrays.asList("/raw"), 10.0, 1000);
+		addAction(history, "/summary", Arrays.asList("/clean"), 10.0, 1);
+		addAction(history, "/other", null, 10.0, 50);
+		List<PersistedDataset> storedDatasets = Arrays.asList(dataset("/summary", 10.0),
+				dataset("/other", 10.0));
+
+		//Recomputing /summary takes 2001 seconds, /other only 50.
+		assertEquals(Collections.singletonList("/other"),
+				new LineageAwareDecisionAlgorithm().toDelete(history, storedDatasets, 10L));
+	}
+
+	public void testStoredAncestorStopsTheRecomputation() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/raw", null, 10.0, 1000);
+		addAction(history, "/clean", Arrays.asList("/raw"), 10.0, 1000);
+		addAction(history, "/summary", Arrays.asList("/clean"), 10.0, 1);
+		addAction(history, "/other", null, 10.0, 50);
+		List<PersistedDataset> storedDatasets = Arrays.asList(dataset("/summary", 10.0),
+				dataset("/other", 10.0), dataset("/clean", 10.0));
+
+		//With /clean stored, /summary takes 1 second to recompute,
+		//and it is cheaper to delete than /other.
+		assertEquals(Collections.singletonList("/summary"),
+				new LineageAwareDecisionAlgorithm().toDelete(history, storedDatasets, 10L));
+	}
+
+	public void testDeletesDatasetsNotInTheHistoryFirst() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/a", null, 10.0, 1);
+		List<PersistedDataset> storedDatasets = Arrays.asList(dataset("/a", 10.0),
+				dataset("/unknown", 10.0));
+
+		assertEquals(Collections.singletonList("/unknown"),
+				new LineageAwareDecisionAlgorithm().toDelete(history, storedDatasets, 5L));
+	}
+
+	public void testDeletionUpdatesMatchAComputationFromScratch() {
+		Random random = new Random(13);
+		for (int round = 0; round < 50; round++) {
+			SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(60);
+			for (int i = 0; i < 100; i++) {
+				int n = random.nextInt(40);
+				List<String> parents = new ArrayList<>();
+				for (int j = random.nextInt(4); j > 0; j--) {
+					int parent = random.nextInt(40);
+					if (parent < n) {
+						parents.add("/p" + parent);
+					}
+				}
+				addAction(history, "/p" + n, parents, 1 + random.nextInt(20), 1 + random.nextInt(100));
+			}
+			int[] actions = history.getActionIds();
+			Set<Integer> storedIds = new HashSet<>();
+			for (int id : actions) {
+				if (random.nextInt(3) != 0) {
+					storedIds.add(id);
+				}
+			}
+
+			LineageAwareDecisionAlgorithm.Lineage lineage = newLineage(history, storedIds);
+			List<Integer> toDelete = new ArrayList<>(storedIds);
+			Collections.shuffle(toDelete, random);
+			for (int deleted : toDelete) {
+				double[] before = new double[history.getPathIdBound()];
+				for (int id : storedIds) {
+					before[id] = lineage.getRecomputationTime(id) * lineage.getDemand(id);
+				}
+
+				List<Integer> affected = lineage.delete(deleted);
+				storedIds.remove(deleted);
+				LineageAwareDecisionAlgorithm.Lineage fromScratch = newLineage(history, storedIds);
+				for (int id : actions) {
+					assertEquals("rc of " + history.getPath(id), fromScratch.getRecomputationTime(id),
+							lineage.getRecomputationTime(id), DELTA);
+					assertEquals("D of " + history.getPath(id), fromScratch.getDemand(id),
+							lineage.getDemand(id), DELTA);
+				}
+				//The stored datasets whose cost changed are queued again.
+				for (int id : storedIds) {
+					double after = lineage.getRecomputationTime(id) * lineage.getDemand(id);
+					if (Math.abs(after - before[id]) > DELTA) {
+						assertTrue(history.getPath(id) + " is affected", affected.contains(id));
+					}
+				}
+			}
+		}
+	}
+}
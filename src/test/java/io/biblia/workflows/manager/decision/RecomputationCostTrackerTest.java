@@ -0,0 +1,231 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the times kept by {@link RecomputationCostTracker}
+ * across changes of the history and of the stored datasets are the
+ * ones that {@link RecomputationCosts} computes from scratch.
+ */
+public class RecomputationCostTrackerTest extends TestCase {
+
+	private static final double DELTA = 1e-9;
+
+	private static void addAction(SimplifiedWorkflowHistory history, String path,
+			List<String> parents, long runtimeInSeconds) {
+		history.addAction(path, parents, 1L, 1.0, new Date(0), new Date(runtimeInSeconds * 1000));
+	}
+
+	private static void addActionWithUnknownRuntime(SimplifiedWorkflowHistory history, String path,
+			List<String> parents) {
+		history.addAction(path, parents, 1L, 1.0, null, null);
+	}
+
+	/**
+	 * Checks the time of every action of the history against a
+	 * computation from scratch with the mean used by the tracker.
+	 */
+	private static void assertSameTimes(SimplifiedWorkflowHistory history, Set<String> storedPaths,
+			RecomputationCostTracker tracker) {
+		RecomputationCosts costs = new RecomputationCosts(history, storedPaths, tracker.getMeanRuntime());
+		for (int id : history.getActionIds()) {
+			String path = history.getPath(id);
+			assertEquals("Time of " + path, costs.getRecomputationTime(id),
+					tracker.getRecomputationTime(path), DELTA);
+		}
+	}
+
+	public void testChainAddsTheTimesOfTheParentsThatAreNotStored() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/a", null, 10);
+		addAction(history, "/b", Arrays.asList("/a"), 20);
+		addAction(history, "/c", Arrays.asList("/b"), 30);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+
+		assertTrue(tracker.update(history));
+		assertEquals(60.0, tracker.getRecomputationTime("/c"), DELTA);
+		assertEquals(30.0, tracker.getRecomputationTime("/b"), DELTA);
+	}
+
+	public void testStoringADatasetForgetsTheTimesOfItsChildren() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/a", null, 10);
+		addAction(history, "/b", Arrays.asList("/a"), 20);
+		addAction(history, "/c", Arrays.asList("/b"), 30);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		tracker.update(history);
+		assertEquals(60.0, tracker.getRecomputationTime("/c"), DELTA);
+		tracker.drainChanged();
+
+		tracker.setStored("/b", true);
+		assertEquals(Collections.singleton("/c"), tracker.drainChanged());
+		assertEquals(30.0, tracker.getRecomputationTime("/c"), DELTA);
+
+		//Setting the same value again changes nothing.
+		tracker.setStored("/b", true);
+		assertTrue(tracker.drainChanged().isEmpty());
+
+		tracker.setStored("/b", false);
+		assertEquals(Collections.singleton("/c"), tracker.drainChanged());
+		assertEquals(60.0, tracker.getRecomputationTime("/c"), DELTA);
+	}
+
+	public void testChangesStopAtStoredDatasets() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/a", null, 10);
+		addAction(history, "/b", Arrays.asList("/a"), 20);
+		addAction(history, "/c", Arrays.asList("/b"), 30);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		tracker.update(history);
+		tracker.setStored("/b", true);
+		assertEquals(30.0, tracker.getRecomputationTime("/c"), DELTA);
+		tracker.drainChanged();
+
+		//A new execution of /a changes /a and /b, which recomputes it,
+		//but /c only recomputes /b, which is stored.
+		addAction(history, "/a", null, 11);
+		assertFalse(tracker.update(history));
+		assertEquals(new HashSet<>(Arrays.asList("/a", "/b")), tracker.drainChanged());
+		assertEquals(31.0, tracker.getRecomputationTime("/b"), DELTA);
+		assertEquals(30.0, tracker.getRecomputationTime("/c"), DELTA);
+
+		tracker.setStored("/b", false);
+		assertEquals(61.0, tracker.getRecomputationTime("/c"), DELTA);
+	}
+
+	public void testEvictedParentsTakeTheMeanRuntime() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(2);
+		addAction(history, "/a", null, 10);
+		addAction(history, "/b", Arrays.asList("/a"), 20);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		tracker.update(history);
+		assertEquals(30.0, tracker.getRecomputationTime("/b"), DELTA);
+
+		//Evicts /a, which stays in the history as the parent of /b.
+		addAction(history, "/c", null, 22);
+		tracker.update(history);
+		assertEquals(0, history.getActionCount(history.getPathId("/a")));
+		assertEquals(20.0 + tracker.getMeanRuntime(), tracker.getRecomputationTime("/b"), DELTA);
+		assertSameTimes(history, Collections.<String>emptySet(), tracker);
+	}
+
+	public void testMeanIsOnlyUpdatedWhenItDrifts() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/a", null, 100);
+		addAction(history, "/b", null, 100);
+		addActionWithUnknownRuntime(history, "/c", Arrays.asList("/a"));
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		tracker.update(history);
+		assertEquals(100.0, tracker.getMeanRuntime(), DELTA);
+		assertEquals(200.0, tracker.getRecomputationTime("/c"), DELTA);
+
+		//The mean goes to 105, within 10% of 100.
+		addAction(history, "/d", null, 115);
+		assertFalse(tracker.update(history));
+		assertEquals(100.0, tracker.getMeanRuntime(), DELTA);
+		assertEquals(200.0, tracker.getRecomputationTime("/c"), DELTA);
+
+		//The mean goes to 80, more than 10% away from 100.
+		addAction(history, "/e", null, 5);
+		assertTrue(tracker.update(history));
+		assertEquals(80.0, tracker.getMeanRuntime(), DELTA);
+		assertEquals(180.0, tracker.getRecomputationTime("/c"), DELTA);
+	}
+
+	public void testModifiedPathsLogIsBounded() {
+		//The log of a history of capacity 2 keeps 4 changes.
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(2);
+		long start = history.getModificationCount();
+		addAction(history, "/a", null, 10);
+		assertEquals(Arrays.asList("/a", "/a"), history.getPathsModifiedSince(start));
+
+		long afterA = history.getModificationCount();
+		addAction(history, "/b", null, 10);
+		assertEquals(Arrays.asList("/b", "/b"), history.getPathsModifiedSince(afterA));
+		assertEquals(Arrays.asList("/a", "/a", "/b", "/b"), history.getPathsModifiedSince(start));
+		assertEquals(Collections.<String>emptyList(),
+				history.getPathsModifiedSince(history.getModificationCount()));
+
+		//Adding /c evicts /a, which leaves the history.
+		long afterB = history.getModificationCount();
+		addAction(history, "/c", null, 10);
+		assertEquals(Arrays.asList("/c", "/c", "/a", "/a"), history.getPathsModifiedSince(afterB));
+		assertNull(history.getPathsModifiedSince(afterA));
+		assertNull(history.getPathsModifiedSince(start));
+	}
+
+	public void testTrackerStartsOverWhenTheLogDoesNotGoBackFarEnough() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(2);
+		addAction(history, "/a", null, 10);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		tracker.update(history);
+		tracker.getRecomputationTime("/a");
+		for (int i = 0; i < 10; i++) {
+			addAction(history, "/p" + i, (i > 0) ? Arrays.asList("/p" + (i - 1)) : null, 10 + i);
+		}
+		assertTrue(tracker.update(history));
+		assertSameTimes(history, Collections.<String>emptySet(), tracker);
+	}
+
+	public void testTrackerStartsOverWithAnotherHistory() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		addAction(history, "/a", null, 10);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		tracker.update(history);
+		assertFalse(tracker.update(history));
+
+		SimplifiedWorkflowHistory other = new SimplifiedWorkflowHistory();
+		addAction(other, "/a", null, 40);
+		assertTrue(tracker.update(other));
+		assertEquals(40.0, tracker.getRecomputationTime("/a"), DELTA);
+	}
+
+	/**
+	 * Random actions, evictions and stored datasets: after every
+	 * change, the kept times are the ones computed from scratch.
+	 */
+	public void testRandomChangesMatchAComputationFromScratch() {
+		java.util.Random random = new java.util.Random(11);
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(100);
+		RecomputationCostTracker tracker = new RecomputationCostTracker();
+		Set<String> storedPaths = new HashSet<>();
+		for (int step = 0; step < 300; step++) {
+			for (int i = 0; i < 5; i++) {
+				int n = random.nextInt(150);
+				List<String> parents = new java.util.ArrayList<>();
+				for (int j = random.nextInt(3); j > 0; j--) {
+					int parent = random.nextInt(150);
+					if (parent < n) {
+						parents.add("/p" + parent);
+					}
+				}
+				if (random.nextInt(4) == 0) {
+					addActionWithUnknownRuntime(history, "/p" + n, parents);
+				}
+				else {
+					addAction(history, "/p" + n, parents, 1 + random.nextInt(100));
+				}
+			}
+			tracker.update(history);
+			for (int i = 0; i < 3; i++) {
+				String path = "/p" + random.nextInt(150);
+				boolean stored = random.nextBoolean();
+				tracker.setStored(path, stored);
+				if (stored) {
+					storedPaths.add(path);
+				}
+				else {
+					storedPaths.remove(path);
+				}
+			}
+			assertSameTimes(history, storedPaths, tracker);
+		}
+	}
+}
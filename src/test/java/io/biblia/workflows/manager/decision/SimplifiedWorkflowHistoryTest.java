@@ -0,0 +1,241 @@
+package io.biblia.workflows.manager.decision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the eviction of the {@link SimplifiedWorkflowHistory}, and
+ * that the ids of the paths are kept while they are referenced and
+ * are reused once released without leaking data.
+ */
+public class SimplifiedWorkflowHistoryTest extends TestCase {
+
+	private static final double DELTA = 1e-9;
+
+	private static void addAction(SimplifiedWorkflowHistory history, String path, List<String> parents,
+			Double sizeInMB) {
+		history.addAction(path, parents, 1L, sizeInMB, new Date(1000), new Date(2000));
+	}
+
+	private static List<String> entryPaths(SimplifiedWorkflowHistory history) {
+		List<String> toReturn = new ArrayList<>();
+		for (int i = 0; i < history.size(); ++i) {
+			toReturn.add(history.getPath(history.getEntryPathId(i)));
+		}
+		return toReturn;
+	}
+
+	private static List<String> parentPaths(SimplifiedWorkflowHistory history, String path) {
+		List<String> toReturn = new ArrayList<>();
+		for (int parent : history.getActionParents(history.getPathId(path))) {
+			toReturn.add(history.getPath(parent));
+		}
+		return toReturn;
+	}
+
+	public void testEvictsTheOldestActions() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(3);
+		for (int i = 0; i < 5; i++) {
+			history.addAction("/p" + i, null, (long) i, 1.0, null, null);
+		}
+		assertEquals(3, history.size());
+		assertEquals(Arrays.asList("/p2", "/p3", "/p4"), entryPaths(history));
+		assertEquals(2L, history.getEntryWorkflowId(0));
+		assertEquals(4L, history.getEntryWorkflowId(2));
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/p0"));
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/p1"));
+		assertEquals(3, history.getActionIds().length);
+	}
+
+	public void testRepeatedActionKeepsTheDataOfTheLastExecution() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(3);
+		history.addAction("/a", Arrays.asList("/x"), 1L, 10.0, new Date(1000), new Date(2000));
+		history.addAction("/a", Arrays.asList("/y"), 2L, 20.0, new Date(3000), new Date(5000));
+		//An execution without a size is counted, but keeps the data.
+		history.addAction("/a", Arrays.asList("/z"), 3L, null, null, null);
+		int id = history.getPathId("/a");
+		assertEquals(3, history.getActionCount(id));
+		assertEquals(20.0, history.getActionSizeInMB(id), DELTA);
+		assertEquals(3000L, history.getActionStartTime(id));
+		assertEquals(5000L, history.getActionEndTime(id));
+		assertEquals(2L, history.getActionWorkflowId(id));
+		assertEquals(Arrays.asList("/z"), parentPaths(history, "/a"));
+		//The parents of previous executions are released.
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/x"));
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/y"));
+
+		//Evicting the oldest execution keeps the data.
+		addAction(history, "/b", null, 1.0);
+		assertEquals(2, history.getActionCount(id));
+		assertEquals(20.0, history.getActionSizeInMB(id), DELTA);
+	}
+
+	public void testParentKeepsItsIdUntilItsChildIsEvicted() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(2);
+		addAction(history, "/parent", null, 5.0);
+		addAction(history, "/child", Arrays.asList("/parent"), 1.0);
+		int parentId = history.getPathId("/parent");
+
+		//Evicts /parent, which is still the parent of /child.
+		addAction(history, "/other", null, 1.0);
+		assertEquals(parentId, history.getPathId("/parent"));
+		assertEquals(0, history.getActionCount(parentId));
+		assertTrue(Double.isNaN(history.getActionSizeInMB(parentId)));
+		assertEquals(SimplifiedWorkflowHistory.UNKNOWN, history.getActionStartTime(parentId));
+		assertEquals(SimplifiedWorkflowHistory.UNKNOWN, history.getActionEndTime(parentId));
+		assertEquals(SimplifiedWorkflowHistory.UNKNOWN, history.getActionWorkflowId(parentId));
+		assertEquals(0, history.getActionParents(parentId).length);
+		assertFalse(Arrays.asList(toIntegers(history.getActionIds())).contains(parentId));
+		assertEquals(Arrays.asList("/parent"), parentPaths(history, "/child"));
+
+		//Evicts /child, which releases /parent.
+		addAction(history, "/last", null, 1.0);
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/child"));
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/parent"));
+	}
+
+	public void testRecycledIdsDoNotKeepTheDataOfThePreviousPath() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(1);
+		history.addAction("/old", Arrays.asList("/oldParent"), 7L, 5.0, new Date(1000), new Date(2000));
+		int oldId = history.getPathId("/old");
+		int oldParentId = history.getPathId("/oldParent");
+
+		//Evicts /old, which releases both ids.
+		addAction(history, "/b", null, 1.0);
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/old"));
+		assertEquals(SimplifiedWorkflowHistory.NO_ID, history.getPathId("/oldParent"));
+		int bound = history.getPathIdBound();
+
+		//The new paths take the released ids, without their data.
+		history.addAction("/new", Arrays.asList("/newParent"), null, null, null, null);
+		int newId = history.getPathId("/new");
+		int newParentId = history.getPathId("/newParent");
+		assertEquals(new HashSet<>(Arrays.asList(oldId, oldParentId)),
+				new HashSet<>(Arrays.asList(newId, newParentId)));
+		assertEquals(bound, history.getPathIdBound());
+		assertEquals("/new", history.getPath(newId));
+		assertEquals(1, history.getActionCount(newId));
+		assertTrue(Double.isNaN(history.getActionSizeInMB(newId)));
+		assertEquals(SimplifiedWorkflowHistory.UNKNOWN, history.getActionStartTime(newId));
+		assertEquals(SimplifiedWorkflowHistory.UNKNOWN, history.getActionEndTime(newId));
+		assertEquals(SimplifiedWorkflowHistory.UNKNOWN, history.getActionWorkflowId(newId));
+		assertEquals(Arrays.asList("/newParent"), parentPaths(history, "/new"));
+		assertEquals(0, history.getActionCount(newParentId));
+		assertEquals(0, history.getActionParents(newParentId).length);
+	}
+
+	public void testGrowsBeyondTheInitialCapacity() {
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory();
+		for (int i = 0; i < 500; i++) {
+			addAction(history, "/p" + i, (i > 0) ? Collections.singletonList("/p" + (i - 1)) : null,
+					(double) i);
+		}
+		assertEquals(500, history.size());
+		assertEquals(500, history.getActionIds().length);
+		for (int i = 0; i < 500; i++) {
+			int id = history.getPathId("/p" + i);
+			assertEquals(id, history.getEntryPathId(i));
+			assertEquals(i, history.getActionSizeInMB(id), DELTA);
+			assertEquals((i > 0) ? Collections.singletonList("/p" + (i - 1)) : Collections.<String>emptyList(),
+					parentPaths(history, "/p" + i));
+		}
+
+		//Once full, the ids are reused instead of growing.
+		SimplifiedWorkflowHistory bounded = new SimplifiedWorkflowHistory(50);
+		for (int i = 0; i < 5000; i++) {
+			addAction(bounded, "/p" + i, (i > 0) ? Collections.singletonList("/p" + (i - 1)) : null,
+					(double) i);
+		}
+		assertEquals(50, bounded.size());
+		assertTrue(bounded.getPathIdBound() <= 2 * (50 + 1));
+		for (int i = 0; i < 50; i++) {
+			assertEquals("/p" + (4950 + i), bounded.getPath(bounded.getEntryPathId(i)));
+		}
+	}
+
+	/**
+	 * Random actions in a small history: after each one, the history
+	 * holds the data of the last actions added, kept by a model
+	 * that replays them.
+	 */
+	public void testRandomActionsMatchTheLastActionsAdded() {
+		Random random = new Random(17);
+		int capacity = 20;
+		SimplifiedWorkflowHistory history = new SimplifiedWorkflowHistory(capacity);
+		List<String> entries = new ArrayList<>();
+		Map<String, Integer> counts = new HashMap<>();
+		Map<String, List<String>> lastParents = new HashMap<>();
+		Map<String, Double> lastSizes = new HashMap<>();
+		for (int step = 0; step < 3000; step++) {
+			String path = "/p" + random.nextInt(40);
+			List<String> actionParents = new ArrayList<>();
+			for (int j = random.nextInt(3); j > 0; j--) {
+				actionParents.add("/p" + random.nextInt(40));
+			}
+			Double sizeInMB = (random.nextInt(4) == 0) ? null : (double) random.nextInt(100);
+			addAction(history, path, actionParents, sizeInMB);
+
+			//The size is kept while the action is in the history, even
+			//after the execution that had it is evicted.
+			if (!counts.containsKey(path)) {
+				counts.put(path, 0);
+				lastSizes.remove(path);
+			}
+			counts.put(path, counts.get(path) + 1);
+			lastParents.put(path, actionParents);
+			if (null != sizeInMB) {
+				lastSizes.put(path, sizeInMB);
+			}
+			entries.add(path);
+			if (entries.size() > capacity) {
+				String evicted = entries.remove(0);
+				counts.put(evicted, counts.get(evicted) - 1);
+				if (0 == counts.get(evicted)) {
+					counts.remove(evicted);
+					lastParents.remove(evicted);
+				}
+			}
+			Set<String> referenced = new HashSet<>(counts.keySet());
+			for (List<String> p : lastParents.values()) {
+				referenced.addAll(p);
+			}
+
+			assertEquals(entries, entryPaths(history));
+			assertEquals(counts.size(), history.getActionIds().length);
+			for (int i = 0; i < 40; i++) {
+				String p = "/p" + i;
+				int id = history.getPathId(p);
+				if (!referenced.contains(p)) {
+					assertEquals(p, SimplifiedWorkflowHistory.NO_ID, id);
+					continue;
+				}
+				assertEquals(p, history.getPath(id));
+				Integer count = counts.get(p);
+				assertEquals(p, (null != count) ? count.intValue() : 0, history.getActionCount(id));
+				Double size = (null != count) ? lastSizes.get(p) : null;
+				assertEquals(p, (null != size) ? size : Double.NaN, history.getActionSizeInMB(id), DELTA);
+				List<String> expectedParents = lastParents.get(p);
+				assertEquals(p, (null != expectedParents) ? expectedParents : Collections.<String>emptyList(),
+						parentPaths(history, p));
+			}
+		}
+	}
+
+	private static Integer[] toIntegers(int[] ids) {
+		Integer[] toReturn = new Integer[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			toReturn[i] = ids[i];
+		}
+		return toReturn;
+	}
+}